@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xc.mst.dao.DBConnectionResetException;
+import xc.mst.dao.MySqlConnectionManager;
+import xc.mst.dao.processing.DefaultJobDAO;
+
+/**
+ * Legacy DAO reads per second with several threads reading at once, the way the scheduler,
+ * the services and the web pages do.
+ *
+ * sharedConnection is how the DAOs used to run a statement: a lock per statement and the one
+ * connection MySqlConnectionManager holds.  pooledConnection is DefaultJobDAO, which leases each
+ * thread its own connection from the pool.
+ *
+ * The DataSource is a BasicDataSource set up like the one in spring-mst.xml, but its connections
+ * come from a stub driver.  Each statement the driver runs holds the connection for latency
+ * microseconds, which stands in for the round trip to mysql (Connector/J holds the connection's
+ * lock while a statement runs too).  The pool's validation queries pay it as well.  Run it with
+ * eg -t 1 to see what leasing costs a single thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ConnectionContentionBenchmark {
+
+    protected static final String MAX_ORDER_SQL = "SELECT MAX(job_order) FROM jobs";
+
+    @Param({"200"})
+    public long latency;
+
+    protected BasicDataSource dataSource = null;
+    protected MySqlConnectionManager manager = null;
+    protected DefaultJobDAO jobDAO = null;
+
+    // the way the legacy DAOs kept their statements
+    protected PreparedStatement psGetMaxOrder = null;
+    protected Object psGetMaxOrderLock = new Object();
+
+    @Setup
+    public void setup() throws Exception {
+        StubDriver.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latency);
+
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName(StubDriver.class.getName());
+        dataSource.setUrl(StubDriver.URL);
+        dataSource.setMaxIdle(10);
+        dataSource.setMinIdle(0);
+        dataSource.setMaxActive(10);
+        dataSource.setValidationQuery("select 1");
+        dataSource.setTestOnBorrow(true);
+        dataSource.setTestWhileIdle(true);
+        dataSource.setTestOnReturn(true);
+        dataSource.setPoolPreparedStatements(true);
+        dataSource.setMaxOpenPreparedStatements(100);
+        Stubs.register("DataSource", dataSource);
+
+        manager = MySqlConnectionManager.getInstance();
+        jobDAO = new DefaultJobDAO();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        manager.closeDbConnection();
+        dataSource.close();
+    }
+
+    @Benchmark
+    public int sharedConnection() throws Exception {
+        synchronized (psGetMaxOrderLock) {
+            ResultSet results = null;
+            try {
+                if (psGetMaxOrder == null || manager.isClosed(psGetMaxOrder)) {
+                    manager.getDbConnection();
+                    psGetMaxOrder = manager.prepareStatement(MAX_ORDER_SQL, psGetMaxOrder);
+                }
+                results = manager.executeQuery(psGetMaxOrder);
+                return results.next() ? results.getInt(1) : 0;
+            } catch (DBConnectionResetException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                manager.closeResultSet(results);
+            }
+        }
+    }
+
+    @Benchmark
+    public int pooledConnection() throws Exception {
+        return jobDAO.getMaxOrder();
+    }
+
+    /**
+     * Hands out connections which answer every query with one row of zeroes, after holding the
+     * connection for latencyNanos.
+     */
+    public static class StubDriver implements Driver {
+        public static final String URL = "jdbc:mstbench:stub";
+
+        protected static volatile long latencyNanos = 0;
+
+        static {
+            try {
+                DriverManager.registerDriver(new StubDriver());
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            return (Connection) stub(Connection.class, new Object());
+        }
+
+        public boolean acceptsURL(String url) {
+            return url != null && url.startsWith(URL);
+        }
+
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        /**
+         * @param connectionLock
+         *            held while a statement of the connection runs
+         */
+        protected static Object stub(final Class<?> type, final Object connectionLock) {
+            return Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+                protected boolean closed = false;
+                protected int rowsLeft = 1;
+
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    Class<?> returnType = method.getReturnType();
+                    if ("close".equals(name)) {
+                        closed = true;
+                        return null;
+                    } else if ("isClosed".equals(name)) {
+                        return closed;
+                    } else if ("equals".equals(name)) {
+                        return proxy == args[0];
+                    } else if ("hashCode".equals(name)) {
+                        return System.identityHashCode(proxy);
+                    } else if ("toString".equals(name)) {
+                        return type.getSimpleName() + "@" + System.identityHashCode(proxy);
+                    } else if ("getAutoCommit".equals(name)) {
+                        return true;
+                    } else if ("next".equals(name)) {
+                        return rowsLeft-- > 0;
+                    } else if (name.startsWith("execute")) {
+                        synchronized (connectionLock) {
+                            LockSupport.parkNanos(latencyNanos);
+                        }
+                        if (returnType == ResultSet.class) {
+                            return stub(ResultSet.class, connectionLock);
+                        }
+                    }
+                    if (returnType == Statement.class || returnType == PreparedStatement.class || returnType == ResultSet.class) {
+                        return stub(returnType, connectionLock);
+                    }
+                    return defaultValue(returnType);
+                }
+            });
+        }
+
+        protected static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            } else if (type == short.class) {
+                return (short) 0;
+            } else if (type == byte.class) {
+                return (byte) 0;
+            } else if (type == double.class) {
+                return 0d;
+            } else if (type == float.class) {
+                return 0f;
+            } else if (type == char.class) {
+                return (char) 0;
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xc.mst.cache.DynKeyLongMap;
+
+/**
+ * Puts and gets per second on the harvest's oai id -> record id cache (see
+ * HarvestManager.oaiIdCache).  Once the redundant tokens are stripped most harvested ids are
+ * numeric (eg a Voyager bib id), which go in the long keyed map.  Ids which aren't go in the
+ * string keyed map.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DynKeyLongMapBenchmark {
+
+    protected static final int NUM_KEYS = 100000;
+
+    @Param({"numeric", "alphanumeric"})
+    public String keys;
+
+    protected String[] oaiIds = new String[NUM_KEYS];
+    protected DynKeyLongMap map = new DynKeyLongMap();
+    protected int next = 0;
+
+    @Setup
+    public void setup() {
+        boolean numeric = "numeric".equals(keys);
+        for (int i = 0; i < NUM_KEYS; i++) {
+            // spread out the way bib ids are, not one after the other
+            long bibId = 1000000 + (i * 7919L) % 9000000;
+            oaiIds[i] = numeric ? String.valueOf(bibId) : "MetadataServicesToolkit/marcnormalization/b" + bibId;
+            map.put(oaiIds[i], (long) (i + 1));
+        }
+    }
+
+    /**
+     * Fills an empty map the way the cache is filled at the start of a large harvest.
+     */
+    @Benchmark
+    @OperationsPerInvocation(NUM_KEYS)
+    public DynKeyLongMap put() {
+        DynKeyLongMap m = new DynKeyLongMap();
+        m.ensureCapacity(NUM_KEYS);
+        for (int i = 0; i < NUM_KEYS; i++) {
+            m.put(oaiIds[i], (long) (i + 1));
+        }
+        return m;
+    }
+
+    @Benchmark
+    public Long get() {
+        if (next == NUM_KEYS) {
+            next = 0;
+        }
+        return map.getLong(oaiIds[next++]);
+    }
+
+}
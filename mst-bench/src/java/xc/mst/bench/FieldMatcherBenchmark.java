@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xc.mst.bo.record.SaxMarcXmlRecord;
+import xc.mst.services.marcaggregation.matcher.FieldMatcher;
+import xc.mst.services.marcaggregation.matcher.FieldMatcherService;
+
+/**
+ * Lookups and adds per second on the MarcAggregationService matchers which keep their
+ * matchpoints in memory.  The matcher is loaded with every bib in the fixtures first, so a
+ * lookup finds the record itself (which is left out) and any others sharing its matchpoint.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FieldMatcherBenchmark {
+
+    // the matcher's class name, less "Matcher"
+    @Param({"SystemControlNumber", "Lccn", "ISBN", "ISSN", "x024a"})
+    public String matcher;
+
+    protected List<SaxMarcXmlRecord> records = new ArrayList<SaxMarcXmlRecord>();
+    protected FieldMatcher fieldMatcher = null;
+    protected int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        FieldMatcherService fms = (FieldMatcherService) Class.forName(
+                "xc.mst.services.marcaggregation.matcher." + matcher + "Matcher").newInstance();
+        Stubs.wire(fms);
+        fms.setName(matcher);
+        fieldMatcher = fms;
+
+        long id = 1;
+        for (String xml : Fixtures.loadRecords(Fixtures.MARC_NAMESPACE)) {
+            SaxMarcXmlRecord smr = new SaxMarcXmlRecord(xml);
+            if ("abcdefghijkmnoprt".indexOf(smr.getLeader().charAt(6)) != -1) {
+                smr.setRecordId(id++);
+                records.add(smr);
+                fieldMatcher.addRecordToMatcher(smr, null);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Long> getMatchingInputIds() {
+        return fieldMatcher.getMatchingInputIds(nextRecord());
+    }
+
+    @Benchmark
+    public FieldMatcher addRecordToMatcher() {
+        fieldMatcher.addRecordToMatcher(nextRecord(), null);
+        return fieldMatcher;
+    }
+
+    protected SaxMarcXmlRecord nextRecord() {
+        if (next == records.size()) {
+            next = 0;
+        }
+        return records.get(next++);
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.filter.ElementFilter;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+/**
+ * Loads the records the benchmarks run over from the oai-pmh responses the services' tests
+ * use (mock_harvest_expected_output).  The directories are read from the mst.bench.fixtures
+ * system property (a comma separated list), which mb.bench sets from build.properties.
+ */
+public class Fixtures {
+
+    private static final Logger LOG = Logger.getLogger(Fixtures.class);
+
+    public static final String FIXTURES_PROPERTY = "mst.bench.fixtures";
+
+    public static final String MARC_NAMESPACE = "http://www.loc.gov/MARC21/slim";
+    public static final String XC_NAMESPACE = "http://www.extensiblecatalog.info/Elements";
+
+    /**
+     * @return the xml of the metadata of every record in the fixtures whose root element is in
+     *         the namespace nsUri, in the same raw format the repository stores it in
+     */
+    public static List<String> loadRecords(String nsUri) {
+        String dirs = System.getProperty(FIXTURES_PROPERTY);
+        if (dirs == null) {
+            throw new RuntimeException("The " + FIXTURES_PROPERTY + " system property has not been set");
+        }
+        List<File> files = new ArrayList<File>();
+        for (String dir : dirs.split(",")) {
+            findXmlFiles(new File(dir.trim()), files);
+        }
+        XMLOutputter outputter = new XMLOutputter(Format.getRawFormat());
+        List<String> records = new ArrayList<String>();
+        for (File f : files) {
+            Document doc = null;
+            try {
+                doc = new SAXBuilder().build(f);
+            } catch (Throwable t) {
+                LOG.debug("skipping " + f, t);
+                continue;
+            }
+            List<Element> metadataEls = new ArrayList<Element>();
+            Iterator<?> it = doc.getDescendants(new ElementFilter("metadata"));
+            while (it.hasNext()) {
+                metadataEls.add((Element) it.next());
+            }
+            for (Element metadataEl : metadataEls) {
+                if (metadataEl.getChildren().size() == 0) {
+                    continue;
+                }
+                Element root = (Element) metadataEl.getChildren().get(0);
+                if (nsUri.equals(root.getNamespaceURI())) {
+                    records.add(outputter.outputString((Element) root.clone()));
+                }
+            }
+        }
+        if (records.size() == 0) {
+            throw new RuntimeException("no records in " + nsUri + " found under " + dirs);
+        }
+        LOG.info("loaded " + records.size() + " " + nsUri + " records from " + files.size() + " files");
+        return records;
+    }
+
+    protected static void findXmlFiles(File f, List<File> files) {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            Arrays.sort(children);
+            for (File child : children) {
+                findXmlFiles(child, files);
+            }
+        } else if (f.getName().endsWith(".xml")) {
+            files.add(f);
+        }
+    }
+
+}
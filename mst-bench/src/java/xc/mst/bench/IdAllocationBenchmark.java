@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xc.mst.repo.IdBlocks;
+
+/**
+ * Record ids taken per second with several threads creating records at once, the way a harvest
+ * and the services do when they run side by side.
+ *
+ * lockedBlock is how RepositoryDAO.getNextIdAndIncr used to work: one lock around every id and
+ * a block of 1000 shared by all the threads.  threadBlocks is IdBlocks with the default
+ * db.ids settings.  Both reserve their blocks from a sequence which takes latency microseconds
+ * per call, standing in for the get_next_oai_id round trip.  Run it with eg -t 1 to see what the
+ * thread local costs a single thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class IdAllocationBenchmark {
+
+    @Param({"200"})
+    public long latency;
+
+    protected Sequence sequence = null;
+    protected IdBlocks idBlocks = null;
+
+    // the way RepositoryDAO kept its block
+    protected Lock oaiIdLock = new ReentrantLock();
+    protected long nextId = -1;
+    protected long nextIdInDB = -1;
+
+    @Setup
+    public void setup() {
+        sequence = new Sequence(TimeUnit.MICROSECONDS.toNanos(latency));
+        idBlocks = new IdBlocks(sequence, 1000, 64000, 1000);
+    }
+
+    @Benchmark
+    public long lockedBlock() {
+        oaiIdLock.lock();
+        try {
+            if (nextId == nextIdInDB) {
+                int idsAtOnce = 1000;
+                nextId = sequence.reserve(idsAtOnce);
+                nextIdInDB = nextId + idsAtOnce;
+            }
+            return nextId++;
+        } finally {
+            oaiIdLock.unlock();
+        }
+    }
+
+    @Benchmark
+    public long threadBlocks() {
+        return idBlocks.next();
+    }
+
+    /**
+     * oai_id_sequence: one caller at a time, each holding it for latencyNanos
+     */
+    protected static class Sequence implements IdBlocks.Source {
+        protected final long latencyNanos;
+        protected long next = 1;
+
+        protected Sequence(long latencyNanos) {
+            this.latencyNanos = latencyNanos;
+        }
+
+        public synchronized long reserve(int count) {
+            LockSupport.parkNanos(latencyNanos);
+            long first = next;
+            next += count;
+            return first;
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import xc.mst.bo.record.Marc001_003Holder;
+import xc.mst.services.transformation.dao.TransformationDAO;
+
+/**
+ * TransformationDAO's tables kept in maps, with the same replace/delete semantics as the sql.
+ * Keys are org_code + " " + 001.
+ */
+public class InMemoryTransformationDAO extends TransformationDAO {
+
+    // bibsProcessed*Id
+    protected Map<String, Long> bibsProcessed = new HashMap<String, Long>();
+    // holdingsProcessed*Id
+    protected Map<String, Long> holdingsProcessed = new HashMap<String, Long>();
+    // bibsYet2Arrive*Id
+    protected Map<String, List<Long>> bibsYet2Arrive = new HashMap<String, List<Long>>();
+    // bibs_to_holdings, holding -> bibs
+    protected Map<String, List<String>> bibRefs = new HashMap<String, List<String>>();
+
+    protected static String getKey(Marc001_003Holder h) {
+        return getKey(h.get003(), h.get001());
+    }
+
+    protected static String getKey(String orgCode, String id) {
+        return orgCode + " " + id;
+    }
+
+    protected static Marc001_003Holder getHolder(String key) {
+        int i = key.indexOf(' ');
+        return new Marc001_003Holder(key.substring(i + 1), key.substring(0, i));
+    }
+
+    protected static void removeValue(Map<String, Long> map, long value) {
+        Iterator<Long> it = map.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() == value) {
+                it.remove();
+            }
+        }
+    }
+
+    public void removeRecordId4BibProcessed(Long l) {
+        removeValue(bibsProcessed, l);
+    }
+
+    public List<Marc001_003Holder> getHoldingMarcId4RecordIdProcessed(long l) {
+        List<Marc001_003Holder> results = new ArrayList<Marc001_003Holder>();
+        for (Map.Entry<String, Long> me : holdingsProcessed.entrySet()) {
+            if (me.getValue() == l) {
+                results.add(getHolder(me.getKey()));
+            }
+        }
+        return results;
+    }
+
+    public List<String> getBibsForHoldings(Marc001_003Holder holding) {
+        List<String> bibs = bibRefs.get(getKey(holding));
+        return bibs == null ? new ArrayList<String>() : new ArrayList<String>(bibs);
+    }
+
+    public List<String> getHoldingsForBib(Marc001_003Holder bib) {
+        List<String> results = new ArrayList<String>();
+        String prefix = bib.get003() + " ";
+        for (Map.Entry<String, List<String>> me : bibRefs.entrySet()) {
+            if (me.getKey().startsWith(prefix) && me.getValue().contains(bib.get001())) {
+                results.add(me.getKey().substring(prefix.length()));
+            }
+        }
+        return results;
+    }
+
+    public void addBibforHolding(String org_code, String holding_id, String bib_id) {
+        String key = getKey(org_code, holding_id);
+        List<String> bibs = bibRefs.get(key);
+        if (bibs == null) {
+            bibs = new ArrayList<String>();
+            bibRefs.put(key, bibs);
+        }
+        if (!bibs.contains(bib_id)) {
+            bibs.add(bib_id);
+        }
+    }
+
+    public void removeBibsForHoldings(String org_code, String holding_id) {
+        bibRefs.remove(getKey(org_code, holding_id));
+    }
+
+    public void removeBibForHolding(String org_code, String holding_id, String bib_id) {
+        List<String> bibs = bibRefs.get(getKey(org_code, holding_id));
+        if (bibs != null) {
+            bibs.remove(bib_id);
+        }
+    }
+
+    public List<Long> getRecordId4BibProcessed(Marc001_003Holder bib) {
+        List<Long> results = new ArrayList<Long>();
+        Long id = bibsProcessed.get(getKey(bib));
+        if (id != null) {
+            results.add(id);
+        }
+        return results;
+    }
+
+    public void addRecordId4BibProcessed(Marc001_003Holder bib, long record_id) {
+        bibsProcessed.put(getKey(bib), record_id);
+    }
+
+    public void addRecordId4HoldingProcessed(Marc001_003Holder hold, long record_id) {
+        holdingsProcessed.put(getKey(hold), record_id);
+    }
+
+    public void removeRecordId4HoldingProcessed(long record_id) {
+        removeValue(holdingsProcessed, record_id);
+    }
+
+    public void addManifestationId4BibYet2Arrive(Marc001_003Holder bib, long record_id) {
+        String key = getKey(bib);
+        List<Long> ids = bibsYet2Arrive.get(key);
+        if (ids == null) {
+            ids = new ArrayList<Long>();
+            bibsYet2Arrive.put(key, ids);
+        }
+        if (!ids.contains(record_id)) {
+            ids.add(record_id);
+        }
+    }
+
+    public List<Long> getManifestationId4BibYet2Arrive(Marc001_003Holder bib) {
+        List<Long> ids = bibsYet2Arrive.get(getKey(bib));
+        return ids == null ? new ArrayList<Long>() : new ArrayList<Long>(ids);
+    }
+
+    public void removeManifestationId4BibYet2Arrive(Marc001_003Holder bib, long record_id) {
+        List<Long> ids = bibsYet2Arrive.get(getKey(bib));
+        if (ids != null) {
+            ids.remove(Long.valueOf(record_id));
+            if (ids.size() == 0) {
+                bibsYet2Arrive.remove(getKey(bib));
+            }
+        }
+    }
+
+}
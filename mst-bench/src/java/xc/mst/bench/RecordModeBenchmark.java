@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xc.mst.bo.record.Record;
+
+/**
+ * Record.setMode conversions per second over the fixture records.
+ * <ul>
+ * <li>toJdom parses a record's xml, the way a record read from the repository gets to a service
+ * which works on JDOM (normalization)</li>
+ * <li>toXml serializes a record built as JDOM, the way a service's output gets written</li>
+ * <li>roundTrip does both</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordModeBenchmark {
+
+    @Param({"marc21", "xc"})
+    public String format;
+
+    protected List<String> records = null;
+    protected List<Element> elements = new ArrayList<Element>();
+    protected int next = 0;
+
+    @Setup
+    public void setup() {
+        records = Fixtures.loadRecords("marc21".equals(format) ? Fixtures.MARC_NAMESPACE : Fixtures.XC_NAMESPACE);
+        for (String xml : records) {
+            Record r = Stubs.getRecord(0, xml);
+            r.setMode(Record.JDOM_MODE);
+            elements.add(r.getOaiXmlEl());
+        }
+    }
+
+    @Benchmark
+    public Element toJdom() {
+        Record r = Stubs.getRecord(0, records.get(nextRecord()));
+        r.setMode(Record.JDOM_MODE);
+        return r.getOaiXmlEl();
+    }
+
+    @Benchmark
+    public String toXml() {
+        Record r = new Record();
+        r.setOaiXmlEl(elements.get(nextRecord()));
+        r.setMode(Record.STRING_MODE);
+        return r.getOaiXml();
+    }
+
+    @Benchmark
+    public String roundTrip() {
+        Record r = Stubs.getRecord(0, records.get(nextRecord()));
+        r.setMode(Record.JDOM_MODE);
+        r.setMode(Record.STRING_MODE);
+        return r.getOaiXml();
+    }
+
+    @Benchmark
+    public String readRoundTrip() {
+        Record r = Stubs.getRecord(0, records.get(nextRecord()));
+        r.setMode(Record.JDOM_MODE);
+        r.readOaiXmlEl();
+        r.setMode(Record.STRING_MODE);
+        return r.getOaiXml();
+    }
+
+    @Benchmark
+    public String modifiedRoundTrip() {
+        Record r = Stubs.getRecord(0, records.get(nextRecord()));
+        r.setMode(Record.JDOM_MODE);
+        r.getOaiXmlEl();
+        r.setMode(Record.STRING_MODE);
+        return r.getOaiXml();
+    }
+
+    protected int nextRecord() {
+        if (next == records.size()) {
+            next = 0;
+        }
+        return next++;
+    }
+
+}
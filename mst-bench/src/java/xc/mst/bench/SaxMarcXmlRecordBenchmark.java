@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xc.mst.bo.record.SaxMarcXmlRecord;
+
+/**
+ * SaxMarcXmlRecords built per second from the fixtures' MARCXML.  Transformation and
+ * aggregation build one for every record they process.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SaxMarcXmlRecordBenchmark {
+
+    protected List<String> records = null;
+    protected int next = 0;
+
+    @Setup
+    public void setup() {
+        records = Fixtures.loadRecords(Fixtures.MARC_NAMESPACE);
+    }
+
+    @Benchmark
+    public SaxMarcXmlRecord construct() {
+        return new SaxMarcXmlRecord(records.get(nextRecord()));
+    }
+
+    protected int nextRecord() {
+        if (next == records.size()) {
+            next = 0;
+        }
+        return next++;
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.xpath.XPath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xc.mst.bo.record.SaxMarcXmlRecord;
+import xc.mst.services.SolrFieldExtractor;
+import xc.mst.services.SolrIndexService;
+import xc.mst.utils.XmlHelper;
+
+/**
+ * Solr documents built per second from the xpath based fields of the fixture records.
+ * <ul>
+ * <li>perXPath is the way SolrIndexService used to do it: every field compiles its xpath and
+ * builds a new JDOM document from the record's xml</li>
+ * <li>singlePass is SolrFieldExtractor: the xpaths are compiled once and the record is
+ * parsed once</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SolrFieldExtractionBenchmark {
+
+    protected static final Namespace MARC_NAMESPACE = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+    protected static final Pattern XC_ENTITY_TYPE = Pattern.compile("<xc:entity[^>]* type=\"(\\w)");
+
+    @Param({"marc21", "xc"})
+    public String format;
+
+    protected List<String> records = new ArrayList<String>();
+    protected List<SolrFieldExtractor> extractors = new ArrayList<SolrFieldExtractor>();
+    protected int next = 0;
+
+    @Setup
+    public void setup() {
+        boolean marc = "marc21".equals(format);
+        for (String xml : Fixtures.loadRecords(marc ? Fixtures.MARC_NAMESPACE : Fixtures.XC_NAMESPACE)) {
+            String type = null;
+            if (marc) {
+                char leader06 = new SaxMarcXmlRecord(xml).getLeader().charAt(6);
+                if ("abcdefghijkmnoprt".indexOf(leader06) != -1) {
+                    type = "b";
+                } else if ("uvxy".indexOf(leader06) != -1) {
+                    type = "h";
+                }
+            } else {
+                Matcher m = XC_ENTITY_TYPE.matcher(xml);
+                if (m.find()) {
+                    type = m.group(1);
+                }
+            }
+            SolrFieldExtractor extractor = null;
+            if (type != null) {
+                extractor = marc ? SolrIndexService.getMarcFields(type) : SolrIndexService.getXcFields(type);
+            }
+            if (extractor != null) {
+                records.add(xml);
+                extractors.add(extractor);
+            }
+        }
+    }
+
+    @Benchmark
+    public SolrInputDocument perXPath() throws Exception {
+        int i = nextRecord();
+        String xml = records.get(i);
+        SolrInputDocument doc = new SolrInputDocument();
+        for (String xpathStr : extractors.get(i).getXPaths()) {
+            XPath xpath = XPath.newInstance(xpathStr);
+            xpath.addNamespace(MARC_NAMESPACE);
+            org.jdom.Document jdomDoc = new XmlHelper().getJDomDocument(xml);
+            for (Object o : xpath.selectNodes(jdomDoc)) {
+                doc.addField(xpathStr, ((Element) o).getText());
+            }
+        }
+        return doc;
+    }
+
+    @Benchmark
+    public SolrInputDocument singlePass() {
+        int i = nextRecord();
+        SolrInputDocument doc = new SolrInputDocument();
+        extractors.get(i).addFields(records.get(i), doc);
+        return doc;
+    }
+
+    protected int nextRecord() {
+        if (next == records.size()) {
+            next = 0;
+        }
+        return next++;
+    }
+
+}
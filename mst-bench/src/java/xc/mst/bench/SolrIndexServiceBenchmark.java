@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xc.mst.bo.provider.Format;
+import xc.mst.bo.record.OutputRecord;
+import xc.mst.bo.record.Record;
+import xc.mst.bo.record.SaxMarcXmlRecord;
+import xc.mst.repo.Repository;
+import xc.mst.services.SolrIndexService;
+
+/**
+ * Records indexed per second by SolrIndexService.process: the whole document build (the static
+ * fields as well as the ones extracted from the xml).  The documents go to a stub
+ * SolrIndexManager which drops them, so solr itself isn't part of it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SolrIndexServiceBenchmark {
+
+    // process() only knows the repository it's indexing once process(repo, ...) has been called
+    protected static class IndexService extends SolrIndexService {
+        public IndexService(Repository repo) {
+            this.incomingRepository = repo;
+        }
+    }
+
+    @Param({"marc21", "xc"})
+    public String format;
+
+    protected List<Record> records = new ArrayList<Record>();
+    protected SolrIndexService service = null;
+    protected int next = 0;
+
+    @Setup
+    public void setup() {
+        Stubs.getConfig();
+        service = new IndexService(new Stubs.Repository());
+        Stubs.wire(service);
+        service.setService(Stubs.getService("SolrIndexer"));
+        service.init();
+
+        boolean marc = "marc21".equals(format);
+        Format f = Stubs.getFormat(format);
+        long id = 1;
+        for (String xml : Fixtures.loadRecords(marc ? Fixtures.MARC_NAMESPACE : Fixtures.XC_NAMESPACE)) {
+            Record r = Stubs.getRecord(id++, xml);
+            r.setFormat(f);
+            // the type the service which wrote the record would have given it
+            if (marc) {
+                char leader06 = new SaxMarcXmlRecord(xml).getLeader().charAt(6);
+                if ("abcdefghijkmnoprt".indexOf(leader06) != -1) {
+                    r.setType("b");
+                } else if ("uvxy".indexOf(leader06) != -1) {
+                    r.setType("h");
+                }
+            } else {
+                Matcher m = SolrFieldExtractionBenchmark.XC_ENTITY_TYPE.matcher(xml);
+                if (m.find()) {
+                    r.setType(m.group(1));
+                }
+            }
+            records.add(r);
+        }
+    }
+
+    @Benchmark
+    public List<OutputRecord> process() {
+        if (next == records.size()) {
+            next = 0;
+        }
+        return service.process(records.get(next++));
+    }
+
+}
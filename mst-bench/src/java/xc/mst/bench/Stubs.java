@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.support.StaticApplicationContext;
+
+import xc.mst.bo.provider.Format;
+import xc.mst.bo.provider.Set;
+import xc.mst.bo.record.Record;
+import xc.mst.bo.record.RecordMessage;
+import xc.mst.bo.service.Service;
+import xc.mst.dao.record.MessageDAO;
+import xc.mst.email.Emailer;
+import xc.mst.manager.BaseManager;
+import xc.mst.manager.BaseService;
+import xc.mst.manager.record.DefaultRecordService;
+import xc.mst.manager.record.RecordService;
+import xc.mst.manager.repository.DefaultFormatService;
+import xc.mst.manager.repository.DefaultSetService;
+import xc.mst.repo.RepositoryDAO;
+import xc.mst.repo.TestRepository;
+import xc.mst.utils.MSTConfiguration;
+import xc.mst.utils.Util;
+import xc.mst.utils.index.SolrIndexManager;
+
+/**
+ * In-memory stand-ins for the parts of the platform the services reach into while processing a
+ * record, so the benchmarks measure the services and not mysql or solr.
+ *
+ * getConfig() sets up MSTConfiguration with a spring context holding the stub beans; it has to
+ * be called before a service is constructed.  Services get wired by hand with the stub DAOs (see wire) since there's no spring config to do it.
+ */
+public class Stubs {
+
+    public static final String DOMAIN_NAME_IDENTIFIER = "mst.rochester.edu";
+
+    protected static MSTConfiguration config = null;
+    protected static StaticApplicationContext context = null;
+
+    protected static RepositoryDAO repositoryDAO = new IdRepositoryDAO();
+    protected static MessageDAO messageDAO = new IdMessageDAO();
+
+    public static synchronized MSTConfiguration getConfig() {
+        if (config == null) {
+            context = new StaticApplicationContext();
+            context.refresh();
+            config = new MSTConfiguration();
+            config.setApplicationContext(context);
+            config.setProperty("DomainNameIdentifier", DOMAIN_NAME_IDENTIFIER);
+
+            register("Util", new Util());
+            DefaultRecordService recordService = new DefaultRecordService();
+            wire(recordService);
+            register("RecordService", recordService);
+            FormatService formatService = new FormatService();
+            wire(formatService);
+            register("FormatService", formatService);
+            SetService setService = new SetService();
+            wire(setService);
+            register("SetService", setService);
+            register("SolrIndexManager", new IndexManager());
+            // services look this up when they're constructed; nothing is sent
+            register("Emailer", new Emailer());
+        }
+        return config;
+    }
+
+    /**
+     * Registers bean under name, replacing whatever was registered under it before.
+     */
+    public static synchronized void register(String name, Object bean) {
+        getConfig();
+        DefaultListableBeanFactory beanFactory = context.getDefaultListableBeanFactory();
+        if (beanFactory.containsSingleton(name)) {
+            beanFactory.destroySingleton(name);
+        }
+        beanFactory.registerSingleton(name, bean);
+    }
+
+    /**
+     * Gives bs the config and the stub DAOs.
+     */
+    public static void wire(BaseService bs) {
+        bs.setConfig(getConfig());
+        bs.setRepositoryDAO(repositoryDAO);
+        bs.setMessageDAO(messageDAO);
+    }
+
+    /**
+     * Also gives bm the stub services, which spring would inject.
+     */
+    public static void wire(BaseManager bm) {
+        wire((BaseService) bm);
+        bm.setRecordService((RecordService) getConfig().getBean("RecordService"));
+        bm.setFormatService((FormatService) getConfig().getBean("FormatService"));
+        bm.setSetService((SetService) getConfig().getBean("SetService"));
+    }
+
+    public static Service getService(String name) {
+        Service service = new Service();
+        service.setId(1);
+        service.setName(name);
+        return service;
+    }
+
+    public static Format getFormat(String name) {
+        return ((FormatService) getConfig().getBean("FormatService")).getFormatByName(name);
+    }
+
+    /**
+     * @return a new input record holding xml, the way the repository hands them to a service
+     */
+    public static Record getRecord(long id, String xml) {
+        Record r = new Record();
+        r.setId(id);
+        r.setMode(Record.STRING_MODE);
+        r.setOaiXml(xml);
+        return r;
+    }
+
+    /**
+     * Record and message ids come from counters instead of the database.
+     */
+    public static class IdRepositoryDAO extends RepositoryDAO {
+        protected AtomicLong nextId = new AtomicLong(1);
+
+        public long getNextIdAndIncr() {
+            return nextId.getAndIncrement();
+        }
+
+        public void injectId(Record r) {
+            r.setId(getNextIdAndIncr());
+        }
+    }
+
+    public static class IdMessageDAO extends MessageDAO {
+        protected AtomicLong nextId = new AtomicLong(1);
+
+        public long getNextId() {
+            return nextId.getAndIncrement();
+        }
+
+        public void injectId(RecordMessage rm) {
+            rm.setId(getNextId());
+        }
+    }
+
+    /**
+     * A repository nothing is read from.  Services only use it to look up the records they've
+     * written and the links between them, which TestRepository keeps in memory.
+     */
+    public static class Repository extends TestRepository {
+        public String getName() {
+            return "bench";
+        }
+    }
+
+    public static class FormatService extends DefaultFormatService {
+        protected Map<String, Format> formats = new HashMap<String, Format>();
+
+        public synchronized Format getFormatByName(String name) {
+            Format f = formats.get(name);
+            if (f == null) {
+                f = new Format();
+                f.setId(formats.size() + 1);
+                f.setName(name);
+                formats.put(name, f);
+            }
+            return f;
+        }
+    }
+
+    public static class SetService extends DefaultSetService {
+        protected Map<String, Set> sets = new HashMap<String, Set>();
+
+        public synchronized Set getSetBySetSpec(String setSpec) {
+            Set s = sets.get(setSpec);
+            if (s == null) {
+                s = new Set();
+                s.setId(sets.size() + 1);
+                s.setSetSpec(setSpec);
+                s.setDisplayName(setSpec);
+                sets.put(setSpec, s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Drops the documents it's given.
+     */
+    public static class IndexManager extends SolrIndexManager {
+        protected long numDocs = 0;
+
+        public boolean addDoc(SolrInputDocument doc) {
+            numDocs++;
+            return true;
+        }
+
+        public long getNumDocs() {
+            return numDocs;
+        }
+    }
+
+}
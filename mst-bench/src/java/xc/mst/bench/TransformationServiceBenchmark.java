@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xc.mst.bo.record.OutputRecord;
+import xc.mst.services.impl.service.transformation.XCRecordService;
+import xc.mst.services.transformation.TransformationService;
+
+/**
+ * MARCXML records transformed to XC per second by TransformationService.process.  The
+ * bib/holding linkage goes to an InMemoryTransformationDAO, so holdings find the bibs which
+ * came before them (or are held for them) the way they would in the database.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformationServiceBenchmark {
+
+    protected List<String> records = null;
+    protected TransformationService service = null;
+    protected long nextId = 1;
+    protected int next = 0;
+
+    @Setup(Level.Trial)
+    public void loadRecords() {
+        records = Fixtures.loadRecords(Fixtures.MARC_NAMESPACE);
+    }
+
+    // a new service each iteration so the messages and linkage it holds on to don't pile up
+    @Setup(Level.Iteration)
+    public void setup() {
+        Stubs.getConfig();
+        service = new TransformationService();
+        Stubs.wire(service);
+        service.setService(Stubs.getService("MARCToXCTransformation"));
+        service.setRepository(new Stubs.Repository());
+        service.setTransformationDAO(new InMemoryTransformationDAO());
+        XCRecordService xcRecordService = new XCRecordService();
+        Stubs.wire(xcRecordService);
+        service.setXCRecordService(xcRecordService);
+        Stubs.register("MetadataService", service);
+        service.init();
+    }
+
+    @Benchmark
+    public List<OutputRecord> process() {
+        if (next == records.size()) {
+            next = 0;
+        }
+        return service.process(Stubs.getRecord(nextId++, records.get(next++)));
+    }
+
+}
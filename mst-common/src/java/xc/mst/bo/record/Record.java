@@ -66,6 +66,17 @@ public class Record implements InputRecord, OutputRecord, Comparable<Record> {
 
     protected Element oaiXmlEl = null;
 
+    /**
+     * The record's xml is kept both as a string (oaiXml) and as JDOM (oaiXmlEl), and these say
+     * whether each of them is up to date with the record's payload. At least one of them always is.
+     * The other is only built when it's asked for: the JDOM is parsed the first time getOaiXmlEl
+     * is called in JDOM_MODE, and the string is serialized when the record goes back to STRING_MODE.
+     * Handing out the JDOM through getOaiXmlEl means it may be modified, so the string is then
+     * considered out of date; readOaiXmlEl is for callers which only read it.
+     */
+    protected boolean oaiXmlCurrent = true;
+    protected boolean oaiXmlElCurrent = true;
+
     /**
      * The type of indexed Object this is
      */
@@ -203,6 +214,8 @@ public class Record implements InputRecord, OutputRecord, Comparable<Record> {
         dupe.oaiIdentifier = this.oaiIdentifier;
         dupe.oaiXml = this.oaiXml;
         dupe.oaiXmlEl = this.oaiXmlEl;
+        dupe.oaiXmlCurrent = this.oaiXmlCurrent;
+        dupe.oaiXmlElCurrent = this.oaiXmlElCurrent;
         dupe.predecessors = this.predecessors;
         dupe.messages = this.messages;
         dupe.type = this.type;
@@ -216,35 +229,25 @@ public class Record implements InputRecord, OutputRecord, Comparable<Record> {
     public void setMode(String mode) {
         if (!mode.equals(this.mode)) {
             if (mode.equals(STRING_MODE)) {
-                if (this.oaiXmlEl != null) {
-                    this.oaiXml = xmlHelper.getString(this.oaiXmlEl);
+                if (this.oaiXmlCurrent) {
+                    TimingLogger.add("Record.serialize.avoided", 0);
+                    if (!this.oaiXmlElCurrent) {
+                        // the JDOM was never built
+                        TimingLogger.add("Record.parse.avoided", 0);
+                    }
                 } else {
-                    this.oaiXml = null;
+                    if (this.oaiXmlEl != null) {
+                        this.oaiXml = xmlHelper.getString(this.oaiXmlEl);
+                    } else {
+                        this.oaiXml = null;
+                    }
+                    this.oaiXmlCurrent = true;
                 }
             } else if (mode.equals(JDOM_MODE)) {
-                if (this.oaiXml != null) {
-                    try {
-                        TimingLogger.start("getJDomDocument()");
-                        org.jdom.Document d = xmlHelper.getJDomDocument(this.oaiXml);
-                        TimingLogger.stop("getJDomDocument()");
-                        this.oaiXmlEl = d.detachRootElement();
-                    } catch (Throwable t) {
-                        LOG.error("this.oaiXml.getBytes()");
-                        LOG.error("", t);
-                        System.out.println("error!!!");
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        try {
-                            baos.write(this.oaiXml.getBytes("UTF-8"));
-                            baos.writeTo(System.out);
-                        } catch (Throwable t2) {
-                            LOG.error("", t2);
-                        }
-                        System.out.println("error!!!");
-                        this.oaiXmlEl = null;
-                    }
-                } else {
-                    this.oaiXmlEl = null;
+                if (this.oaiXmlElCurrent) {
+                    TimingLogger.add("Record.parse.avoided", 0);
                 }
+                // otherwise the xml is parsed when it's first asked for
             } else {
                 throw new RuntimeException("invalid mode!!!");
             }
@@ -252,19 +255,78 @@ public class Record implements InputRecord, OutputRecord, Comparable<Record> {
         }
     }
 
+    /**
+     * Parses oaiXml into oaiXmlEl if oaiXmlEl isn't up to date.
+     */
+    protected void buildOaiXmlEl() {
+        if (this.oaiXmlElCurrent) {
+            return;
+        }
+        if (this.oaiXml != null) {
+            try {
+                TimingLogger.start("getJDomDocument()");
+                org.jdom.Document d = xmlHelper.getJDomDocument(this.oaiXml);
+                TimingLogger.stop("getJDomDocument()");
+                this.oaiXmlEl = d.detachRootElement();
+            } catch (Throwable t) {
+                LOG.error("this.oaiXml.getBytes()");
+                LOG.error("", t);
+                System.out.println("error!!!");
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try {
+                    baos.write(this.oaiXml.getBytes("UTF-8"));
+                    baos.writeTo(System.out);
+                } catch (Throwable t2) {
+                    LOG.error("", t2);
+                }
+                System.out.println("error!!!");
+                this.oaiXmlEl = null;
+            }
+        } else {
+            this.oaiXmlEl = null;
+        }
+        this.oaiXmlElCurrent = true;
+    }
+
     public Element getOaiXmlEl() {
+        Element el = readOaiXmlEl();
+        // the caller may modify it
+        this.oaiXmlCurrent = false;
+        return el;
+    }
+
+    /**
+     * Gets the record's xml as JDOM for a caller which won't modify it. Unlike getOaiXmlEl,
+     * this leaves the record's xml string as it is, so switching the record back to STRING_MODE
+     * doesn't need to serialize the JDOM again.
+     */
+    public Element readOaiXmlEl() {
         if (!this.mode.equals(MODE_NOT_SET) && !this.mode.equals(JDOM_MODE)) {
             throw new RuntimeException(
                     "This record is not set to JDOM_MODE.  You must explicitly " +
                             "call Record.setMode(Recrod.JDOM_MODE) before calling this method.");
         }
+        this.mode = JDOM_MODE;
+        buildOaiXmlEl();
         if (this.oaiXmlEl != null) {
             this.oaiXmlEl.detach();
         }
-        this.mode = JDOM_MODE;
         return this.oaiXmlEl;
     }
 
+    /**
+     * @return the record's xml string if it's up to date and the JDOM hasn't been built from it,
+     *         otherwise null. This doesn't parse or serialize anything, or change the record's mode,
+     *         so callers which can make do with the string (e.g. to find one attribute) can avoid
+     *         parsing the whole record.
+     */
+    public String peekOaiXml() {
+        if (this.oaiXmlCurrent && !this.oaiXmlElCurrent) {
+            return this.oaiXml;
+        }
+        return null;
+    }
+
     public void setOaiXmlEl(Element oaiXmlEl) {
         if (!this.mode.equals(MODE_NOT_SET) && !this.mode.equals(JDOM_MODE)) {
             throw new RuntimeException(
@@ -273,6 +335,9 @@ public class Record implements InputRecord, OutputRecord, Comparable<Record> {
         }
         this.mode = JDOM_MODE;
         this.oaiXmlEl = oaiXmlEl;
+        this.oaiXmlElCurrent = true;
+        this.oaiXml = null;
+        this.oaiXmlCurrent = false;
     }
 
     public String getType() {
@@ -510,6 +575,9 @@ public class Record implements InputRecord, OutputRecord, Comparable<Record> {
         }
         this.mode = STRING_MODE;
         this.oaiXml = oaiXml;
+        this.oaiXmlCurrent = true;
+        this.oaiXmlEl = null;
+        this.oaiXmlElCurrent = false;
     }
 
     /**
@@ -81,6 +81,9 @@ public class RecordCounts {
 
     public static String UNEXPECTED_ERROR = "unexpected_error_cnt";
 
+    // outgoing records which weren't written because they were the same as what was already there
+    public static String UNCHANGED = "unchanged_cnt";
+
     public static Set<String> INCOMING_STATUS_COLUMN_NAMES = null;
     public static Map<String, String> UPD_PREV_COLUMN_NAMES = null;
 
@@ -160,13 +163,20 @@ public class RecordCounts {
      * @param col_1
      */
     public void incr(String type, String col_1) {
+        incr(type, col_1, 1);
+    }
+
+    /**
+     * Like incr(type, col_1), but adds num at once.
+     */
+    public void incr(String type, String col_1, int num) {
         if (type == null) {
             type = TOTALS;
         }
         if (col_1 == null) {
             throw new RuntimeException("bogus");
         }
-        getCount(getCountsByType(type), col_1).addAndGet(1);
+        getCount(getCountsByType(type), col_1).addAndGet(num);
     }
 
     /**
@@ -306,6 +316,7 @@ public class RecordCounts {
             colNames.addAll(INCOMING_STATUS_COLUMN_NAMES);
             if (RecordCounts.OUTGOING.equals(this.incomingOutgoing)) {
                 colNames.addAll(UPD_PREV_COLUMN_NAMES.values());
+                colNames.add(UNCHANGED);
             } else {
                 colNames.add(UNEXPECTED_ERROR);
             }
@@ -50,6 +50,12 @@ public class ResumptionToken {
      */
     private long startingId;
 
+    /**
+     * The completeListSize worked out for the first page, so later pages needn't count again
+     * (0 if it isn't known)
+     */
+    private long completeListSize;
+
     /**
      * Gets the resumption token's setSpec
      * 
@@ -143,6 +149,10 @@ public class ResumptionToken {
         sb.append(this.metadataFormat);
         sb.append("|");
         sb.append(this.startingId + "");
+        if (this.completeListSize != 0) {
+            sb.append("|");
+            sb.append(this.completeListSize + "");
+        }
         return sb.toString();
     }
 
@@ -167,4 +177,22 @@ public class ResumptionToken {
     public void setStartingId(long startingId) {
         this.startingId = startingId;
     }
+
+    /**
+     * Get the complete list size
+     * 
+     * @return the complete list size, negative if it's an estimate (see Facade) or 0 if it isn't known
+     */
+    public long getCompleteListSize() {
+        return completeListSize;
+    }
+
+    /**
+     * Set the complete list size
+     * 
+     * @param completeListSize
+     */
+    public void setCompleteListSize(long completeListSize) {
+        this.completeListSize = completeListSize;
+    }
 } // end class ResumptionToken
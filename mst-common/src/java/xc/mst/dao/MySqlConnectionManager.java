@@ -28,7 +28,8 @@ import xc.mst.utils.MSTConfiguration;
 
 /**
  * Base class for all database data access objects in the MST. Contains methods for
- * maintaining the one static Connection Object used by the MST.
+ * maintaining the one static Connection Object used by the MST, and for leasing each thread
+ * its own connection from the connection pool (see leaseConnection).
  * 
  * @author Eric Osisek
  */
@@ -67,6 +68,24 @@ public class MySqlConnectionManager {
      */
     private Set<PreparedStatement> closedPreparedStatements = new HashSet<PreparedStatement>();
 
+    /**
+     * The pool leaseConnection hands out connections from
+     */
+    private volatile DataSource dataSource = null;
+
+    /**
+     * The connection each thread has leased from the pool, if any
+     */
+    private final ThreadLocal<Lease> leases = new ThreadLocal<Lease>();
+
+    /**
+     * A pooled connection and the number of calls on its thread which are using it
+     */
+    private static class Lease {
+        Connection connection = null;
+        int depth = 0;
+    }
+
     /**
      * Constructor for MySqlConnectionManager
      */
@@ -361,6 +380,81 @@ public class MySqlConnectionManager {
         registeredPreparedStatements.clear();
     }
 
+    /**
+     * Leases a connection from the connection pool to the calling thread. Unlike the connection
+     * returned by getDbConnection, which every thread shares, each thread gets its own, so DAOs
+     * using it needn't synchronize their statements and reads from different threads run in
+     * parallel. The pool caches the statements prepared on each of its connections, so DAOs should
+     * prepare their statements each time rather than hold on to them.
+     * <p>
+     * A DAO called while another DAO on the same thread holds a lease (eg to load the service
+     * of a job) gets the same connection back, so a thread never holds more than one of the
+     * pool's connections. Each lease must be given back with release.
+     * 
+     * @return The calling thread's connection
+     * @throws DatabaseConfigException
+     *             If a connection could not be had from the pool
+     */
+    public Connection leaseConnection() throws DatabaseConfigException {
+        Lease lease = leases.get();
+        if (lease == null) {
+            lease = new Lease();
+            try {
+                lease.connection = getDataSource().getConnection();
+            } catch (SQLException e) {
+                log.error("Could not get a connection from the connection pool.", e);
+                throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
+            }
+            leases.set(lease);
+        }
+        lease.depth++;
+        return lease.connection;
+    } // end method leaseConnection()
+
+    /**
+     * Closes the ResultSet and Statement, either of which may be null, and gives back a lease
+     * taken with leaseConnection. The connection goes back to the pool when the thread's
+     * outermost lease is given back.
+     * 
+     * @param results
+     *            The ResultSet to close
+     * @param statement
+     *            The Statement to close, which puts it back in the connection's statement cache
+     * @param connection
+     *            The connection returned by leaseConnection
+     */
+    public void release(ResultSet results, Statement statement, Connection connection) {
+        closeResultSet(results);
+
+        try {
+            if (statement != null)
+                statement.close();
+        } catch (SQLException e) {
+            log.error("An error occurred while closing a Statement.", e);
+        }
+
+        Lease lease = leases.get();
+        if (lease == null || lease.connection != connection) {
+            log.warn("Releasing a connection which isn't leased to this thread.");
+            return;
+        }
+
+        if (--lease.depth == 0) {
+            leases.remove();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.error("An error occurred while returning a connection to the connection pool.", e);
+            }
+        }
+    } // end method release(ResultSet, Statement, Connection)
+
+    private DataSource getDataSource() {
+        if (dataSource == null)
+            dataSource = (DataSource) MSTConfiguration.getInstance().getBean("DataSource");
+        return dataSource;
+    }
+
     // BDA: I've added dbcp and wish to eventually get rid of all of the above code. However,
     // for the time being, I'm going to piggyback this class and slowly phase it out.
     public static Connection getConnection() {
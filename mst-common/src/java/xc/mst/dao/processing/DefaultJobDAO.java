@@ -9,828 +9,509 @@
 
 package xc.mst.dao.processing;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 
 import xc.mst.bo.processing.Job;
-import xc.mst.dao.DBConnectionResetException;
 import xc.mst.dao.DataException;
 import xc.mst.dao.DatabaseConfigException;
 
 /**
- * MySQL implementation of the data access object for the job table
+ * MySQL implementation of the data access object for the job table.
+ * <p>
+ * Each call runs on the connection its thread leases from the connection pool (see
+ * MySqlConnectionManager.leaseConnection), so calls from different threads run in parallel.
  * 
  * @author Sharmila Ranganathan
  */
 public class DefaultJobDAO extends JobDAO {
 
     /**
-     * A PreparedStatement to get all jobs in the database
+     * The columns of a job, in the order the select statements return them
      */
-    private static PreparedStatement psGetAll = null;
+    private final static String SELECT_COLUMNS_SQL = "SELECT " + COL_JOB_ID + ", " +
+                                                                 COL_HARVEST_SCHEDULE_ID + ", " +
+                                                                 COL_SERVICE_ID + ", " +
+                                                                 COL_PROCESSING_DIRECTIVE_ID + ", " +
+                                                                 COL_OUTPUT_SET_ID + ", " +
+                                                                 COL_ORDER + ", " +
+                                                                 COL_TYPE + " " +
+                                                     "FROM " + JOBS_TABLE_NAME + " ";
 
     /**
-     * A PreparedStatement to get a job from the database by its ID
+     * SQL to get all jobs in the database
      */
-    private static PreparedStatement psGetById = null;
+    private final static String GET_ALL_SQL = SELECT_COLUMNS_SQL + "ORDER BY " + COL_ORDER + " ASC";
 
     /**
-     * A PreparedStatement to get jobs from the database by their harvest schedule ID
+     * SQL to get a job from the database by its ID
      */
-    private static PreparedStatement psGetByHarvestScheduleId = null;
+    private final static String GET_BY_ID_SQL = SELECT_COLUMNS_SQL + "WHERE " + COL_JOB_ID + "=?";
 
     /**
-     * A PreparedStatement to get jobs from the database by their service ID
+     * SQL to get jobs from the database by their harvest schedule ID
      */
-    private static PreparedStatement psGetByServiceId = null;
+    private final static String GET_BY_HARVEST_SCHEDULE_ID_SQL = SELECT_COLUMNS_SQL + "WHERE " + COL_HARVEST_SCHEDULE_ID + "=?";
 
     /**
-     * A PreparedStatement to insert a job into the database
+     * SQL to get jobs from the database by their service ID
      */
-    private static PreparedStatement psInsert = null;
+    private final static String GET_BY_SERVICE_ID_SQL = SELECT_COLUMNS_SQL + "WHERE " + COL_SERVICE_ID + "=?";
 
     /**
-     * A PreparedStatement to update a job in the database
+     * SQL to get max order from the database
      */
-    private static PreparedStatement psUpdate = null;
+    private final static String GET_MAX_ORDER_SQL = "SELECT MAX(" + COL_ORDER + ") FROM " + JOBS_TABLE_NAME;
 
     /**
-     * A PreparedStatement to delete a jobs from the database
+     * SQL to get next job from the database
      */
-    private static PreparedStatement psDelete = null;
+    private final static String GET_NEXT_JOB_TO_EXECUTE_SQL = SELECT_COLUMNS_SQL +
+                                                              "WHERE " + COL_ORDER + "=(SELECT MIN(" + COL_ORDER + ") " +
+                                                              "FROM " + JOBS_TABLE_NAME + ")";
 
     /**
-     * A PreparedStatement to get max order from the database
+     * SQL to insert a job into the database
      */
-    private static PreparedStatement psGetMaxOrder = null;
+    private final static String INSERT_SQL = "INSERT INTO " + JOBS_TABLE_NAME + " (" + COL_HARVEST_SCHEDULE_ID + ", " +
+                                                                                 COL_SERVICE_ID + ", " +
+                                                                                 COL_PROCESSING_DIRECTIVE_ID + ", " +
+                                                                                 COL_OUTPUT_SET_ID + ", " +
+                                                                                 COL_ORDER + ", " +
+                                                                                 COL_TYPE + ") " +
+                                             "VALUES (?, ?, ?, ?, ?, ?)";
 
     /**
-     * A PreparedStatement to get next job from the database
+     * SQL to update a job in the database
      */
-    private static PreparedStatement psNextJobToExecute = null;
+    private final static String UPDATE_SQL = "UPDATE " + JOBS_TABLE_NAME + " SET " + COL_HARVEST_SCHEDULE_ID + "=?, " +
+                                                                               COL_SERVICE_ID + "=?, " +
+                                                                               COL_PROCESSING_DIRECTIVE_ID + "=?, " +
+                                                                               COL_OUTPUT_SET_ID + "=?, " +
+                                                                               COL_ORDER + "=?, " +
+                                                                               COL_TYPE + "=? " +
+                                             "WHERE " + COL_JOB_ID + "=?";
 
     /**
-     * Lock to synchronize access to the get all PreparedStatement
+     * SQL to delete a job from the database
      */
-    private static Object psGetAllLock = new Object();
-
-    /**
-     * Lock to synchronize access to the get by ID PreparedStatement
-     */
-    private static Object psGetByIdLock = new Object();
-
-    /**
-     * Lock to synchronize access to the get by harvest schedule ID PreparedStatement
-     */
-    private static Object psGetByHarvestScheduleIdLock = new Object();
-
-    /**
-     * Lock to synchronize access to the get by service PreparedStatement
-     */
-    private static Object psGetByServiceIdLock = new Object();
-
-    /**
-     * Lock to synchronize access to the insert PreparedStatement
-     */
-    private static Object psInsertLock = new Object();
-
-    /**
-     * Lock to synchronize access to the update PreparedStatement
-     */
-    private static Object psUpdateLock = new Object();
-
-    /**
-     * Lock to synchronize access to the delete PreparedStatement
-     */
-    private static Object psDeleteLock = new Object();
-
-    /**
-     * Lock to synchronize access to the get max order PreparedStatement
-     */
-    private static Object psMaxOrderLock = new Object();
-
-    /**
-     * Lock to synchronize access to the get next job PreparedStatement
-     */
-    private static Object psNextJobToExecuteLock = new Object();
+    private final static String DELETE_SQL = "DELETE FROM " + JOBS_TABLE_NAME + " WHERE " + COL_JOB_ID + "=?";
 
     @Override
     public List<Job> getAll() throws DatabaseConfigException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
+        if (log.isDebugEnabled())
+            log.debug("Getting all jobs");
+
+        // The list of all Jobs
+        List<Job> jobs = new ArrayList<Job>();
+
+        // Throws an exception if there's no connection. This means the configuration file was bad.
+        Connection connection = dbConnectionManager.leaseConnection();
+        PreparedStatement ps = null;
+        ResultSet results = null;
+
+        try {
+            ps = connection.prepareStatement(GET_ALL_SQL);
+            results = ps.executeQuery();
+
+            // For each result returned, add a Job object to the list with the returned data
+            while (results.next()) {
+                // The Object which will contain data on the job
+                Job job = new Job();
+
+                // Set the fields on the job
+                job.setId(results.getInt(1));
+                job.setHarvestSchedule(getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
+                job.setService(getServiceDAO().loadBasicService(results.getInt(3)));
+                job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().loadBasicProcessingDirective(results.getInt(4)));
+                job.setOutputSetId(results.getInt(5));
+                job.setOrder(results.getInt(6));
+                job.setJobType(results.getString(7));
+
+                // Add the job to the list
+                jobs.add(job);
+            } // end loop over results
 
-        synchronized (psGetAllLock) {
             if (log.isDebugEnabled())
-                log.debug("Getting all jobs");
-
-            // The ResultSet from the SQL query
-            ResultSet results = null;
-
-            // The list of all Jobs
-            List<Job> jobs = new ArrayList<Job>();
-
-            try {
-                // If the PreparedStatemnt to get all Jobs was not defined, create it
-                if (psGetAll == null || dbConnectionManager.isClosed(psGetAll)) {
-                    // SQL to get the rows
-                    String selectSql = "SELECT " + COL_JOB_ID + ", " +
-                                                   COL_HARVEST_SCHEDULE_ID + ", " +
-                                                   COL_SERVICE_ID + ", " +
-                                                   COL_PROCESSING_DIRECTIVE_ID + ", " +
-                                                   COL_OUTPUT_SET_ID + ", " +
-                                                   COL_ORDER + ",  " +
-                                                   COL_TYPE + " " +
-                                       "FROM " + JOBS_TABLE_NAME + " ORDER BY " + COL_ORDER + " ASC";
-
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"get all jobs\" PreparedStatemnt from the SQL " + selectSql);
-
-                    // A prepared statement to run the select SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psGetAll = dbConnectionManager.prepareStatement(selectSql, psGetAll);
-                } // end if(get all PreparedStatement not defined)
-
-                // Get the result of the SELECT statement
-
-                // Execute the query
-                results = dbConnectionManager.executeQuery(psGetAll);
-
-                // For each result returned, add a Job object to the list with the returned data
-                while (results.next()) {
-                    // The Object which will contain data on the job
-                    Job job = new Job();
-
-                    // Set the fields on the job
-                    job.setId(results.getInt(1));
-                    job.setHarvestSchedule(getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
-                    job.setService(getServiceDAO().loadBasicService(results.getInt(3)));
-                    job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().loadBasicProcessingDirective(results.getInt(4)));
-                    job.setOutputSetId(results.getInt(5));
-                    job.setOrder(results.getInt(6));
-                    job.setJobType(results.getString(7));
-
-                    // Add the job to the list
-                    jobs.add(job);
-                } // end loop over results
-
-                if (log.isDebugEnabled())
-                    log.debug("Found " + jobs.size() + " jobs in the database.");
-
-                return jobs;
-            } // end try(get results)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while getting the jobs.", e);
-
-                return jobs;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-                log.info("Re executing the query that failed ");
-                return getAll();
-            } finally {
-                dbConnectionManager.closeResultSet(results);
-            } // end finally(close ResultSet)
-        } // end synchronized
+                log.debug("Found " + jobs.size() + " jobs in the database.");
+
+            return jobs;
+        } // end try(get results)
+        catch (SQLException e) {
+            log.error("A SQLException occurred while getting the jobs.", e);
+
+            return jobs;
+        } // end catch(SQLException)
+        finally {
+            dbConnectionManager.release(results, ps, connection);
+        } // end finally(release the connection)
     } // end method getAll()
 
     @Override
     public Job getById(int jobId) throws DatabaseConfigException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
-
-        synchronized (psGetByIdLock) {
-            if (log.isDebugEnabled())
-                log.debug("Getting the job with ID " + jobId + ".");
-
-            // The ResultSet from the SQL query
-            ResultSet results = null;
-
-            try {
-                // If the PreparedStatemnt to get all Jobs was not defined, create it
-                if (psGetById == null || dbConnectionManager.isClosed(psGetById)) {
-                    // SQL to get the rows
-                    String selectSql = "SELECT " + COL_JOB_ID + ", " +
-                                       COL_HARVEST_SCHEDULE_ID + ", " +
-                                       COL_SERVICE_ID + ", " +
-                                       COL_PROCESSING_DIRECTIVE_ID + ", " +
-                                       COL_OUTPUT_SET_ID + ", " +
-                                       COL_ORDER + ",  " +
-                                       COL_TYPE + " " +
-                                       "FROM " + JOBS_TABLE_NAME + " " +
-                                        "WHERE " + COL_JOB_ID + "=?";
-
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"get job by ID\" PreparedStatemnt from the SQL " + selectSql);
-
-                    // A prepared statement to run the select SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psGetById = dbConnectionManager.prepareStatement(selectSql, psGetById);
-                } // end if(get by ID PreparedStatement not defined)
-
-                // Set the parameters on the get by ID prepared statement
-                psGetById.setInt(1, jobId);
-
-                // Get the result of the SELECT statement
-
-                // Execute the query
-                results = dbConnectionManager.executeQuery(psGetById);
-
-                // For each result returned, add a Job object to the list with the returned data
-                if (results.next()) {
-                    // The Object which will contain data on the job
-                    Job job = new Job();
-
-                    // Set the fields on the job
-                    job.setId(results.getInt(1));
-                    job.setHarvestSchedule(results.getInt(2) == 0 ? null : getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
-                    job.setService(results.getInt(3) == 0 ? null : getServiceDAO().loadBasicService(results.getInt(3)));
-                    job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().loadBasicProcessingDirective(results.getInt(4)));
-                    job.setOutputSetId(results.getInt(5));
-                    job.setOrder(results.getInt(6));
-                    job.setJobType(results.getString(7));
-
-                    if (log.isDebugEnabled())
-                        log.debug("Found the job with ID " + jobId + " in the database.");
-
-                    return job;
-                } // end if(result found)
-
-                if (log.isDebugEnabled())
-                    log.debug("Could not find the job with ID " + jobId + " in the database.");
-
-                return null;
-            } // end try(get result)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while getting the job with ID " + jobId + ".", e);
-
-                return null;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-
-                log.info("Re executing the query that failed ");
-                return getById(jobId);
-            } finally {
-                dbConnectionManager.closeResultSet(results);
-            } // end finally(close ResultSet)
-        } // end synchronized
+        return loadBasicJob(jobId);
     } // end method getById(int)
 
     @Override
     public Job loadBasicJob(int jobId) throws DatabaseConfigException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
-
-        synchronized (psGetByIdLock) {
-            if (log.isDebugEnabled())
-                log.debug("Getting the job with ID " + jobId + ".");
-
-            // The ResultSet from the SQL query
-            ResultSet results = null;
-
-            try {
-                // If the PreparedStatemnt to get all Jobs was not defined, create it
-                if (psGetById == null || dbConnectionManager.isClosed(psGetById)) {
-                    // SQL to get the rows
-                    String selectSql = "SELECT " + COL_JOB_ID + ", " +
-                                       COL_HARVEST_SCHEDULE_ID + ", " +
-                                       COL_SERVICE_ID + ", " +
-                                       COL_PROCESSING_DIRECTIVE_ID + ", " +
-                                       COL_OUTPUT_SET_ID + ", " +
-                                       COL_ORDER + ",  " +
-                                       COL_TYPE + " " +
-                                       "FROM " + JOBS_TABLE_NAME + " " +
-                                        "WHERE " + COL_JOB_ID + "=?";
-
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"get job by ID\" PreparedStatemnt from the SQL " + selectSql);
-
-                    // A prepared statement to run the select SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psGetById = dbConnectionManager.prepareStatement(selectSql, psGetById);
-                } // end if(get by ID PreparedStatement not defined)
-
-                // Set the parameters on the get by ID prepared statement
-                psGetById.setInt(1, jobId);
-
-                // Get the result of the SELECT statement
-
-                // Execute the query
-                results = dbConnectionManager.executeQuery(psGetById);
-
-                // For each result returned, add a Job object to the list with the returned data
-                if (results.next()) {
-                    // The Object which will contain data on the job
-                    Job job = new Job();
-
-                    // Set the fields on the job
-                    job.setId(results.getInt(1));
-                    job.setHarvestSchedule(results.getInt(2) == 0 ? null : getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
-                    job.setService(results.getInt(3) == 0 ? null : getServiceDAO().loadBasicService(results.getInt(3)));
-                    job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().loadBasicProcessingDirective(results.getInt(4)));
-                    job.setOutputSetId(results.getInt(5));
-                    job.setOrder(results.getInt(6));
-                    job.setJobType(results.getString(7));
-
-                    if (log.isDebugEnabled())
-                        log.debug("Found the job with ID " + jobId + " in the database.");
-
-                    return job;
-                } // end if(result found)
+        if (log.isDebugEnabled())
+            log.debug("Getting the job with ID " + jobId + ".");
+
+        // Throws an exception if there's no connection. This means the configuration file was bad.
+        Connection connection = dbConnectionManager.leaseConnection();
+        PreparedStatement ps = null;
+        ResultSet results = null;
+
+        try {
+            ps = connection.prepareStatement(GET_BY_ID_SQL);
+            ps.setInt(1, jobId);
+            results = ps.executeQuery();
+
+            if (results.next()) {
+                // The Object which will contain data on the job
+                Job job = new Job();
+
+                // Set the fields on the job
+                job.setId(results.getInt(1));
+                job.setHarvestSchedule(results.getInt(2) == 0 ? null : getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
+                job.setService(results.getInt(3) == 0 ? null : getServiceDAO().loadBasicService(results.getInt(3)));
+                job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().loadBasicProcessingDirective(results.getInt(4)));
+                job.setOutputSetId(results.getInt(5));
+                job.setOrder(results.getInt(6));
+                job.setJobType(results.getString(7));
 
                 if (log.isDebugEnabled())
-                    log.debug("Could not find the job with ID " + jobId + " in the database.");
-
-                return null;
-            } // end try(get result)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while getting the job with ID " + jobId + ".", e);
-
-                return null;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-
-                log.info("Re executing the query that failed ");
-                return loadBasicJob(jobId);
-            } finally {
-                dbConnectionManager.closeResultSet(results);
-            } // end finally(close ResultSet)
-        } // end synchronized
+                    log.debug("Found the job with ID " + jobId + " in the database.");
+
+                return job;
+            } // end if(result found)
+
+            if (log.isDebugEnabled())
+                log.debug("Could not find the job with ID " + jobId + " in the database.");
+
+            return null;
+        } // end try(get result)
+        catch (SQLException e) {
+            log.error("A SQLException occurred while getting the job with ID " + jobId + ".", e);
+
+            return null;
+        } // end catch(SQLException)
+        finally {
+            dbConnectionManager.release(results, ps, connection);
+        } // end finally(release the connection)
     } // end method loadBasicJob(int)
 
     @Override
     public List<Job> getByHarvestScheduleId(int harvestScheduleId) throws DatabaseConfigException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
+        if (log.isDebugEnabled())
+            log.debug("Getting all jobs whose harvest schedule is " + harvestScheduleId);
 
-        synchronized (psGetByHarvestScheduleIdLock) {
-            if (log.isDebugEnabled())
-                log.debug("Getting all jobs whose harvest schedule is " + harvestScheduleId);
-
-            // The ResultSet from the SQL query
-            ResultSet results = null;
-
-            // The list of all Jobs
-            List<Job> jobs = new ArrayList<Job>();
-
-            try {
-                // If the PreparedStatemnt to get a Job by ID was not defined, create it
-                if (psGetByHarvestScheduleId == null || dbConnectionManager.isClosed(psGetByHarvestScheduleId)) {
-                    // SQL to get the rows
-                    String selectSql = "SELECT " + COL_JOB_ID + ", " +
-                                       COL_HARVEST_SCHEDULE_ID + ", " +
-                                       COL_SERVICE_ID + ", " +
-                                       COL_PROCESSING_DIRECTIVE_ID + ", " +
-                                       COL_OUTPUT_SET_ID + ", " +
-                                       COL_ORDER + ",  " +
-                                       COL_TYPE + " " +
-                                       "FROM " + JOBS_TABLE_NAME + " " +
-                                        "WHERE " + COL_HARVEST_SCHEDULE_ID + "=?";
-
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"get jobs by harvest schedule ID\" PreparedStatemnt from the SQL " + selectSql);
-
-                    // A prepared statement to run the select SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psGetByHarvestScheduleId = dbConnectionManager.prepareStatement(selectSql, psGetByHarvestScheduleId);
-                } // end if(get by source harvest schedule ID PreparedStatement not defined)
-
-                // Set the parameters on the PreparedStatement
-                psGetByHarvestScheduleId.setInt(1, harvestScheduleId);
-
-                // Get the result of the SELECT statement
-
-                // Execute the query
-                results = dbConnectionManager.executeQuery(psGetByHarvestScheduleId);
-
-                // For each result returned, add a Job object to the list with the returned data
-                while (results.next()) {
-                    // The Object which will contain data on the job
-                    Job job = new Job();
-
-                    // Set the fields on the job
-                    job.setId(results.getInt(1));
-                    job.setHarvestSchedule(results.getInt(2) == 0 ? null : getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
-                    job.setService(results.getInt(3) == 0 ? null : getServiceDAO().loadBasicService(results.getInt(3)));
-                    job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().loadBasicProcessingDirective(results.getInt(4)));
-                    job.setOutputSetId(results.getInt(5));
-                    job.setOrder(results.getInt(6));
-                    job.setJobType(results.getString(7));
-
-                    // Add the job to the list
-                    jobs.add(job);
-                } // end loop over results
+        List<Job> jobs = getJobs(GET_BY_HARVEST_SCHEDULE_ID_SQL, harvestScheduleId);
 
-                if (log.isDebugEnabled())
-                    log.debug("Found " + jobs.size() + " jobs with harvest schedule ID " + harvestScheduleId + " in the database.");
-
-                return jobs;
-            } // end try(get results)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while getting the jobs with harvest schedule ID " + harvestScheduleId + ".", e);
-
-                return jobs;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-                log.info("Re executing the query that failed ");
-                return getByHarvestScheduleId(harvestScheduleId);
-            } finally {
-                dbConnectionManager.closeResultSet(results);
-            } // end finally(close ResultSet)
-        } // end synchronized
+        if (log.isDebugEnabled())
+            log.debug("Found " + jobs.size() + " jobs with harvest schedule ID " + harvestScheduleId + " in the database.");
+
+        return jobs;
     } // end method getByHarvestScheduleId(int)
 
     @Override
     public List<Job> getByServiceId(int serviceId) throws DatabaseConfigException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
+        if (log.isDebugEnabled())
+            log.debug("Getting all jobs whose source service is " + serviceId);
 
-        synchronized (psGetByServiceIdLock) {
-            if (log.isDebugEnabled())
-                log.debug("Getting all jobs whose source service is " + serviceId);
-
-            // The ResultSet from the SQL query
-            ResultSet results = null;
-
-            // The list of all Jobs
-            List<Job> jobs = new ArrayList<Job>();
-
-            try {
-                // If the PreparedStatemnt to get a Job by ID was not defined, create it
-                if (psGetByServiceId == null || dbConnectionManager.isClosed(psGetByServiceId)) {
-                    // SQL to get the rows
-                    String selectSql = "SELECT " + COL_JOB_ID + ", " +
-                                       COL_HARVEST_SCHEDULE_ID + ", " +
-                                       COL_SERVICE_ID + ", " +
-                                       COL_PROCESSING_DIRECTIVE_ID + ", " +
-                                       COL_OUTPUT_SET_ID + ", " +
-                                       COL_ORDER + ",  " +
-                                       COL_TYPE + " " +
-                                       "FROM " + JOBS_TABLE_NAME + " " +
-                                        "WHERE " + COL_SERVICE_ID + "=?";
-
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"get jobs by source service ID\" PreparedStatemnt from the SQL " + selectSql);
-
-                    // A prepared statement to run the select SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psGetByServiceId = dbConnectionManager.prepareStatement(selectSql, psGetByServiceId);
-                } // end if(get by source service ID PreparedStatement not defined)
-
-                // Set the parameters on the PreparedStatement
-                psGetByServiceId.setInt(1, serviceId);
-
-                // Get the result of the SELECT statement
-
-                // Execute the query
-                results = dbConnectionManager.executeQuery(psGetByServiceId);
-
-                // For each result returned, add a Job object to the list with the returned data
-                while (results.next()) {
-                    // The Object which will contain data on the job
-                    Job job = new Job();
-
-                    // Set the fields on the job
-                    job.setId(results.getInt(1));
-                    job.setHarvestSchedule(results.getInt(2) == 0 ? null : getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
-                    job.setService(results.getInt(3) == 0 ? null : getServiceDAO().loadBasicService(results.getInt(3)));
-                    job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().loadBasicProcessingDirective(results.getInt(4)));
-                    job.setOutputSetId(results.getInt(5));
-                    job.setOrder(results.getInt(6));
-                    job.setJobType(results.getString(7));
-
-                    // Add the job to the list
-                    jobs.add(job);
-                } // end loop over results
+        List<Job> jobs = getJobs(GET_BY_SERVICE_ID_SQL, serviceId);
 
-                if (log.isDebugEnabled())
-                    log.debug("Found " + jobs.size() + " jobs with source service ID " + serviceId + " in the database.");
-
-                return jobs;
-            } // end try(get results)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while getting the jobs with source service ID " + serviceId + ".", e);
-
-                return jobs;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-                log.info("Re executing the query that failed ");
-                return getByServiceId(serviceId);
-            } finally {
-                dbConnectionManager.closeResultSet(results);
-            } // end finally(close ResultSet)
-        } // end synchronized
-    } // end method getBySourceServiceId(int)
+        if (log.isDebugEnabled())
+            log.debug("Found " + jobs.size() + " jobs with source service ID " + serviceId + " in the database.");
+
+        return jobs;
+    } // end method getByServiceId(int)
+
+    /**
+     * Gets the jobs selected by sql, whose one parameter is id
+     */
+    private List<Job> getJobs(String sql, int id) throws DatabaseConfigException {
+        // The list of matching Jobs
+        List<Job> jobs = new ArrayList<Job>();
+
+        // Throws an exception if there's no connection. This means the configuration file was bad.
+        Connection connection = dbConnectionManager.leaseConnection();
+        PreparedStatement ps = null;
+        ResultSet results = null;
+
+        try {
+            ps = connection.prepareStatement(sql);
+            ps.setInt(1, id);
+            results = ps.executeQuery();
+
+            // For each result returned, add a Job object to the list with the returned data
+            while (results.next()) {
+                // The Object which will contain data on the job
+                Job job = new Job();
+
+                // Set the fields on the job
+                job.setId(results.getInt(1));
+                job.setHarvestSchedule(results.getInt(2) == 0 ? null : getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
+                job.setService(results.getInt(3) == 0 ? null : getServiceDAO().loadBasicService(results.getInt(3)));
+                job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().loadBasicProcessingDirective(results.getInt(4)));
+                job.setOutputSetId(results.getInt(5));
+                job.setOrder(results.getInt(6));
+                job.setJobType(results.getString(7));
+
+                // Add the job to the list
+                jobs.add(job);
+            } // end loop over results
+
+            return jobs;
+        } // end try(get results)
+        catch (SQLException e) {
+            log.error("A SQLException occurred while getting the jobs with " + sql + " and " + id + ".", e);
+
+            return jobs;
+        } // end catch(SQLException)
+        finally {
+            dbConnectionManager.release(results, ps, connection);
+        } // end finally(release the connection)
+    } // end method getJobs(String, int)
 
     @Override
     public int getMaxOrder() throws DatabaseConfigException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
+        if (log.isDebugEnabled())
+            log.debug("Getting max order");
 
         int maxOrder = 0;
 
-        synchronized (psMaxOrderLock) {
-            if (log.isDebugEnabled())
-                log.debug("Getting max order");
-
-            // The ResultSet from the SQL query
-            ResultSet results = null;
-
-            try {
-                // If the PreparedStatemnt to get a Job by ID was not defined, create it
-                if (psGetMaxOrder == null || dbConnectionManager.isClosed(psGetMaxOrder)) {
-                    // SQL to get the rows
-                    String selectSql = "SELECT MAX(" + COL_ORDER + ") " +
-                                       "FROM " + JOBS_TABLE_NAME;
+        // Throws an exception if there's no connection. This means the configuration file was bad.
+        Connection connection = dbConnectionManager.leaseConnection();
+        PreparedStatement ps = null;
+        ResultSet results = null;
 
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"get max order\" PreparedStatemnt from the SQL " + selectSql);
+        try {
+            ps = connection.prepareStatement(GET_MAX_ORDER_SQL);
+            results = ps.executeQuery();
 
-                    // A prepared statement to run the select SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psGetMaxOrder = dbConnectionManager.prepareStatement(selectSql, psGetMaxOrder);
-                } // end if(get by source service ID PreparedStatement not defined)
+            while (results.next()) {
+                maxOrder = results.getInt(1);
+            } // end loop over results
 
-                // Get the result of the SELECT statement
-
-                // Execute the query
-                results = dbConnectionManager.executeQuery(psGetMaxOrder);
+            if (log.isDebugEnabled())
+                log.debug("Found " + maxOrder + " as max order in the database.");
 
-                while (results.next()) {
-                    maxOrder = results.getInt(1);
-                } // end loop over results
+            return maxOrder;
+        } // end try(get results)
+        catch (SQLException e) {
+            log.error("A SQLException occurred while getting max order.", e);
 
-                if (log.isDebugEnabled())
-                    log.debug("Found " + maxOrder + " as max order in the database.");
-
-                return maxOrder;
-            } // end try(get results)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while getting max order.", e);
-
-                return maxOrder;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-                log.info("Re executing the query that failed ");
-                return getMaxOrder();
-            } finally {
-                dbConnectionManager.closeResultSet(results);
-            } // end finally(close ResultSet)
-        } // end synchronized
-    } // end method getBySourceServiceId(int)
+            return maxOrder;
+        } // end catch(SQLException)
+        finally {
+            dbConnectionManager.release(results, ps, connection);
+        } // end finally(release the connection)
+    } // end method getMaxOrder()
 
     @Override
     public Job getNextJobToExecute() throws DatabaseConfigException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
-
-        synchronized (psNextJobToExecuteLock) {
-            // The ResultSet from the SQL query
-            ResultSet results = null;
-
-            // The Object which will contain data on the job
-            Job job = null;
-
-            try {
-                // If the PreparedStatemnt to get a Job by ID was not defined, create it
-                if (psNextJobToExecute == null || dbConnectionManager.isClosed(psNextJobToExecute)) {
-                    // SQL to get the rows
-                    String selectSql = "SELECT " + COL_JOB_ID + ", " +
-                                       COL_HARVEST_SCHEDULE_ID + ", " +
-                                       COL_SERVICE_ID + ", " +
-                                       COL_PROCESSING_DIRECTIVE_ID + ", " +
-                                       COL_OUTPUT_SET_ID + ", " +
-                                       COL_ORDER + ", " +
-                                       COL_TYPE + " " +
-                                       "FROM " + JOBS_TABLE_NAME + " " +
-                                        "WHERE " + COL_ORDER + "=(SELECT MIN(" + COL_ORDER + ") " +
-                                       "FROM " + JOBS_TABLE_NAME + ")";
-
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"get max order\" PreparedStatemnt from the SQL " + selectSql);
-
-                    // A prepared statement to run the select SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psNextJobToExecute = dbConnectionManager.prepareStatement(selectSql, psNextJobToExecute);
-                } // end if(get by source service ID PreparedStatement not defined)
-
-                // Get the result of the SELECT statement
-
-                // Execute the query
-                results = dbConnectionManager.executeQuery(psNextJobToExecute);
-
-                while (results.next()) {
-                    job = new Job();
-                    // Set the fields on the job
-                    job.setId(results.getInt(1));
-                    job.setHarvestSchedule(results.getInt(2) == 0 ? null : getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
-                    job.setService(results.getInt(3) == 0 ? null : getServiceDAO().loadBasicService(results.getInt(3)));
-                    job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().getById(results.getInt(4)));
-                    job.setOutputSetId(results.getInt(5));
-                    job.setOrder(results.getInt(6));
-                    job.setJobType(results.getString(7));
-
-                } // end loop over results
-
-                if (log.isDebugEnabled() && job != null)
-                    log.debug("Found job " + job + " in the database.");
+        // The Object which will contain data on the job
+        Job job = null;
+
+        // Throws an exception if there's no connection. This means the configuration file was bad.
+        Connection connection = dbConnectionManager.leaseConnection();
+        PreparedStatement ps = null;
+        ResultSet results = null;
+
+        try {
+            ps = connection.prepareStatement(GET_NEXT_JOB_TO_EXECUTE_SQL);
+            results = ps.executeQuery();
+
+            while (results.next()) {
+                job = new Job();
+                // Set the fields on the job
+                job.setId(results.getInt(1));
+                job.setHarvestSchedule(results.getInt(2) == 0 ? null : getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
+                job.setService(results.getInt(3) == 0 ? null : getServiceDAO().loadBasicService(results.getInt(3)));
+                job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().getById(results.getInt(4)));
+                job.setOutputSetId(results.getInt(5));
+                job.setOrder(results.getInt(6));
+                job.setJobType(results.getString(7));
+            } // end loop over results
+
+            if (log.isDebugEnabled() && job != null)
+                log.debug("Found job " + job + " in the database.");
+
+            return job;
+        } // end try(get results)
+        catch (SQLException e) {
+            log.error("A SQLException occurred while getting the next job to execute.", e);
+
+            return job;
+        } // end catch(SQLException)
+        finally {
+            dbConnectionManager.release(results, ps, connection);
+        } // end finally(release the connection)
+    } // end method getNextJobToExecute()
 
-                return job;
-            } // end try(get results)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while getting max order.", e);
+    @Override
+    public List<Job> getJobsToExecute() throws DatabaseConfigException {
+        // The jobs in the order they're to be executed
+        List<Job> jobs = new ArrayList<Job>();
+
+        // Throws an exception if there's no connection. This means the configuration file was bad.
+        Connection connection = dbConnectionManager.leaseConnection();
+        PreparedStatement ps = null;
+        ResultSet results = null;
+
+        try {
+            ps = connection.prepareStatement(GET_ALL_SQL);
+            results = ps.executeQuery();
+
+            while (results.next()) {
+                // Set the fields on the job the same way getNextJobToExecute does
+                Job job = new Job();
+                job.setId(results.getInt(1));
+                job.setHarvestSchedule(results.getInt(2) == 0 ? null : getHarvestScheduleDAO().loadBasicHarvestSchedule(results.getInt(2)));
+                job.setService(results.getInt(3) == 0 ? null : getServiceDAO().loadBasicService(results.getInt(3)));
+                job.setProcessingDirective(results.getInt(4) == 0 ? null : getProcessingDirectiveDAO().getById(results.getInt(4)));
+                job.setOutputSetId(results.getInt(5));
+                job.setOrder(results.getInt(6));
+                job.setJobType(results.getString(7));
+
+                jobs.add(job);
+            } // end loop over results
 
-                return job;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-                log.info("Re executing the query that failed ");
-                return getNextJobToExecute();
-            } finally {
-                dbConnectionManager.closeResultSet(results);
-            } // end finally(close ResultSet)
-        } // end synchronized
-    } // end method getBySourceServiceId(int)
+            if (log.isDebugEnabled())
+                log.debug("Found " + jobs.size() + " jobs to execute in the database.");
+
+            return jobs;
+        } // end try(get results)
+        catch (SQLException e) {
+            log.error("A SQLException occurred while getting the jobs to execute.", e);
+
+            return jobs;
+        } // end catch(SQLException)
+        finally {
+            dbConnectionManager.release(results, ps, connection);
+        } // end finally(release the connection)
+    } // end method getJobsToExecute()
 
     @Override
     public boolean insert(Job job) throws DataException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
-
         // Check that the non-ID fields on the job are valid
         validateFields(job, false, true);
 
-        synchronized (psInsertLock) {
-            if (log.isDebugEnabled())
-                log.debug("Inserting a new job.");
-
-            // The ResultSet returned by the query
-            ResultSet rs = null;
-
-            try {
-                // If the PreparedStatement to insert a job is not defined, create it
-                if (psInsert == null || dbConnectionManager.isClosed(psInsert)) {
-                    // SQL to insert the new row
-                    String insertSql = "INSERT INTO " + JOBS_TABLE_NAME + " (" + COL_HARVEST_SCHEDULE_ID + ", " +
-                                                                            COL_SERVICE_ID + ", " +
-                                                                            COL_PROCESSING_DIRECTIVE_ID + ", " +
-                                                                            COL_OUTPUT_SET_ID + ", " +
-                                                                            COL_ORDER + ", " +
-                                                                            COL_TYPE + ") " +
-                                       "VALUES (?, ?, ?, ?, ?, ?)";
-
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"insert job\" PreparedStatement from the SQL " + insertSql);
-
-                    // A prepared statement to run the insert SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psInsert = dbConnectionManager.prepareStatement(insertSql, psInsert);
-                } // end if(insert PreparedStatement not defined)
-
-                // Set the parameters on the insert statement
-                psInsert.setInt(1, (job.getHarvestSchedule() == null ? 0 : job.getHarvestSchedule().getId()));
-                psInsert.setInt(2, (job.getService() == null ? 0 : job.getService().getId()));
-                psInsert.setInt(3, (job.getProcessingDirective() == null ? 0 : job.getProcessingDirective().getId()));
-                psInsert.setInt(4, job.getOutputSetId());
-                psInsert.setInt(5, job.getOrder());
-                psInsert.setString(6, job.getJobType());
-
-                // Execute the insert statement and return the result
-                if (dbConnectionManager.executeUpdate(psInsert) > 0) {
-                    // Get the auto-generated job ID and set it correctly on this Job Object
-                    rs = dbConnectionManager.createStatement().executeQuery("SELECT LAST_INSERT_ID()");
-
-                    if (rs.next())
-                        job.setId(rs.getInt(1));
-
-                    return true;
-                } // end if(insert succeeded)
-                else
-                    return false;
-            } // end try(insert row)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while inserting a new job.", e);
-
+        if (log.isDebugEnabled())
+            log.debug("Inserting a new job.");
+
+        // Throws an exception if there's no connection. This means the configuration file was bad.
+        Connection connection = dbConnectionManager.leaseConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            // Ask for the auto-generated key, which LAST_INSERT_ID would only give us
+            // on this connection anyway
+            ps = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+
+            // Set the parameters on the insert statement
+            ps.setInt(1, (job.getHarvestSchedule() == null ? 0 : job.getHarvestSchedule().getId()));
+            ps.setInt(2, (job.getService() == null ? 0 : job.getService().getId()));
+            ps.setInt(3, (job.getProcessingDirective() == null ? 0 : job.getProcessingDirective().getId()));
+            ps.setInt(4, job.getOutputSetId());
+            ps.setInt(5, job.getOrder());
+            ps.setString(6, job.getJobType());
+
+            // Execute the insert statement and return the result
+            if (ps.executeUpdate() > 0) {
+                // Get the auto-generated job ID and set it correctly on this Job Object
+                rs = ps.getGeneratedKeys();
+
+                if (rs.next())
+                    job.setId(rs.getInt(1));
+
+                return true;
+            } // end if(insert succeeded)
+            else
                 return false;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-                log.info("Re executing the query that failed ");
-                return insert(job);
-            } finally {
-                dbConnectionManager.closeResultSet(rs);
-            } // end finally(close ResultSet)
-        } // end synchronized
+        } // end try(insert row)
+        catch (SQLException e) {
+            log.error("A SQLException occurred while inserting a new job.", e);
+
+            return false;
+        } // end catch(SQLException)
+        finally {
+            dbConnectionManager.release(rs, ps, connection);
+        } // end finally(release the connection)
     } // end method insert(Job)
 
     @Override
     public boolean update(Job job) throws DataException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
-
         // Check that the fields on the job are valid
         validateFields(job, true, true);
 
-        synchronized (psUpdateLock) {
-            if (log.isDebugEnabled())
-                log.debug("Updating the job with ID " + job.getId());
-
-            try {
-                // If the PreparedStatement to update a job was not defined, create it
-                if (psUpdate == null || dbConnectionManager.isClosed(psUpdate)) {
-                    // SQL to update new row
-                    String updateSql = "UPDATE " + JOBS_TABLE_NAME + " SET " + COL_HARVEST_SCHEDULE_ID + "=?, " +
-                                                                          COL_SERVICE_ID + "=?, " +
-                                                                          COL_PROCESSING_DIRECTIVE_ID + "=?, " +
-                                                                          COL_OUTPUT_SET_ID + "=?, " +
-                                                                          COL_ORDER + "=?,  " +
-                                                                          COL_TYPE + "=? " +
-                                       "WHERE " + COL_JOB_ID + "=?";
-
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"update job\" PreparedStatement from the SQL " + updateSql);
-
-                    // A prepared statement to run the update SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psUpdate = dbConnectionManager.prepareStatement(updateSql, psUpdate);
-                } // end if(update PreparedStatement not defined)
-
-                // Set the parameters on the update statement
-                psUpdate.setInt(1, (job.getHarvestSchedule() == null ? 0 : job.getHarvestSchedule().getId()));
-                psUpdate.setInt(2, (job.getService() == null ? 0 : job.getService().getId()));
-                psUpdate.setInt(3, (job.getProcessingDirective() == null ? 0 : job.getProcessingDirective().getId()));
-                psUpdate.setInt(4, job.getOutputSetId());
-                psUpdate.setInt(5, job.getOrder());
-                psUpdate.setString(6, job.getJobType());
-                psUpdate.setInt(7, job.getId());
-
-                // Execute the insert statement and return the result
-                return (dbConnectionManager.executeUpdate(psUpdate) > 0);
-            } // end try(update the row)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while updating the job with ID " + job.getId(), e);
-
-                return false;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-                log.info("Re executing the query that failed ");
-                return update(job);
-            }
-        } // end synchronized
+        if (log.isDebugEnabled())
+            log.debug("Updating the job with ID " + job.getId());
+
+        // Throws an exception if there's no connection. This means the configuration file was bad.
+        Connection connection = dbConnectionManager.leaseConnection();
+        PreparedStatement ps = null;
+
+        try {
+            ps = connection.prepareStatement(UPDATE_SQL);
+
+            // Set the parameters on the update statement
+            ps.setInt(1, (job.getHarvestSchedule() == null ? 0 : job.getHarvestSchedule().getId()));
+            ps.setInt(2, (job.getService() == null ? 0 : job.getService().getId()));
+            ps.setInt(3, (job.getProcessingDirective() == null ? 0 : job.getProcessingDirective().getId()));
+            ps.setInt(4, job.getOutputSetId());
+            ps.setInt(5, job.getOrder());
+            ps.setString(6, job.getJobType());
+            ps.setInt(7, job.getId());
+
+            // Execute the update statement and return the result
+            return (ps.executeUpdate() > 0);
+        } // end try(update the row)
+        catch (SQLException e) {
+            log.error("A SQLException occurred while updating the job with ID " + job.getId(), e);
+
+            return false;
+        } // end catch(SQLException)
+        finally {
+            dbConnectionManager.release(null, ps, connection);
+        } // end finally(release the connection)
     } // end method update(Job)
 
     @Override
     public boolean delete(Job job) throws DataException {
-        // Throw an exception if the connection is null. This means the configuration file was bad.
-        if (dbConnectionManager.getDbConnection() == null)
-            throw new DatabaseConfigException("Unable to connect to the database using the parameters from the configuration file.");
-
         // Check that the ID field on the job are valid
         validateFields(job, true, false);
 
-        synchronized (psDeleteLock) {
-            if (log.isDebugEnabled())
-                log.debug("Deleting the service to job ID " + job.getId());
-
-            try {
-                // If the PreparedStatement to delete a service to output format was not defined, create it
-                if (psDelete == null || dbConnectionManager.isClosed(psDelete)) {
+        if (log.isDebugEnabled())
+            log.debug("Deleting the job with ID " + job.getId());
 
-                    // SQL to delete the row from the table
-                    String deleteSql = "DELETE FROM " + JOBS_TABLE_NAME + " " +
-                                       "WHERE " + COL_JOB_ID + " = ? ";
+        // Throws an exception if there's no connection. This means the configuration file was bad.
+        Connection connection = dbConnectionManager.leaseConnection();
+        PreparedStatement ps = null;
 
-                    if (log.isDebugEnabled())
-                        log.debug("Creating the \"delete job\" PreparedStatement from the SQL " + deleteSql);
+        try {
+            ps = connection.prepareStatement(DELETE_SQL);
 
-                    // A prepared statement to run the delete SQL
-                    // This should sanitize the SQL and prevent SQL injection
-                    psDelete = dbConnectionManager.prepareStatement(deleteSql, psDelete);
-                } // end if(delete PreparedStatement not defined)
+            // Set the parameters on the delete statement
+            ps.setInt(1, job.getId());
 
-                // Set the parameters on the delete statement
-                psDelete.setInt(1, job.getId());
+            // Execute the delete statement and return the result
+            return ps.execute();
+        } // end try(delete row)
+        catch (SQLException e) {
+            log.error("A SQLException occurred while deleting the job with ID " + job.getId(), e);
 
-                // Execute the delete statement and return the result
-                return dbConnectionManager.execute(psDelete);
-            } // end try(delete row)
-            catch (SQLException e) {
-                log.error("A SQLException occurred while deleting the job with ID " + job.getId(), e);
-
-                return false;
-            } // end catch(SQLException)
-            catch (DBConnectionResetException e) {
-                log.info("Re executing the query that failed ");
-                return delete(job);
-            }
-        } // end synchronized
+            return false;
+        } // end catch(SQLException)
+        finally {
+            dbConnectionManager.release(null, ps, connection);
+        } // end finally(release the connection)
     } // end method delete(Job)
 } // end class DefaultJobDAO
@@ -181,6 +181,16 @@ public abstract class JobDAO extends BaseDAO {
      */
     public abstract Job getNextJobToExecute() throws DatabaseConfigException;
 
+    /**
+     * Get all the jobs in the queue, in the order they're to be executed (the first is the one
+     * getNextJobToExecute returns)
+     * 
+     * @return the jobs to execute
+     * @throws DatabaseConfigException
+     *             if unable to contact database
+     */
+    public abstract List<Job> getJobsToExecute() throws DatabaseConfigException;
+
     /**
      * Validates the fields on the passed Job Object.
      * 
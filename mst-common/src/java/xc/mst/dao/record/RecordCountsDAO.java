@@ -8,8 +8,10 @@
  */
 package xc.mst.dao.record;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +29,9 @@ public class RecordCountsDAO extends RepositoryDAO {
     public final static String INCOMING_RECORD_COUNTS = "incoming_record_counts";
     public final static String OUTGOING_RECORD_COUNTS = "outgoing_record_counts";
 
+    // repos known to have outgoing_record_counts.unchanged_cnt
+    protected java.util.Set<String> reposWithUnchangedCount = Collections.synchronizedSet(new HashSet<String>());
+
     protected RecordCounts injectRecordCounts(RecordCounts rc, List<Map<String, Object>> rows) {
         for (Map<String, Object> row : rows) {
             if (rc == null) {
@@ -40,6 +45,8 @@ public class RecordCountsDAO extends RepositoryDAO {
                     counts.put(me.getKey(), new AtomicInteger((Integer) me.getValue()));
                 } else if (RecordCounts.UNEXPECTED_ERROR.equals(me.getKey())) {
                     counts.put(me.getKey(), new AtomicInteger((Integer) me.getValue()));
+                } else if (RecordCounts.UNCHANGED.equals(me.getKey())) {
+                    counts.put(me.getKey(), new AtomicInteger((Integer) me.getValue()));
                 } else if (RecordCounts.UPD_PREV_COLUMN_NAMES.containsValue(me.getKey())) {
                     for (String value : RecordCounts.UPD_PREV_COLUMN_NAMES.values()) {
                         if (me.getKey().equals(value)) {
@@ -109,8 +116,34 @@ public class RecordCountsDAO extends RepositoryDAO {
             persistRecordCounts(repoName, outgoingRecordCounts, OUTGOING_RECORD_COUNTS);
     }
 
+    /**
+     * outgoing_record_counts.unchanged_cnt was added after repositories had been created; they get
+     * it the first time there's an unchanged count to persist.
+     */
+    protected void checkUnchangedCountColumn(String repoName) {
+        repoName = getUtil().getDBSchema(repoName);
+        if (reposWithUnchangedCount.contains(repoName)) {
+            return;
+        }
+        synchronized (reposWithUnchangedCount) {
+            if (!reposWithUnchangedCount.contains(repoName)) {
+                if (this.jdbcTemplate.queryForList(
+                        "show columns from " + getTableName(repoName, OUTGOING_RECORD_COUNTS) + " like '" + RecordCounts.UNCHANGED + "'").size() == 0) {
+                    LOG.info("adding " + RecordCounts.UNCHANGED + " to " + OUTGOING_RECORD_COUNTS + " for " + repoName);
+                    this.jdbcTemplate.execute(
+                            "alter table " + getTableName(repoName, OUTGOING_RECORD_COUNTS) +
+                                    " add column " + RecordCounts.UNCHANGED + " int not null default 0");
+                }
+                reposWithUnchangedCount.add(repoName);
+            }
+        }
+    }
+
     protected void persistRecordCounts(String repoName, RecordCounts rc, String tableName) {
         LOG.info("\nRecordCounts for repo: " + repoName + rc.toString(repoName));
+        if (OUTGOING_RECORD_COUNTS.equals(tableName) && rc.getCount(RecordCounts.TOTALS, RecordCounts.UNCHANGED) > 0) {
+            checkUnchangedCountColumn(repoName);
+        }
         Map<String, Map<String, AtomicInteger>> countsKeyedByType = rc.getCounts();
 
         for (String type : countsKeyedByType.keySet()) {
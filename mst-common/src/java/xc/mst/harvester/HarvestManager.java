@@ -9,8 +9,11 @@
 package xc.mst.harvester;
 
 import gnu.trove.TLongByteHashMap;
+import gnu.trove.TLongByteProcedure;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.URLEncoder;
@@ -49,11 +52,14 @@ import xc.mst.constants.Status;
 import xc.mst.dao.DataException;
 import xc.mst.dao.DatabaseConfigException;
 import xc.mst.email.Emailer;
+import xc.mst.repo.CommitFeed;
 import xc.mst.scheduling.WorkerThread;
 import xc.mst.utils.LogWriter;
 import xc.mst.utils.MSTConfiguration;
 import xc.mst.utils.TimingLogger;
 import xc.mst.utils.XmlHelper;
+import xc.mst.utils.metrics.Metrics;
+import xc.mst.utils.metrics.Timer;
 
 public class HarvestManager extends WorkerThread {
 
@@ -78,6 +84,10 @@ public class HarvestManager extends WorkerThread {
     protected TLongByteHashMap previousStatuses = new TLongByteHashMap();
     
     protected static int LARGE_HARVEST_THRESHOLD_DEFAULT = 10000;
+
+    // turning a response into records, whichever way the harvest gets its responses
+    protected static final Timer PARSE_TIMER = Metrics.timer("harvest.parse");
+    protected static final Timer REQUEST_TIMER = Metrics.timer("harvest.sendRequest");
     protected int largeHarvestThreshold = LARGE_HARVEST_THRESHOLD_DEFAULT;
 
     // The is public and static simply for the MockHarvestTest
@@ -93,7 +103,15 @@ public class HarvestManager extends WorkerThread {
     protected long startTime = 0;
 
     protected long recordsProcessedThisRun = 0l;
-    protected long records2ProcessThisRun = 0l;
+    // set by the pipeline's parser thread and read for the status display
+    protected volatile long records2ProcessThisRun = 0l;
+
+    // when true, responses are parsed a record at a time instead of being built into a Document
+    protected boolean streamingHarvest = false;
+
+    // when true, http harvests fetch, parse and persist pages concurrently (see HarvestPipeline)
+    protected boolean pipelinedHarvest = false;
+    protected HarvestPipeline pipeline = null;
 
     public String printDateTime(Date d) {
         String s = UTC_SECOND_FORMATTER.print(d.getTime());
@@ -158,6 +176,9 @@ public class HarvestManager extends WorkerThread {
             // no longer set up cache for all harvests; only do so for "large" ones
             //setupCache();
 
+            streamingHarvest = config.getPropertyAsBoolean("harvester.streaming", false);
+            pipelinedHarvest = config.getPropertyAsBoolean("harvester.pipelined", false);
+
             this.currentHarvest = getScheduleService().getHarvest(harvestSchedule);
             this.incomingRecordCounts = new RecordCounts(this.currentHarvest.getEndTime(), RecordCounts.INCOMING);
         } catch (DatabaseConfigException e) {
@@ -167,13 +188,21 @@ public class HarvestManager extends WorkerThread {
 
     private void setupCache() {
     	if (cacheSetup) return; // one-time event only
-        oaiIdCache.clear();
-        previousStatuses.clear();
+        // Records prepared earlier in this run are already in the caches, but may not have been
+        // written yet (the pipeline parses ahead of the persist stage), so their entries are kept.
+        // The db can only give the same id for those oai ids, but it would give an older status.
+        TLongByteHashMap preparedStatuses = (TLongByteHashMap) previousStatuses.clone();
         TimingLogger.outputMemory();
         getRepositoryDAO().populateHarvestCache(repo.getName(), oaiIdCache);
         TimingLogger.reset();
         getRepositoryDAO().populatePreviousStatuses(repo.getName(), previousStatuses, false);
         TimingLogger.reset();
+        preparedStatuses.forEachEntry(new TLongByteProcedure() {
+            public boolean execute(long recordId, byte status) {
+                previousStatuses.put(recordId, status);
+                return true;
+            }
+        });
         cacheSetup = true;
     }
 
@@ -209,6 +238,7 @@ public class HarvestManager extends WorkerThread {
     
     @Override
     public void finishInner(boolean success) {
+        stopPipeline();
         super.finishInner(success);
         RecordCounts mostRecentIncomingRecordCounts =
                 getRecordCountsDAO().getMostRecentIncomingRecordCounts(repo.getName());
@@ -345,6 +375,7 @@ public class HarvestManager extends WorkerThread {
                 provider = harvestSchedule.getProvider();
                 String request = null;
                 Document doc = null;
+                boolean parsed = false;
                 if (baseURL.startsWith("file:")) {
                     File pwd = new File(".");
                     log.debug("pwd: " + pwd.getAbsolutePath());
@@ -399,7 +430,25 @@ public class HarvestManager extends WorkerThread {
                     }
                     provider.setLastOaiRequest(file2harvest.getName());
                     lastOaiRequest = file2harvest.getName();
-                    doc = new XmlHelper().getJDomDocument(getUtil().slurp(file2harvest));
+                    if (streamingHarvest) {
+                        long start = PARSE_TIMER.start();
+                        StreamingResponseHandler handler = new StreamingResponseHandler();
+                        InputStream is = new FileInputStream(file2harvest);
+                        try {
+                            handler.handleResponse(is);
+                            resumptionToken = handler.finishResponse();
+                        } finally {
+                            is.close();
+                        }
+                        PARSE_TIMER.stop(start);
+                        parsed = true;
+                    } else {
+                        doc = new XmlHelper().getJDomDocument(getUtil().slurp(file2harvest));
+                    }
+                } else if (baseURL.startsWith("http:") && pipeline != null) {
+                    // the fetcher has already sent the request for the next page
+                    resumptionToken = persistPage(provider);
+                    parsed = true;
                 } else if (baseURL.startsWith("http:")) {
                     String verb = "ListRecords";
                     request = baseURL;
@@ -464,23 +513,45 @@ public class HarvestManager extends WorkerThread {
                     }
 
                     // Perform the harvest
-                    TimingLogger.start("sendRequest");
-                    doc = getHttpService().sendRequest(request);
-                    /*
-                    log.debug("doc: ");
-                    if (log.isDebugEnabled())
-                        log.debug(new XmlHelper().getString(doc.getRootElement()));
-                    */
-                    TimingLogger.stop("sendRequest");
-
-                    provider.setLastOaiRequest(request);
+                    if (pipelinedHarvest) {
+                        // records from the previous step have to be in the db before the parser looks up ids
+                        repo.commitIfNecessary(true, recordsProcessedThisRun, this.incomingRecordCounts, null);
+                        pipeline = new HarvestPipeline(this, baseURL, request,
+                                config.getPropertyAsInt("harvester.pipeline.queueSize", 2));
+                        pipeline.start();
+                        resumptionToken = persistPage(provider);
+                        parsed = true;
+                    } else if (streamingHarvest) {
+                        // the response is parsed as it's read, so this is request and parse
+                        long start = PARSE_TIMER.start();
+                        StreamingResponseHandler handler = new StreamingResponseHandler();
+                        getHttpService().sendRequest(request, handler);
+                        resumptionToken = handler.finishResponse();
+                        PARSE_TIMER.stop(start);
+                        parsed = true;
+                    } else {
+                        long start = REQUEST_TIMER.start();
+                        doc = getHttpService().sendRequest(request);
+                        /*
+                        log.debug("doc: ");
+                        if (log.isDebugEnabled())
+                            log.debug(new XmlHelper().getString(doc.getRootElement()));
+                        */
+                        REQUEST_TIMER.stop(start);
+                    }
+
+                    if (pipeline == null) {
+                        provider.setLastOaiRequest(request);
+                    }
                 }
                 
                 
-                TimingLogger.start("parseRecords");
-                resumptionToken = parseRecords(metadataPrefix, doc, baseURL);
+                if (!parsed) {
+                    long start = PARSE_TIMER.start();
+                    resumptionToken = parseRecords(metadataPrefix, doc, baseURL);
+                    PARSE_TIMER.stop(start);
+                }
                 log.debug("resumptionToken: " + resumptionToken);
-                TimingLogger.stop("parseRecords");
 
                 getProviderDAO().update(provider, false);
 
@@ -524,6 +595,7 @@ public class HarvestManager extends WorkerThread {
         }
         if (harvestSchedule.getProvider().getNumberOfRecordsToHarvest() > 0 &&
                 harvestSchedule.getProvider().getNumberOfRecordsToHarvest() <= this.recordsProcessedThisRun) {
+            stopPipeline();
             hssFirstTime = true;
             harvestScheduleStepIndex++;
             if (harvestScheduleStepIndex >= harvestScheduleSteps.size()) {
@@ -532,9 +604,57 @@ public class HarvestManager extends WorkerThread {
         }
         repo.commitIfNecessary(false, recordsProcessedThisRun, this.incomingRecordCounts, null);
         running.unlock();
+        waitForFollowers();
         return retVal;
     }
 
+    // in a pipeline, don't get more than service.pipeline.maxLag commits ahead of the services following this harvest
+    protected void waitForFollowers() {
+        CommitFeed feed = CommitFeed.get(repo.getName());
+        try {
+            while (feed != null && this.status == Status.RUNNING && feed.isLagging()) {
+                feed.awaitFollowers(1000);
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+    }
+
+    /**
+     * The persist stage of a pipelined harvest: takes the next parsed page and adds its records
+     * to the repository. This runs on the harvest's own thread while it holds the running lock,
+     * so pausing and canceling work the same as they do for an unpipelined harvest.
+     *
+     * @return the page's resumption token
+     */
+    protected String persistPage(Provider provider) throws Throwable {
+        HarvestPipeline.ParsedPage page = pipeline.take();
+        LogWriter.addInfo(provider.getLogFileName(), "The OAI request is " + page.getRequest());
+        if (page.getError() != null) {
+            stopPipeline();
+            throw page.getError();
+        }
+        TimingLogger.start("harvestPipeline.persist");
+        for (Record record : page.getRecords()) {
+            persistRecord(record, getIncomingPrevStatus(record));
+        }
+        this.recordsProcessedThisRun += page.getNumRecords();
+        TimingLogger.stop("harvestPipeline.persist");
+        pipeline.pagePersisted(page);
+        provider.setLastOaiRequest(page.getRequest());
+        if (page.getResumption() == null) {
+            stopPipeline();
+        }
+        return page.getResumption();
+    }
+
+    protected void stopPipeline() {
+        if (pipeline != null) {
+            pipeline.stop();
+            pipeline = null;
+        }
+    }
+
     // this is for debug use with a harvest from filesystem, files have format like:
     // 7_969999_970000_6679727.xml
     // 7_974999_975000_6679727.xml
@@ -630,33 +750,9 @@ public class HarvestManager extends WorkerThread {
 
         if (resumptionEl != null) {
             resumption = resumptionEl.getText();
+            resumption = setResumption(resumption, resumptionEl.getAttributeValue("completeListSize"));
         }
-        log.debug("resumption: " + resumption);
-        if (!StringUtils.isEmpty(resumption)) {
-            try {
-                this.records2ProcessThisRun = Integer.parseInt(resumptionEl.getAttributeValue("completeListSize"));
-            } catch (Throwable t) {
-                this.records2ProcessThisRun = -1;
-            }
-            log.debug("The resumption string is " + resumption);
-        } else {
-            resumption = null;
-        }
-      
-        // Is this a "large" update?
-        // If so, we will cache OAI IDs and previous statuses; otherwise, we hit the DB each time
-        if (resumption != null) {
-        	if (this.records2ProcessThisRun >= largeHarvestThreshold) {
-        		log.info("This is a large update; we will cache OAI IDs (" + this.records2ProcessThisRun + " >= " + largeHarvestThreshold + ").");
-                oaiIdCache.ensureCapacity((int) this.records2ProcessThisRun);
-                setupCache();
-        	} else {
-        		log.info("This is not a large update; we will not need to cache OAI IDs (" + this.records2ProcessThisRun + " < " + largeHarvestThreshold + ").");
-        	}
-        } else {
-    		log.info("This is not a large update; we will not need to cache OAI IDs (no resumptionToken; assuming it's a \"small\" update\").");        	
-        }
-        
+        checkForLargeHarvest(resumption);
 
         // Try to get the element containing the first record. It should be a child of the
         // verb element.
@@ -694,50 +790,167 @@ public class HarvestManager extends WorkerThread {
         log.debug("recordsEl.size(): " + recordsEl.size());
 
         for (Object recordElObj : recordsEl) {
-            recordEl = (Element) recordElObj;
+            processRecord((Element) recordElObj);
+        }
+
+        return resumption;
+    }
+
+    /**
+     * Streaming counterpart of {@link #parseRecords(String, Document, String)}. Each record is
+     * added to the repository as soon as it has been read, so memory use depends on the size of
+     * one record rather than the size of the page. Because the resumptionToken comes at the end
+     * of the response, the decision whether this is a "large" harvest is made after the first
+     * page has been read rather than before.
+     *
+     * If the HttpService re-sends the request after a failure part way through the response,
+     * the records which were already added are skipped so that record counts are not
+     * incremented twice. Because of that, handleResponse only remembers what the response said;
+     * {@link #finishResponse()} acts on it once the response has been read for good.
+     */
+    protected class StreamingResponseHandler implements HttpService.ResponseHandler, ListRecordsStreamParser.RecordHandler {
+        protected int recordsHandled = 0;
+        protected int recordIndex = 0;
+        protected ListRecordsStreamParser parser = null;
+
+        public void handleResponse(InputStream is) throws Exception {
+            recordIndex = 0;
+            parser = new ListRecordsStreamParser();
+            parser.parse(is, this);
+        }
 
+        /**
+         * Reports an error or invalid response and decides whether this is a large harvest.
+         *
+         * @return the resumptionToken, or null if there are no more pages
+         */
+        public String finishResponse() {
+            // Check whether or not the response contained an error
+            if (parser.getErrorCode() != null) {
+                log.info("errorCode: " + parser.getErrorCode() + " " + parser.getErrorText());
+                return null;
+            }
+            if (!parser.isListRecordsFound()) {
+                LogWriter.addError(currentHarvest.getProvider().getLogFileName(), "The OAI provider returned an invalid response to the ListRecords request.");
+                sendReportEmail("The OAI provider returned an invalid response to the ListRecords request.");
+                throw new RuntimeException("The data provider returned an invalid response to the ListRecords request: no ListRecords element");
+            }
+            log.debug("recordsEl.size(): " + parser.getNumRecords());
+
+            String resumption = setResumption(parser.getResumptionToken(), parser.getCompleteListSize());
+            if (resumption != null && !cacheSetup && records2ProcessThisRun >= largeHarvestThreshold) {
+                // records from this page may not have been written yet and the cache is
+                // populated from the db, so flush them first
+                repo.commitIfNecessary(true, recordsProcessedThisRun, incomingRecordCounts, null);
+            }
+            checkForLargeHarvest(resumption);
+            return resumption;
+        }
+
+        public void handleRecord(Element recordEl) {
+            if (recordIndex++ < recordsHandled) {
+                return;
+            }
+            processRecord(recordEl);
+            recordsHandled++;
+        }
+    }
+
+    protected String setResumption(String resumption, String completeListSize) {
+        log.debug("resumption: " + resumption);
+        if (!StringUtils.isEmpty(resumption)) {
             try {
-                HarvestScheduleStep scheduleStep = harvestScheduleSteps.get(harvestScheduleStepIndex);
-                TimingLogger.start("getRecordService().parse(recordEl)");
-                Record record = getRecordService().parse(recordEl, currentHarvest.getProvider());
-                TimingLogger.stop("getRecordService().parse(recordEl)");
-                record.setFormat(scheduleStep.getFormat());
-                record.setHarvest(currentHarvest);
-                record.setProvider(currentHarvest.getProvider());
-
-                String oaiId = record.getHarvestedOaiIdentifier();
-                Long recordId = getRecordId(oaiId);
-                char prevStatus = 0;
-                if (recordId == null || recordId == 0) {
-                    getRepositoryDAO().injectId(record);
-                } else {
-                    record.setId(recordId);
-                    prevStatus = getPreviousStatus(recordId);
-                    log.debug("found prevStatus: " + prevStatus);
-                    record.setPreviousStatus(prevStatus);
-                }
-                cachePreviousStatus(record.getId(), (byte) record.getStatus());
-                cacheRecordId(oaiId, record.getId());
-
-                repo.addRecord(record);
-                if (record.getSets() != null && record.getSets().size() > 1) {
-                    for (Set s : record.getSets()) {
-                        if (s.getSetSpec().contains(":")) {
-                            incomingRecordCounts.incr(s.getSetTypeShort(), record.getStatus(), prevStatus);
-                        }
-                    }
-                } else {
-                    incomingRecordCounts.incr(RecordCounts.OTHER, record.getStatus(), prevStatus);
-                }
-                incomingRecordCounts.incr(null, record.getStatus(), prevStatus);
-            } catch (Exception e) {
-                log.error("An error occurred in insertion ", e);
+                this.records2ProcessThisRun = Integer.parseInt(completeListSize);
+            } catch (Throwable t) {
+                this.records2ProcessThisRun = -1;
             }
-            this.recordsProcessedThisRun++;
+            log.debug("The resumption string is " + resumption);
+            return resumption;
+        } else {
+            return null;
         }
+    }
 
+    // Is this a "large" update?
+    // If so, we will cache OAI IDs and previous statuses; otherwise, we hit the DB each time
+    protected void checkForLargeHarvest(String resumption) {
+        if (resumption != null) {
+        	if (this.records2ProcessThisRun >= largeHarvestThreshold) {
+        		log.info("This is a large update; we will cache OAI IDs (" + this.records2ProcessThisRun + " >= " + largeHarvestThreshold + ").");
+                oaiIdCache.ensureCapacity((int) this.records2ProcessThisRun);
+                setupCache();
+        	} else {
+        		log.info("This is not a large update; we will not need to cache OAI IDs (" + this.records2ProcessThisRun + " < " + largeHarvestThreshold + ").");
+        	}
+        } else {
+    		log.info("This is not a large update; we will not need to cache OAI IDs (no resumptionToken; assuming it's a \"small\" update\").");
+        }
+    }
 
-        return resumption;
+    protected void processRecord(Element recordEl) {
+        Record record = prepareRecord(recordEl);
+        if (record != null) {
+            persistRecord(record, getIncomingPrevStatus(record));
+        }
+        this.recordsProcessedThisRun++;
+    }
+
+    /**
+     * Parses the record and assigns its id and previous status. This only touches the
+     * harvest's oai id and status caches, so it may run ahead of {@link #persistRecord}.
+     *
+     * @return the record, or null if it could not be parsed
+     */
+    protected Record prepareRecord(Element recordEl) {
+        try {
+            HarvestScheduleStep scheduleStep = harvestScheduleSteps.get(harvestScheduleStepIndex);
+            TimingLogger.start("getRecordService().parse(recordEl)");
+            Record record = getRecordService().parse(recordEl, currentHarvest.getProvider());
+            TimingLogger.stop("getRecordService().parse(recordEl)");
+            record.setFormat(scheduleStep.getFormat());
+            record.setHarvest(currentHarvest);
+            record.setProvider(currentHarvest.getProvider());
+
+            String oaiId = record.getHarvestedOaiIdentifier();
+            Long recordId = getRecordId(oaiId);
+            if (recordId == null || recordId == 0) {
+                getRepositoryDAO().injectId(record);
+            } else {
+                record.setId(recordId);
+                char prevStatus = getPreviousStatus(recordId);
+                log.debug("found prevStatus: " + prevStatus);
+                record.setPreviousStatus(prevStatus);
+            }
+            cachePreviousStatus(record.getId(), (byte) record.getStatus());
+            cacheRecordId(oaiId, record.getId());
+            return record;
+        } catch (Exception e) {
+            log.error("An error occurred in insertion ", e);
+            return null;
+        }
+    }
+
+    // records which weren't previously harvested keep the default NULL status
+    protected char getIncomingPrevStatus(Record record) {
+        return record.getPreviousStatus() == Record.NULL ? 0 : record.getPreviousStatus();
+    }
+
+    protected void persistRecord(Record record, char prevStatus) {
+        try {
+            repo.addRecord(record);
+            if (record.getSets() != null && record.getSets().size() > 1) {
+                for (Set s : record.getSets()) {
+                    if (s.getSetSpec().contains(":")) {
+                        incomingRecordCounts.incr(s.getSetTypeShort(), record.getStatus(), prevStatus);
+                    }
+                }
+            } else {
+                incomingRecordCounts.incr(RecordCounts.OTHER, record.getStatus(), prevStatus);
+            }
+            incomingRecordCounts.incr(null, record.getStatus(), prevStatus);
+        } catch (Exception e) {
+            log.error("An error occurred in insertion ", e);
+        }
     }
 
     /**
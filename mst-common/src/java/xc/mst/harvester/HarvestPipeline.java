@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2009 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.harvester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jdom.Element;
+
+import xc.mst.bo.record.Record;
+import xc.mst.utils.TimingLogger;
+import xc.mst.utils.metrics.Metrics;
+import xc.mst.utils.metrics.Timer;
+
+/**
+ * Overlaps the three stages of a harvest of one schedule step:
+ * <ul>
+ * <li>the fetcher thread sends a ListRecords request, buffers the response and, as soon as it
+ * has found the resumptionToken, sends the next request</li>
+ * <li>the parser thread turns each buffered response into records with ids assigned
+ * (see {@link HarvestManager#prepareRecord(Element)})</li>
+ * <li>the persist stage is the HarvestManager's own thread, which takes one parsed page per call
+ * to doSomeWork, adds the records to the repository and calls commitIfNecessary</li>
+ * </ul>
+ * The stages are connected with bounded queues, so when the persist stage falls behind (or the
+ * harvest is paused) the fetcher and parser block instead of buffering the whole harvest.
+ */
+public class HarvestPipeline {
+
+    private static final Logger LOG = Logger.getLogger(HarvestPipeline.class);
+
+    // shared with HarvestManager's own parsing, so a harvest's parse time is in one place
+    protected static final Timer FETCH_TIMER = Metrics.timer("harvest.fetch");
+    protected static final Timer PARSE_TIMER = HarvestManager.PARSE_TIMER;
+
+    protected static class FetchedPage {
+        protected String request = null;
+        protected byte[] body = null;
+        protected String resumption = null;
+        protected String completeListSize = null;
+        protected Throwable error = null;
+    }
+
+    public static class ParsedPage {
+        protected String request = null;
+        protected String resumption = null;
+        protected List<Record> records = new ArrayList<Record>();
+        // includes records which could not be parsed
+        protected int numRecords = 0;
+        protected Throwable error = null;
+
+        public String getRequest() {
+            return request;
+        }
+
+        public String getResumption() {
+            return resumption;
+        }
+
+        public List<Record> getRecords() {
+            return records;
+        }
+
+        public int getNumRecords() {
+            return numRecords;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    protected HarvestManager harvestManager = null;
+    protected String baseURL = null;
+    protected String firstRequest = null;
+
+    protected BlockingQueue<FetchedPage> fetchedPages = null;
+    protected BlockingQueue<ParsedPage> parsedPages = null;
+
+    protected Thread fetcher = null;
+    protected Thread parser = null;
+    protected volatile boolean stopped = false;
+
+    protected long startTime = 0;
+    protected AtomicLong pagesFetched = new AtomicLong();
+    protected AtomicLong bytesFetched = new AtomicLong();
+    protected AtomicLong recordsParsed = new AtomicLong();
+    protected long recordsPersisted = 0;
+
+    public HarvestPipeline(HarvestManager harvestManager, String baseURL, String firstRequest, int queueSize) {
+        this.harvestManager = harvestManager;
+        this.baseURL = baseURL;
+        this.firstRequest = firstRequest;
+        this.fetchedPages = new ArrayBlockingQueue<FetchedPage>(queueSize);
+        this.parsedPages = new ArrayBlockingQueue<ParsedPage>(queueSize);
+    }
+
+    public void start() {
+        startTime = System.currentTimeMillis();
+        fetcher = new Thread("harvest-fetcher") {
+            public void run() {
+                fetch();
+            }
+        };
+        parser = new Thread("harvest-parser") {
+            public void run() {
+                parse();
+            }
+        };
+        fetcher.setDaemon(true);
+        parser.setDaemon(true);
+        fetcher.start();
+        parser.start();
+    }
+
+    /**
+     * Blocks until the next parsed page is available. Pages are returned in request order and
+     * the last page is the one with a null resumption token (or an error).
+     */
+    public ParsedPage take() throws InterruptedException {
+        ParsedPage page = null;
+        while (page == null) {
+            if (stopped) {
+                throw new InterruptedException("harvest pipeline has been stopped");
+            }
+            page = parsedPages.poll(1, TimeUnit.SECONDS);
+        }
+        return page;
+    }
+
+    public void pagePersisted(ParsedPage page) {
+        recordsPersisted += page.records.size();
+        double secs = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        TimingLogger.log(String.format("harvestPipeline: fetched %d pages (%.1f KB/s), parsed %.1f records/s, persisted %.1f records/s",
+                pagesFetched.get(), bytesFetched.get() / 1024.0 / secs, recordsParsed.get() / secs, recordsPersisted / secs));
+    }
+
+    public void stop() {
+        stopped = true;
+        if (fetcher != null) {
+            fetcher.interrupt();
+        }
+        if (parser != null) {
+            parser.interrupt();
+        }
+        fetchedPages.clear();
+        parsedPages.clear();
+    }
+
+    protected void fetch() {
+        String request = firstRequest;
+        try {
+            while (!stopped && request != null) {
+                final FetchedPage page = new FetchedPage();
+                page.request = request;
+                try {
+                    long start = FETCH_TIMER.start();
+                    harvestManager.getHttpService().sendRequest(request, new HttpService.ResponseHandler() {
+                        public void handleResponse(InputStream is) throws Exception {
+                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                            byte[] buf = new byte[8192];
+                            int len = 0;
+                            while ((len = is.read(buf)) != -1) {
+                                baos.write(buf, 0, len);
+                            }
+                            page.body = baos.toByteArray();
+                        }
+                    });
+                    FETCH_TIMER.stop(start);
+                    pagesFetched.incrementAndGet();
+                    bytesFetched.addAndGet(page.body.length);
+
+                    // skim the response for the token so the next request can go out right away
+                    ListRecordsStreamParser scanner = new ListRecordsStreamParser();
+                    scanner.parse(new ByteArrayInputStream(page.body), null);
+                    if (!StringUtils.isEmpty(scanner.getResumptionToken()) && scanner.getErrorCode() == null) {
+                        page.resumption = scanner.getResumptionToken();
+                        page.completeListSize = scanner.getCompleteListSize();
+                    }
+                } catch (Throwable t) {
+                    page.error = t;
+                }
+                fetchedPages.put(page);
+                if (page.error != null || page.resumption == null) {
+                    request = null;
+                } else {
+                    request = baseURL + "?verb=ListRecords&resumptionToken=" + URLEncoder.encode(page.resumption, "utf-8");
+                }
+            }
+        } catch (InterruptedException ie) {
+            LOG.debug("fetcher interrupted");
+        } catch (Throwable t) {
+            LOG.error("", t);
+        }
+    }
+
+    protected void parse() {
+        try {
+            while (!stopped) {
+                FetchedPage fetchedPage = fetchedPages.poll(1, TimeUnit.SECONDS);
+                if (fetchedPage == null) {
+                    continue;
+                }
+                final ParsedPage page = new ParsedPage();
+                page.request = fetchedPage.request;
+                page.error = fetchedPage.error;
+                if (page.error == null) {
+                    long start = PARSE_TIMER.start();
+                    try {
+                        parsePage(fetchedPage, page);
+                    } catch (Throwable t) {
+                        page.error = t;
+                    }
+                    PARSE_TIMER.stop(start);
+                }
+                // let the body be collected while the page waits to be persisted
+                fetchedPage.body = null;
+                parsedPages.put(page);
+                if (page.error != null || page.resumption == null) {
+                    break;
+                }
+            }
+        } catch (InterruptedException ie) {
+            LOG.debug("parser interrupted");
+        }
+    }
+
+    protected void parsePage(FetchedPage fetchedPage, final ParsedPage page) throws Exception {
+        // Same order as the whole-document path: the large harvest check happens before
+        // any of the page's records are looked up. Earlier pages may still be waiting to be
+        // persisted; setupCache keeps the ids and statuses they were prepared with.
+        page.resumption = harvestManager.setResumption(fetchedPage.resumption, fetchedPage.completeListSize);
+        harvestManager.checkForLargeHarvest(page.resumption);
+
+        ListRecordsStreamParser parser = new ListRecordsStreamParser();
+        parser.parse(new ByteArrayInputStream(fetchedPage.body), new ListRecordsStreamParser.RecordHandler() {
+            public void handleRecord(Element recordEl) {
+                Record record = harvestManager.prepareRecord(recordEl);
+                if (record != null) {
+                    page.records.add(record);
+                }
+                page.numRecords++;
+                recordsParsed.incrementAndGet();
+            }
+        });
+        if (parser.getErrorCode() != null) {
+            LOG.info("errorCode: " + parser.getErrorCode() + " " + parser.getErrorText());
+            page.resumption = null;
+        } else if (!parser.isListRecordsFound()) {
+            throw new RuntimeException("The data provider returned an invalid response to the ListRecords request: no ListRecords element");
+        }
+    }
+
+}
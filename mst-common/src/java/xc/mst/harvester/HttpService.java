@@ -8,9 +8,12 @@
  */
 package xc.mst.harvester;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
@@ -45,15 +48,41 @@ public class HttpService extends BaseService {
                 config.getProperty("harvest.protocol.content-charset", "utf-16"));
     }
 
+    /**
+     * Consumes the body of a successful response while the connection is still open.
+     */
+    public interface ResponseHandler {
+        public void handleResponse(InputStream is) throws Exception;
+    }
+
     public Document sendRequest(String request) throws HttpException {
+        final Document[] doc = new Document[1];
+        sendRequest(request, new ResponseHandler() {
+            public void handleResponse(InputStream is) {
+                doc[0] = xmlHelper.getJDomDocument(is);
+            }
+        });
+        return doc[0];
+    }
+
+    /**
+     * Sends the request and streams the response body to the handler. If the request fails, the
+     * server doesn't answer 200, or reading the body fails with an IOException, the request is
+     * re-sent (up to harvester.numErrorsToTolerate times), so handlers must be prepared to see the
+     * same response more than once. Anything else the handler throws is a problem with the
+     * response itself, which re-sending won't fix, so it's thrown straight back to the caller.
+     */
+    public void sendRequest(String request, ResponseHandler handler) throws HttpException {
         int numErrors2Tolerate = config.getPropertyAsInt("harvester.numErrorsToTolerate", 3);
         int numErrorsTolerated = 0;
+        String lastFailure = null;
+        Throwable lastError = null;
 
         while (true) {
             if (LOG.isDebugEnabled())
                 LOG.debug("Sending the OAI request: " + request);
 
-            Document doc = null;
+            boolean handled = false;
             InputStream istm = null;
 
             try {
@@ -72,8 +101,11 @@ public class HttpService extends BaseService {
                     istm = getOaiRequest.getResponseBodyAsStream();
                     long finishOaiRequest = System.currentTimeMillis();
                     LOG.info("Time taken to get a response from the server " + (finishOaiRequest - startOaiRequest));
-                    doc = xmlHelper.getJDomDocument(istm);
+                    handler.handleResponse(istm);
+                    handled = true;
                 } else {
+                    lastFailure = "statusCode: " + statusCode;
+                    lastError = null;
                     LOG.error("statusCode: " + statusCode);
                     LOG.error("response: " + getOaiRequest.getResponseBodyAsString());
                     if (statusCode == 503) {
@@ -92,7 +124,17 @@ public class HttpService extends BaseService {
                 }
             } catch (Throwable t) {
                 LOG.debug("request: " + request);
+                if (!isIOFailure(t)) {
+                    if (t instanceof Error) {
+                        throw (Error) t;
+                    } else if (t instanceof RuntimeException) {
+                        throw (RuntimeException) t;
+                    }
+                    throw new HttpException("could not handle the response to request: " + request, t);
+                }
                 LOG.error("", t);
+                lastFailure = t.toString();
+                lastError = t;
             } finally {
                 if (istm != null) {
                     try {
@@ -102,14 +144,33 @@ public class HttpService extends BaseService {
                     }
                 }
             }
-            if (doc != null) {
-                return doc;
+            if (handled) {
+                return;
             }
             if (numErrors2Tolerate == ++numErrorsTolerated) {
                 LOG.error("numErrors2Tolerate: " + numErrors2Tolerate + " numErrorsTolerated:" + numErrorsTolerated);
                 break;
             }
         }
-        throw new HttpException("did not receive a successful response for request: " + request);
+        throw new HttpException("did not receive a successful response for request: " + request +
+                " (" + lastFailure + ")", lastError);
+    }
+
+    /**
+     * True if t, or something it wraps, is an IOException - the connection dropped or timed out
+     * part way through, so sending the request again may well work.
+     */
+    protected boolean isIOFailure(Throwable t) {
+        while (t != null) {
+            if (t instanceof IOException) {
+                return true;
+            }
+            Throwable cause = t.getCause();
+            if (cause == null && t instanceof XMLStreamException) {
+                cause = ((XMLStreamException) t).getNestedException();
+            }
+            t = cause;
+        }
+        return false;
     }
 }
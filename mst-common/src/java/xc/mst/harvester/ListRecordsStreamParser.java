@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2009 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.harvester;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+import org.jdom.Attribute;
+import org.jdom.CDATA;
+import org.jdom.Comment;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.ProcessingInstruction;
+import org.jdom.Text;
+
+/**
+ * Reads an OAI-PMH ListRecords response with StAX and hands each &lt;record&gt; to a
+ * {@link RecordHandler} as soon as its end tag has been read. Only one record is ever
+ * held in memory. The JDOM element handed over is built the same way SAXBuilder would
+ * build it (same namespaces, text, CDATA and comments), so downstream parsing and
+ * serialization produce the same output as the whole-document path.
+ *
+ * The resumptionToken, its completeListSize and any OAI error are available once
+ * {@link #parse(InputStream, RecordHandler)} returns. Passing a null handler skips over the
+ * records without building them, which is a cheap way to find the resumptionToken.
+ */
+public class ListRecordsStreamParser {
+
+    private static final Logger LOG = Logger.getLogger(ListRecordsStreamParser.class);
+
+    protected static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    protected static XMLInputFactory xmlInputFactory = null;
+    static {
+        xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        if (xmlInputFactory.isPropertySupported(REPORT_CDATA)) {
+            xmlInputFactory.setProperty(REPORT_CDATA, Boolean.TRUE);
+        }
+    }
+
+    public interface RecordHandler {
+        public void handleRecord(Element recordEl);
+    }
+
+    protected String resumptionToken = null;
+    protected String completeListSize = null;
+    protected String errorCode = null;
+    protected String errorText = null;
+    protected boolean listRecordsFound = false;
+    protected int numRecords = 0;
+
+    public String getResumptionToken() {
+        return resumptionToken;
+    }
+
+    public String getCompleteListSize() {
+        return completeListSize;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public String getErrorText() {
+        return errorText;
+    }
+
+    public boolean isListRecordsFound() {
+        return listRecordsFound;
+    }
+
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    public void parse(InputStream is, RecordHandler handler) throws XMLStreamException {
+        resumptionToken = null;
+        completeListSize = null;
+        errorCode = null;
+        errorText = null;
+        listRecordsFound = false;
+        numRecords = 0;
+
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is);
+        try {
+            String oaiNs = null;
+            // depth of the element the reader is currently positioned on
+            int depth = 0;
+            // ListRecords is normally a child of the OAI-PMH root, but a response that uses
+            // it as the root element itself is tolerated the same way the JDOM path tolerates it.
+            int listRecordsDepth = -1;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String localName = reader.getLocalName();
+                    String ns = nvl(reader.getNamespaceURI());
+                    if (depth == 1) {
+                        oaiNs = ns;
+                        if ("ListRecords".equals(localName)) {
+                            listRecordsFound = true;
+                            listRecordsDepth = depth;
+                        }
+                    } else if (!ns.equals(oaiNs)) {
+                        continue;
+                    } else if (depth == 2 && "error".equals(localName)) {
+                        errorCode = reader.getAttributeValue(null, "code");
+                        errorText = reader.getElementText();
+                        depth--;
+                    } else if (depth == 2 && "ListRecords".equals(localName)) {
+                        listRecordsFound = true;
+                        listRecordsDepth = depth;
+                    } else if (listRecordsDepth != -1 && depth == listRecordsDepth + 1) {
+                        if ("record".equals(localName) && handler == null) {
+                            skipElement(reader);
+                            depth--;
+                            numRecords++;
+                        } else if ("record".equals(localName)) {
+                            Element recordEl = buildElement(reader);
+                            depth--;
+                            numRecords++;
+                            handler.handleRecord(recordEl);
+                        } else if ("resumptionToken".equals(localName)) {
+                            completeListSize = reader.getAttributeValue(null, "completeListSize");
+                            resumptionToken = reader.getElementText();
+                            depth--;
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == listRecordsDepth) {
+                        listRecordsDepth = -1;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            try {
+                reader.close();
+            } catch (Throwable t) {
+                LOG.error("", t);
+            }
+        }
+    }
+
+    /**
+     * Leaves the reader positioned on the END_ELEMENT matching the current START_ELEMENT.
+     */
+    protected void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int level = 1;
+        while (level > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                level++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                level--;
+            }
+        }
+    }
+
+    /**
+     * Builds the JDOM subtree rooted at the START_ELEMENT the reader is positioned on and
+     * leaves the reader positioned on its matching END_ELEMENT.
+     */
+    protected Element buildElement(XMLStreamReader reader) throws XMLStreamException {
+        Element root = null;
+        Element current = null;
+        StringBuilder text = new StringBuilder();
+        int event = reader.getEventType();
+        while (true) {
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    flushText(current, text);
+                    Element el = startElement(reader);
+                    if (current == null) {
+                        root = el;
+                    } else {
+                        current.addContent(el);
+                    }
+                    current = el;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    flushText(current, text);
+                    if (current == root) {
+                        return root;
+                    }
+                    current = (Element) current.getParent();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    flushText(current, text);
+                    current.addContent(new CDATA(reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    flushText(current, text);
+                    current.addContent(new Comment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    flushText(current, text);
+                    current.addContent(new ProcessingInstruction(reader.getPITarget(), nvl(reader.getPIData())));
+                    break;
+                default:
+                    break;
+            }
+            event = reader.next();
+        }
+    }
+
+    protected Element startElement(XMLStreamReader reader) {
+        Namespace ns = getNamespace(reader.getPrefix(), reader.getNamespaceURI());
+        Element el = new Element(reader.getLocalName(), ns);
+        // mirrors SAXHandler.transferNamespaces
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String uri = nvl(reader.getNamespaceURI(i));
+            if (uri.length() == 0) {
+                continue;
+            }
+            Namespace declared = Namespace.getNamespace(nvl(reader.getNamespacePrefix(i)), uri);
+            if (declared != ns) {
+                el.addNamespaceDeclaration(declared);
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            Namespace attNs = getNamespace(reader.getAttributePrefix(i), reader.getAttributeNamespace(i));
+            el.setAttribute(new Attribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i), attNs));
+        }
+        return el;
+    }
+
+    protected Namespace getNamespace(String prefix, String uri) {
+        uri = nvl(uri);
+        if (uri.length() == 0) {
+            return Namespace.NO_NAMESPACE;
+        }
+        return Namespace.getNamespace(nvl(prefix), uri);
+    }
+
+    protected void flushText(Element current, StringBuilder text) {
+        if (text.length() > 0) {
+            if (current != null) {
+                current.addContent(new Text(text.toString()));
+            }
+            text.setLength(0);
+        }
+    }
+
+    protected String nvl(String s) {
+        return s == null ? "" : s;
+    }
+
+}
@@ -1292,14 +1292,14 @@ public class DefaultRecordService extends RecordService {
                 noContent = true;
                 ;
             }
-            if (r.getMode().equals(Record.JDOM_MODE) && r.getOaiXmlEl() == null) {
+            if (r.getMode().equals(Record.JDOM_MODE) && r.readOaiXmlEl() == null) {
                 noContent = true;
             }
             if (!noContent) {
                 r.setMode(Record.JDOM_MODE);
                 Element metadataEl = new Element("metadata", namespace);
                 recordEl.addContent(metadataEl);
-                metadataEl.addContent(r.getOaiXmlEl());
+                metadataEl.addContent(r.readOaiXmlEl());
             }
         }
         LOG.debug("r: " + r);
@@ -9,9 +9,16 @@
 
 package xc.mst.oai;
 
+import gnu.trove.TLongArrayList;
+
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -45,6 +52,8 @@ import xc.mst.dao.DataException;
 import xc.mst.dao.DatabaseConfigException;
 import xc.mst.manager.BaseManager;
 import xc.mst.manager.IndexException;
+import xc.mst.repo.RecordXmlHandler;
+import xc.mst.repo.Repository;
 import xc.mst.services.MetadataService;
 import xc.mst.utils.LogWriter;
 import xc.mst.utils.MSTConfiguration;
@@ -179,6 +188,39 @@ public class Facade extends BaseManager {
      *             Thrown when there is problem connecting to database
      */
     public String execute(OaiRequestBean oaiRequest) throws DatabaseConfigException {
+        StringWriter out = new StringWriter();
+        try {
+            execute(oaiRequest, out, false);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw them
+            log.error("", e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Executes the correct OAI function based on the verb, writing the response to os as UTF-8.
+     * 
+     * ListRecords and ListIdentifiers responses are written out as the records are read rather
+     * than built up in memory first, unless the records go through an xsl, which needs the whole
+     * response.  Either way the response is the same as the one execute(oaiRequest) returns.
+     * 
+     * @param oaiRequest
+     *            OAI request
+     * @param os
+     *            The stream to write the response to
+     * @throws DatabaseConfigException
+     *             Thrown when there is problem connecting to database
+     * @throws IOException
+     *             Thrown when the response can't be written
+     */
+    public void execute(OaiRequestBean oaiRequest, OutputStream os) throws DatabaseConfigException, IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+        execute(oaiRequest, out, true);
+        out.flush();
+    }
+
+    protected void execute(OaiRequestBean oaiRequest, Writer out, boolean streaming) throws DatabaseConfigException, IOException {
 
         if (log.isDebugEnabled())
             log.debug("Executing request for verb " + oaiRequest.getVerb() + ".");
@@ -203,6 +245,20 @@ public class Facade extends BaseManager {
         // recognized
         try {
 
+            // The record lists are written straight to out
+            if (streaming && transformer == null && oaiRequest.getVerb() != null &&
+                    (oaiRequest.getVerb().equalsIgnoreCase("ListIdentifiers") || oaiRequest.getVerb().equalsIgnoreCase("ListRecords"))) {
+                out.write(getResponseStart(oaiRequest));
+                if (oaiRequest.getVerb().equalsIgnoreCase("ListIdentifiers")) {
+                    doListIdentifiers(oaiRequest, out);
+                } else {
+                    doListRecords(oaiRequest, out);
+                }
+                out.write("\n");
+                out.write(Constants.OAI_RESPONSE_FOOTER);
+                return;
+            }
+
             String oaiVerbOutput = null;
             if (oaiRequest.getVerb() == null) {
                 LogWriter.addWarning(service.getHarvestOutLogFileName(), "The OAI request did not contain a verb.");
@@ -230,16 +286,8 @@ public class Facade extends BaseManager {
                 // Build the OAI response
                 StringBuilder oaiResponseElement = new StringBuilder();
 
-                // Append the header
-                oaiResponseElement.append(Constants.OAI_RESPONSE_HEADER);
-
-                // Append the response date element
-                oaiResponseElement.append(getResponseDate()).append("\n");
-
-                if (oaiRequest.getRequest() != null) {
-                    // Append the request element
-                    oaiResponseElement.append(getRequestElement(oaiRequest.getRequest(), oaiRequest)).append("\n");
-                }
+                // Append the header, response date and request elements
+                oaiResponseElement.append(getResponseStart(oaiRequest));
 
                 // Append the response itself
                 oaiResponseElement.append(oaiVerbOutput).append("\n");
@@ -267,19 +315,22 @@ public class Facade extends BaseManager {
                     }
                 }
 
-                return response;
+                out.write(response);
             } else {
                 LogWriter.addWarning(service.getHarvestOutLogFileName(), "The OAI request contained an invalid verb: " + oaiRequest.getVerb() + ".");
                 warningCount++;
 
-                return ErrorBuilder.badVerbError();
+                out.write(ErrorBuilder.badVerbError());
             }
+        } catch (IOException e) {
+            // most likely the harvester went away
+            log.error("An exception occurred while writing the response.", e);
+            throw e;
         } catch (Exception e) {
             log.error("An exception occurred while executing the request.", e);
 
             LogWriter.addError(service.getHarvestOutLogFileName(), "An unexpected error occurred while executing the " + oaiRequest.getVerb() + " request.");
             errorCount++;
-            return "";
         } finally // Update the error and warning count for the service
         {
             // Load the provider again in case it was updated during the harvest
@@ -304,6 +355,19 @@ public class Facade extends BaseManager {
         }
     }
 
+    /*
+     * The start of every response: the xml header, the responseDate and the request
+     */
+    protected String getResponseStart(OaiRequestBean oaiRequest) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Constants.OAI_RESPONSE_HEADER);
+        sb.append(getResponseDate()).append("\n");
+        if (oaiRequest.getRequest() != null) {
+            sb.append(getRequestElement(oaiRequest.getRequest(), oaiRequest)).append("\n");
+        }
+        return sb.toString();
+    }
+
     /**
      * Create response to the Identify verb. The parameters arrive in the
      * form (which is a FormBean). The XML response will be set to the value of
@@ -470,6 +534,22 @@ public class Facade extends BaseManager {
      * @throws DatabaseConfigException
      */
     public String doListIdentifiers(OaiRequestBean oaiRequest) throws DatabaseConfigException, IndexException {
+        StringWriter out = new StringWriter();
+        try {
+            doListIdentifiers(oaiRequest, out);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw them
+            log.error("", e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the response to the ListIdentifiers verb to out.
+     * 
+     * @throws DatabaseConfigException
+     */
+    public void doListIdentifiers(OaiRequestBean oaiRequest, Writer out) throws DatabaseConfigException, IndexException, IOException {
         if (log.isDebugEnabled())
             log.debug("Entering doListIdentifiers");
 
@@ -480,15 +560,16 @@ public class Facade extends BaseManager {
             LogWriter.addWarning(service.getHarvestOutLogFileName(), "The OAI ListIdentifiers request did not contain a metadataFormat.");
             warningCount++;
 
-            return ErrorBuilder.badArgumentError("Missing metadataPrefix parameter");
+            out.write(ErrorBuilder.badArgumentError("Missing metadataPrefix parameter"));
+            return;
 
         }
 
-        // Get the XML for the identifiers
-        // The last parameter is true to query for just the identifiers and not the full records
-        return handleRecordLists(oaiRequest.getFrom(), oaiRequest.getUntil(),
+        // Write the XML for the identifiers
+        // The last parameter is false to query for just the identifiers and not the full records
+        handleRecordLists(oaiRequest.getFrom(), oaiRequest.getUntil(),
                 getPersistedMetadataPrefix(oaiRequest.getMetadataPrefix()),
-                oaiRequest.getSet(), oaiRequest.getResumptionToken(), false);
+                oaiRequest.getSet(), oaiRequest.getResumptionToken(), false, out);
 
     }
 
@@ -528,6 +609,22 @@ public class Facade extends BaseManager {
      * @throws DatabaseConfigException
      */
     public String doListRecords(OaiRequestBean oaiRequest) throws DatabaseConfigException, IndexException {
+        StringWriter out = new StringWriter();
+        try {
+            doListRecords(oaiRequest, out);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw them
+            log.error("", e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the response to the ListRecords verb to out.
+     * 
+     * @throws DatabaseConfigException
+     */
+    public void doListRecords(OaiRequestBean oaiRequest, Writer out) throws DatabaseConfigException, IndexException, IOException {
         if (log.isDebugEnabled())
             log.debug("Entering doListRecords");
 
@@ -538,14 +635,15 @@ public class Facade extends BaseManager {
             LogWriter.addWarning(service.getHarvestOutLogFileName(), "The OAI ListRecords request did not contain a metadataFormat.");
             warningCount++;
 
-            return ErrorBuilder.badArgumentError("Missing metadataPrefix parameter");
+            out.write(ErrorBuilder.badArgumentError("Missing metadataPrefix parameter"));
+            return;
 
         }
-        // Get the XML for the full records
+        // Write the XML for the full records
         // The last parameter is true to query for the full records and not just the identifiers
-        return handleRecordLists(oaiRequest.getFrom(), oaiRequest.getUntil(),
+        handleRecordLists(oaiRequest.getFrom(), oaiRequest.getUntil(),
                 getPersistedMetadataPrefix(oaiRequest.getMetadataPrefix()),
-                oaiRequest.getSet(), oaiRequest.getResumptionToken(), true);
+                oaiRequest.getSet(), oaiRequest.getResumptionToken(), true, out);
 
     }
 
@@ -646,7 +744,7 @@ public class Facade extends BaseManager {
     }
 
     /**
-     * Returns the OAI XML for a list of records or identifiers.
+     * Writes the OAI XML for a list of records or identifiers.
      * 
      * @param from
      *            The earliest date for returned records or identifiers. If null or empty the earliest date out of all records will be used
@@ -660,17 +758,19 @@ public class Facade extends BaseManager {
      *            The resumption token's ID
      * @param getRecords
      *            true if we should return the full records, false if we should only return the headers
-     * @return The XML containing a list of headers or record and header combinations as well as a resumption token.
-     *         These should be included in the response's ListRecords or ListIdentifiers element.
+     * @param out
+     *            Where to write the ListRecords or ListIdentifiers element, containing a list of headers or
+     *            record and header combinations as well as a resumption token, or else an error
      * @throws DatabaseConfigException
      */
-    private String handleRecordLists(String from, String until, String metadataPrefix, String set, String resumptionToken, boolean getRecords)
-            throws DatabaseConfigException, IndexException {
+    private void handleRecordLists(String from, String until, String metadataPrefix, String set, String resumptionToken, boolean getRecords,
+            Writer out) throws DatabaseConfigException, IndexException, IOException {
         if (log.isDebugEnabled())
             log.debug("Entering handleRecordLists");
 
         if (from != null && until != null && from.length() != until.length()) {
-            return ErrorBuilder.badArgumentError("From and until have different levels of granularity.");
+            out.write(ErrorBuilder.badArgumentError("From and until have different levels of granularity."));
+            return;
         }
 
         // The from and until dates. They will be null if the passed Strings could not be parsed
@@ -679,7 +779,8 @@ public class Facade extends BaseManager {
             try {
                 fromDate = new Date(UTC_PARSER.parseDateTime(from).getMillis());
             } catch (IllegalArgumentException iae) {
-                return ErrorBuilder.badArgumentError("from: " + from);
+                out.write(ErrorBuilder.badArgumentError("from: " + from));
+                return;
             }
         } else {
             fromDate = new Date(0);
@@ -689,7 +790,8 @@ public class Facade extends BaseManager {
             try {
                 untilDate = new Date(UTC_PARSER.parseDateTime(until).getMillis());
             } catch (IllegalArgumentException iae) {
-                return ErrorBuilder.badArgumentError("until: " + until);
+                out.write(ErrorBuilder.badArgumentError("until: " + until));
+                return;
             }
         } else {
             untilDate = new Date();
@@ -698,6 +800,9 @@ public class Facade extends BaseManager {
         // Starting record id
         long startingId = 0;
 
+        // The completeListSize carried in the resumption token, if there was one
+        long tokenCount = 0;
+
         // The Format and Set Objects associated with the OAI request
         Format format;
         Set setObject = null;
@@ -716,6 +821,9 @@ public class Facade extends BaseManager {
             set = rtSplit[2];
             metadataPrefix = rtSplit[3];
             startingId = Long.parseLong(rtSplit[4]);
+            if (rtSplit.length > 5) {
+                tokenCount = Long.parseLong(rtSplit[5]);
+            }
 
         }
 
@@ -730,7 +838,8 @@ public class Facade extends BaseManager {
                 LogWriter.addWarning(service.getHarvestOutLogFileName(), "The requested set \"" + set + "\" could not be found.");
                 warningCount++;
 
-                return XMLUtil.xmlTag("error", Constants.ERROR_BAD_SET, new String[] { "code", "badArgument" });
+                out.write(XMLUtil.xmlTag("error", Constants.ERROR_BAD_SET, new String[] { "code", "badArgument" }));
+                return;
             }
         }
 
@@ -742,7 +851,8 @@ public class Facade extends BaseManager {
             LogWriter.addWarning(service.getHarvestOutLogFileName(), "The requested metadataPrefix \"" + metadataPrefix + "\" could not be found.");
             warningCount++;
 
-            return XMLUtil.xmlTag("error", Constants.ERROR_NO_RECORDS_MATCH, new String[] { "code", "noRecordsMatch" });
+            out.write(XMLUtil.xmlTag("error", Constants.ERROR_NO_RECORDS_MATCH, new String[] { "code", "noRecordsMatch" }));
+            return;
         }
 
         List<Record> records = new ArrayList<Record>();
@@ -750,93 +860,72 @@ public class Facade extends BaseManager {
         // Total number of records satisfying the criteria. This is not the number of records loaded.
         // long totalRecords = service.getMetadataService().getRepository().getRecordCount(fromDate, untilDate, format, setObject);
 
-        // BDA TODO: first do a count
-        long totalCount = service.getMetadataService().getRepository().getRecordCount(fromDate, untilDate, format, setObject);
-        // long totalCount = -1;
+        // The count is only done for the first page; later pages get it from the resumption token
+        Repository repo = service.getMetadataService().getRepository();
+        long totalCount = tokenCount;
+        if (totalCount == 0) {
+            totalCount = repo.getRecordCount(fromDate, untilDate, format, setObject);
+        }
         log.debug("totalCount: " + totalCount);
 
+        // The records' xml is read a few at a time as the response is written (see RecordListWriter).
+        // ListIdentifiers doesn't need it at all.
         if (totalCount != 0) {
-            records = service.getMetadataService().getRepository().getRecords(fromDate, untilDate, startingId, format, setObject);
+            if (getRecords) {
+                records = repo.getRecords(fromDate, untilDate, startingId, format, setObject, false);
+            } else {
+                records = repo.getRecordHeader(fromDate, untilDate, startingId, format, setObject);
+            }
         }
 
-        // The XML for the OAI result
-        StringBuffer xml = new StringBuffer();
-
         // If there were no records returned, set an error signifying that no records matched.
         // Otherwise, append data for each returned record to the result and insert a resumption token
         // to the database if needed
         if (records == null || records.size() == 0) {
             LogWriter.addInfo(service.getHarvestOutLogFileName(), "There were no records which matched the parameters provided in the " + (getRecords ? " ListRecords " : " ListIdentifiers") + " request.");
-            return xml.append(XMLUtil.xmlTag("error", Constants.ERROR_NO_RECORDS_MATCH, new String[] { "code", "noRecordsMatch" })).toString();
+            out.write(XMLUtil.xmlTag("error", Constants.ERROR_NO_RECORDS_MATCH, new String[] { "code", "noRecordsMatch" }));
+            return;
         } else {
-            // True if there are more results remaining than we can return at once
-            boolean hasMore = records.size() == MSTConfiguration.getInstance().getPropertyAsInt(Constants.CONFIG_OAI_REPO_MAX_RECORDS, 5000);
-
-            /*
-            if(log.isDebugEnabled())
-                log.debug("Returning results " + offset + " - " + offset + recordLimit + " " + (set == null ? "" : "of set " + set + " ") + " and format " + format.getId() + (from == null ? "" : "from " + from + " ") + (until == null ? "" : "until " + until) + ".");
-                */
+            String listElName = getRecords ? "ListRecords" : "ListIdentifiers";
+            out.write("<" + listElName + ">");
 
-            // The number of records returned
-            int returnedRecordsCount = 0;
+            // True if there are more results remaining than we can return at once
+            boolean hasMore = records.size() == MSTConfiguration.getInstance().getPropertyAsInt(
+                    getRecords ? Constants.CONFIG_OAI_REPO_MAX_RECORDS : Constants.CONFIG_OAI_REPO_MAX_IDENTIFIERS, 5000);
 
             // Add whitespace to make the result more readable
-            xml.append("\n");
-
-            // Append XML for each record to the result
-            for (Record record : records) {
-                // If we're to get the records, append the record's OAI XML.
-                // Otherwise, we're just supposed to get the identifiers, so
-                // append the record's OAI header
-                if (getRecords) {
-
-                    // For deleted record, just append the header
-                    if (Record.DELETED == record.getStatus()) {
-                        String header = getHeader(record);
-                        header = header.replaceAll("<header>", "<header status=\"deleted\">");
-                        xml.append("<record>\n")
-                                .append(header)
-                                .append("\n</record>\n");
-                    } else if (Record.ACTIVE == record.getStatus()) {
-                        xml.append("<record>\n");
-
-                        xml.append(getHeader(record));
-                        if (getRecords && !record.getDeleted()) {
-                            if (record.getOaiXml() == null) {
-                                log.error("record has no content!!!!");
-                                log.error("record.getStatus(): " + record.getStatus());
-                                log.error("record.getId(): " + record.getId());
-                            } else {
-                                xml.append("\n<metadata>\n")
-                                        .append(record.getOaiXml().replaceAll("<\\?xml.*\\?>", ""))
-                                        .append("\n</metadata>\n");
-                            }
-                        }
-                        xml.append("\n</record>\n");
+            out.write("\n");
+
+            // Write XML for each record
+            // If we're to get the records, write the record's OAI XML.
+            // Otherwise, we're just supposed to get the identifiers, so
+            // write the record's OAI header
+            if (getRecords) {
+                RecordListWriter recordListWriter = new RecordListWriter(records, out);
+                TLongArrayList activeIds = new TLongArrayList();
+                for (Record record : records) {
+                    if (Record.ACTIVE == record.getStatus()) {
+                        activeIds.add(record.getId());
                     }
-                } else {
-                    xml.append(getHeader(record).replaceAll("<\\?xml.*\\?>", "")).append("\n");
                 }
-
-                startingId = record.getId();
-
-                // Increment the counter for the number of records returned
-                returnedRecordsCount++;
-
-                /* BDA - Is this feature really worthwhile?
-                // If the length of the results exceeds the maximum allowed length,
-                // break from the loop
-                if(xml.length() >= maxLength)
-                {
-                    if(log.isDebugEnabled())
-                        log.debug("Breaking from the loop because after adding " + returnedRecordsCount + " records, the length of the results is " + xml.length() + " which exceeds the maximum allowed length of " + maxLength);
-
-                    hasMore = true;
-                    break;
+                try {
+                    repo.getRecordXml(activeIds.toNativeArray(), recordListWriter);
+                } catch (RuntimeException re) {
+                    if (re.getCause() instanceof IOException) {
+                        throw (IOException) re.getCause();
+                    }
+                    throw re;
+                }
+                recordListWriter.finish();
+            } else {
+                for (Record record : records) {
+                    XMLUtil.writeWithoutXmlDeclarations(getHeader(record), out);
+                    out.write("\n");
                 }
-                */
             }
 
+            startingId = records.get(records.size() - 1).getId();
+
             if (hasMore) {
                 ResumptionToken newResToken = new ResumptionToken();
                 // Set the fields on the resumption token
@@ -845,15 +934,19 @@ public class Facade extends BaseManager {
                 newResToken.setSetSpec(set);
                 newResToken.setMetadataFormat(metadataPrefix);
                 newResToken.setStartingId(startingId);
+                // -1 means the count isn't known yet, so the next page should ask again
+                if (totalCount != -1) {
+                    newResToken.setCompleteListSize(totalCount);
+                }
 
                 if (totalCount < -1) {
-                    xml.append("<!-- completeListSize is an estimate -->");
+                    out.write("<!-- completeListSize is an estimate -->");
                     totalCount = -1 * totalCount;
                 }
                 if (totalCount > 0) {
-                    xml.append(XMLUtil.xmlTag("resumptionToken", "" + newResToken.getToken(), new String[] { "completeListSize", "" + totalCount }));
+                    out.write(XMLUtil.xmlTag("resumptionToken", "" + newResToken.getToken(), new String[] { "completeListSize", "" + totalCount }));
                 } else {
-                    xml.append(XMLUtil.xmlTag("resumptionToken", "" + newResToken.getToken()
+                    out.write(XMLUtil.xmlTag("resumptionToken", "" + newResToken.getToken()
                             ));
                     // ,new String[] { "cursor", "" + offset, "completeListSize", ""+totalRecords } ));
 
@@ -861,8 +954,66 @@ public class Facade extends BaseManager {
 
                 // LogWriter.addInfo(service.getHarvestOutLogFileName(), "Returning " + totalRecords + " records and the resumptionToken " + newResToken.getId() + " in response to the " + (getRecords ? " ListRecords " : " ListIdentifiers") + " request.");
             }
+            out.write("</" + listElName + ">");
+        }
+    }
+
+    /*
+     * Writes the records of a ListRecords response in order, each one as soon as its xml has been
+     * read.  Records without xml to read (the deleted ones) are written as they're reached.
+     */
+    protected class RecordListWriter implements RecordXmlHandler {
+
+        protected List<Record> records = null;
+        protected Writer out = null;
+        protected int next = 0;
+
+        public RecordListWriter(List<Record> records, Writer out) {
+            this.records = records;
+            this.out = out;
+        }
+
+        public void handle(long id, String xml) {
+            try {
+                while (next < records.size() && records.get(next).getId() < id) {
+                    writeRecord(records.get(next++), null);
+                }
+                if (next < records.size() && records.get(next).getId() == id) {
+                    writeRecord(records.get(next++), xml);
+                }
+            } catch (IOException e) {
+                // stops the rest of the records being read
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void finish() throws IOException {
+            while (next < records.size()) {
+                writeRecord(records.get(next++), null);
+            }
+        }
+
+        protected void writeRecord(Record record, String xml) throws IOException {
+            // For deleted record, just write the header
+            if (Record.DELETED == record.getStatus()) {
+                out.write("<record>\n");
+                out.write(getHeader(record).replace("<header>", "<header status=\"deleted\">"));
+                out.write("\n</record>\n");
+            } else if (Record.ACTIVE == record.getStatus()) {
+                out.write("<record>\n");
+                out.write(getHeader(record));
+                if (xml == null) {
+                    log.error("record has no content!!!!");
+                    log.error("record.getStatus(): " + record.getStatus());
+                    log.error("record.getId(): " + record.getId());
+                } else {
+                    out.write("\n<metadata>\n");
+                    XMLUtil.writeWithoutXmlDeclarations(xml, out);
+                    out.write("\n</metadata>\n");
+                }
+                out.write("\n</record>\n");
+            }
         }
-        return XMLUtil.xmlTag((getRecords ? "ListRecords" : "ListIdentifiers"), xml.toString());
     }
 
     /*
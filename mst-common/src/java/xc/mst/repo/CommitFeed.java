@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.repo;
+
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lets the services downstream of a repository follow it while it's still being written to, so a
+ * chain of processing directives runs as a pipeline instead of one service after the other.
+ *
+ * The harvest or service writing to the repository signals each commit (DefaultRepository does
+ * this) and the feed is closed once it's done.  Each service reading the repository is a Follower:
+ * once it has processed everything committed so far it waits for the next commit.  A writer
+ * which gets more than maxLag commits ahead of its slowest follower should wait for it (see
+ * isLagging), which keeps the stages roughly in step.
+ *
+ * Followers page through the repository by record id, so a record which is updated after a
+ * follower has gone past its id would be missed.  Records added with an id at or below the
+ * highest one already committed are therefore handed to every follower as "late" ids once
+ * they've been committed.
+ */
+public class CommitFeed {
+
+    protected static ConcurrentHashMap<String, CommitFeed> feeds = new ConcurrentHashMap<String, CommitFeed>();
+
+    /**
+     * Opens a feed for the repository named name, replacing any feed left over for it.
+     */
+    public static CommitFeed open(String name, int maxLag) {
+        CommitFeed feed = new CommitFeed(name, maxLag);
+        CommitFeed old = feeds.put(name, feed);
+        if (old != null) {
+            old.close();
+        }
+        return feed;
+    }
+
+    /**
+     * @return the open feed for the repository named name, or null if it isn't being followed
+     */
+    public static CommitFeed get(String name) {
+        if (name == null) {
+            return null;
+        }
+        return feeds.get(name);
+    }
+
+    protected String name = null;
+    protected int maxLag = 0;
+    protected boolean closed = false;
+
+    // the highest record id of each commit (ascending)
+    protected TLongArrayList commitHighestIds = new TLongArrayList();
+    protected long highestCommittedId = 0;
+    // the highest id added since the last commit
+    protected long highestAddedId = 0;
+    // ids added since the last commit which some follower may already have gone past
+    protected TLongHashSet lateIds = new TLongHashSet();
+    protected List<Follower> followers = new ArrayList<Follower>();
+
+    protected CommitFeed(String name, int maxLag) {
+        this.name = name;
+        this.maxLag = maxLag;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized Follower follow() {
+        Follower follower = new Follower();
+        followers.add(follower);
+        return follower;
+    }
+
+    /**
+     * Called by the writer for each record it adds.
+     */
+    public synchronized void recordAdded(long id) {
+        if (id <= highestCommittedId) {
+            lateIds.add(id);
+        } else if (id > highestAddedId) {
+            highestAddedId = id;
+        }
+    }
+
+    /**
+     * Called by the writer after each commit.
+     */
+    public synchronized void committed() {
+        if (highestAddedId > highestCommittedId) {
+            highestCommittedId = highestAddedId;
+            commitHighestIds.add(highestCommittedId);
+        }
+        if (lateIds.size() > 0) {
+            for (Follower follower : followers) {
+                follower.lateIds.addAll(lateIds.toArray());
+            }
+            lateIds.clear();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Called once the writer is done.  Followers finish what's been committed and then stop.
+     */
+    public synchronized void close() {
+        closed = true;
+        feeds.remove(name, this);
+        // anything still pending went out with the writer's final commit
+        for (Follower follower : followers) {
+            follower.lateIds.addAll(lateIds.toArray());
+        }
+        lateIds.clear();
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return true if some follower is more than maxLag commits behind
+     */
+    public synchronized boolean isLagging() {
+        for (Follower follower : followers) {
+            if (getLag(follower) > maxLag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits up to timeout millis for a follower to make progress.
+     */
+    public synchronized void awaitFollowers(long timeout) throws InterruptedException {
+        if (!closed) {
+            wait(timeout);
+        }
+    }
+
+    // the number of commits with records above the follower's highest processed id
+    protected int getLag(Follower follower) {
+        int lo = 0;
+        int hi = commitHighestIds.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (commitHighestIds.get(mid) <= follower.processedId) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return commitHighestIds.size() - lo;
+    }
+
+    public class Follower {
+
+        protected long processedId = 0;
+        protected TLongHashSet lateIds = new TLongHashSet();
+
+        /**
+         * Tells the writer this follower has processed everything up to and including id.
+         */
+        public void processed(long id) {
+            synchronized (CommitFeed.this) {
+                if (id > processedId) {
+                    processedId = id;
+                    CommitFeed.this.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Called by a follower which has processed everything it could find.  Waits up to
+         * timeout millis for the next commit.
+         *
+         * @return false once the feed is closed and there's nothing more to wait for
+         */
+        public boolean awaitCommit(long timeout) throws InterruptedException {
+            synchronized (CommitFeed.this) {
+                processed(highestCommittedId);
+                if (closed) {
+                    return false;
+                }
+                if (lateIds.size() == 0) {
+                    CommitFeed.this.wait(timeout);
+                }
+                return true;
+            }
+        }
+
+        /**
+         * @return the late ids committed since the last call (see CommitFeed)
+         */
+        public long[] takeLateIds() {
+            synchronized (CommitFeed.this) {
+                long[] ids = lateIds.toArray();
+                lateIds.clear();
+                return ids;
+            }
+        }
+
+        public boolean isClosed() {
+            return CommitFeed.this.isClosed();
+        }
+
+        /**
+         * Stops following, so the writer no longer waits on this follower.
+         */
+        public void stop() {
+            synchronized (CommitFeed.this) {
+                followers.remove(this);
+                CommitFeed.this.notifyAll();
+            }
+        }
+    }
+
+}
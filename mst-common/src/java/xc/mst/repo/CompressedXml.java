@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.repo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The format of records_xml.xml_z: a version byte followed by the record's UTF-8 xml, deflated
+ * with a preset dictionary.
+ *
+ * A record is only a few KB, which doesn't give deflate much to go on; most of what it would
+ * learn is the same namespaces and element names over again.  The dictionary hands it those
+ * up front.  Deflate favours the end of the dictionary, so the most common strings are last.
+ *
+ * The dictionary can never change for a given version byte, or the payloads already written
+ * with it can't be read.  A new dictionary gets a new version.
+ */
+public class CompressedXml {
+
+    protected static final byte VERSION_1 = 1;
+
+    protected static final byte[] DICTIONARY_1 = getBytes(
+            "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
+            "xsi:schemaLocation=\"http://www.loc.gov/MARC21/slim http://www.loc.gov/standards/marcxml/schema/MARC21slim.xsd\" " +
+            "xmlns:dc=\"http://purl.org/dc/elements/1.1/\" " +
+            "<xc:frbr xmlns:xc=\"http://www.extensiblecatalog.info/Elements\" " +
+            "xmlns:dcterms=\"http://purl.org/dc/terms/\" " +
+            "xmlns:rdarole=\"http://rdvocab.info/roles\" " +
+            "xmlns:rdvocab=\"http://rdvocab.info/Elements\">" +
+            "<xc:entity type=\"expression\"><xc:entity type=\"manifestation\">" +
+            "<xc:entity type=\"holdings\"><xc:entity type=\"work\" id=\"oai:mst.rochester.edu:MetadataServicesToolkit/" +
+            "<xc:recordID type=\"OCoLC\"><xc:workExpressed><xc:expressionManifested><xc:manifestationHeld>" +
+            "<dcterms:identifier><dcterms:language><dcterms:title><dcterms:creator><dcterms:description>" +
+            "<rdvocab:titleOfWork><rdvocab:placeOfPublication><rdvocab:publisher><rdvocab:dateOfPublication>" +
+            "<rdvocab:extentOfText><xc:subject type=\"dcterms:LCSH\"></xc:subject></dcterms:subject>" +
+            "</xc:entity></xc:frbr>" +
+            "<marc:record xmlns:marc=\"http://www.loc.gov/MARC21/slim\">" +
+            "<marc:leader>00000nam a2200000 a 4500</marc:leader>" +
+            "<marc:controlfield tag=\"001\"><marc:controlfield tag=\"003\"><marc:controlfield tag=\"005\">" +
+            "<marc:controlfield tag=\"008\"></marc:controlfield>" +
+            "<marc:datafield tag=\"035\" ind1=\" \" ind2=\" \"><marc:subfield code=\"a\">(OCoLC)" +
+            "<marc:datafield tag=\"100\" ind1=\"1\" ind2=\" \"><marc:datafield tag=\"245\" ind1=\"1\" ind2=\"0\">" +
+            "<marc:datafield tag=\"260\" ind1=\" \" ind2=\" \"><marc:datafield tag=\"300\" ind1=\" \" ind2=\" \">" +
+            "<marc:datafield tag=\"650\" ind1=\" \" ind2=\"0\"><marc:datafield tag=\"852\" ind1=\"0\" ind2=\" \">" +
+            "\" ind1=\" \" ind2=\" \"><marc:datafield tag=\"" +
+            "<marc:subfield code=\"b\"><marc:subfield code=\"c\"><marc:subfield code=\"a\"></marc:subfield>" +
+            "</marc:datafield></marc:record>");
+
+    protected static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    protected static byte[] getBytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee);
+        }
+    }
+
+    public static byte[] compress(String xml) {
+        if (xml == null) {
+            return null;
+        }
+        byte[] in = getBytes(xml);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY_1);
+            deflater.setInput(in);
+            deflater.finish();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(in.length / 4 + 16);
+            baos.write(VERSION_1);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                baos.write(buf, 0, n);
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static String decompress(byte[] z) {
+        if (z == null) {
+            return null;
+        }
+        if (z.length == 0 || z[0] != VERSION_1) {
+            throw new RuntimeException("unknown compressed xml version: " + (z.length == 0 ? "none" : String.valueOf(z[0])));
+        }
+        // nowrap inflaters need a dummy byte after the input
+        byte[] in = new byte[z.length];
+        System.arraycopy(z, 1, in, 0, z.length - 1);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY_1);
+            inflater.setInput(in);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(z.length * 5);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new RuntimeException("truncated compressed xml");
+                }
+                baos.write(buf, 0, n);
+            }
+            return new String(baos.toByteArray(), "UTF-8");
+        } catch (DataFormatException dfe) {
+            throw new RuntimeException(dfe);
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return bytes as a hex string, the way LOAD DATA gets binary columns (see unhex())
+     */
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.repo;
+
+import java.util.Arrays;
+import java.util.List;
+
+import xc.mst.bo.provider.Set;
+import xc.mst.bo.record.Record;
+
+/**
+ * The format of records.content_hash: a 64 bit FNV-1a hash of the parts of a record which are
+ * served to whoever reads the repository - its xml, status, type, format and sets.  The
+ * datestamps and prev_status aren't included; they change every time a record is written.
+ * Predecessors aren't included either; RepositoryDAO writes those even for unchanged records.
+ *
+ * If a record's hash hasn't changed there's nothing new to write, and RepositoryDAO leaves it out
+ * of the commit (see RepositoryDAO.dropUnchangedRecords).  Records whose xml isn't known (it's
+ * null or Record.UNCHANGED) have no hash and are always written.
+ *
+ * The hash can never change for stored records, or every record would look changed the next time
+ * it's written.
+ */
+public class ContentHash {
+
+    protected static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    protected static final long PRIME = 0x100000001b3L;
+
+    /**
+     * @return the record's content hash, or null if it doesn't have one
+     */
+    public static Long hash(Record r) {
+        r.setMode(Record.STRING_MODE);
+        String xml = r.getOaiXml();
+        if (xml == null || Record.UNCHANGED.equals(xml)) {
+            return null;
+        }
+        long h = OFFSET_BASIS;
+        h = hash(h, xml);
+        h = hash(h, r.getStatus());
+        h = hash(h, r.getType() == null || r.getType().length() == 0 ? 0 : r.getType().charAt(0));
+        h = hash(h, r.getFormat() == null ? -1 : r.getFormat().getId());
+        List<Set> sets = r.getSets();
+        if (sets != null && sets.size() > 0) {
+            int[] setIds = new int[sets.size()];
+            for (int i = 0; i < setIds.length; i++) {
+                setIds[i] = sets.get(i).getId();
+            }
+            Arrays.sort(setIds);
+            for (int setId : setIds) {
+                h = hash(h, setId);
+            }
+        }
+        return h;
+    }
+
+    protected static long hash(long h, String s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            h = hash(h, s.charAt(i));
+        }
+        // so the fields that follow can't run into the string
+        return hash(h, s.length());
+    }
+
+    protected static long hash(long h, char c) {
+        h = (h ^ (c & 0xff)) * PRIME;
+        return (h ^ (c >>> 8)) * PRIME;
+    }
+
+    protected static long hash(long h, int i) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            h = (h ^ ((i >>> shift) & 0xff)) * PRIME;
+        }
+        return h;
+    }
+
+}
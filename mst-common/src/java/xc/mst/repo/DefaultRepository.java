@@ -9,9 +9,11 @@
 
 package xc.mst.repo;
 
+import gnu.trove.TLongArrayList;
 import gnu.trove.TLongByteHashMap;
 import gnu.trove.TLongHashSet;
 import gnu.trove.TLongLongHashMap;
+import gnu.trove.TLongObjectHashMap;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -45,6 +47,10 @@ public class DefaultRepository extends BaseService implements Repository {
     // keep all pred-succs in memory.
     protected Map<Long, java.util.Set<Record>> predSuccMap = new HashMap<Long, java.util.Set<Record>>();
 
+    // the successors of the batch of records currently being processed (see prefetchSuccessorIds)
+    protected TLongHashSet prefetchedPredIds = new TLongHashSet();
+    protected TLongObjectHashMap<java.util.Set<Record>> prefetchedSuccIds = new TLongObjectHashMap<java.util.Set<Record>>();
+
     // used to persist links to db...
     protected Map<Long, List<Long>> fromToUplinksAdded = new HashMap<Long, List<Long>>();
     protected Map<Long, List<Long>> toFromUplinksAdded = new HashMap<Long, List<Long>>();
@@ -151,10 +157,20 @@ public class DefaultRepository extends BaseService implements Repository {
             }
         }
         getRepositoryDAO().addRecord(name, record);
+        CommitFeed feed = CommitFeed.get(name);
+        if (feed != null) {
+            feed.recordAdded(record.getId());
+        }
     }
 
     public void addRecords(List<Record> records) {
         getRepositoryDAO().addRecords(name, records);
+        CommitFeed feed = CommitFeed.get(name);
+        if (feed != null) {
+            for (Record r : records) {
+                feed.recordAdded(r.getId());
+            }
+        }
     }
 
     public boolean commitIfNecessary(boolean force) {
@@ -169,6 +185,9 @@ public class DefaultRepository extends BaseService implements Repository {
             RecordCounts incomingRecordCounts, RecordCounts outgoingRecordCounts) {
         if (getRepositoryDAO().commitIfNecessary(name, force, processedRecordsCount)) {
             predSuccMap.clear();
+            // what was just committed may have changed the successors of the rest of the batch
+            prefetchedPredIds.clear();
+            prefetchedSuccIds.clear();
             
             List<long[]> uplinksAdded = getArrayListFromKeyedMap(fromToUplinksAdded);
             getRepositoryDAO().persistLinkedRecordIds(name, uplinksAdded);            
@@ -194,11 +213,29 @@ public class DefaultRepository extends BaseService implements Repository {
     	    }
     	    recordCountsToActivateByType.clear();
 
+            // records the commit left out because they hadn't changed
+            for (Map.Entry<String, AtomicInteger> me : getRepositoryDAO().takeUnchangedRecordCounts(name).entrySet()) {
+                if (outgoingRecordCounts == null) {
+                    break;
+                }
+                int num = me.getValue().get();
+                outgoingRecordCounts.incr(me.getKey(), RecordCounts.UNCHANGED, num);
+                if (!RecordCounts.TOTALS.equals(me.getKey())) {
+                    outgoingRecordCounts.incr(null, RecordCounts.UNCHANGED, num);
+                }
+            }
+
             getRecordCountsDAO().persistRecordCounts(name, incomingRecordCounts, outgoingRecordCounts);
             if (incomingRecordCounts != null)
                 incomingRecordCounts.clear();
             if (outgoingRecordCounts != null)
                 outgoingRecordCounts.clear();
+
+            // let any services following this repository in a pipeline know there's more
+            CommitFeed feed = CommitFeed.get(name);
+            if (feed != null) {
+                feed.committed();
+            }
             return true;
         } else {
             return force;
@@ -236,8 +273,33 @@ public class DefaultRepository extends BaseService implements Repository {
         return r;
     }
     
+    public List<Record> getHeaders(long[] ids) {
+        return getRepositoryDAO().getHeaders(name, ids);
+    }
+
+    public List<Record> getRecords(long[] ids, Format inputFormat, Set inputSet, char[] statuses) {
+        return getRepositoryDAO().getRecordsWSets(name, ids, inputFormat, inputSet, statuses);
+    }
+
+    public long deleteRecords(Set inputSet, long afterId, int limit, RecordCounts incomingRecordCounts, TLongArrayList deletedIds) {
+        long lastId = getRepositoryDAO().markRecordsDeleted(name, inputSet, afterId, limit, incomingRecordCounts, deletedIds);
+        getRecordCountsDAO().persistRecordCounts(name, incomingRecordCounts, null);
+        if (incomingRecordCounts != null)
+            incomingRecordCounts.clear();
+
+        // followers page by id, so these all come to them as late ids
+        CommitFeed feed = CommitFeed.get(name);
+        if (feed != null && deletedIds.size() > 0) {
+            for (int i = 0; i < deletedIds.size(); i++) {
+                feed.recordAdded(deletedIds.get(i));
+            }
+            feed.committed();
+        }
+        return lastId;
+    }
+
     public Record getUnpersistedRecord(long id) {
-    	return getRepositoryDAO().getUnpersistedRecord(id);
+    	return getRepositoryDAO().getUnpersistedRecord(name, id);
     }
 
     public List<Record> getRecords(Date from, Date until, Long startingId, Format inputFormat, Set inputSet) {
@@ -259,6 +321,18 @@ public class DefaultRepository extends BaseService implements Repository {
         return records;
     }
 
+    public List<Record> getRecords(Date from, Date until, Long startingId, Format inputFormat, Set inputSet, boolean withXml) {
+        char[] statuses = new char[] { Record.ACTIVE, Record.DELETED };
+        if (Util.dateIsNull(from)) {
+            statuses = new char[] { Record.ACTIVE };
+        }
+        return getRepositoryDAO().getRecordsWSets(name, from, until, startingId, inputFormat, inputSet, statuses, withXml);
+    }
+
+    public void getRecordXml(long[] ids, RecordXmlHandler handler) {
+        getRepositoryDAO().getRecordXml(name, ids, handler);
+    }
+
     public long getRecordCount(final Date from, final Date until,
             final Format inputFormat, final Set inputSet) {
         final String key = "from:" + from + " until:" + until + " inputFormat:" + inputFormat + " inputSet:" + inputSet;
@@ -284,7 +358,11 @@ public class DefaultRepository extends BaseService implements Repository {
 
     public List<Record> getRecordHeader(Date from, Date until, Long startingId, Format inputFormat, Set inputSet) {
         LOG.debug("from:" + from + " until:" + until + " startingId:" + startingId + " inputFormat:" + inputFormat + " inputSet:" + inputSet);
-        List<Record> records = getRepositoryDAO().getRecordHeader(name, from, until, startingId, inputFormat, inputSet);
+        char[] statuses = new char[] { Record.ACTIVE, Record.DELETED };
+        if (Util.dateIsNull(from)) {
+            statuses = new char[] { Record.ACTIVE };
+        }
+        List<Record> records = getRepositoryDAO().getRecordHeader(name, from, until, startingId, inputFormat, inputSet, statuses);
         if (records == null) {
             LOG.debug("no records found");
         } else {
@@ -308,11 +386,21 @@ public class DefaultRepository extends BaseService implements Repository {
         }
     }
 
+    public void prefetchSuccessorIds(long[] predIds) {
+        prefetchedPredIds.clear();
+        prefetchedPredIds.addAll(predIds);
+        prefetchedSuccIds = getRepositoryDAO().getSuccessorIds(name, predIds);
+    }
+
     public void injectSuccessorIds(Record r) {
         java.util.Set<Record> succIds = predSuccMap.get(r.getId());
         if (succIds == null) {
-            succIds = getRepositoryDAO().getSuccessorIds(name, r.getId());
-            predSuccMap.put(r.getId(), succIds);
+            if (prefetchedPredIds.contains(r.getId())) {
+                succIds = prefetchedSuccIds.get(r.getId());
+            } else {
+                // predSuccMap is only for what isn't in the db yet, so this isn't cached
+                succIds = getRepositoryDAO().getSuccessorIds(name, r.getId());
+            }
         }
         if (succIds != null && succIds.size() > 0) {
             for (Record sr : succIds) {
@@ -465,6 +553,11 @@ public class DefaultRepository extends BaseService implements Repository {
     public void processComplete() {
         getRepositoryDAO().createIndicesIfNecessary(name);
         getRepositoryDAO().updateOutgoingRecordCounts(name);
+        // the job writing to this repository is done, so it's a good time to compress whatever
+        // was written before compression was turned on
+        if (config.getPropertyAsBoolean("db.records_xml.compressed", false)) {
+            getRepositoryDAO().compressRecordsXml(name);
+        }
     }
 
     public boolean ready4harvest() {
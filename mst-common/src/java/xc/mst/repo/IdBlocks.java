@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.repo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xc.mst.utils.metrics.Counter;
+import xc.mst.utils.metrics.Metrics;
+
+/**
+ * Hands out ids from blocks reserved from a Source (for RepositoryDAO, the oai_id_sequence).
+ * Each thread has a block of its own, so taking an id is an increment and a check, and only a
+ * thread whose block has run out reserves another.
+ *
+ * A thread's blocks start at minBlock ids.  A thread which uses up its block within growMillis
+ * of reserving it gets one twice the size next time, up to maxBlock; one which takes more than
+ * ten times that gets one half the size.  So a busy harvest or service reserves rarely and an
+ * occasional caller doesn't leave big holes in the sequence.
+ *
+ * Ids are unique but they aren't handed out in order across threads (CommitFeed copes with
+ * records committed below the highest id already committed).  The ids left in the blocks of
+ * threads which die, or which are in use when reset is called, are never handed out.
+ */
+public class IdBlocks {
+
+    protected static final Counter BLOCKS_RESERVED = Metrics.counter("repo.idBlocksReserved");
+
+    /**
+     * Where the blocks come from
+     */
+    public interface Source {
+        /**
+         * @return the first of count ids which no one else will be given
+         */
+        long reserve(int count);
+    }
+
+    protected static class Block {
+        protected long next = 0;
+        protected long end = 0;
+        protected int size = 0;
+        protected long reservedAt = 0;
+        protected int generation = -1;
+    }
+
+    protected final Source source;
+    protected final int minBlock;
+    protected final int maxBlock;
+    protected final long growMillis;
+
+    // bumped by reset so every thread reserves a new block
+    protected final AtomicInteger generation = new AtomicInteger();
+
+    protected final ThreadLocal<Block> blocks = new ThreadLocal<Block>() {
+        protected Block initialValue() {
+            return new Block();
+        }
+    };
+
+    public IdBlocks(Source source, int minBlock, int maxBlock, long growMillis) {
+        this.source = source;
+        this.minBlock = Math.max(1, minBlock);
+        this.maxBlock = Math.max(this.minBlock, maxBlock);
+        this.growMillis = growMillis;
+    }
+
+    public long next() {
+        Block block = blocks.get();
+        if (block.next == block.end || block.generation != generation.get()) {
+            refill(block);
+        }
+        return block.next++;
+    }
+
+    /**
+     * @return the id the calling thread will be given next, or -1 if it doesn't have a block
+     */
+    public long peek() {
+        Block block = blocks.get();
+        if (block.next == block.end || block.generation != generation.get()) {
+            return -1;
+        }
+        return block.next;
+    }
+
+    /**
+     * Drops every thread's block.  Each reserves a new one the next time it needs an id.
+     */
+    public void reset() {
+        generation.incrementAndGet();
+    }
+
+    protected void refill(Block block) {
+        int currentGeneration = generation.get();
+        long now = System.currentTimeMillis();
+        if (block.generation != currentGeneration || block.size == 0) {
+            block.size = minBlock;
+        } else if (now - block.reservedAt < growMillis) {
+            block.size = (int) Math.min((long) block.size * 2, maxBlock);
+        } else if (now - block.reservedAt > 10 * growMillis) {
+            block.size = Math.max(block.size / 2, minBlock);
+        }
+        block.next = source.reserve(block.size);
+        block.end = block.next + block.size;
+        block.reservedAt = now;
+        block.generation = currentGeneration;
+        BLOCKS_RESERVED.inc();
+    }
+
+}
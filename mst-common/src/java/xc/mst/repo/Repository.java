@@ -9,6 +9,7 @@
 
 package xc.mst.repo;
 
+import gnu.trove.TLongArrayList;
 import gnu.trove.TLongByteHashMap;
 import gnu.trove.TLongHashSet;
 
@@ -49,6 +50,18 @@ public interface Repository {
 
     public List<Record> getRecords(Date from, Date until, Long startingId, Format inputFormat, Set inputSet);
 
+    /**
+     * @param withXml
+     *            false to leave out the records' xml, which can then be read a few at a time with
+     *            getRecordXml
+     */
+    public List<Record> getRecords(Date from, Date until, Long startingId, Format inputFormat, Set inputSet, boolean withXml);
+
+    /**
+     * Hands the xml of each of the records with the given ids (ascending) to handler.
+     */
+    public void getRecordXml(long[] ids, RecordXmlHandler handler);
+
     /**
      * Get number of records that satisfy the given criteria
      *
@@ -86,6 +99,33 @@ public interface Repository {
     public Record getRecord(String oaiId);
 
     public Record getRecord(long id);
+
+    /**
+     * The id, type, status, previous status, format and date updated of each of the given records,
+     * in ascending order of id, read without their xml, sets or messages.  Ids which aren't in the
+     * repository are left out.  The type is as stored: its first character.
+     */
+    public List<Record> getHeaders(long[] ids);
+
+    /**
+     * The records with the given ids, in ascending order of id, which are of inputFormat, in
+     * inputSet and have one of statuses (any of which may be null), as getRecords would return
+     * them.  This is for records committed below an id which paging has already gone past.
+     */
+    public List<Record> getRecords(long[] ids, Format inputFormat, Set inputSet, char[] statuses);
+
+    /**
+     * Marks the records of the next id range deleted (see RepositoryDAO.markRecordsDeleted) and
+     * lets the services following this repository know, as a commit would.
+     *
+     * @param inputSet
+     *            only the records in this set, or null for all of them
+     * @param deletedIds
+     *            gets the ids of the records deleted
+     * @return the highest record_id of the range, to pass as afterId for the next one, or -1 if
+     *         there are no records after afterId
+     */
+    public long deleteRecords(Set inputSet, long afterId, int limit, RecordCounts incomingRecordCounts, TLongArrayList deletedIds);
     
     public List<Long> getPredecessorIds(Record r);
 
@@ -93,6 +133,13 @@ public interface Repository {
 
     public void injectSuccessorIds(Record r);
 
+    /**
+     * Loads the successor ids of a whole batch of records with one query, so the
+     * injectSuccessorIds(Record) calls for that batch don't each need one.  Only the most
+     * recently prefetched batch is kept.
+     */
+    public void prefetchSuccessorIds(long[] predIds);
+
     public Provider getProvider();
 
     public Service getService();
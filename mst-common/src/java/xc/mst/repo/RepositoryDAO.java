@@ -13,6 +13,8 @@ import gnu.trove.TLongArrayList;
 import gnu.trove.TLongByteHashMap;
 import gnu.trove.TLongHashSet;
 import gnu.trove.TLongIterator;
+import gnu.trove.TLongLongHashMap;
+import gnu.trove.TLongObjectHashMap;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -21,18 +23,22 @@ import java.io.OutputStream;
 import java.math.BigInteger;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -46,6 +52,7 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcCall;
 
@@ -64,6 +71,9 @@ import xc.mst.dao.record.MessageDAO;
 import xc.mst.utils.MSTConfiguration;
 import xc.mst.utils.TimingLogger;
 import xc.mst.utils.Util;
+import xc.mst.utils.metrics.Counter;
+import xc.mst.utils.metrics.Metrics;
+import xc.mst.utils.metrics.Timer;
 
 public class RepositoryDAO extends BaseDAO {
 
@@ -71,6 +81,9 @@ public class RepositoryDAO extends BaseDAO {
 
     public final static String RECORDS_TABLE = "records";
     public final static String RECORD_UPDATES_TABLE = "record_updates";
+    public final static String RECORD_LATEST_UPDATES_TABLE = "record_latest_updates";
+    // where commitIfNecessary's load file goes before it's merged into record_latest_updates
+    public final static String RECORD_LATEST_UPDATES_LOAD_TABLE = "record_latest_updates_load";
     public final static String RECORDS_XML_TABLE = "records_xml";
     public final static String RECORDS_SETS_TABLE = "record_sets";
     public final static String RECORD_PREDECESSORS_TABLE = "record_predecessors";
@@ -81,11 +94,13 @@ public class RepositoryDAO extends BaseDAO {
     public final static String PREV_INCOMING_RECORD_STATUSES = "prev_incoming_record_statuses";
     public int lastCompleteListSizeMethod = 0;
 
+    // held while a block of ids is reserved from, or the sequence is reset in, oai_id_sequence
     protected Lock oaiIdLock = new ReentrantLock();
-    protected int nextId = -1;
-    protected int nextIdInDB = -1;
+    // set until the first block is reserved after startup or resetIdSequence, see resetNextId
+    protected boolean resetNextIdPending = true;
 
     protected SimpleJdbcCall getNextOaiId = null;
+    protected IdBlocks idBlocks = null;
 
     protected final static String RECORDS_TABLE_COLUMNS =
             "r.record_id, " +
@@ -104,17 +119,47 @@ public class RepositoryDAO extends BaseDAO {
                     "rm.service_id, " +
                     "rm.detail ";
 
-    protected boolean inBatch = false;
-    protected List<Record> recordsToAdd = null;
-    protected Map<Long, Record> recordsToAddInx = null;
+    // records read at once by getRecordXml
+    protected static final int RECORD_XML_AT_ONCE = 100;
+
+    // records read at once by getHeaders
+    protected static final int HEADERS_AT_ONCE = 1000;
+
+    // writing a batch of records to the repository tables, and the records written
+    protected static final Timer COMMIT_TIMER = Metrics.timer("repo.commitIfNecessary");
+    protected static final Counter RECORDS_COMMITTED = Metrics.counter("repo.recordsCommitted");
+
+    // marking a range of records deleted, and the records marked (see markRecordsDeleted)
+    protected static final Timer MARK_DELETED_TIMER = Metrics.timer("repo.markRecordsDeleted");
+    protected static final Counter RECORDS_MARKED_DELETED = Metrics.counter("repo.recordsMarkedDeleted");
+
+    /**
+     * The records added to a repository and not yet committed.  The DAO is shared by every job
+     * the Scheduler runs, so each repository has its own (see getBatch).  Only one thread adds to
+     * and commits a repository's batch at a time.
+     */
+    protected static class Batch {
+        protected boolean inBatch = false;
+        protected List<Record> recordsToAdd = new ArrayList<Record>();
+        protected Map<Long, Record> recordsToAddInx = new HashMap<Long, Record>();
+        // the number of records of each type which commits left out because they hadn't changed
+        protected final ConcurrentHashMap<String, AtomicInteger> unchangedRecordCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    }
+
+    // by repo name
+    protected final ConcurrentHashMap<String, Batch> batches = new ConcurrentHashMap<String, Batch>();
+
+    // repos known to have a record_latest_updates table
+    protected java.util.Set<String> reposWithLatestUpdates = Collections.synchronizedSet(new HashSet<String>());
+    // whether each repo's records_xml has the xml_z column (see checkCompressedXmlColumn)
+    protected Map<String, Boolean> reposWithCompressedXml = new ConcurrentHashMap<String, Boolean>();
+    // repos known to have records.content_hash (see checkContentHashColumn)
+    protected java.util.Set<String> reposWithContentHash = Collections.synchronizedSet(new HashSet<String>());
 
 
     public void init() {
         LOG.debug("RepositoryDAO.init()");
 
-        recordsToAdd = new ArrayList<Record>();
-	recordsToAddInx = new HashMap<Long, Record>();
-
         try {
             if (!tableExists(REPOS_TABLE)) {
                 for (String file : new String[] { "xc/mst/repo/sql/create_repo_platform.sql",
@@ -131,23 +176,33 @@ public class RepositoryDAO extends BaseDAO {
         }
     }
 
+    protected Batch getBatch(String name) {
+        Batch batch = batches.get(name);
+        if (batch == null) {
+            Batch newBatch = new Batch();
+            batch = batches.putIfAbsent(name, newBatch);
+            if (batch == null) {
+                batch = newBatch;
+            }
+        }
+        return batch;
+    }
+
     // probably a bad idea exposing some of this implementation stuff but am going for it.
-    public boolean haveUnpersistedRecord(Long id) {
-    	return recordsToAddInx == null ? false : recordsToAddInx.containsKey(id);
+    public boolean haveUnpersistedRecord(String name, Long id) {
+    	return getBatch(name).recordsToAddInx.containsKey(id);
     }
 
-    public Record getUnpersistedRecord(long id) {
-    	if (haveUnpersistedRecord(id)) {
-    		return recordsToAddInx.get(id);
-        }
-        return null;
+    public Record getUnpersistedRecord(String name, long id) {
+    	return getBatch(name).recordsToAddInx.get(id);
     }
 
-    public boolean deleteUnpersistedRecord(Long id) {
-        Record recordToDelete = getUnpersistedRecord(id);
+    public boolean deleteUnpersistedRecord(String name, Long id) {
+        Batch batch = getBatch(name);
+        Record recordToDelete = batch.recordsToAddInx.get(id);
         if (recordToDelete != null) {
-            recordsToAdd.remove(recordToDelete);
-            recordsToAddInx.remove(id);
+            batch.recordsToAdd.remove(recordToDelete);
+            batch.recordsToAddInx.remove(id);
             return true;
         }
         return false;
@@ -172,6 +227,15 @@ public class RepositoryDAO extends BaseDAO {
     public void setDataSource(DataSource dataSource) {
         super.setDataSource(dataSource);
         this.getNextOaiId = new SimpleJdbcCall(jdbcTemplate).withFunctionName("get_next_oai_id");
+        MSTConfiguration config = MSTConfiguration.getInstance();
+        int minBlock = config == null ? 1000 : config.getPropertyAsInt("db.ids.minBlock", 1000);
+        int maxBlock = config == null ? 64000 : config.getPropertyAsInt("db.ids.maxBlock", 64000);
+        int growMillis = config == null ? 1000 : config.getPropertyAsInt("db.ids.growMillis", 1000);
+        this.idBlocks = new IdBlocks(new IdBlocks.Source() {
+            public long reserve(int count) {
+                return reserveIds(count);
+            }
+        }, minBlock, maxBlock, growMillis);
     }
 
     public List<Repository> getAll() {
@@ -213,7 +277,7 @@ public class RepositoryDAO extends BaseDAO {
 
     public List<Record> getSuccessors(String name, long id) {
         String sql =
-                "select " + RECORDS_TABLE_COLUMNS + ", x.xml " +
+                "select " + RECORDS_TABLE_COLUMNS + ", " + getXmlColumns(name) + " " +
                         "from " + getTableName(name, RECORDS_TABLE) + " r, " +
                         getTableName(name, RECORDS_XML_TABLE) + " x, " +
                         getTableName(name, RECORD_PREDECESSORS_TABLE) + " rp " +
@@ -241,37 +305,45 @@ public class RepositoryDAO extends BaseDAO {
     }
 
     public long resetIdSequence(long id) {
-        this.nextId = -1;
-        this.nextIdInDB = -1;
         oaiIdLock.lock();
-        long retId = this.jdbcTemplate.queryForLong("select id from oai_id_sequence");
-        this.jdbcTemplate.update("update oai_id_sequence set id=?", id);
-        oaiIdLock.unlock();
-        return retId;
+        try {
+            resetNextIdPending = true;
+            idBlocks.reset();
+            long retId = this.jdbcTemplate.queryForLong("select id from oai_id_sequence");
+            this.jdbcTemplate.update("update oai_id_sequence set id=?", id);
+            return retId;
+        } finally {
+            oaiIdLock.unlock();
+        }
     }
 
     public void injectId(Record r) {
         r.setId(getNextIdAndIncr());
     }
 
+    /**
+     * Takes the next id from the calling thread's block (see IdBlocks), which only needs the
+     * database when the block has run out.
+     */
     public long getNextIdAndIncr() {
+        return idBlocks.next();
+    }
+
+    protected long reserveIds(int count) {
         oaiIdLock.lock();
-        if (nextId == nextIdInDB) {
-        	// special case: when we are restarting the MST, let's use a continuous sequence of IDs
-        	// (i.e., no "holes"). This is especially helpful during MST testing and regression testing.
-        	if (nextId == -1) {
-        		resetNextId();
-        	}
-            int idsAtOnce = 1000;
-            nextId = this.getNextOaiId.executeObject(Integer.class, idsAtOnce);
-            nextIdInDB = nextId + idsAtOnce;
-        }
-        long id = this.nextId;
-        this.nextId++;
-        oaiIdLock.unlock();
-        return id;
+        try {
+            // special case: when we are restarting the MST, let's use a continuous sequence of IDs
+            // (i.e., no "holes"). This is especially helpful during MST testing and regression testing.
+            if (resetNextIdPending) {
+                resetNextId();
+                resetNextIdPending = false;
+            }
+            return this.getNextOaiId.executeObject(Integer.class, count);
+        } finally {
+            oaiIdLock.unlock();
+        }
     }
-    
+
     public void resetNextId() {
     	long maxId = -1;
     	List<Repository> allRepos = getAll();
@@ -287,7 +359,7 @@ public class RepositoryDAO extends BaseDAO {
     
 
     public long getNextId() {
-        return this.nextId + 1;
+        return idBlocks.peek() + 1;
     }
 
     public void addRecords(String name, List<Record> records) {
@@ -295,14 +367,16 @@ public class RepositoryDAO extends BaseDAO {
     }
 
     public void addRecord(String name, Record r) {
-        recordsToAdd.add(r);
-        recordsToAddInx.put(r.getId(), r);
+        Batch batch = getBatch(name);
+        batch.recordsToAdd.add(r);
+        batch.recordsToAddInx.put(r.getId(), r);
     }
 
     public void addRecords(String name, List<Record> records, boolean force) {
+        Batch batch = getBatch(name);
     	for (Record r : records) {
-            recordsToAdd.add(r);
-            recordsToAddInx.put(r.getId(), r);
+            batch.recordsToAdd.add(r);
+            batch.recordsToAddInx.put(r.getId(), r);
     	}
     }
 
@@ -327,7 +401,7 @@ public class RepositoryDAO extends BaseDAO {
         return percentageUsed;
     }
 
-    protected boolean isNecessaryToCommit(boolean force, int batchSize, double memoryPercentageUsed) {
+    protected boolean isNecessaryToCommit(boolean force, int batchSize, List<Record> recordsToAdd, double memoryPercentageUsed) {
         if (force) {
             return true;
         }
@@ -342,27 +416,39 @@ public class RepositoryDAO extends BaseDAO {
     }
 
     protected boolean commitIfNecessary(String name, boolean force, long processedRecordsCount) {
-        // LOG.debug("commitIfNecessary:Inbatch : " + inBatch);
+        final Batch batch = getBatch(name);
+        // LOG.debug("commitIfNecessary:Inbatch : " + batch.inBatch);
         int batchSize = MSTConfiguration.getInstance().getPropertyAsInt("db.insertsAtOnce", 10000);
         double memoryPercentageUsed = getMemUsage();
-        if (recordsToAdd != null) {
+        if (batch.recordsToAdd != null) {
             // LOG.error("beluga highest id: "+recordsToAdd.get(recordsToAdd.size()-1).getId());
         }
-        if (isNecessaryToCommit(force, batchSize, memoryPercentageUsed)) {
+        if (isNecessaryToCommit(force, batchSize, batch.recordsToAdd, memoryPercentageUsed)) {
             // LOG.error("beluga commit!!!");
-            TimingLogger.start("commit to db");
+            final long commitStart = COMMIT_TIMER.start();
             final long startTime = System.currentTimeMillis();
-            if (ready4harvest(name)) {
+            checkContentHashColumn(name);
+            final TLongLongHashMap contentHashes = getContentHashes(batch.recordsToAdd);
+            // the hash doesn't cover predecessors, so the ones of records left out as
+            // unchanged are still written
+            final List<Record> recordsWithPreds = batch.recordsToAdd;
+            final boolean readyForHarvest = ready4harvest(name);
+            if (readyForHarvest && isSkippingUnchangedRecords()) {
+                dropUnchangedRecords(name, batch, contentHashes);
+            }
+            final List<Record> recordsToAdd = batch.recordsToAdd;
+            if (readyForHarvest) {
                 String sql =
                         "insert into " + getTableName(name, RECORDS_TABLE) +
-                                " (record_id, oai_datestamp, type, status, prev_status, format_id ) " +
-                                "values (?,?,?,?,?,?) " +
+                                " (record_id, oai_datestamp, type, status, prev_status, format_id, content_hash ) " +
+                                "values (?,?,?,?,?,?,?) " +
                                 "on duplicate key update " +
                                 "type=?, " +
                                 "status=?, " +
                                 "prev_status=?, " +
                                 "format_id=?, " +
-                                "oai_datestamp=? " +
+                                "oai_datestamp=?, " +
+                                "content_hash=values(content_hash) " +
                                 ";";
                 TimingLogger.start("RECORDS_TABLE.insert");
                 int[] updateCounts = jdbcTemplate.batchUpdate(
@@ -378,6 +464,13 @@ public class RepositoryDAO extends BaseDAO {
                                     ps.setTimestamp(i++, new Timestamp(r.getOaiDatestamp().getTime()));
                                 }
                                 for (int k = 0; k < 2; k++) {
+                                    if (k == 1) {
+                                        if (contentHashes.containsKey(r.getId())) {
+                                            ps.setLong(i++, contentHashes.get(r.getId()));
+                                        } else {
+                                            ps.setNull(i++, Types.BIGINT);
+                                        }
+                                    }
                                     if (r.getType() != null && r.getType().length() > 0) {
                                         ps.setString(i++, "" + r.getType().charAt(0));
                                     } else {
@@ -420,13 +513,26 @@ public class RepositoryDAO extends BaseDAO {
                 }
 
                 TimingLogger.start("RECORDS_XML_TABLE.insert");
-                sql =
-                        "insert into " + getTableName(name, RECORDS_XML_TABLE) +
-                                " (record_id, xml) " +
-                                "values (?,?) " +
-                                "on duplicate key update " +
-                                "xml=? " +
-                                ";";
+                final boolean compressXml = isCompressingXml();
+                final boolean hasXmlZ = checkCompressedXmlColumn(name, compressXml);
+                if (hasXmlZ) {
+                    sql =
+                            "insert into " + getTableName(name, RECORDS_XML_TABLE) +
+                                    " (record_id, xml, xml_z) " +
+                                    "values (?,?,?) " +
+                                    "on duplicate key update " +
+                                    "xml=values(xml), " +
+                                    "xml_z=values(xml_z) " +
+                                    ";";
+                } else {
+                    sql =
+                            "insert into " + getTableName(name, RECORDS_XML_TABLE) +
+                                    " (record_id, xml) " +
+                                    "values (?,?) " +
+                                    "on duplicate key update " +
+                                    "xml=? " +
+                                    ";";
+                }
                 updateCounts = jdbcTemplate.batchUpdate(
                         sql,
                         new BatchPreparedStatementSetter() {
@@ -435,8 +541,18 @@ public class RepositoryDAO extends BaseDAO {
                                 Record r = recordXmls2Add.get(j);
                                 r.setMode(Record.STRING_MODE);
                                 ps.setLong(i++, r.getId());
-                                ps.setString(i++, r.getOaiXml());
-                                ps.setString(i++, r.getOaiXml());
+                                if (compressXml) {
+                                    byte[] xmlZ = CompressedXml.compress(r.getOaiXml());
+                                    ps.setNull(i++, Types.LONGVARCHAR);
+                                    ps.setBytes(i++, xmlZ);
+                                    TimingLogger.add("RECORDS_XML_Z_LENGTH", xmlZ.length);
+                                } else if (hasXmlZ) {
+                                    ps.setString(i++, r.getOaiXml());
+                                    ps.setNull(i++, Types.LONGVARBINARY);
+                                } else {
+                                    ps.setString(i++, r.getOaiXml());
+                                    ps.setString(i++, r.getOaiXml());
+                                }
                                 if (r.getOaiXml() != null) {
                                     TimingLogger.add("RECORDS_XML_LENGTH", r.getOaiXml().length());
                                 } else {
@@ -510,7 +626,7 @@ public class RepositoryDAO extends BaseDAO {
                                 ";";
 
                 List<long[]> recordPreds = new ArrayList<long[]>();
-                for (Record r : recordsToAdd) {
+                for (Record r : recordsWithPreds) {
                     if (r.getPredecessors() != null) {
                         for (RecordIfc p : r.getPredecessors()) {
                             long[] recPredRow = new long[2];
@@ -576,6 +692,28 @@ public class RepositoryDAO extends BaseDAO {
                         });
                 TimingLogger.stop("RECORD_UPDATES_TABLE.insert");
                 LOG.debug(RECORD_UPDATES_TABLE + " committed: " + new Date());
+
+                TimingLogger.start("RECORD_LATEST_UPDATES_TABLE.insert");
+                checkLatestUpdatesTable(name);
+                jdbcTemplate.batchUpdate(
+                        getLatestUpdatesInsertSql(name),
+                        new BatchPreparedStatementSetter() {
+                            public void setValues(PreparedStatement ps, int j) throws SQLException {
+                                int i = 1;
+                                Record r = recordsToAdd.get(j);
+                                ps.setLong(i++, r.getId());
+                                if (r.getUpdatedAt() == null) {
+                                    ps.setTimestamp(i++, new Timestamp(updateTime));
+                                } else {
+                                    ps.setTimestamp(i++, new Timestamp(r.getUpdatedAt().getTime()));
+                                }
+                            }
+
+                            public int getBatchSize() {
+                                return recordsToAdd.size();
+                            }
+                        });
+                TimingLogger.stop("RECORD_LATEST_UPDATES_TABLE.insert");
                 LOG.debug("updateTime: " + new Date(updateTime));
 
                 LOG.debug("processedRecordsCount: " + processedRecordsCount);
@@ -630,6 +768,12 @@ public class RepositoryDAO extends BaseDAO {
                         os.write(tabBytes);
                         if (r.getFormat() != null)
                             os.write(String.valueOf(r.getFormat().getId()).getBytes());
+                        os.write(tabBytes);
+                        if (contentHashes.containsKey(r.getId())) {
+                            os.write(String.valueOf(contentHashes.get(r.getId())).getBytes());
+                        } else {
+                            os.write("\\N".getBytes());
+                        }
                     }
                     os.close();
                     TimingLogger.stop("RECORDS_TABLE.insert.create_infile");
@@ -658,6 +802,9 @@ public class RepositoryDAO extends BaseDAO {
                     i = 0;
                     TimingLogger.start("RECORDS_XML_TABLE.insert");
                     TimingLogger.start("RECORDS_XML_TABLE.insert.create_infile");
+                    // compressed payloads go in hex; binary could contain the field and line terminators
+                    boolean compressXml = isCompressingXml();
+                    checkCompressedXmlColumn(name, compressXml);
                     for (Record r : recordsToAdd) {
                         if (i++ > 0) {
                             os.write(nullBytes);
@@ -665,8 +812,15 @@ public class RepositoryDAO extends BaseDAO {
                         os.write(String.valueOf(r.getId()).getBytes());
                         os.write(bellBytes);
                         r.setMode(Record.STRING_MODE);
-                        if (r.getOaiXml() != null)
-                            os.write(String.valueOf(r.getOaiXml()).getBytes("UTF-8"));
+                        if (r.getOaiXml() != null) {
+                            if (compressXml) {
+                                byte[] xmlZ = CompressedXml.compress(r.getOaiXml());
+                                TimingLogger.add("RECORDS_XML_Z_LENGTH", xmlZ.length);
+                                os.write(CompressedXml.toHex(xmlZ).getBytes());
+                            } else {
+                                os.write(String.valueOf(r.getOaiXml()).getBytes("UTF-8"));
+                            }
+                        }
                     }
                     os.close();
                     TimingLogger.stop("RECORDS_XML_TABLE.insert.create_infile");
@@ -674,7 +828,8 @@ public class RepositoryDAO extends BaseDAO {
                     this.jdbcTemplate.execute(
                             "load data infile '" + dbLoadFileStr + "' REPLACE into table " +
                                     getTableName(name, RECORDS_XML_TABLE) +
-                                    " character set utf8 fields terminated by '\\0\\t' escaped by '' lines terminated by '\\0\\n'"
+                                    " character set utf8 fields terminated by '\\0\\t' escaped by '' lines terminated by '\\0\\n'" +
+                                    (compressXml ? " (record_id, @xml_z) set xml_z = unhex(nullif(@xml_z, ''))" : "")
                             );
                     TimingLogger.stop("RECORDS_XML_TABLE.insert.load_infile");
                     TimingLogger.stop("RECORDS_XML_TABLE.insert");
@@ -806,17 +961,40 @@ public class RepositoryDAO extends BaseDAO {
                     TimingLogger.stop("RECORDS_UPDATES_TABLE.insert.load_infile");
                     TimingLogger.stop("RECORD_UPDATES_TABLE.insert");
 
+                    // the same file has each record's newest update. load data can only replace
+                    // rows, and a record's updatedAt may be older than what's already there, so it
+                    // goes through the load table and is merged the way the batch path merges it.
+                    TimingLogger.start("RECORD_LATEST_UPDATES_TABLE.insert");
+                    checkLatestUpdatesTable(name);
+                    this.jdbcTemplate.execute("delete from " + getTableName(name, RECORD_LATEST_UPDATES_LOAD_TABLE));
+                    this.jdbcTemplate.execute(
+                            "load data infile '" + dbLoadFileStr + "' REPLACE into table " +
+                                    getTableName(name, RECORD_LATEST_UPDATES_LOAD_TABLE) +
+                                    " character set utf8 fields terminated by '\\t' lines terminated by '\\n'"
+                            );
+                    // the load table has a date_updated too, so the target's has to be qualified
+                    String latestUpdates = getTableName(name, RECORD_LATEST_UPDATES_TABLE);
+                    this.jdbcTemplate.execute(
+                            "insert into " + latestUpdates + " (record_id, date_updated) " +
+                                    " select l.record_id, l.date_updated from " + getTableName(name, RECORD_LATEST_UPDATES_LOAD_TABLE) + " l" +
+                                    " on duplicate key update " + latestUpdates + ".date_updated = " +
+                                    "greatest(" + latestUpdates + ".date_updated, values(date_updated))"
+                            );
+                    this.jdbcTemplate.execute("delete from " + getTableName(name, RECORD_LATEST_UPDATES_LOAD_TABLE));
+                    TimingLogger.stop("RECORD_LATEST_UPDATES_TABLE.insert");
+
                 } catch (Throwable t) {
                     getUtil().throwIt(t);
                 }
             }
 
-            recordsToAdd = new ArrayList<Record>();
-            recordsToAddInx = new HashMap<Long, Record>();
+            RECORDS_COMMITTED.add(recordsToAdd.size());
+            batch.recordsToAdd = new ArrayList<Record>();
+            batch.recordsToAddInx = new HashMap<Long, Record>();
 
-            TimingLogger.stop("commit to db");
+            COMMIT_TIMER.stop(commitStart);
             if (force) {
-                inBatch = false;
+                batch.inBatch = false;
             }
             return true;
         } else {
@@ -911,6 +1089,36 @@ public class RepositoryDAO extends BaseDAO {
         TimingLogger.stop("populatePreviousStatuses");
     }
 
+    /**
+     * Adds the previous statuses of recordIds to previousStatuses with one query.  Records without
+     * a previous status are left out.
+     */
+    public void populatePreviousStatuses(String name, final long[] recordIds, final TLongByteHashMap previousStatuses, boolean service) {
+        if (recordIds.length == 0) {
+            return;
+        }
+        String tableName = null;
+        if (service) {
+            tableName = PREV_INCOMING_RECORD_STATUSES;
+        } else {
+            tableName = RECORDS_TABLE;
+        }
+        TimingLogger.start("populatePreviousStatuses(ids)");
+        this.jdbcTemplate.query(
+                "select record_id, status from " + getTableName(name, tableName) +
+                        " where record_id in (" + getPlaceholders(recordIds.length) + ")",
+                new LongsPreparedStatementSetter(recordIds),
+                new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        String status = rs.getString(2);
+                        if (status != null && status.length() == 1) {
+                            previousStatuses.put(rs.getLong(1), (byte) status.charAt(0));
+                        }
+                    }
+                });
+        TimingLogger.stop("populatePreviousStatuses(ids)");
+    }
+
     private final static class RecPredBatchPreparedStatementSetter implements BatchPreparedStatementSetter {
         protected List<long[]> recPreds = null;
 
@@ -1013,6 +1221,7 @@ public class RepositoryDAO extends BaseDAO {
     }
 
     public void createTables(Repository repo) {
+        reposWithCompressedXml.remove(getUtil().getDBSchema(repo.getName()));
         runSql(repo, "xc/mst/repo/sql/create_repo.sql");
         if (repo.getProvider() != null) {
 			runSql(repo, "xc/mst/repo/sql/create_harvest_repo.sql");
@@ -1041,7 +1250,7 @@ public class RepositoryDAO extends BaseDAO {
     public Record getRecord(String name, long id) {
         String sql =
                 "select " + RECORDS_TABLE_COLUMNS +
-                        ", x.xml, " + " max(u.date_updated) as date_updated " +
+                        ", " + getXmlColumns(name) + ", max(u.date_updated) as date_updated " +
                         "from " + getTableName(name, RECORDS_TABLE) + " r, " +
                         getTableName(name, RECORDS_XML_TABLE) + " x, " +
                         getTableName(name, RECORD_UPDATES_TABLE) + " u " +
@@ -1160,18 +1369,29 @@ public class RepositoryDAO extends BaseDAO {
         return getRecords(name, from, until, startingId, inputFormat, inputSet, new char[] { Record.ACTIVE, Record.DELETED });
     }
 
-    @SuppressWarnings("unchecked")
     public List<Record> getRecords(String name, Date from, Date until,
             Long startingId, Format inputFormat, Set inputSet, char[] statuses) {
+        return getRecords(name, from, until, startingId, inputFormat, inputSet, statuses, true);
+    }
+
+    /**
+     * @param withXml
+     *            false to leave each record's xml unloaded, for when it will be read with
+     *            getRecordXml
+     */
+    @SuppressWarnings("unchecked")
+    public List<Record> getRecords(String name, Date from, Date until,
+            Long startingId, Format inputFormat, Set inputSet, char[] statuses, boolean withXml) {
         long t0 = System.currentTimeMillis();
         List<Object> params = new ArrayList<Object>();
         if (until == null) {
             until = new Date();
         }
+        checkLatestUpdatesTable(name);
         if (startingId == null) {
             StringBuilder sb = new StringBuilder();
             sb.append("select straight_join 1 ")
-                    .append(" from ").append(getTableName(name, RECORD_UPDATES_TABLE)).append(" u force index (idx_record_updates_date_updated) , ")
+                    .append(" from ").append(getTableName(name, RECORD_LATEST_UPDATES_TABLE)).append(" u force index (idx_record_latest_updates_date_updated) , ")
                     .append(getTableName(name, RECORDS_TABLE)).append(" r ")
                     .append("where r.record_id = u.record_id  and (u.date_updated >= ? or ? is null)  and u.date_updated <= ? ");
             addStatusesInWhereClause(sb, statuses);
@@ -1181,27 +1401,31 @@ public class RepositoryDAO extends BaseDAO {
                 return new ArrayList<Record>();
             }
         }
+        // record_latest_updates has one row per record, so a page is just the next
+        // record_ids in primary key order; no grouping of record_updates is needed.
         StringBuilder sb = new StringBuilder();
         sb.append(
                 " select straight_join " + RECORDS_TABLE_COLUMNS +
-                        " , x.xml, " + " max(u.date_updated) as date_updated " +
+                        " , " + (withXml ? getXmlColumns(name) + ", " : "") + "u.date_updated as date_updated " +
                         " from ");
-        sb.append(getTableName(name, RECORD_UPDATES_TABLE) + " u force index (idx_record_updates_record_id)");
-        sb.append(", ");
         sb.append(getTableName(name, RECORDS_TABLE) + " r ");
         if (inputFormat != null) {
             sb.append("IGNORE index (idx_records_format_id) ");
         }
         sb.append(", ");
-        sb.append(getTableName(name, RECORDS_XML_TABLE) + " x ");
+        sb.append(getTableName(name, RECORD_LATEST_UPDATES_TABLE) + " u ");
+        if (withXml) {
+            sb.append(", ");
+            sb.append(getTableName(name, RECORDS_XML_TABLE) + " x ");
+        }
 
         if (inputSet != null) {
             sb.append(
                     ", " + getTableName(name, RECORDS_SETS_TABLE) + " rs ignore index (idx_" + RECORDS_SETS_TABLE + "_set_id) ");
         }
         sb.append(
-                " where r.record_id = x.record_id " +
-                        " and (r.record_id > ? or ? is null) " +
+                " where " + (withXml ? "r.record_id = x.record_id and " : "") +
+                        " (r.record_id > ? or ? is null) " +
                         " and r.record_id = u.record_id " +
                         " and (u.date_updated >= ? or ? is null) " +
                         " and u.date_updated <= ?  "
@@ -1227,8 +1451,7 @@ public class RepositoryDAO extends BaseDAO {
             params.add(inputSet.getId());
         }
         sb.append(
-                " group by u.record_id " +
-                        " order by u.record_id " +
+                " order by r.record_id " +
                         " limit " + MSTConfiguration.getInstance().getPropertyAsInt(Constants.CONFIG_OAI_REPO_MAX_RECORDS, 5000));
 
         Object obj[] = params.toArray();
@@ -1243,8 +1466,13 @@ public class RepositoryDAO extends BaseDAO {
             LOG.error("inputSet: "+inputSet);
             LOG.error("inputFormat: "+inputFormat);
             */
-            records = this.jdbcTemplate.query(sb.toString(), obj,
-                    new RecordMapper(new String[] { RECORDS_TABLE, RECORDS_XML_TABLE, RECORD_UPDATES_TABLE }, this));
+            String[] tables = null;
+            if (withXml) {
+                tables = new String[] { RECORDS_TABLE, RECORDS_XML_TABLE, RECORD_UPDATES_TABLE };
+            } else {
+                tables = new String[] { RECORDS_TABLE, RECORD_UPDATES_TABLE };
+            }
+            records = this.jdbcTemplate.query(sb.toString(), obj, new RecordMapper(tables, this));
         } catch (EmptyResultDataAccessException e) {
             LOG.info("no records found for from: " + from + " until: " + until + " startingId: " + startingId + " format:" + inputFormat + " inputSet:" + inputSet);
         }
@@ -1256,42 +1484,47 @@ public class RepositoryDAO extends BaseDAO {
         return records;
     }
 
-    public List<Record> getRecordHeader(String name, Date from, Date until, Long startingId, Format inputFormat, Set inputSet) {
+    /**
+     * The records getRecordsWSets would return, less their xml and messages, and up to
+     * OaiRepoMaxIdentifiers of them.  records_xml isn't touched, which is what makes a
+     * ListIdentifiers request cheap.
+     */
+    public List<Record> getRecordHeader(String name, Date from, Date until, Long startingId, Format inputFormat, Set inputSet, char[] statuses) {
         List<Object> params = new ArrayList<Object>();
         if (until == null) {
             until = new Date();
         }
+        checkLatestUpdatesTable(name);
         StringBuilder sb = new StringBuilder();
         sb.append(
-                " select " + RECORDS_TABLE_COLUMNS +
-                        " , max(u.date_updated) as u.date_updated  " +
-                        " from " + getTableName(name, RECORDS_TABLE) + " r, " +
-                        getTableName(name, RECORD_UPDATES_TABLE) + " u ");
+                " select straight_join " + RECORDS_TABLE_COLUMNS +
+                        " , u.date_updated as date_updated " +
+                        " from " + getTableName(name, RECORDS_TABLE) + " r ");
+        if (inputFormat != null) {
+            sb.append("IGNORE index (idx_records_format_id) ");
+        }
+        sb.append(", " + getTableName(name, RECORD_LATEST_UPDATES_TABLE) + " u ");
         if (inputSet != null) {
             sb.append(
-                    ", " + getTableName(name, RECORDS_SETS_TABLE) + " rs ");
+                    ", " + getTableName(name, RECORDS_SETS_TABLE) + " rs ignore index (idx_" + RECORDS_SETS_TABLE + "_set_id) ");
         }
         sb.append(
-                " where  (r.record_id > ? or ? is null) " +
+                " where (r.record_id > ? or ? is null) " +
                         " and r.record_id = u.record_id " +
                         " and (u.date_updated >= ? or ? is null) " +
-                        " and u.date_updated <= ?  " +
-                        " group by r.record_id "
+                        " and u.date_updated <= ?  "
                     );
-
-        if (inputFormat != null) {
-            sb.append(
-                    " and r.format_id = ? ");
-        }
+        addStatusesInWhereClause(sb, statuses);
         params.add(startingId);
         params.add(startingId);
         params.add(from);
         params.add(from);
         params.add(until);
         if (inputFormat != null) {
+            sb.append(
+                    " and r.format_id = ? ");
             params.add(inputFormat.getId());
         }
-
         if (inputSet != null) {
             sb.append(
                     " and r.record_id = rs.record_id " +
@@ -1299,18 +1532,23 @@ public class RepositoryDAO extends BaseDAO {
             params.add(inputSet.getId());
         }
         sb.append(
-                " order by u.record_id limit " + MSTConfiguration.getInstance().getPropertyAsInt(Constants.CONFIG_OAI_REPO_MAX_IDENTIFIERS, 5000));
+                " order by r.record_id limit " + MSTConfiguration.getInstance().getPropertyAsInt(Constants.CONFIG_OAI_REPO_MAX_IDENTIFIERS, 5000));
 
         Object obj[] = params.toArray();
 
         List<Record> records = null;
         try {
+            TimingLogger.start("getRecordHeader");
             records = this.jdbcTemplate.query(sb.toString(), obj,
                     new RecordMapper(new String[] { RECORDS_TABLE, RECORD_UPDATES_TABLE }, this));
+            TimingLogger.stop("getRecordHeader");
         } catch (EmptyResultDataAccessException e) {
             LOG.info("no records found for from: " + from + " until: " + until + " startingId: " + startingId + " format:" + inputFormat + " inputSet:" + inputSet);
         }
-        LOG.debug("records.size(): " + records.size());
+        if (records != null && records.size() > 0) {
+            LOG.debug("records.size(): " + records.size());
+            addSets(name, records, from, until);
+        }
         return records;
     }
 
@@ -1487,14 +1725,15 @@ public class RepositoryDAO extends BaseDAO {
         } COMPLEXITY *******/
 
         {
+            checkLatestUpdatesTable(name);
             List<Object> params = new ArrayList<Object>();
             if (until == null) {
                 until = new Date();
             }
             StringBuilder sb = new StringBuilder();
             sb.append(
-                    " select straight_join count(distinct u.record_id) " +
-                            " from " + getTableName(name, RECORD_UPDATES_TABLE) + " u  force index (idx_record_updates_date_updated), " +
+                    " select straight_join count(*) " +
+                            " from " + getTableName(name, RECORD_LATEST_UPDATES_TABLE) + " u  force index (idx_record_latest_updates_date_updated), " +
                             getTableName(name, RECORDS_TABLE) + " r IGNORE index (idx_records_format_id)");
 
             if (inputSet != null) {
@@ -1578,84 +1817,102 @@ public class RepositoryDAO extends BaseDAO {
         return sets;
     }
 
+    /*
+     * Adds to each of records (ascending ids, updated between from and until) its set
+     */
+    protected void addSets(String name, List<Record> records, Date from, Date until) {
+        List<Object> params = new ArrayList<Object>();
+        Long highestId = records.get(records.size() - 1).getId();
+        Long startingId = records.get(0).getId();
+        StringBuilder sb = new StringBuilder();
+        sb.append(
+                " select straight_join rs.record_id, " +
+                        "s.set_id, " +
+                        "s.set_spec, " +
+                        "s.display_name " +
+                        " from " + getTableName(name, RECORD_LATEST_UPDATES_TABLE) + " u, " +
+                        getTableName(name, RECORDS_SETS_TABLE) + " rs, " +
+                        " sets s " +
+                        " where rs.record_id = u.record_id " +
+                        " and rs.set_id = s.set_id " +
+                        " and (rs.record_id >= ? or ? is null) " +
+                        " and rs.record_id <= ? " +
+                        " and (u.date_updated >= ? or ? is null) " +
+                        " and u.date_updated <= ? " +
+                        " group by u.record_id " +
+                        " order by u.record_id ");
+        LOG.debug("name: " + name + " startingId: " + startingId + " highestId: " + highestId + " from:" + from + " until:" + until);
+        params.add(startingId);
+        params.add(startingId);
+        params.add(highestId);
+        params.add(from);
+        params.add(from);
+        params.add(until);
+
+        Object obj[] = params.toArray();
+
+        List<Record> recordsWSets = null;
+        try {
+            // LOG.error("records_w_sets_query");
+            TimingLogger.start("records_w_sets_query");
+            recordsWSets = this.jdbcTemplate.query(sb.toString(), obj,
+                    new RecordMapper(new String[] { RECORDS_SETS_TABLE }, this));
+            LOG.debug("recordsWSets.size() " + recordsWSets.size());
+            TimingLogger.stop("records_w_sets_query");
+
+            int recIdx = 0;
+            Record currentRecord = records.get(recIdx);
+            /*
+            for (Record rws : recordsWSets) {
+                LOG.debug("rws.getId(): "+rws.getId());
+            }
+            for (Record r : records) {
+                LOG.debug("r.getId(): "+r.getId());
+            }
+            */
+            for (Record rws : recordsWSets) {
+                // LOG.debug("currentRecord.getId(): "+currentRecord.getId());
+                // LOG.debug("rws.getId(): "+rws.getId());
+                if (rws.getId() < currentRecord.getId()) {
+                    continue;
+                }
+                while (rws.getId() > currentRecord.getId()) {
+                    // LOG.debug("recIdx: "+recIdx);
+                    currentRecord = records.get(++recIdx);
+                }
+                // the set may belong to a record filtered out of records (by format, say)
+                if (rws.getId() == currentRecord.getId()) {
+                    currentRecord.addSet(rws.getSets().get(0));
+                }
+            }
+        } catch (EmptyResultDataAccessException e) {
+            LOG.info("no recordsWSets found for from: " + from + " until: " + until + " startingId: " + startingId);
+        }
+    }
+
     public List<Record> getRecordsWSets(String name, Date from, Date until, Long startingId) {
         return getRecordsWSets(name, from, until, startingId, null, null, new char[] { Record.ACTIVE, Record.DELETED });
     }
 
     public List<Record> getRecordsWSets(String name, Date from, Date until,
             Long startingId, Format inputFormat, Set inputSet, char[] statuses) {
+        return getRecordsWSets(name, from, until, startingId, inputFormat, inputSet, statuses, true);
+    }
+
+    public List<Record> getRecordsWSets(String name, Date from, Date until,
+            Long startingId, Format inputFormat, Set inputSet, char[] statuses, boolean withXml) {
         List<Object> params = new ArrayList<Object>();
         if (until == null) {
             until = new Date();
         }
 
-        List<Record> records = getRecords(name, from, until, startingId, inputFormat, inputSet, statuses);
+        List<Record> records = getRecords(name, from, until, startingId, inputFormat, inputSet, statuses, withXml);
         if (records != null && records.size() > 0) {
             Long highestId = records.get(records.size() - 1).getId();
             startingId = records.get(0).getId();
-            StringBuilder sb = new StringBuilder();
-            sb.append(
-                    " select straight_join rs.record_id, " +
-                            "s.set_id, " +
-                            "s.set_spec, " +
-                            "s.display_name " +
-                            " from " + getTableName(name, RECORD_UPDATES_TABLE) + " u force index (idx_record_updates_record_id), " +
-                            getTableName(name, RECORDS_SETS_TABLE) + " rs, " +
-                            " sets s " +
-                            " where rs.record_id = u.record_id " +
-                            " and rs.set_id = s.set_id " +
-                            " and (rs.record_id >= ? or ? is null) " +
-                            " and rs.record_id <= ? " +
-                            " and (u.date_updated >= ? or ? is null) " +
-                            " and u.date_updated <= ? " +
-                            " group by u.record_id " +
-                            " order by u.record_id ");
-            LOG.debug("name: " + name + " startingId: " + startingId + " highestId: " + highestId + " from:" + from + " until:" + until);
-            params.add(startingId);
-            params.add(startingId);
-            params.add(highestId);
-            params.add(from);
-            params.add(from);
-            params.add(until);
-
-            Object obj[] = params.toArray();
-
-            List<Record> recordsWSets = null;
-            try {
-                // LOG.error("records_w_sets_query");
-                TimingLogger.start("records_w_sets_query");
-                recordsWSets = this.jdbcTemplate.query(sb.toString(), obj,
-                        new RecordMapper(new String[] { RECORDS_SETS_TABLE }, this));
-                LOG.debug("recordsWSets.size() " + recordsWSets.size());
-                TimingLogger.stop("records_w_sets_query");
+            addSets(name, records, from, until);
 
-                int recIdx = 0;
-                Record currentRecord = records.get(recIdx);
-                /*
-                for (Record rws : recordsWSets) {
-                    LOG.debug("rws.getId(): "+rws.getId());
-                }
-                for (Record r : records) {
-                    LOG.debug("r.getId(): "+r.getId());
-                }
-                */
-                for (Record rws : recordsWSets) {
-                    // LOG.debug("currentRecord.getId(): "+currentRecord.getId());
-                    // LOG.debug("rws.getId(): "+rws.getId());
-                    if (rws.getId() < currentRecord.getId()) {
-                        continue;
-                    }
-                    while (rws.getId() > currentRecord.getId()) {
-                        // LOG.debug("recIdx: "+recIdx);
-                        currentRecord = records.get(++recIdx);
-                    }
-                    currentRecord.addSet(rws.getSets().get(0));
-                }
-            } catch (EmptyResultDataAccessException e) {
-                LOG.info("no recordsWSets found for from: " + from + " until: " + until + " startingId: " + startingId);
-            }
-
-            sb = new StringBuilder();
+            StringBuilder sb = new StringBuilder();
             sb.append(
                     " select m.record_id, " +
                             "m.rec_in_out, " +
@@ -1663,7 +1920,7 @@ public class RepositoryDAO extends BaseDAO {
                             "m.msg_level, " +
                             "m.service_id, " +
                             "md.detail " +
-                            " from " + getTableName(name, RECORD_UPDATES_TABLE) + " u " +
+                            " from " + getTableName(name, RECORD_LATEST_UPDATES_TABLE) + " u " +
                             " inner join (" + MessageDAO.MESSAGES_TABLE + " m) on (m.record_id=u.record_id) " +
                             " left outer join (" + MessageDAO.MESSAGE_DETAILS_TABLE + " md) on (m.record_message_id=md.record_message_id) " +
                             " where (u.record_id >= ? or ? is null) " +
@@ -1711,6 +1968,163 @@ public class RepositoryDAO extends BaseDAO {
         return records;
     }
 
+    /**
+     * The records with the given ids, in ascending order of id, which are of inputFormat, in
+     * inputSet and have one of statuses (any of which may be null), with their xml, sets and
+     * messages.  This is for ids which paging by id has already gone past; HEADERS_AT_ONCE of
+     * them are looked up with each query.
+     */
+    public List<Record> getRecordsWSets(String name, long[] ids, Format inputFormat, Set inputSet, char[] statuses) {
+        List<Record> records = new ArrayList<Record>();
+        if (ids == null || ids.length == 0) {
+            return records;
+        }
+        checkLatestUpdatesTable(name);
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        RecordMapper mapper = new RecordMapper(new String[] { RECORDS_TABLE, RECORDS_XML_TABLE, RECORD_UPDATES_TABLE }, this);
+        String xmlColumns = getXmlColumns(name);
+        TimingLogger.start("getRecordsWSets(ids)");
+        for (int from = 0; from < sorted.length; from += HEADERS_AT_ONCE) {
+            int to = Math.min(sorted.length, from + HEADERS_AT_ONCE);
+            List<Object> params = new ArrayList<Object>();
+            StringBuilder sb = new StringBuilder();
+            sb.append("select " + RECORDS_TABLE_COLUMNS + ", " + xmlColumns + ", u.date_updated as date_updated ")
+                    .append(" from ").append(getTableName(name, RECORDS_TABLE)).append(" r, ")
+                    .append(getTableName(name, RECORD_LATEST_UPDATES_TABLE)).append(" u, ")
+                    .append(getTableName(name, RECORDS_XML_TABLE)).append(" x ");
+            if (inputSet != null) {
+                sb.append(", ").append(getTableName(name, RECORDS_SETS_TABLE)).append(" rs ");
+            }
+            sb.append(" where r.record_id in (").append(getPlaceholders(to - from)).append(")")
+                    .append(" and r.record_id = u.record_id ")
+                    .append(" and r.record_id = x.record_id ");
+            for (int i = from; i < to; i++) {
+                params.add(sorted[i]);
+            }
+            addStatusesInWhereClause(sb, statuses);
+            if (inputFormat != null) {
+                sb.append(" and r.format_id = ? ");
+                params.add(inputFormat.getId());
+            }
+            if (inputSet != null) {
+                sb.append(" and r.record_id = rs.record_id and rs.set_id = ? ");
+                params.add(inputSet.getId());
+            }
+            sb.append(" order by r.record_id");
+            List<Record> chunk = this.jdbcTemplate.query(sb.toString(), params.toArray(), mapper);
+            if (chunk.size() > 0) {
+                addSetsAndMessages(name, chunk);
+                records.addAll(chunk);
+            }
+        }
+        TimingLogger.stop("getRecordsWSets(ids)");
+        return records;
+    }
+
+    /*
+     * Adds to each of records (ascending ids, which needn't be consecutive) its sets and messages
+     */
+    protected void addSetsAndMessages(String name, List<Record> records) {
+        Map<Long, Record> recordsById = new HashMap<Long, Record>();
+        for (Record r : records) {
+            recordsById.put(r.getId(), r);
+        }
+        String ids = getPlaceholders(records.size());
+        Object[] params = recordsById.keySet().toArray();
+
+        List<Record> recordsWSets = this.jdbcTemplate.query(
+                " select rs.record_id, " +
+                        "s.set_id, " +
+                        "s.set_spec, " +
+                        "s.display_name " +
+                        " from " + getTableName(name, RECORDS_SETS_TABLE) + " rs, " +
+                        " sets s " +
+                        " where rs.set_id = s.set_id " +
+                        " and rs.record_id in (" + ids + ")",
+                params, new RecordMapper(new String[] { RECORDS_SETS_TABLE }, this));
+        for (Record rws : recordsWSets) {
+            recordsById.get(rws.getId()).addSet(rws.getSets().get(0));
+        }
+
+        List<Record> recordsWMessages = this.jdbcTemplate.query(
+                " select m.record_id, " +
+                        "m.rec_in_out, " +
+                        "m.msg_code, " +
+                        "m.msg_level, " +
+                        "m.service_id, " +
+                        "md.detail " +
+                        " from " + MessageDAO.MESSAGES_TABLE + " m " +
+                        " left outer join (" + MessageDAO.MESSAGE_DETAILS_TABLE + " md) on (m.record_message_id=md.record_message_id) " +
+                        " where m.record_id in (" + ids + ")",
+                params, new RecordMapper(new String[] { MessageDAO.MESSAGES_TABLE, MessageDAO.MESSAGE_DETAILS_TABLE }, this));
+        for (Record rwm : recordsWMessages) {
+            recordsById.get(rwm.getId()).addMessage(rwm.getMessages().get(0));
+        }
+    }
+
+    /**
+     * Reads the xml of the records with the given ids (in ascending order), handing each to
+     * handler as it's read.  Only RECORD_XML_AT_ONCE records are read at a time, which bounds
+     * the memory used without holding a lock on records_xml for as long as handler takes.
+     */
+    public void getRecordXml(String name, long[] ids, final RecordXmlHandler handler) {
+        final RecordMapper mapper = new RecordMapper(new String[] { RECORDS_XML_TABLE }, this);
+        String xmlColumns = getXmlColumns(name);
+        TimingLogger.start("getRecordXml");
+        for (int from = 0; from < ids.length; from += RECORD_XML_AT_ONCE) {
+            int to = Math.min(ids.length, from + RECORD_XML_AT_ONCE);
+            StringBuilder sb = new StringBuilder();
+            sb.append("select x.record_id, ").append(xmlColumns)
+                    .append(" from ").append(getTableName(name, RECORDS_XML_TABLE)).append(" x ")
+                    .append(" where x.record_id in (");
+            for (int i = from; i < to; i++) {
+                if (i > from) {
+                    sb.append(",");
+                }
+                sb.append(ids[i]);
+            }
+            sb.append(") order by x.record_id");
+            this.jdbcTemplate.query(sb.toString(), new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    handler.handle(rs.getLong("x.record_id"), mapper.mapRow(rs, 0).getOaiXml());
+                }
+            });
+        }
+        TimingLogger.stop("getRecordXml");
+    }
+
+    /**
+     * Reads the records table (and the latest update date) of each of the given ids, in ascending
+     * order of id.  records_xml isn't read, so the records come back without xml; ids which aren't
+     * in the repository are left out.
+     */
+    public List<Record> getHeaders(String name, long[] ids) {
+        List<Record> headers = new ArrayList<Record>();
+        if (ids == null || ids.length == 0) {
+            return headers;
+        }
+        checkLatestUpdatesTable(name);
+        RecordMapper mapper = new RecordMapper(new String[] { RECORDS_TABLE, RECORD_UPDATES_TABLE }, this);
+        TimingLogger.start("getHeaders");
+        for (int from = 0; from < ids.length; from += HEADERS_AT_ONCE) {
+            long[] chunk = new long[Math.min(ids.length, from + HEADERS_AT_ONCE) - from];
+            System.arraycopy(ids, from, chunk, 0, chunk.length);
+            headers.addAll(this.jdbcTemplate.query(
+                    "select " + RECORDS_TABLE_COLUMNS + ", u.date_updated as date_updated " +
+                            " from " + getTableName(name, RECORDS_TABLE) + " r " +
+                            " left join " + getTableName(name, RECORD_LATEST_UPDATES_TABLE) + " u " +
+                            " on r.record_id = u.record_id " +
+                            " where r.record_id in (" + getPlaceholders(chunk.length) + ")" +
+                            " order by r.record_id",
+                    new LongsPreparedStatementSetter(chunk),
+                    mapper));
+        }
+        TimingLogger.stop("getHeaders");
+        TimingLogger.add("getHeaders.records", headers.size());
+        return headers;
+    }
+
     protected List<Map<String, Object>> getPredecessors(String name, int page) {
         TimingLogger.start("getPredecessors");
         int recordsAtOnce = 100000;
@@ -1764,6 +2178,69 @@ public class RepositoryDAO extends BaseDAO {
         return succIds;
     }
     
+    /**
+     * getSuccessorIds(name, predId) for all of predIds with one query.
+     *
+     * @return the successors keyed by predecessor id.  Predecessors without successors aren't in
+     *         the map.
+     */
+    public TLongObjectHashMap<java.util.Set<Record>> getSuccessorIds(String name, final long[] predIds) {
+        final TLongObjectHashMap<java.util.Set<Record>> succIds = new TLongObjectHashMap<java.util.Set<Record>>();
+        if (predIds.length == 0) {
+            return succIds;
+        }
+        TimingLogger.start("RepositoryDAO.getSuccessorIds(ids)");
+        this.jdbcTemplate.query(
+                " select rp.pred_record_id, r.record_id, status, type " +
+                        " from " + getTableName(name, RECORD_PREDECESSORS_TABLE) + " rp, " +
+                        getTableName(name, RECORDS_TABLE) + " r " +
+                        " where rp.pred_record_id in (" + getPlaceholders(predIds.length) + ") " +
+                        " and rp.record_id = r.record_id ",
+                new LongsPreparedStatementSetter(predIds),
+                new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        long predId = rs.getLong(1);
+                        java.util.Set<Record> succs = succIds.get(predId);
+                        if (succs == null) {
+                            succs = new TreeSet<Record>();
+                            succIds.put(predId, succs);
+                        }
+                        Record r = new Record();
+                        r.setId(rs.getLong(2));
+                        r.setStatus(rs.getString(3).charAt(0));
+                        r.setType(rs.getString(4));
+                        succs.add(r);
+                    }
+                });
+        TimingLogger.stop("RepositoryDAO.getSuccessorIds(ids)");
+        return succIds;
+    }
+
+    protected String getPlaceholders(int n) {
+        StringBuilder sb = new StringBuilder(n * 3);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("?");
+        }
+        return sb.toString();
+    }
+
+    private final static class LongsPreparedStatementSetter implements PreparedStatementSetter {
+        protected long[] values = null;
+
+        public LongsPreparedStatementSetter(long[] values) {
+            this.values = values;
+        }
+
+        public void setValues(PreparedStatement ps) throws SQLException {
+            for (int i = 0; i < values.length; i++) {
+                ps.setLong(i + 1, values[i]);
+            }
+        }
+    }
+
     public void populateRecordLinks(String name, Map<Long, List<Long>> fromToList) {
         List<Map<String, Object>> rowList = this.jdbcTemplate.queryForList(
                 " select from_record_id, to_record_id " +
@@ -1938,8 +2415,10 @@ public class RepositoryDAO extends BaseDAO {
         if (recordIds.size() > 0) {
             long startTime = System.currentTimeMillis();
             TimingLogger.start("activateRecords");
+            // status is part of the content hash (see ContentHash), so the stored one no longer holds
+            checkContentHashColumn(name);
             String sql = "update " + getTableName(name, RepositoryDAO.RECORDS_TABLE) +
-                    " set status='" + Record.ACTIVE + "', prev_status=status "+ // in future may need flex. to pass in prev_status;true today though
+                    " set status='" + Record.ACTIVE + "', prev_status=status, content_hash=null "+ // in future may need flex. to pass in prev_status;true today though
                     " where record_id = ?";
             final TLongIterator it = recordIds.iterator();
             int[] updateCount = jdbcTemplate.batchUpdate(
@@ -1977,16 +2456,120 @@ public class RepositoryDAO extends BaseDAO {
                         }
                     });
             TimingLogger.stop("RECORD_UPDATES_TABLE.insert");
+            checkLatestUpdatesTable(name);
+            final TLongIterator it3 = recordIds.iterator();
+            jdbcTemplate.batchUpdate(
+                    getLatestUpdatesInsertSql(name),
+                    new BatchPreparedStatementSetter() {
+                        public void setValues(PreparedStatement ps, int j) throws SQLException {
+                            int i = 1;
+                            ps.setLong(i++, it3.next());
+                            ps.setTimestamp(i++, new Timestamp(updateTime));
+                        }
+
+                        public int getBatchSize() {
+                            return recordIds.size();
+                        }
+                    });
         } else {
             LOG.debug("linkedToIds is null or empty");
         }
     }
 
+    /**
+     * Marks the records of the next id range deleted: the limit records after afterId, or those of
+     * them in inputSet.  Each table gets one statement for the whole range.  record_updates and
+     * record_latest_updates are written before records, so a range interrupted part way through
+     * is done again in full.  The records keep their xml, sets and links.
+     *
+     * @param incomingRecordCounts
+     *            incremented for each record deleted, if not null
+     * @param deletedIds
+     *            gets the ids of the records deleted, in ascending order
+     * @return the highest record_id of the range, or -1 if there are no records after afterId
+     */
+    public long markRecordsDeleted(String name, Set inputSet, long afterId, int limit,
+            final RecordCounts incomingRecordCounts, final TLongArrayList deletedIds) {
+        long timerStart = MARK_DELETED_TIMER.start();
+        try {
+            long startTime = System.currentTimeMillis();
+            List<Long> rangeIds = this.jdbcTemplate.queryForList(
+                    "select record_id from " + getTableName(name, RECORDS_TABLE) +
+                            " where record_id > ? order by record_id limit " + limit,
+                    Long.class, afterId);
+            if (rangeIds.size() == 0) {
+                return -1;
+            }
+            long toId = rangeIds.get(rangeIds.size() - 1);
+
+            String where = " where r.record_id > ? and r.record_id <= ? and r.status <> '" + Record.DELETED + "'";
+            List<Object> params = new ArrayList<Object>();
+            params.add(afterId);
+            params.add(toId);
+            if (inputSet != null) {
+                where += " and exists (select 1 from " + getTableName(name, RECORDS_SETS_TABLE) + " rs " +
+                        " where rs.record_id = r.record_id and rs.set_id = ?)";
+                params.add(inputSet.getId());
+            }
+
+            this.jdbcTemplate.query(
+                    "select r.record_id, r.type, r.status from " + getTableName(name, RECORDS_TABLE) + " r" +
+                            where + " order by r.record_id",
+                    params.toArray(),
+                    new RowCallbackHandler() {
+                        public void processRow(ResultSet rs) throws SQLException {
+                            deletedIds.add(rs.getLong(1));
+                            if (incomingRecordCounts != null) {
+                                String type = rs.getString(2);
+                                String status = rs.getString(3);
+                                char prevStatus = StringUtils.isEmpty(status) ? Record.NULL : status.charAt(0);
+                                if (!StringUtils.isEmpty(type)) {
+                                    incomingRecordCounts.incr(type, Record.DELETED, prevStatus);
+                                }
+                                incomingRecordCounts.incr(null, Record.DELETED, prevStatus);
+                            }
+                        }
+                    });
+            if (deletedIds.size() == 0) {
+                return toId;
+            }
+
+            // future dated like the updates commitIfNecessary writes, so a harvest of this
+            // repository going on while the range is marked can't miss them
+            long endTime = System.currentTimeMillis();
+            List<Object> updateParams = new ArrayList<Object>();
+            updateParams.add(new Timestamp(System.currentTimeMillis() + (endTime - startTime) + 3000));
+            updateParams.addAll(params);
+            this.jdbcTemplate.update(
+                    "insert into " + getTableName(name, RECORD_UPDATES_TABLE) + " (record_id, date_updated) " +
+                            " select r.record_id, ? from " + getTableName(name, RECORDS_TABLE) + " r" + where,
+                    updateParams.toArray());
+            checkLatestUpdatesTable(name);
+            this.jdbcTemplate.update(
+                    "insert into " + getTableName(name, RECORD_LATEST_UPDATES_TABLE) + " (record_id, date_updated) " +
+                            " select r.record_id, ? from " + getTableName(name, RECORDS_TABLE) + " r" + where +
+                            " on duplicate key update date_updated = greatest(date_updated, values(date_updated))",
+                    updateParams.toArray());
+            // the stored hash was of the active record, and a harvest bringing the record back
+            // unchanged mustn't be skipped
+            checkContentHashColumn(name);
+            this.jdbcTemplate.update(
+                    "update " + getTableName(name, RECORDS_TABLE) + " r " +
+                            " set r.prev_status = r.status, r.status = '" + Record.DELETED + "', r.content_hash = null" + where,
+                    params.toArray());
+            RECORDS_MARKED_DELETED.add(deletedIds.size());
+            return toId;
+        } finally {
+            MARK_DELETED_TIMER.stop(timerStart);
+        }
+    }
+
     public void activateLinkedRecords(String name, final TLongArrayList linkedToIds) {
         if (linkedToIds.size() > 0) {
             TimingLogger.start("activateHeldHoldings");
+            checkContentHashColumn(name);
             StringBuilder sb = new StringBuilder("update " + getTableName(name, RepositoryDAO.RECORDS_TABLE) +
-                    " set status='" + Record.ACTIVE + "'" +
+                    " set status='" + Record.ACTIVE + "', content_hash=null" +
                     " where record_id in (select from_record_id from links where to_record_id in (");
             for (int i = 0; i < linkedToIds.size(); i++) {
                 sb.append("?");
@@ -2020,6 +2603,8 @@ public class RepositoryDAO extends BaseDAO {
         this.jdbcTemplate.update("delete from " + getTableName(name, RECORD_PREDECESSORS_TABLE));
         this.jdbcTemplate.update("delete from " + getTableName(name, RECORDS_SETS_TABLE));
         this.jdbcTemplate.update("delete from " + getTableName(name, RECORD_UPDATES_TABLE));
+        checkLatestUpdatesTable(name);
+        this.jdbcTemplate.update("delete from " + getTableName(name, RECORD_LATEST_UPDATES_TABLE));
         this.jdbcTemplate.update("delete from " + getTableName(name, RECORDS_TABLE));
         this.jdbcTemplate.update("delete from " + getTableName(name, RECORDS_XML_TABLE));
     }
@@ -2048,6 +2633,7 @@ public class RepositoryDAO extends BaseDAO {
     private static final class RecordMapper implements RowMapper<Record> {
         protected List<String> tables = null;
         protected RepositoryDAO thisthis = null;
+        protected Boolean hasXmlZ = null;
 
         public RecordMapper(String[] tables, RepositoryDAO thisthis) {
             this.tables = Arrays.asList(tables);
@@ -2084,7 +2670,11 @@ public class RepositoryDAO extends BaseDAO {
             }
             if (tables.contains(RECORDS_XML_TABLE)) {
                 r.setMode(Record.STRING_MODE);
-                r.setOaiXml(rs.getString("x.xml"));
+                String xml = rs.getString("x.xml");
+                if (xml == null && hasXmlZ(rs)) {
+                    xml = CompressedXml.decompress(rs.getBytes("x.xml_z"));
+                }
+                r.setOaiXml(xml);
             }
 
             if (tables.contains(RECORDS_SETS_TABLE)) {
@@ -2117,6 +2707,20 @@ public class RepositoryDAO extends BaseDAO {
             }
             return r;
         }
+
+        // not every query selects xml_z (see getXmlColumns)
+        protected boolean hasXmlZ(ResultSet rs) throws SQLException {
+            if (hasXmlZ == null) {
+                hasXmlZ = false;
+                ResultSetMetaData rsmd = rs.getMetaData();
+                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+                    if ("xml_z".equalsIgnoreCase(rsmd.getColumnLabel(i))) {
+                        hasXmlZ = true;
+                    }
+                }
+            }
+            return hasXmlZ;
+        }
     }
 
     public void dropIndices(String name) {
@@ -2369,6 +2973,268 @@ public class RepositoryDAO extends BaseDAO {
         TimingLogger.reset();
     }
     
+    /**
+     * record_latest_updates has a row per record with the record's most recent date_updated.  It's
+     * what getRecords pages over, which keeps the cost of a page independent of how many updates
+     * the repository has accumulated.  Repositories created before the table existed get it,
+     * populated from record_updates, the first time it's needed.
+     */
+    protected void checkLatestUpdatesTable(String name) {
+        name = getUtil().getDBSchema(name);
+        if (reposWithLatestUpdates.contains(name)) {
+            return;
+        }
+        synchronized (reposWithLatestUpdates) {
+            if (!reposWithLatestUpdates.contains(name)) {
+                if (!tableExists(name, RECORD_LATEST_UPDATES_TABLE)) {
+                    LOG.info("creating " + RECORD_LATEST_UPDATES_TABLE + " for " + name);
+                    TimingLogger.start("createLatestUpdates");
+                    this.jdbcTemplate.execute(
+                            "create table " + getTableName(name, RECORD_LATEST_UPDATES_TABLE) + " ( " +
+                                    " record_id int not null, " +
+                                    " date_updated datetime, " +
+                                    " primary key (record_id), " +
+                                    " key idx_record_latest_updates_date_updated (date_updated) " +
+                                    ") ENGINE=MyISAM DEFAULT CHARSET=utf8");
+                    this.jdbcTemplate.execute(
+                            "insert into " + getTableName(name, RECORD_LATEST_UPDATES_TABLE) +
+                                    " (record_id, date_updated) " +
+                                    " select record_id, max(date_updated) " +
+                                    " from " + getTableName(name, RECORD_UPDATES_TABLE) +
+                                    " group by record_id");
+                    TimingLogger.stop("createLatestUpdates");
+                }
+                if (!tableExists(name, RECORD_LATEST_UPDATES_LOAD_TABLE)) {
+                    this.jdbcTemplate.execute(
+                            "create table " + getTableName(name, RECORD_LATEST_UPDATES_LOAD_TABLE) + " ( " +
+                                    " record_id int not null, " +
+                                    " date_updated datetime, " +
+                                    " primary key (record_id) " +
+                                    ") ENGINE=MyISAM DEFAULT CHARSET=utf8");
+                }
+                reposWithLatestUpdates.add(name);
+            }
+        }
+    }
+
+    /**
+     * records.content_hash (see ContentHash) is what commitIfNecessary uses to tell whether a
+     * record has changed since it was last written.  Repositories created before it existed get
+     * it the first time they're committed to; until a record is written again it has no hash and
+     * is treated as changed.
+     */
+    protected void checkContentHashColumn(String name) {
+        name = getUtil().getDBSchema(name);
+        if (reposWithContentHash.contains(name)) {
+            return;
+        }
+        synchronized (reposWithContentHash) {
+            if (!reposWithContentHash.contains(name)) {
+                if (this.jdbcTemplate.queryForList(
+                        "show columns from " + getTableName(name, RECORDS_TABLE) + " like 'content_hash'").size() == 0) {
+                    LOG.info("adding content_hash to " + RECORDS_TABLE + " for " + name);
+                    TimingLogger.start("addContentHash");
+                    this.jdbcTemplate.execute(
+                            "alter table " + getTableName(name, RECORDS_TABLE) + " add column content_hash bigint");
+                    TimingLogger.stop("addContentHash");
+                }
+                reposWithContentHash.add(name);
+            }
+        }
+    }
+
+    protected boolean isSkippingUnchangedRecords() {
+        return MSTConfiguration.getInstance().getPropertyAsBoolean("db.records.skipUnchanged", true);
+    }
+
+    /**
+     * @return the content hashes of the records which have one, by record_id.
+     *         None with db.records.skipUnchanged off, so nothing is hashed (and the records are
+     *         written without one).
+     */
+    protected TLongLongHashMap getContentHashes(List<Record> recordsToAdd) {
+        if (!isSkippingUnchangedRecords()) {
+            return new TLongLongHashMap();
+        }
+        TimingLogger.start("getContentHashes");
+        TLongLongHashMap contentHashes = new TLongLongHashMap(recordsToAdd.size());
+        for (Record r : recordsToAdd) {
+            Long hash = ContentHash.hash(r);
+            if (hash != null) {
+                contentHashes.put(r.getId(), hash);
+            }
+        }
+        TimingLogger.stop("getContentHashes");
+        return contentHashes;
+    }
+
+    /**
+     * Takes the records whose content hash is the same as the one already stored for them out of
+     * the batch, so they don't get written again.  In particular they don't get new
+     * record_updates, which is what would have every service and indexer downstream process them
+     * again.  Reprocessing a repository produces mostly records like these.  Their counts by type
+     * are kept in the batch's unchangedRecordCounts (see takeUnchangedRecordCounts).
+     */
+    protected void dropUnchangedRecords(String name, Batch batch, TLongLongHashMap contentHashes) {
+        if (contentHashes.isEmpty()) {
+            return;
+        }
+        TimingLogger.start("dropUnchangedRecords");
+        final long[] recordIds = contentHashes.keys();
+        final TLongLongHashMap storedHashes = new TLongLongHashMap(recordIds.length);
+        this.jdbcTemplate.query(
+                "select record_id, content_hash from " + getTableName(name, RECORDS_TABLE) +
+                        " where record_id in (" + getPlaceholders(recordIds.length) + ")" +
+                        " and content_hash is not null",
+                new LongsPreparedStatementSetter(recordIds),
+                new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        storedHashes.put(rs.getLong(1), rs.getLong(2));
+                    }
+                });
+        if (!storedHashes.isEmpty()) {
+            List<Record> changedRecords = new ArrayList<Record>(batch.recordsToAdd.size());
+            for (Record r : batch.recordsToAdd) {
+                long id = r.getId();
+                if (storedHashes.containsKey(id) && contentHashes.containsKey(id)
+                        && storedHashes.get(id) == contentHashes.get(id)) {
+                    String type = r.getType() == null ? RecordCounts.TOTALS : r.getType();
+                    AtomicInteger count = batch.unchangedRecordCounts.get(type);
+                    if (count == null) {
+                        AtomicInteger newCount = new AtomicInteger(0);
+                        count = batch.unchangedRecordCounts.putIfAbsent(type, newCount);
+                        if (count == null) {
+                            count = newCount;
+                        }
+                    }
+                    count.incrementAndGet();
+                } else {
+                    changedRecords.add(r);
+                }
+            }
+            TimingLogger.add("RECORDS_UNCHANGED", batch.recordsToAdd.size() - changedRecords.size());
+            batch.recordsToAdd = changedRecords;
+        }
+        TimingLogger.stop("dropUnchangedRecords");
+    }
+
+    /**
+     * @return the number of records of each type left out of commits to the repository since this
+     *         was last called because they hadn't changed
+     */
+    public Map<String, AtomicInteger> takeUnchangedRecordCounts(String name) {
+        Map<String, AtomicInteger> counts = new HashMap<String, AtomicInteger>();
+        for (Map.Entry<String, AtomicInteger> me : getBatch(name).unchangedRecordCounts.entrySet()) {
+            int num = me.getValue().getAndSet(0);
+            if (num > 0) {
+                counts.put(me.getKey(), new AtomicInteger(num));
+            }
+        }
+        return counts;
+    }
+
+    protected boolean isCompressingXml() {
+        return MSTConfiguration.getInstance().getPropertyAsBoolean("db.records_xml.compressed", false);
+    }
+
+    /**
+     * With db.records_xml.compressed on, a record's xml is written to records_xml.xml_z, compressed
+     * by CompressedXml, and records_xml.xml is left null.  Reads take whichever column is set, so
+     * the setting can be changed at any time.  Repositories created before xml_z existed get it
+     * the first time a compressed record is written to them.
+     *
+     * @param create whether to add the column if it's missing
+     * @return whether name's records_xml has the xml_z column
+     */
+    protected boolean checkCompressedXmlColumn(String name, boolean create) {
+        name = getUtil().getDBSchema(name);
+        Boolean exists = reposWithCompressedXml.get(name);
+        if (exists != null && (exists || !create)) {
+            return exists;
+        }
+        synchronized (reposWithCompressedXml) {
+            exists = this.jdbcTemplate.queryForList(
+                    "show columns from " + getTableName(name, RECORDS_XML_TABLE) + " like 'xml_z'").size() > 0;
+            if (!exists && create) {
+                LOG.info("adding xml_z to " + RECORDS_XML_TABLE + " for " + name);
+                TimingLogger.start("addCompressedXml");
+                this.jdbcTemplate.execute(
+                        "alter table " + getTableName(name, RECORDS_XML_TABLE) + " add column xml_z longblob");
+                TimingLogger.stop("addCompressedXml");
+                exists = true;
+            }
+            reposWithCompressedXml.put(name, exists);
+        }
+        return exists;
+    }
+
+    protected String getXmlColumns(String name) {
+        if (checkCompressedXmlColumn(name, false)) {
+            return "x.xml, x.xml_z";
+        } else {
+            return "x.xml";
+        }
+    }
+
+    /**
+     * Compresses the records_xml rows written before db.records_xml.compressed was turned on, a
+     * page at a time.  The highest record_id done is kept in the persistent property
+     * records_xml.compressedThrough after each page, so it can be interrupted and picked up later
+     * and costs next to nothing once a repository is done.
+     *
+     * @return the number of records compressed
+     */
+    public int compressRecordsXml(String name) {
+        checkCompressedXmlColumn(name, true);
+        int pageSize = MSTConfiguration.getInstance().getPropertyAsInt("db.records_xml.compressAtOnce", 5000);
+        String compressedThrough = getPersistentProperty(name, "records_xml.compressedThrough");
+        long fromId = StringUtils.isEmpty(compressedThrough) ? 0 : Long.parseLong(compressedThrough);
+        int numCompressed = 0;
+        TimingLogger.start("compressRecordsXml");
+        while (true) {
+            final TLongArrayList ids = new TLongArrayList();
+            final List<byte[]> xmlZs = new ArrayList<byte[]>();
+            this.jdbcTemplate.query(
+                    "select record_id, xml from " + getTableName(name, RECORDS_XML_TABLE) +
+                            " where record_id > ? and xml is not null order by record_id limit " + pageSize,
+                    new Object[] { fromId },
+                    new RowCallbackHandler() {
+                        public void processRow(ResultSet rs) throws SQLException {
+                            ids.add(rs.getLong(1));
+                            xmlZs.add(CompressedXml.compress(rs.getString(2)));
+                        }
+                    });
+            if (ids.size() == 0) {
+                break;
+            }
+            this.jdbcTemplate.batchUpdate(
+                    "update " + getTableName(name, RECORDS_XML_TABLE) + " set xml = null, xml_z = ? where record_id = ?",
+                    new BatchPreparedStatementSetter() {
+                        public void setValues(PreparedStatement ps, int j) throws SQLException {
+                            ps.setBytes(1, xmlZs.get(j));
+                            ps.setLong(2, ids.get(j));
+                        }
+
+                        public int getBatchSize() {
+                            return ids.size();
+                        }
+                    });
+            numCompressed += ids.size();
+            fromId = ids.get(ids.size() - 1);
+            setPersistentProperty(name, "records_xml.compressedThrough", String.valueOf(fromId));
+            LOG.info("compressed " + numCompressed + " records in " + name + " through record_id " + fromId);
+        }
+        TimingLogger.stop("compressRecordsXml");
+        return numCompressed;
+    }
+
+    protected String getLatestUpdatesInsertSql(String name) {
+        return "insert into " + getTableName(name, RECORD_LATEST_UPDATES_TABLE) +
+                " (record_id, date_updated) " +
+                "values (?,?) " +
+                "on duplicate key update date_updated = greatest(date_updated, values(date_updated))";
+    }
+
     public boolean ready4harvest(String name) {
         boolean genericRepoIndexExists = false;
         name = getUtil().getDBSchema(name);
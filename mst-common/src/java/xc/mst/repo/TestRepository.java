@@ -8,6 +8,7 @@
  */
 package xc.mst.repo;
 
+import gnu.trove.TLongArrayList;
 import gnu.trove.TLongByteHashMap;
 import gnu.trove.TLongHashSet;
 import gnu.trove.TLongObjectHashMap;
@@ -18,6 +19,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -314,6 +316,37 @@ public class TestRepository extends BaseService implements Repository {
         return (Record) repo.get(id);
     }
     
+    public List<Record> getHeaders(long[] ids) {
+        List<Record> headers = new ArrayList<Record>();
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        for (long id : sorted) {
+            Record r = getRecord(id);
+            if (r != null) {
+                headers.add(r);
+            }
+        }
+        return headers;
+    }
+
+    public List<Record> getRecords(long[] ids, Format inputFormat, xc.mst.bo.provider.Set inputSet, char[] statuses) {
+        List<Record> records = new ArrayList<Record>();
+        for (Record r : getHeaders(ids)) {
+            if ((inputFormat != null && !inputFormat.equals(r.getFormat())) ||
+                    (inputSet != null && (r.getSets() == null || !r.getSets().contains(inputSet))) ||
+                    (statuses != null && new String(statuses).indexOf(r.getStatus()) < 0)) {
+                continue;
+            }
+            records.add(r);
+        }
+        return records;
+    }
+
+    public long deleteRecords(xc.mst.bo.provider.Set inputSet, long afterId, int limit,
+            RecordCounts incomingRecordCounts, TLongArrayList deletedIds) {
+        return -1;
+    }
+
     public Record getUnpersistedRecord(long id) {
     	return null;
     }
@@ -360,6 +393,20 @@ public class TestRepository extends BaseService implements Repository {
 
     }
 
+    public List<Record> getRecords(Date from, Date until, Long startingId, Format inputFormat, xc.mst.bo.provider.Set inputSet, boolean withXml) {
+        return getRecords(from, until, startingId, inputFormat, inputSet);
+    }
+
+    public void getRecordXml(long[] ids, RecordXmlHandler handler) {
+        for (long id : ids) {
+            Record r = (Record) repo.get(id);
+            if (r != null) {
+                r.setMode(Record.STRING_MODE);
+                handler.handle(id, r.getOaiXml());
+            }
+        }
+    }
+
     public List<Record> getRecordHeader(Date from, Date until, Long startingId, Format inputFormat, xc.mst.bo.provider.Set inputSet) {
 
         // TODO Auto-generated method stub
@@ -385,6 +432,10 @@ public class TestRepository extends BaseService implements Repository {
         // do nothing
     }
 
+    public void prefetchSuccessorIds(long[] predIds) {
+        // do nothing
+    }
+
     public void injectSuccessorIds(Record r) {
         List<Record> succs = successorMap.get(r.getHarvestedOaiIdentifier());
         if (succs != null) {
@@ -5,6 +5,8 @@ create table repo_name.records (
 	status           char(1),
 	prev_status      char(1),
 	format_id        int,
+	/* see ContentHash; this has to stay the last column, it's loaded by position */
+	content_hash     bigint,
 
 	PRIMARY KEY (record_id)
 	
@@ -35,9 +37,26 @@ create table repo_name.record_updates (
 	*/
 ) ENGINE=MyISAM DEFAULT CHARSET=utf8;
 
+create table repo_name.record_latest_updates (
+	record_id             int         not null,
+	date_updated          datetime,
+
+	PRIMARY KEY (record_id),
+	KEY idx_record_latest_updates_date_updated (date_updated)
+) ENGINE=MyISAM DEFAULT CHARSET=utf8;
+
+create table repo_name.record_latest_updates_load (
+	record_id             int         not null,
+	date_updated          datetime,
+
+	PRIMARY KEY (record_id)
+) ENGINE=MyISAM DEFAULT CHARSET=utf8;
+
 create table repo_name.records_xml (
 	record_id      int         not null,
 	xml            longtext,
+	/* the xml compressed (see CompressedXml), when db.records_xml.compressed is on */
+	xml_z          longblob,
 	
 	PRIMARY KEY (record_id)
 ) ENGINE=MyISAM DEFAULT CHARSET=utf8;
@@ -123,6 +142,8 @@ create table repo_name.outgoing_record_counts (
 	upd_del_prev_held_cnt         int    not null default 0,
 	upd_del_prev_del_cnt          int    not null default 0,
 
+	unchanged_cnt                 int    not null default 0,
+
 	primary key (outgoing_record_count_id),
 	KEY idx_outgoing_record_counts_type_name (type_name),
 	unique key idx_outgoing_record_counts_date_type(harvest_start_date, type_name)
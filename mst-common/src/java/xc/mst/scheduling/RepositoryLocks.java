@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.scheduling;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read/write locks on repositories (by name) for the jobs the Scheduler runs.  Any number of
+ * jobs may read a repository at once, but a job writing to one has it to itself.
+ *
+ * Jobs are started and finished on the Scheduler's thread, so unlike a ReentrantReadWriteLock
+ * these aren't owned by the thread which locked them, and a second lock from the same thread
+ * isn't let through.
+ */
+public class RepositoryLocks {
+
+    // repository -> number of jobs reading it
+    protected Map<String, Integer> readers = new HashMap<String, Integer>();
+    protected Set<String> writers = new HashSet<String>();
+
+    /**
+     * @return true if nothing is writing to reads and nothing is reading or writing writes
+     */
+    public synchronized boolean canLock(Collection<String> reads, Collection<String> writes) {
+        for (String name : reads) {
+            if (writers.contains(name)) {
+                return false;
+            }
+        }
+        for (String name : writes) {
+            if (writers.contains(name) || readers.containsKey(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Locks reads and writes whether or not they're already locked.
+     */
+    public synchronized void lock(Collection<String> reads, Collection<String> writes) {
+        for (String name : reads) {
+            Integer count = readers.get(name);
+            readers.put(name, count == null ? 1 : count + 1);
+        }
+        writers.addAll(writes);
+    }
+
+    /**
+     * @return true if reads and writes could be locked (in which case they are)
+     */
+    public synchronized boolean tryLock(Collection<String> reads, Collection<String> writes) {
+        if (!canLock(reads, writes)) {
+            return false;
+        }
+        lock(reads, writes);
+        return true;
+    }
+
+    public synchronized void unlock(Collection<String> reads, Collection<String> writes) {
+        for (String name : reads) {
+            Integer count = readers.get(name);
+            if (count == null || count <= 1) {
+                readers.remove(name);
+            } else {
+                readers.put(name, count - 1);
+            }
+        }
+        writers.removeAll(writes);
+    }
+
+    public synchronized boolean isLocked(String name) {
+        return writers.contains(name) || readers.containsKey(name);
+    }
+
+}
@@ -12,8 +12,10 @@ package xc.mst.scheduling;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.log4j.Logger;
 
@@ -28,8 +30,10 @@ import xc.mst.dao.DataException;
 import xc.mst.dao.DatabaseConfigException;
 import xc.mst.harvester.HarvestManager;
 import xc.mst.manager.BaseService;
+import xc.mst.repo.CommitFeed;
 import xc.mst.repo.DefaultRepository;
 import xc.mst.repo.Repository;
+import xc.mst.services.GenericMetadataService;
 import xc.mst.services.MetadataServiceManager;
 import xc.mst.services.RepositoryDeletionManager;
 import xc.mst.services.SolrWorkDelegate;
@@ -46,6 +50,14 @@ import xc.mst.utils.TimingLogger;
  * This Thread maintains a queue of jobs to be run. A job may be
  * either a harvest or a service.
  * 
+ * Up to scheduler.maxJobs jobs run at once.  A job reading a repository can run alongside other
+ * jobs reading it, but a job writing to a repository has it to itself (see RepositoryLocks).
+ * The solr indexer only runs while no jobs are.
+ * 
+ * With service.pipeline.enabled the services downstream of a job are started along with it and
+ * follow what it commits (see CommitFeed), as are the services downstream of them.  The job
+ * isn't considered done until all of them are.
+ * 
  * @author Eric Osisek
  */
 public class Scheduler extends BaseService implements Runnable {
@@ -54,19 +66,74 @@ public class Scheduler extends BaseService implements Runnable {
 
     protected boolean killed = false;
 
-    protected WorkerThread runningJob;
-    protected Thread runningThread;
-    protected Job previousJob = null;
+    // the jobs running now, oldest first
+    protected List<RunningJob> runningJobs = new CopyOnWriteArrayList<RunningJob>();
+    protected RepositoryLocks repositoryLocks = new RepositoryLocks();
+    // the job getRunningJob() returns once it's finished, until another starts
+    protected WorkerThread lastJob = null;
+    protected WorkerThread solrWorkerThread = null;
+    protected boolean solrRunning = false;
     protected boolean pausedManually = false;
     private final Object lock = new Object();
 
+    // harvests of different providers may run at once, so each provider gets its own
+    protected Map<Integer, HarvestManager> harvestManagers = new HashMap<Integer, HarvestManager>();
+
+    protected static class RunningJob {
+        protected Job job = null;
+        protected WorkerThread workerThread = null;
+        protected Thread thread = null;
+        // the names of the repositories the job reads and writes
+        protected List<String> reads = new ArrayList<String>();
+        protected List<String> writes = new ArrayList<String>();
+        // set for service jobs
+        protected Service service = null;
+        protected Repository incomingRepo = null;
+
+        // the services following the job in a pipeline
+        protected List<PipelineStage> pipelineStages = new CopyOnWriteArrayList<PipelineStage>();
+        protected java.util.Set<Integer> pipelinedDirectiveIds = new HashSet<Integer>();
+        protected CommitFeed feed = null;
+    }
+
+    protected static class PipelineStage {
+        protected ProcessingDirective processingDirective = null;
+        protected Service service = null;
+        protected MetadataServiceManager msm = null;
+        protected Thread thread = null;
+        protected CommitFeed.Follower follower = null;
+        // set if anything follows this stage
+        protected CommitFeed feed = null;
+    }
+
     public void init() {
         LOG.info("init");
         new Thread(this, "Scheduler").start();
     }
 
+    /**
+     * @return the oldest job running, the solr indexer if it's running in their place, or else
+     *         the last job which ran
+     */
     public WorkerThread getRunningJob() {
-        return runningJob;
+        for (RunningJob rj : runningJobs) {
+            return rj.workerThread;
+        }
+        if (solrRunning) {
+            return solrWorkerThread;
+        }
+        return lastJob;
+    }
+
+    /**
+     * @return the jobs running now, oldest first
+     */
+    public List<WorkerThread> getRunningJobs() {
+        List<WorkerThread> jobs = new ArrayList<WorkerThread>();
+        for (RunningJob rj : runningJobs) {
+            jobs.add(rj.workerThread);
+        }
+        return jobs;
     }
 
     public void run() {
@@ -76,7 +143,6 @@ public class Scheduler extends BaseService implements Runnable {
         }
 
         Map<Integer, String> lastRunDate = new HashMap<Integer, String>();
-        WorkerThread solrWorkerThread = null;
         Thread solrThread = null;
 
         // Sometimes it's useful to disable solr indexing,
@@ -160,7 +226,6 @@ public class Scheduler extends BaseService implements Runnable {
         	else
         		LOG.info("solr.index.enabled is false");
         }
-        HarvestManager hm = (HarvestManager) MSTConfiguration.getInstance().getBean("HarvestManager");
 
         while (!killed) {
             Calendar now = Calendar.getInstance();
@@ -201,206 +266,27 @@ public class Scheduler extends BaseService implements Runnable {
                 }
             }
 
-            // LOG.debug("runningJob: "+runningJob);
-            if (runningJob != null) {
-                LOG.debug("runningJob: " + runningJob);
-                LOG.debug("runningJob.getType(): " + runningJob.getType());
-                // LOG.debug("runningJob == solrWorkerThread: "+(runningJob == solrWorkerThread));
-            }
-            if (runningJob == null || !runningThread.isAlive() || runningJob == solrWorkerThread) {
-                if (runningJob != null) {
-                    // LOG.debug("runningJob.getWorkDelegate(): "+runningJob.getWorkDelegate());
-                }
-                // LOG.debug("previousJob: "+previousJob);
-                try {
-                    if (previousJob != null) {
-                        LOG.debug("previousJob: " + previousJob);
-                        getJobService().deleteJob(previousJob);
-
-                        TimingLogger.reset();
-
-                        Repository previousRepo = null;
-                        List<ProcessingDirective> processingDirectives = null;
-                        LOG.debug("previousJob.getHarvestSchedule(): " + previousJob.getHarvestSchedule());
-                        if (previousJob.getHarvestSchedule() != null) { // was harvest
-                            processingDirectives = getProcessingDirectiveDAO().getBySourceProviderId(
-                                    previousJob.getHarvestSchedule().getProvider().getId());
-                            previousJob.getHarvestSchedule().setStatus(runningJob.getJobStatus());
-                            getHarvestScheduleDAO().update(previousJob.getHarvestSchedule(), false);
-                            previousRepo = (Repository) config.getBean("Repository");
-                            previousRepo.setName(previousJob.getHarvestSchedule().getProvider().getName());
-                        } else if (previousJob.getService() != null) { // was service
-                            processingDirectives = getProcessingDirectiveDAO().getBySourceServiceId(
-                                    previousJob.getService().getId());
-                            // Reload service. It is changed during service processing.
-                            // TODO check to see if there is better way to do this
-                            Service service = getServicesService().getServiceById(previousJob.getService().getId());
-                            // getById(previousJob.getService().getId());
-                            LOG.debug("service: " + service);
-                            LOG.debug("service.getName(): " + service.getName());
-                            LOG.debug("service.getMetadataService(): " + service.getMetadataService());
-                            previousRepo = service.getMetadataService().getRepository();
-                            if (runningJob != null) {
-                                service.setStatus(runningJob.getJobStatus());
-                            }
-                            getServiceDAO().update(service);
-                        }
-                        LOG.debug("processingDirectives: " + processingDirectives);
-
-                        if (previousRepo != null) {
-                            if (previousRepo instanceof DefaultRepository) {
-                                LOG.debug("sleepUntilReady...start");
-                                ((DefaultRepository) previousRepo).sleepUntilReady();
-                                LOG.debug("sleepUntilReady...finished");
-                            }
-                        }
-
-                        if (processingDirectives != null) {
-                            try {
-                                for (ProcessingDirective pd : processingDirectives) {
-                                    // TODO
-                                    // match by set
-                                    // match by format
-                                    // OR you could run the service and it just won't grab any records
-                                    /*
-                                    boolean matched = false;
-                                    if (pd.getTriggeringFormats() != null) {
-                                        for (Format f : pd.getTriggeringFormats()) {
-                                            if (previousJob.getHarvestSchedule().getFormats() != null) {
-
-                                            }
-                                            if (f.getId().equals(previousJob.getHarvestSchedule().getFormats()))
-                                        }
-                                    }
-                                    */
-
-                                    // Job job = new Job(pd.getService(), pd.getOutputSet().getId(), Constants.THREAD_SERVICE);
-                                    Job job = new Job();
-                                    job.setService(pd.getService());
-                                    if (pd.getOutputSet() != null)
-                                        job.setOutputSetId(pd.getOutputSet().getId());
-                                    job.setJobType(Constants.THREAD_SERVICE);
-                                    job.setOrder(getJobService().getMaxOrder() + 1);
-                                    job.setProcessingDirective(pd);
-                                    getJobService().insertJob(job);
-                                }
-                            } catch (DatabaseConfigException dce) {
-                                LOG.error("DatabaseConfig exception occured when ading jobs to database", dce);
-                            }
-                        }
-                    }
-
-                    Job jobToStart = getJobService().getNextJobToExecute();
-                    if (jobToStart != null)
-                        LOG.debug("jobToStart: " + jobToStart);
-                    if (jobToStart == null && solrEnabled && runningJob != solrWorkerThread && solrWorkerThread != null) {
-                        LOG.debug("solrWorkerThead.proceed");
-                        if (!solrWorkerThreadStarted) {
-                            solrWorkerThreadStarted = true;
-                            solrThread.start();
-                        } else {
-                            if (!pausedManually)
-                                solrWorkerThread.proceed();
-                        }
-                        runningJob = solrWorkerThread;
-                        runningJob.type = Constants.SOLR_INDEXER;
-                        runningThread = solrThread;
-                    }
-                    previousJob = jobToStart;
-
-                    // LOG.debug("jobToStart: "+jobToStart);
-                    // If there was a service job in the waiting queue, start it. Otherwise break from the loop
-                    if (jobToStart != null) {
-                        if (solrEnabled && solrWorkerThread != null && solrWorkerThreadStarted) {
-                            solrWorkerThread.pause();
-                        }
-                        runningJob = null;
-                        runningThread = null;
-                        TimingLogger.reset();
-                        TimingLogger.log("starting job: " + jobToStart.getJobType());
-
-                        if (jobToStart.getJobType().equalsIgnoreCase(Constants.THREAD_REPOSITORY)) {
-                            // TODO perhaps consider for future whether it is more correct to getBean each time here (would be new instance each harvest)
-                            hm.setHarvestSchedule(jobToStart.getHarvestSchedule());
-                            runningJob = hm;
-                            runningJob.type = Constants.THREAD_REPOSITORY;
-                        } else if (jobToStart.getJobType().equalsIgnoreCase(Constants.THREAD_SERVICE)) {
-                            MetadataServiceManager msm = (MetadataServiceManager) config.getBean("MetadataServiceManager");
-
-                            Service s = getServicesService().getServiceByName(jobToStart.getService().getName());
-                            msm.setMetadataService(s.getMetadataService());
-                            runningJob = msm;
-                            msm.setOutputSet(getSetDAO().getById(jobToStart.getOutputSetId()));
-                            Repository incomingRepo = null;
-                            if (jobToStart.getProcessingDirective().getSourceProvider() != null) {
-                                incomingRepo =
-                                        getRepositoryService().getRepository(jobToStart.getProcessingDirective().getSourceProvider());
-                                if (!incomingRepo.ready4harvest()) {
-
-                                    getJobService().deleteJob(jobToStart);
-                                    runningJob = null;
-                                    previousJob = null;
-                                    LOG.error("A job came in of type THREAD_SERVICE but incomingRepo ! ready4harvest.");
-                                }
-                            } else if (jobToStart.getProcessingDirective().getSourceService() != null) {
-                                Service s2 = getServicesService().getServiceById(jobToStart.getProcessingDirective().getSourceService().getId());
-                                incomingRepo = s2.getMetadataService().getRepository();
-                                if (!incomingRepo.ready4harvest()) {
-
-                                    getJobService().deleteJob(jobToStart);
-                                    runningJob = null;
-                                    previousJob = null;
-                                    LOG.error("A job came in of type THREAD_SERVICE but incomingRepo ! ready4harvest.");
-                                }
-                            } else {
-                                throw new RuntimeException("error");
-                            }
-                            LOG.debug("incomingRepo.getName(): " + incomingRepo.getName());
-                            msm.setIncomingRepository(incomingRepo);
-                            msm.setTriggeringFormats(jobToStart.getProcessingDirective().getTriggeringFormats());
-                            msm.setTriggeringSets(jobToStart.getProcessingDirective().getTriggeringSets());
-                            if (runningJob != null) {
-                                runningJob.type = Constants.THREAD_SERVICE;
-                            }
-                            /*
-                            TimingLogger.log("service : "+jobToStart.getService().getClassName());
-                            ServiceWorkerThread serviceThread = new ServiceWorkerThread();
-                            serviceThread.setServiceId(jobToStart.getService().getId());
-                            serviceThread.setOutputSetId(jobToStart.getOutputSetId());
-                            serviceThread.start();
-                            runningJob = serviceThread;
-                            */
-                        } else if (jobToStart.getJobType().equalsIgnoreCase(Constants.THREAD_MARK_PROVIDER_DELETED)) {
-                            LOG.debug("**** Scheduler - THREAD_MARK_PROVIDER_DELETED!");
-                            RepositoryDeletionManager rdm = (RepositoryDeletionManager) config.getBean("RepositoryDeletionManager");
-
-                            runningJob = rdm;
-
-                            Repository incomingRepo = null;
-                            if (jobToStart.getHarvestSchedule() != null) {
-                                Provider provider = jobToStart.getHarvestSchedule().getProvider();
-                                incomingRepo = getRepositoryService().getRepository(provider);
-                            }
-                            rdm.setIncomingRepository(incomingRepo);
-                            rdm.setHarvestSchedule(jobToStart.getHarvestSchedule());
-                            LOG.debug("jobToStart.getHarvestSchedule(): " + jobToStart.getHarvestSchedule());
-                            runningJob.type = Constants.THREAD_MARK_PROVIDER_DELETED;
-                        }
-
-                        if (runningJob != null) {
-                            LOG.debug("runningJob.start()");
-                            runningThread = new Thread(runningJob, jobToStart.getJobType() + "_" + thisMinute);
-                            runningThread.start();
-                        } else {
-                            LOG.debug("**** Scheduler - No valid job found to start! Provided type was " +
-                                    jobToStart.getJobType());
-                        }
+            try {
+                finishJobs();
+                startJobs(thisMinute);
+
+                // solr indexes whatever the services have produced while none are running
+                if (runningJobs.isEmpty() && solrEnabled && solrWorkerThread != null && !solrRunning) {
+                    LOG.debug("solrWorkerThead.proceed");
+                    if (!solrWorkerThreadStarted) {
+                        solrWorkerThreadStarted = true;
+                        solrThread.start();
+                    } else {
+                        if (!pausedManually)
+                            solrWorkerThread.proceed();
                     }
-                } catch (DataException de) {
-                    LOG.error("DataException occured when getting job from database", de);
-                } catch (Throwable t) {
-                    LOG.error("** EXCEPTION occured while trying to process next jobtostart !", t);
+                    solrWorkerThread.type = Constants.SOLR_INDEXER;
+                    solrRunning = true;
                 }
+            } catch (DataException de) {
+                LOG.error("DataException occured when getting job from database", de);
+            } catch (Throwable t) {
+                LOG.error("** EXCEPTION occured while trying to process next jobtostart !", t);
             }
 
             try {
@@ -421,15 +307,406 @@ public class Scheduler extends BaseService implements Runnable {
         }
     }
 
+    /**
+     * Starts the queued jobs which can run alongside the ones already running, in the order
+     * JobService.getJobsToExecute returns them, until scheduler.maxJobs are running.  A job which
+     * uses a repository a job ahead of it in the queue is waiting on waits too, so jobs on the
+     * same repository always run in order.
+     */
+    protected void startJobs(String thisMinute) throws DataException {
+        int maxJobs = config.getPropertyAsInt("scheduler.maxJobs", 1);
+        if (runningJobs.size() >= maxJobs) {
+            return;
+        }
+        RepositoryLocks waiting = new RepositoryLocks();
+        for (Job job : getJobService().getJobsToExecute()) {
+            if (runningJobs.size() >= maxJobs) {
+                break;
+            }
+            if (isRunning(job)) {
+                continue;
+            }
+            LOG.debug("jobToStart: " + job);
+            RunningJob rj = getRunningJob(job);
+            if (rj == null) {
+                continue;
+            }
+            if (!repositoryLocks.canLock(rj.reads, rj.writes) || !waiting.canLock(rj.reads, rj.writes)) {
+                LOG.debug("waiting on repositories reads: " + rj.reads + " writes: " + rj.writes);
+                waiting.lock(rj.reads, rj.writes);
+                continue;
+            }
+            startJob(rj, thisMinute);
+        }
+    }
+
+    protected boolean isRunning(Job job) {
+        for (RunningJob rj : runningJobs) {
+            if (rj.job.getId() == job.getId()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Works out which repositories the job reads and writes.
+     * 
+     * @return null if the job can't run (it's deleted)
+     */
+    protected RunningJob getRunningJob(Job job) throws DataException {
+        RunningJob rj = new RunningJob();
+        rj.job = job;
+        if (job.getJobType().equalsIgnoreCase(Constants.THREAD_REPOSITORY) ||
+                job.getJobType().equalsIgnoreCase(Constants.THREAD_MARK_PROVIDER_DELETED)) {
+            if (job.getHarvestSchedule() != null) {
+                rj.writes.add(getRepositoryService().getRepository(job.getHarvestSchedule().getProvider()).getName());
+            }
+        } else if (job.getJobType().equalsIgnoreCase(Constants.THREAD_SERVICE)) {
+            rj.service = getServicesService().getServiceByName(job.getService().getName());
+            if (job.getProcessingDirective().getSourceProvider() != null) {
+                rj.incomingRepo = getRepositoryService().getRepository(job.getProcessingDirective().getSourceProvider());
+            } else if (job.getProcessingDirective().getSourceService() != null) {
+                Service s2 = getServicesService().getServiceById(job.getProcessingDirective().getSourceService().getId());
+                rj.incomingRepo = s2.getMetadataService().getRepository();
+            } else {
+                throw new RuntimeException("error");
+            }
+            if (!rj.incomingRepo.ready4harvest()) {
+                getJobService().deleteJob(job);
+                LOG.error("A job came in of type THREAD_SERVICE but incomingRepo ! ready4harvest.");
+                return null;
+            }
+            LOG.debug("incomingRepo.getName(): " + rj.incomingRepo.getName());
+            rj.reads.add(rj.incomingRepo.getName());
+            rj.writes.add(rj.service.getMetadataService().getRepository().getName());
+        } else {
+            LOG.debug("**** Scheduler - No valid job found to start! Provided type was " + job.getJobType());
+            getJobService().deleteJob(job);
+            return null;
+        }
+        return rj;
+    }
+
+    protected void startJob(RunningJob rj, String thisMinute) throws DataException {
+        Job jobToStart = rj.job;
+        if (solrRunning) {
+            solrWorkerThread.pause();
+            solrRunning = false;
+        }
+
+        if (jobToStart.getJobType().equalsIgnoreCase(Constants.THREAD_REPOSITORY)) {
+            Provider provider = jobToStart.getHarvestSchedule().getProvider();
+            HarvestManager hm = harvestManagers.get(provider.getId());
+            if (hm == null) {
+                hm = (HarvestManager) config.getBean("HarvestManager");
+                harvestManagers.put(provider.getId(), hm);
+            }
+            hm.setHarvestSchedule(jobToStart.getHarvestSchedule());
+            rj.workerThread = hm;
+            rj.workerThread.type = Constants.THREAD_REPOSITORY;
+        } else if (jobToStart.getJobType().equalsIgnoreCase(Constants.THREAD_SERVICE)) {
+            MetadataServiceManager msm = (MetadataServiceManager) config.getBean("MetadataServiceManager");
+            msm.setMetadataService(rj.service.getMetadataService());
+            msm.setOutputSet(getSetDAO().getById(jobToStart.getOutputSetId()));
+            msm.setIncomingRepository(rj.incomingRepo);
+            msm.setTriggeringFormats(jobToStart.getProcessingDirective().getTriggeringFormats());
+            msm.setTriggeringSets(jobToStart.getProcessingDirective().getTriggeringSets());
+            rj.workerThread = msm;
+            rj.workerThread.type = Constants.THREAD_SERVICE;
+        } else if (jobToStart.getJobType().equalsIgnoreCase(Constants.THREAD_MARK_PROVIDER_DELETED)) {
+            LOG.debug("**** Scheduler - THREAD_MARK_PROVIDER_DELETED!");
+            RepositoryDeletionManager rdm = (RepositoryDeletionManager) config.getBean("RepositoryDeletionManager");
+
+            Repository incomingRepo = null;
+            if (jobToStart.getHarvestSchedule() != null) {
+                Provider provider = jobToStart.getHarvestSchedule().getProvider();
+                incomingRepo = getRepositoryService().getRepository(provider);
+            }
+            rdm.setIncomingRepository(incomingRepo);
+            rdm.setHarvestSchedule(jobToStart.getHarvestSchedule());
+            LOG.debug("jobToStart.getHarvestSchedule(): " + jobToStart.getHarvestSchedule());
+            rj.workerThread = rdm;
+            rj.workerThread.type = Constants.THREAD_MARK_PROVIDER_DELETED;
+        }
+
+        repositoryLocks.lock(rj.reads, rj.writes);
+        if (config.getPropertyAsBoolean("service.pipeline.enabled", false)) {
+            startPipeline(rj);
+        }
+        TimingLogger.jobStarted();
+        TimingLogger.reset();
+        TimingLogger.log("starting job: " + jobToStart.getJobType());
+        LOG.debug("runningJob.start()");
+        rj.thread = new Thread(rj.workerThread, jobToStart.getJobType() + "_" + thisMinute);
+        runningJobs.add(rj);
+        lastJob = rj.workerThread;
+        rj.thread.start();
+    }
+
+    /**
+     * Finishes the jobs which are done (along with any services following them in a pipeline):
+     * updates their status, frees their repositories and queues the services downstream of them.
+     */
+    protected void finishJobs() throws DataException {
+        for (RunningJob rj : runningJobs) {
+            checkPipeline(rj);
+            if (rj.thread.isAlive() || !rj.pipelineStages.isEmpty()) {
+                continue;
+            }
+            runningJobs.remove(rj);
+            repositoryLocks.unlock(rj.reads, rj.writes);
+            try {
+                finishJob(rj);
+            } finally {
+                TimingLogger.jobFinished();
+            }
+        }
+    }
+
+    protected void finishJob(RunningJob rj) throws DataException {
+        Job previousJob = rj.job;
+        LOG.debug("previousJob: " + previousJob);
+        getJobService().deleteJob(previousJob);
+
+        TimingLogger.reset();
+
+        Repository previousRepo = null;
+        List<ProcessingDirective> processingDirectives = null;
+        LOG.debug("previousJob.getHarvestSchedule(): " + previousJob.getHarvestSchedule());
+        if (previousJob.getHarvestSchedule() != null) { // was harvest
+            processingDirectives = getProcessingDirectiveDAO().getBySourceProviderId(
+                    previousJob.getHarvestSchedule().getProvider().getId());
+            previousJob.getHarvestSchedule().setStatus(rj.workerThread.getJobStatus());
+            getHarvestScheduleDAO().update(previousJob.getHarvestSchedule(), false);
+            previousRepo = (Repository) config.getBean("Repository");
+            previousRepo.setName(previousJob.getHarvestSchedule().getProvider().getName());
+        } else if (previousJob.getService() != null) { // was service
+            processingDirectives = getProcessingDirectiveDAO().getBySourceServiceId(
+                    previousJob.getService().getId());
+            // Reload service. It is changed during service processing.
+            // TODO check to see if there is better way to do this
+            Service service = getServicesService().getServiceById(previousJob.getService().getId());
+            // getById(previousJob.getService().getId());
+            LOG.debug("service: " + service);
+            LOG.debug("service.getName(): " + service.getName());
+            LOG.debug("service.getMetadataService(): " + service.getMetadataService());
+            previousRepo = service.getMetadataService().getRepository();
+            service.setStatus(rj.workerThread.getJobStatus());
+            getServiceDAO().update(service);
+        }
+        LOG.debug("processingDirectives: " + processingDirectives);
+
+        if (previousRepo != null) {
+            if (previousRepo instanceof DefaultRepository) {
+                LOG.debug("sleepUntilReady...start");
+                ((DefaultRepository) previousRepo).sleepUntilReady();
+                LOG.debug("sleepUntilReady...finished");
+            }
+        }
+
+        if (processingDirectives != null) {
+            try {
+                for (ProcessingDirective pd : processingDirectives) {
+                    if (rj.pipelinedDirectiveIds.contains(pd.getId())) {
+                        // already ran alongside the job
+                        continue;
+                    }
+                    // TODO
+                    // match by set
+                    // match by format
+                    // OR you could run the service and it just won't grab any records
+                    /*
+                    boolean matched = false;
+                    if (pd.getTriggeringFormats() != null) {
+                        for (Format f : pd.getTriggeringFormats()) {
+                            if (previousJob.getHarvestSchedule().getFormats() != null) {
+
+                            }
+                            if (f.getId().equals(previousJob.getHarvestSchedule().getFormats()))
+                        }
+                    }
+                    */
+
+                    // Job job = new Job(pd.getService(), pd.getOutputSet().getId(), Constants.THREAD_SERVICE);
+                    insertJob(pd);
+                }
+            } catch (DatabaseConfigException dce) {
+                LOG.error("DatabaseConfig exception occured when ading jobs to database", dce);
+            }
+        }
+    }
+
+    protected void insertJob(ProcessingDirective pd) throws DatabaseConfigException {
+        Job job = new Job();
+        job.setService(pd.getService());
+        if (pd.getOutputSet() != null)
+            job.setOutputSetId(pd.getOutputSet().getId());
+        job.setJobType(Constants.THREAD_SERVICE);
+        job.setOrder(getJobService().getMaxOrder() + 1);
+        job.setProcessingDirective(pd);
+        getJobService().insertJob(job);
+    }
+
+    /**
+     * Starts the services downstream of the job which is about to start, so they follow it.
+     */
+    protected void startPipeline(RunningJob rj) throws DataException {
+        Job job = rj.job;
+        Repository repo = null;
+        List<ProcessingDirective> processingDirectives = null;
+        java.util.Set<Integer> serviceIds = new HashSet<Integer>();
+        if (job.getJobType().equalsIgnoreCase(Constants.THREAD_REPOSITORY)) {
+            Provider provider = job.getHarvestSchedule().getProvider();
+            repo = getRepositoryService().getRepository(provider);
+            processingDirectives = getProcessingDirectiveDAO().getBySourceProviderId(provider.getId());
+        } else if (job.getJobType().equalsIgnoreCase(Constants.THREAD_SERVICE)) {
+            repo = rj.service.getMetadataService().getRepository();
+            processingDirectives = getProcessingDirectiveDAO().getBySourceServiceId(rj.service.getId());
+            serviceIds.add(rj.service.getId());
+        }
+        if (repo != null) {
+            rj.feed = startStages(rj, repo, processingDirectives, serviceIds);
+        }
+    }
+
+    /**
+     * Starts a stage following repo for each processing directive, as well as the stages
+     * following those.  A service is only started once, only if no other job is using its
+     * repository, and only if the repository it reads is already indexed (the first load of a
+     * repository isn't indexed until it's done).  Services which pre-process their records, or
+     * are triggered by more than one format or set, run afterwards as they always have.
+     *
+     * @return the feed the stages follow, or null if no stages were started
+     */
+    protected CommitFeed startStages(RunningJob rj, Repository repo, List<ProcessingDirective> processingDirectives,
+            java.util.Set<Integer> serviceIds) throws DataException {
+        if (processingDirectives == null || processingDirectives.size() == 0 || !repo.ready4harvest()) {
+            return null;
+        }
+        List<PipelineStage> stages = new ArrayList<PipelineStage>();
+        CommitFeed feed = CommitFeed.open(repo.getName(), config.getPropertyAsInt("service.pipeline.maxLag", 4));
+        for (ProcessingDirective pd : processingDirectives) {
+            if (serviceIds.contains(pd.getService().getId()) ||
+                    (pd.getTriggeringFormats() != null && pd.getTriggeringFormats().size() > 1) ||
+                    (pd.getTriggeringSets() != null && pd.getTriggeringSets().size() > 1)) {
+                continue;
+            }
+            Service service = getServicesService().getServiceById(pd.getService().getId());
+            if (!(service.getMetadataService() instanceof GenericMetadataService) ||
+                    ((GenericMetadataService) service.getMetadataService()).doPreProcess()) {
+                continue;
+            }
+            List<String> writes = new ArrayList<String>();
+            writes.add(service.getMetadataService().getRepository().getName());
+            if (!repositoryLocks.tryLock(new ArrayList<String>(), writes)) {
+                continue;
+            }
+            rj.writes.addAll(writes);
+            serviceIds.add(service.getId());
+
+            PipelineStage stage = new PipelineStage();
+            stage.processingDirective = pd;
+            stage.service = service;
+            stage.msm = (MetadataServiceManager) config.getBean("MetadataServiceManager");
+            stage.msm.setMetadataService(service.getMetadataService());
+            if (pd.getOutputSet() != null) {
+                stage.msm.setOutputSet(getSetDAO().getById(pd.getOutputSet().getId()));
+            }
+            stage.msm.setIncomingRepository(repo);
+            stage.msm.setTriggeringFormats(pd.getTriggeringFormats());
+            stage.msm.setTriggeringSets(pd.getTriggeringSets());
+            stage.msm.type = Constants.THREAD_SERVICE;
+            stage.follower = feed.follow();
+            stage.msm.setFollower(stage.follower);
+            rj.pipelinedDirectiveIds.add(pd.getId());
+            stages.add(stage);
+        }
+        if (stages.size() == 0) {
+            feed.close();
+            return null;
+        }
+        for (PipelineStage stage : stages) {
+            // anything following this stage has to be following before it commits
+            stage.feed = startStages(rj, stage.service.getMetadataService().getRepository(),
+                    getProcessingDirectiveDAO().getBySourceServiceId(stage.service.getId()), serviceIds);
+            LOG.info("starting " + stage.service.getName() + " following " + repo.getName());
+            stage.thread = new Thread(stage.msm, Constants.THREAD_SERVICE + "_pipeline_" + stage.service.getName());
+            TimingLogger.jobStarted();
+            stage.thread.start();
+            rj.pipelineStages.add(stage);
+        }
+        return feed;
+    }
+
+    /**
+     * Closes the feeds of the pipeline's writers which are done and does for the stages which
+     * are done what's done for a service job which is done.
+     */
+    protected void checkPipeline(RunningJob rj) {
+        if (rj.feed != null && !rj.thread.isAlive()) {
+            rj.feed.close();
+            rj.feed = null;
+        }
+        for (PipelineStage stage : rj.pipelineStages) {
+            if (stage.thread.isAlive()) {
+                continue;
+            }
+            rj.pipelineStages.remove(stage);
+            TimingLogger.jobFinished();
+            stage.follower.stop();
+            if (stage.feed != null) {
+                stage.feed.close();
+            }
+            try {
+                Service service = getServicesService().getServiceById(stage.service.getId());
+                service.setStatus(stage.msm.getJobStatus());
+                getServiceDAO().update(service);
+
+                List<ProcessingDirective> processingDirectives = getProcessingDirectiveDAO().getBySourceServiceId(service.getId());
+                boolean sleptUntilReady = false;
+                for (ProcessingDirective pd : processingDirectives) {
+                    if (rj.pipelinedDirectiveIds.contains(pd.getId())) {
+                        continue;
+                    }
+                    if (!sleptUntilReady && service.getMetadataService().getRepository() instanceof DefaultRepository) {
+                        ((DefaultRepository) service.getMetadataService().getRepository()).sleepUntilReady();
+                        sleptUntilReady = true;
+                    }
+                    insertJob(pd);
+                }
+            } catch (DataException de) {
+                LOG.error("DataException occured when finishing pipelined service " + stage.service.getName(), de);
+            }
+        }
+    }
+
+    // the jobs and pipeline stages running now, or the solr indexer if it's running in their place
+    protected List<WorkerThread> getWorkerThreads() {
+        List<WorkerThread> workerThreads = new ArrayList<WorkerThread>();
+        for (RunningJob rj : runningJobs) {
+            workerThreads.add(rj.workerThread);
+            for (PipelineStage stage : rj.pipelineStages) {
+                workerThreads.add(stage.msm);
+            }
+        }
+        if (workerThreads.isEmpty() && solrRunning) {
+            workerThreads.add(solrWorkerThread);
+        }
+        return workerThreads;
+    }
+
     public void kill() {
-        if (runningJob != null) {
-            runningJob.cancel();
+        for (WorkerThread workerThread : getWorkerThreads()) {
+            workerThread.cancel();
         }
         killed = true;
     }
 
     public void cancelRunningJob() {
-        runningJob.cancel();
+        for (WorkerThread workerThread : getWorkerThreads()) {
+            workerThread.cancel();
+        }
     }
 
     public boolean wasPausedManually() {
@@ -442,11 +719,15 @@ public class Scheduler extends BaseService implements Runnable {
 
     public void pauseRunningJob() {
         pausedManually = true;
-        runningJob.pause();
+        for (WorkerThread workerThread : getWorkerThreads()) {
+            workerThread.pause();
+        }
     }
 
     public void resumePausedJob() {
         pausedManually = false;
-        runningJob.proceed();
+        for (WorkerThread workerThread : getWorkerThreads()) {
+            workerThread.proceed();
+        }
     }
 }
@@ -9,12 +9,19 @@
 
 package xc.mst.services;
 
+import gnu.trove.TLongArrayList;
 import gnu.trove.TLongByteHashMap;
 import gnu.trove.TLongHashSet;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
 import org.springframework.context.ApplicationContext;
@@ -37,11 +44,16 @@ import xc.mst.constants.Status;
 import xc.mst.dao.DataException;
 import xc.mst.dao.MetadataServiceDAO;
 import xc.mst.email.Emailer;
+import xc.mst.repo.CommitFeed;
+import xc.mst.repo.DefaultRepository;
 import xc.mst.repo.Repository;
 import xc.mst.repo.TestRepository;
 import xc.mst.utils.LogWriter;
 import xc.mst.utils.MSTConfiguration;
 import xc.mst.utils.TimingLogger;
+import xc.mst.utils.Util;
+import xc.mst.utils.metrics.Metrics;
+import xc.mst.utils.metrics.Timer;
 
 /**
  * A copy of the MST is designed to interface with one or more Metadata Services
@@ -59,10 +71,14 @@ public abstract class GenericMetadataService extends SolrMetadataService
 
     protected static Logger LOG = Logger.getLogger(Constants.LOGGER_PROCESSING);
 
+    // commits which wrote something: the repository's records plus the service's messages and statuses
+    protected static final Timer COMMIT_TIMER = Metrics.timer("service.commitIfNecessary");
+
     protected ApplicationContext applicationContext = null;
     protected MetadataServiceDAO metadataServiceDAO = null;
     protected List<ProcessingDirective> processingDirectives = null;
-    protected List<RecordMessage> messages2insert = new ArrayList<RecordMessage>();
+    // synchronized because thread safe services may add messages from several threads
+    protected List<RecordMessage> messages2insert = Collections.synchronizedList(new ArrayList<RecordMessage>());
     protected List<RecordMessage> messages2delete = new ArrayList<RecordMessage>();
     protected TLongHashSet messages2deleteByRecordId = new TLongHashSet();
     protected Emailer mailer = new Emailer();
@@ -72,6 +88,8 @@ public abstract class GenericMetadataService extends SolrMetadataService
     protected boolean preserveStatuses = true;
     protected TLongByteHashMap previousStatuses = new TLongByteHashMap();
     protected TLongByteHashMap tempPreviousStatuses = new TLongByteHashMap();
+    // the previous statuses of the batch being processed, 0 for none (see prefetchKnownData)
+    protected TLongByteHashMap batchPreviousStatuses = new TLongByteHashMap();
 
     protected static int LARGE_HARVEST_THRESHOLD_DEFAULT = 10000;
     protected int largeHarvestThreshold = LARGE_HARVEST_THRESHOLD_DEFAULT;
@@ -100,6 +118,9 @@ public abstract class GenericMetadataService extends SolrMetadataService
     
     protected boolean doPreProcess = false;
 
+    // only set while a thread safe service is processing (see isThreadSafe)
+    protected ExecutorService processPool = null;
+
     /**
      * A list of identifiers to add to the record currently being processed
      */
@@ -474,6 +495,7 @@ public abstract class GenericMetadataService extends SolrMetadataService
 
     protected boolean commitIfNecessary(boolean force, long processedRecordCount) {
         if (!isSolrIndexer()) {
+            long start = COMMIT_TIMER.start();
             if (getRepository().commitIfNecessary(force, processedRecordCount,
                     getMetadataServiceManager() == null ? null : getMetadataServiceManager().getIncomingRecordCounts(),
                     getMetadataServiceManager() == null ? null : getMetadataServiceManager().getOutgoingRecordCounts())) {
@@ -486,6 +508,10 @@ public abstract class GenericMetadataService extends SolrMetadataService
                 // the below change was recommended by Kyushu developers, GC issue 316
                 getRepositoryDAO().persistPreviousStatuses(getRepository().getName(), tempPreviousStatuses);
                 tempPreviousStatuses.clear();
+                if (!cacheSetup) {
+                    // they're in the db now
+                    previousStatuses.clear();
+                }
 
                 getMessageDAO().deleteMessagesByRecordId(getService().getId(),
                         messages2deleteByRecordId);
@@ -504,6 +530,7 @@ public abstract class GenericMetadataService extends SolrMetadataService
                     LOG.error("Exception occured while updating the service",
                             de);
                 }
+                COMMIT_TIMER.stop(start);
                 return true;
             }
         }
@@ -624,6 +651,15 @@ public abstract class GenericMetadataService extends SolrMetadataService
         sh.setHighestId(null); // reset harvest
         List<Record> records = getRecords(repo, sh, inputFormat, inputSet);
 
+        // set when this service follows the one upstream of it in a pipeline
+        CommitFeed.Follower follower = null;
+        if (getMetadataServiceManager() != null) {
+            follower = getMetadataServiceManager().getFollower();
+        }
+        if (follower != null && (records == null || records.size() == 0)) {
+            records = followRecords(follower, repo, sh, inputFormat, inputSet);
+        }
+
 //LOG.error("GenericMetadataService, processing repo "+ repo.getName()+" NOW. Actual RecordCount: " + records.size());
 
 
@@ -634,170 +670,102 @@ public abstract class GenericMetadataService extends SolrMetadataService
                     new RecordCounts(sh.getUntil(), RecordCounts.OUTGOING));
         }
 
-        previouslyPaused = false;
-        int getRecordLoops = 0;
-        atLeastOneRecordProcessed = false;
-        while (records != null && records.size() > 0 && !stopped) {
-            atLeastOneRecordProcessed = true;
-            if (paused) {
-                previouslyPaused = true;
-                running.release();
-                try {
-                    Thread.sleep(1000);
-                } catch (Throwable t) {
-                    throw new RuntimeException(t);
-                }
-                continue;
-            }
-            if (previouslyPaused) {
-                running.acquireUninterruptibly();
-                previouslyPaused = false;
-            }
-            if (++getRecordLoops % 100 == 0) {
-                // TODO here is the place to display performance!
-                // processedRecordCount is a sensible count to pass here as the number of records updated.
-                TimingLogger.reset(processedRecordCount);
-            }
-            //TODO here is the code to break out!!!!!
-            for (Record in : records) {
-            	//LOG.debug("processing record id=" + in.getId());            	
-            /*
-            for (int i=0; i<records.size();) {
-                Record in = customProcessQueue.pop();
-                if (in == null) {
-                    in = records.get(i);
-                    i++;
-                }
-                */
-                //START, intro stuff before processing
-
-
-                // TODO: currently the injected records here only contain ids.
-                // This is helpful enough if you simply want to overwrite the
-                // the existing record. Although I can't think of a reason
-                // why, someone might also want the xml with these injected
-                // records.
-                // We may want to supply an optional way of doing that.
-                in.setPreviousStatus(Record.NULL);
-                injectKnownData(in);
-                if (in.getMessages() != null) {
-                    for (RecordMessage rm : in.getMessages()) {
-                        if (rm.getServiceId() == getService().getId()) {
-                            messages2delete.add(rm.clone());
-                        }
-                    }
-                }
-                if (preserveStatuses) {
-                    if (!isSolrIndexer()) {
-                        previousStatuses.put(in.getId(), (byte) in.getStatus());
-                    }
-                    tempPreviousStatuses.put(in.getId(), (byte) in.getStatus());
+        int processThreads = config.getPropertyAsInt("service.processThreads", 1);
+        if (isThreadSafe() && processThreads > 1) {
+            LOG.info(getServiceName() + " is thread safe, processing records on " + processThreads + " threads");
+            processPool = Executors.newFixedThreadPool(processThreads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, getServiceName() + "-process");
+                    t.setDaemon(true);
+                    return t;
                 }
-                Map<Long, OutputRecord> origSuccessorMap = new HashMap<Long, OutputRecord>();
-                if (in.getSuccessors() != null && in.getSuccessors().size() > 0) {
-                    for (OutputRecord or : in.getSuccessors()) {
-                        origSuccessorMap.put(or.getId(), or.clone());
+            });
+        }
+
+        // the pool mustn't outlive the job, however it ends
+        try {
+            previouslyPaused = false;
+            int getRecordLoops = 0;
+            atLeastOneRecordProcessed = false;
+            while (records != null && records.size() > 0 && !stopped) {
+                atLeastOneRecordProcessed = true;
+                if (paused) {
+                    previouslyPaused = true;
+                    running.release();
+                    try {
+                        Thread.sleep(1000);
+                    } catch (Throwable t) {
+                        throw new RuntimeException(t);
                     }
+                    continue;
                 }
-                //END, intro stuff before processing
-
-                // START, real processing!
-                TimingLogger.start(getServiceName() + ".process");
-                List<OutputRecord> out = null;
-                boolean unexpectedError = false;
-                try {
-                    out = process(in);
-                } catch (Throwable t) {
-                    unexpectedError = true;
-                    LOG.error("error processing record w/ id: " + in.getId(), t);
+                if (previouslyPaused) {
+                    running.acquireUninterruptibly();
+                    previouslyPaused = false;
                 }
-                TimingLogger.stop(getServiceName() + ".process");
-                // END, real processing!
-
-
-                // START, post-processing record count handling!
-                if (!isSolrIndexer() && !isTestRepository()) {
-                    if (in.getType() != null) {
-                        getMetadataServiceManager().getIncomingRecordCounts()
-                                .incr(in.getType(), in.getStatus(),
-                                        in.getPreviousStatus());
-                    } else {
-                        getMetadataServiceManager().getIncomingRecordCounts()
-                                .incr(RecordCounts.OTHER, in.getStatus(),
-                                        in.getPreviousStatus());
-                    }
-                    getMetadataServiceManager().getIncomingRecordCounts().incr(
-                            null, in.getStatus(), in.getPreviousStatus());
+                if (++getRecordLoops % 100 == 0) {
+                    // TODO here is the place to display performance!
+                    // processedRecordCount is a sensible count to pass here as the number of records updated.
+                    TimingLogger.reset(processedRecordCount);
                 }
-
-                if (unexpectedError) {
-                    if (!isSolrIndexer() && !isTestRepository()) {
-                        if (in.getType() != null) {
-                            getMetadataServiceManager().getIncomingRecordCounts()
-                                    .incr(in.getType(),
-                                            RecordCounts.UNEXPECTED_ERROR);
-                        }
-                        getMetadataServiceManager().getIncomingRecordCounts().incr(
-                                null, RecordCounts.UNEXPECTED_ERROR);
-                    }
+                //TODO here is the code to break out!!!!!
+                prefetchKnownData(records);
+                if (processPool != null) {
+                    processInParallel(records, sh);
                 } else {
-                    processedRecordCount++;
-                    if (out != null) {
-                        // start processing the received OutputRecord(s)
-                        for (RecordIfc rout : out) {
-                            messages2deleteByRecordId.add(rout.getId());
-                            Record rout2 = (Record) rout;
-                            if (origSuccessorMap.containsKey(rout2.getId())) {
-                                rout2.setPreviousStatus(origSuccessorMap.get(
-                                        rout2.getId()).getStatus());
-                            }
-                            LOG.debug("rout2.getIndexedObjectType(): "
-                                    + rout2.getType() + " rout2.getStatus(): "
-                                    + rout2.getStatus()
-                                    + " rout2.getPreviousStatus(): "
-                                    + rout2.getPreviousStatus());
-               ///
-               ///LOG.info("rout id="+rout.getId()+" rout2.getIndexedObjectType(): "
-               //       + rout2.getType() + " rout2.getStatus(): "
-               //       + rout2.getStatus()
-               //      + " rout2.getPreviousStatus(): "
-               //+ rout2.getPreviousStatus());
-               ///
-                            if (!isTestRepository()) {
-                                // one last bit of record counting.
-                                incrementOutputRecordCounts(rout2);
-                            }
-                            // finally, actually process the received records.
-                            addPredecessor(in, rout2);
-                            rout2.setService(getService());
-                            if (rout2.getId() == -1) {
-                                getRepositoryDAO().injectId(rout2);
-                            }
-                            if (outputSet != null) {
-                                rout2.addSet(outputSet);
-                            }
-                            getRepository().addRecord(rout2);
+                    for (Record in : records) {
+                        //LOG.debug("processing record id=" + in.getId());
+                        //START, intro stuff before processing
+                        Map<Long, OutputRecord> origSuccessorMap = prepareInputRecord(in);
+                        //END, intro stuff before processing
+
+                        // START, real processing!
+                        TimingLogger.start(getServiceName() + ".process");
+                        List<OutputRecord> out = null;
+                        boolean unexpectedError = false;
+                        try {
+                            out = process(in);
+                        } catch (Throwable t) {
+                            unexpectedError = true;
+                            LOG.error("error processing record w/ id: " + in.getId(), t);
                         }
+                        TimingLogger.stop(getServiceName() + ".process");
+                        // END, real processing!
+
+                        handleOutputRecords(in, out, unexpectedError, origSuccessorMap);
+
+                        raiseHighestId(sh, in.getId());
+                        updateService(out, sh);
+
+                        // TODO not inserting errors on input record.
+                        // Update the error message on incoming record
+                        // repo.addRecord(in);
                     }
                 }
-                // END, post-processing record count handling!
+                //TODO end , code to break out!!!
 
-                sh.setHighestId(in.getId());
-                updateService(out, sh);
+                if (commitIfNecessary(false, processedRecordCount)) {
+                    getServiceDAO().persist(sh);
+                    waitForFollowers();
+                }
+                if (follower != null && sh.getHighestId() != null) {
+                    follower.processed(sh.getHighestId());
+                }
 
-                // TODO not inserting errors on input record.
-                // Update the error message on incoming record
-                // repo.addRecord(in);
+                // totalRecordCount was computed once up front; paging only needs the highest id
+                records = getRecords(repo, sh, inputFormat, inputSet);
+                if (follower != null && (records == null || records.size() == 0)) {
+                    records = followRecords(follower, repo, sh, inputFormat, inputSet);
+                }
             }
-            //TODO end , code to break out!!!
-
-            if (commitIfNecessary(false, processedRecordCount)) {
-                getServiceDAO().persist(sh);
+            if (follower != null) {
+                follower.stop();
+            }
+        } finally {
+            if (processPool != null) {
+                processPool.shutdown();
+                processPool = null;
             }
-
-            this.totalRecordCount = repo.getRecordCount(sh.getFrom(),
-                    sh.getUntil(), inputFormat, inputSet);
-            records = getRecords(repo, sh, inputFormat, inputSet);
         }
         // TODO not inserting errors on input record.
 
@@ -851,6 +819,270 @@ public abstract class GenericMetadataService extends SolrMetadataService
         setStatus(Status.NOT_RUNNING);
     }
 
+    /**
+     * Runs the process(InputRecord) calls of one batch on the processPool. Everything that
+     * touches the repository or the record counts (injectKnownData beforehand, and the
+     * predecessors, ids and addRecord calls afterward) still happens on this thread, in the
+     * same record id order as the single threaded loop.  The highest id is only advanced once
+     * the whole batch is done, so a batch interrupted part way through is processed again.
+     */
+    protected void processInParallel(List<Record> records, ServiceHarvest sh) {
+        List<Map<Long, OutputRecord>> origSuccessorMaps = new ArrayList<Map<Long, OutputRecord>>(records.size());
+        for (Record in : records) {
+            origSuccessorMaps.add(prepareInputRecord(in));
+        }
+
+        TimingLogger.start(getServiceName() + ".process");
+        List<Future<List<OutputRecord>>> futures = new ArrayList<Future<List<OutputRecord>>>(records.size());
+        for (final Record in : records) {
+            futures.add(processPool.submit(new Callable<List<OutputRecord>>() {
+                public List<OutputRecord> call() throws Exception {
+                    return process(in);
+                }
+            }));
+        }
+        List<List<OutputRecord>> outs = new ArrayList<List<OutputRecord>>(records.size());
+        List<Boolean> unexpectedErrors = new ArrayList<Boolean>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            List<OutputRecord> out = null;
+            boolean unexpectedError = false;
+            try {
+                out = futures.get(i).get();
+            } catch (ExecutionException ee) {
+                unexpectedError = true;
+                LOG.error("error processing record w/ id: " + records.get(i).getId(), ee.getCause());
+            } catch (InterruptedException ie) {
+                throw new RuntimeException(ie);
+            }
+            outs.add(out);
+            unexpectedErrors.add(unexpectedError);
+        }
+        TimingLogger.stop(getServiceName() + ".process");
+
+        for (int i = 0; i < records.size(); i++) {
+            handleOutputRecords(records.get(i), outs.get(i), unexpectedErrors.get(i), origSuccessorMaps.get(i));
+            updateService(outs.get(i), sh);
+        }
+        raiseHighestId(sh, records.get(records.size() - 1).getId());
+    }
+
+    // late records in a pipeline (see CommitFeed) come in below the highest id already processed
+    protected void raiseHighestId(ServiceHarvest sh, long id) {
+        if (sh.getHighestId() == null || id > sh.getHighestId()) {
+            sh.setHighestId(id);
+        }
+    }
+
+    /**
+     * Called when a service following the one upstream of it (see CommitFeed) has processed
+     * everything committed so far.  Waits for the next commit and extends the harvest's until
+     * date to take it in.  Records which are committed have an update date no later than now
+     * (see DefaultRepository.sleepUntilReady), so until can safely be moved up to now.
+     *
+     * @return the next records, or an empty list once the upstream service is done and all its
+     *         records have been processed
+     */
+    protected List<Record> followRecords(CommitFeed.Follower follower, Repository repo, ServiceHarvest sh,
+            Format inputFormat, Set inputSet) {
+        List<Record> records = new ArrayList<Record>();
+        try {
+            while (!stopped) {
+                if (paused) {
+                    running.release();
+                    while (paused && !stopped) {
+                        Thread.sleep(1000);
+                    }
+                    running.acquireUninterruptibly();
+                    continue;
+                }
+                boolean closed = follower.isClosed();
+                if (closed && repo instanceof DefaultRepository) {
+                    // the last commit is future dated
+                    ((DefaultRepository) repo).sleepUntilReady();
+                }
+                sh.setUntil(new Date());
+                records.addAll(getLateRecords(repo, follower.takeLateIds(), sh, inputFormat, inputSet));
+                List<Record> more = getRecords(repo, sh, inputFormat, inputSet);
+                if (more != null) {
+                    records.addAll(more);
+                }
+                if (records.size() > 0 || closed) {
+                    return records;
+                }
+                follower.awaitCommit(1000);
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+        return records;
+    }
+
+    /**
+     * @return the records with the given ids which this harvest has already paged past
+     */
+    protected List<Record> getLateRecords(Repository repo, long[] ids, ServiceHarvest sh,
+            Format inputFormat, Set inputSet) {
+        List<Record> records = new ArrayList<Record>();
+        if (sh.getHighestId() == null) {
+            return records;
+        }
+        Arrays.sort(ids);
+        int numLate = 0;
+        // paging will get to the rest
+        while (numLate < ids.length && ids[numLate] <= sh.getHighestId()) {
+            numLate++;
+        }
+        if (numLate == 0) {
+            return records;
+        }
+        // the same statuses getRecords pages through
+        char[] statuses = new char[] { Record.ACTIVE };
+        if (!Util.dateIsNull(sh.getFrom())) {
+            statuses = new char[] { Record.ACTIVE, Record.DELETED };
+        }
+        long[] lateIds = new long[numLate];
+        System.arraycopy(ids, 0, lateIds, 0, numLate);
+        return repo.getRecords(lateIds, inputFormat, inputSet, statuses);
+    }
+
+    // in a pipeline, don't get more than service.pipeline.maxLag commits ahead of the services following this one
+    protected void waitForFollowers() {
+        CommitFeed feed = CommitFeed.get(getRepository().getName());
+        try {
+            while (feed != null && !stopped && !paused && feed.isLagging()) {
+                feed.awaitFollowers(1000);
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+    }
+
+    /**
+     * Services which need to see all their input records before processing any of them (see
+     * preProcess) can't follow the service upstream of them in a pipeline.
+     */
+    public boolean doPreProcess() {
+        return doPreProcess;
+    }
+
+    /**
+     * The bookkeeping for an input record before it's processed.
+     *
+     * @return the input record's successors as they were before processing, keyed by id
+     */
+    protected Map<Long, OutputRecord> prepareInputRecord(Record in) {
+        // TODO: currently the injected records here only contain ids.
+        // This is helpful enough if you simply want to overwrite the
+        // the existing record. Although I can't think of a reason
+        // why, someone might also want the xml with these injected
+        // records.
+        // We may want to supply an optional way of doing that.
+        in.setPreviousStatus(Record.NULL);
+        injectKnownData(in);
+        if (in.getMessages() != null) {
+            for (RecordMessage rm : in.getMessages()) {
+                if (rm.getServiceId() == getService().getId()) {
+                    messages2delete.add(rm.clone());
+                }
+            }
+        }
+        if (preserveStatuses) {
+            if (!isSolrIndexer()) {
+                previousStatuses.put(in.getId(), (byte) in.getStatus());
+            }
+            tempPreviousStatuses.put(in.getId(), (byte) in.getStatus());
+        }
+        Map<Long, OutputRecord> origSuccessorMap = new HashMap<Long, OutputRecord>();
+        if (in.getSuccessors() != null && in.getSuccessors().size() > 0) {
+            for (OutputRecord or : in.getSuccessors()) {
+                origSuccessorMap.put(or.getId(), or.clone());
+            }
+        }
+        return origSuccessorMap;
+    }
+
+    /**
+     * The record counting for an input record after it's been processed and the adding of its
+     * output records to the repository.
+     */
+    protected void handleOutputRecords(Record in, List<OutputRecord> out, boolean unexpectedError,
+            Map<Long, OutputRecord> origSuccessorMap) {
+        // START, post-processing record count handling!
+        if (!isSolrIndexer() && !isTestRepository()) {
+            if (in.getType() != null) {
+                getMetadataServiceManager().getIncomingRecordCounts()
+                        .incr(in.getType(), in.getStatus(),
+                                in.getPreviousStatus());
+            } else {
+                getMetadataServiceManager().getIncomingRecordCounts()
+                        .incr(RecordCounts.OTHER, in.getStatus(),
+                                in.getPreviousStatus());
+            }
+            getMetadataServiceManager().getIncomingRecordCounts().incr(
+                    null, in.getStatus(), in.getPreviousStatus());
+        }
+
+        if (unexpectedError) {
+            if (!isSolrIndexer() && !isTestRepository()) {
+                if (in.getType() != null) {
+                    getMetadataServiceManager().getIncomingRecordCounts()
+                            .incr(in.getType(),
+                                    RecordCounts.UNEXPECTED_ERROR);
+                }
+                getMetadataServiceManager().getIncomingRecordCounts().incr(
+                        null, RecordCounts.UNEXPECTED_ERROR);
+            }
+        } else {
+            processedRecordCount++;
+            if (out != null) {
+                // start processing the received OutputRecord(s)
+                for (RecordIfc rout : out) {
+                    messages2deleteByRecordId.add(rout.getId());
+                    Record rout2 = (Record) rout;
+                    if (origSuccessorMap.containsKey(rout2.getId())) {
+                        rout2.setPreviousStatus(origSuccessorMap.get(
+                                rout2.getId()).getStatus());
+                    }
+                    LOG.debug("rout2.getIndexedObjectType(): "
+                            + rout2.getType() + " rout2.getStatus(): "
+                            + rout2.getStatus()
+                            + " rout2.getPreviousStatus(): "
+                            + rout2.getPreviousStatus());
+       ///
+       ///LOG.info("rout id="+rout.getId()+" rout2.getIndexedObjectType(): "
+       //       + rout2.getType() + " rout2.getStatus(): "
+       //       + rout2.getStatus()
+       //      + " rout2.getPreviousStatus(): "
+       //+ rout2.getPreviousStatus());
+       ///
+                    if (!isTestRepository()) {
+                        // one last bit of record counting.
+                        incrementOutputRecordCounts(rout2);
+                    }
+                    // finally, actually process the received records.
+                    addPredecessor(in, rout2);
+                    rout2.setService(getService());
+                    if (rout2.getId() == -1) {
+                        getRepositoryDAO().injectId(rout2);
+                    }
+                    if (outputSet != null) {
+                        rout2.addSet(outputSet);
+                    }
+                    getRepository().addRecord(rout2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Services whose process(InputRecord) can safely be called for several records at once
+     * (no per-record state kept in fields, shared caches synchronized) should override this
+     * to return true.  They are then processed on service.processThreads threads.
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     protected void incrementOutputRecordCounts(Record rout2) {
         //increment type's counts, i.e. 'bib' or 'unknown' if type is null.
         if (rout2.getType() != null) {
@@ -969,12 +1201,46 @@ public abstract class GenericMetadataService extends SolrMetadataService
         }
     }
 
+    /**
+     * Loads what injectKnownData needs for a batch of records up front, a query apiece rather
+     * than a query (or two) per record: the previous statuses (unless all of them are cached
+     * already) and the successor ids of the records that have been processed before.
+     */
+    protected void prefetchKnownData(List<Record> records) {
+        if (!preserveStatuses) {
+            return;
+        }
+        TimingLogger.start("prefetchKnownData");
+        batchPreviousStatuses.clear();
+        if (!cacheSetup) {
+            long[] ids = new long[records.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = records.get(i).getId();
+                batchPreviousStatuses.put(ids[i], (byte) 0);
+            }
+            getRepositoryDAO().populatePreviousStatuses(getRepository().getName(), ids, batchPreviousStatuses, true);
+        }
+        if (!isSolrIndexer()) {
+            TLongArrayList predIds = new TLongArrayList(records.size());
+            for (Record in : records) {
+                if (getPreviousStatus(in.getId()) != (char) 0) {
+                    predIds.add(in.getId());
+                }
+            }
+            getRepository().prefetchSuccessorIds(predIds.toNativeArray());
+        }
+        TimingLogger.stop("prefetchKnownData");
+    }
+
     protected char getPreviousStatus(Long recordId) {
     	char prevStatus = (char) previousStatuses.get(recordId);
     	if (cacheSetup) {
     		return prevStatus;
     	} else {
     		if (prevStatus != (char) 0) return prevStatus;
+    		if (batchPreviousStatuses.containsKey(recordId)) {
+    			return (char) batchPreviousStatuses.get(recordId);
+    		}
     		return getRepositoryDAO().getPreviousStatus(getRepository().getName(), recordId, true);
     	}
 
@@ -4,4 +4,9 @@ public interface MetadataServiceExtras {
 
     public void runTests();
 
+    /**
+     * @return true if process(InputRecord) may be called for several records at the same time
+     */
+    public boolean isThreadSafe();
+
 }
@@ -13,6 +13,7 @@ import java.util.List;
 import xc.mst.bo.provider.Format;
 import xc.mst.bo.provider.Set;
 import xc.mst.constants.Status;
+import xc.mst.repo.CommitFeed;
 import xc.mst.repo.Repository;
 import xc.mst.scheduling.WorkerThread;
 
@@ -23,6 +24,8 @@ public class MetadataServiceManager extends WorkerThread {
     protected List<Format> triggeringFormats = null;
     protected List<Set> triggeringSets = null;
     protected Set outputSet = null;
+    // set when the service follows the one upstream of it in a pipeline
+    protected CommitFeed.Follower follower = null;
 
     public Set getOutputSet() {
         return outputSet;
@@ -48,6 +51,14 @@ public class MetadataServiceManager extends WorkerThread {
         this.incomingRepository = incomingRepository;
     }
 
+    public CommitFeed.Follower getFollower() {
+        return follower;
+    }
+
+    public void setFollower(CommitFeed.Follower follower) {
+        this.follower = follower;
+    }
+
     public void cancelInner() {
         metadataService.cancel();
         super.cancelInner();
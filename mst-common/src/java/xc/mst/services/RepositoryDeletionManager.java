@@ -8,14 +8,13 @@
  */
 package xc.mst.services;
 
+import gnu.trove.TLongArrayList;
+
 import java.util.Date;
-import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import xc.mst.bo.harvest.HarvestSchedule;
-import xc.mst.bo.provider.Set;
-import xc.mst.bo.record.Record;
 import xc.mst.bo.record.RecordCounts;
 import xc.mst.constants.Status;
 import xc.mst.dao.DataException;
@@ -23,7 +22,6 @@ import xc.mst.manager.harvest.ScheduleService;
 import xc.mst.repo.Repository;
 import xc.mst.scheduling.WorkerThread;
 import xc.mst.utils.MSTConfiguration;
-import xc.mst.utils.TimingLogger;
 
 /**
  * @author JohnB
@@ -32,6 +30,13 @@ import xc.mst.utils.TimingLogger;
 public class RepositoryDeletionManager extends WorkerThread {
 
     private final static Logger LOG = Logger.getLogger(RepositoryDeletionManager.class);
+
+    /**
+     * The persistent property of the incoming repository holding the highest record_id this
+     * deletion has got through, so an interrupted one carries on where it stopped.
+     */
+    public final static String DELETED_THROUGH = "deletion.deletedThrough";
+
     private HarvestSchedule m_harvestSchedule = null;
 
     protected int m_processedRecordCount = 0;
@@ -63,43 +68,37 @@ public class RepositoryDeletionManager extends WorkerThread {
         return "RepositoryDeletionManager-repos=" + m_incomingRepository;
     }
 
-    private List<Record> getMoreRecords(Repository r, long id) {
-        return r.getRecords(new Date(0), new Date(), id, null, null);
-    }
-
+    /**
+     * Marks the records deleted a range of db.deleteAtOnce record ids at a time (see
+     * Repository.deleteRecords).  The highest id done is persisted after each range.
+     */
     public boolean doSomeWork() {
         LOG.debug("**** RepositoryDeletionManager.doSomeWork() begin method " + getName());
         if (m_incomingRepository != null) {
-            long id = 0;
-            long numRecordsProcess = 0;
-            List<Record> records = getMoreRecords(m_incomingRepository, id);
-            while (records != null && records.size() > 0 && this.status != Status.CANCELED) {
-                for (Record r : records) {
-                    if (r.getSets() != null) {
-                        for (Set s : r.getSets()) {
-                            this.incomingRecordCounts.incr(type, Record.DELETED, r.getStatus());
-                        }
-                    }
-                    this.incomingRecordCounts.incr(null, Record.DELETED, r.getStatus());
-                    r.setStatus(Record.DELETED);
-                    r.setUpdatedAt(null);
-                    m_incomingRepository.addRecord(r);
-                    m_incomingRepository.commitIfNecessary(false, numRecordsProcess++, this.incomingRecordCounts, null);
-                    m_processedRecordCount++;
-                    id = r.getId();
-                }
-                // based on the local test result that the records come in batches of 1000, if this does not remain true
-                // may not ever get TimingLogger data
-                if (id % 5000 == 0) {
-                    TimingLogger.reset();
+            int recordsAtOnce = MSTConfiguration.getInstance().getPropertyAsInt("db.deleteAtOnce", 10000);
+            long id = m_incomingRepository.getPersistentPropertyAsLong(DELETED_THROUGH, 0);
+            if (id > 0) {
+                LOG.info(getName() + " carrying on from record_id " + id);
+            }
+            boolean finished = false;
+            TLongArrayList deletedIds = new TLongArrayList();
+            while (this.status != Status.CANCELED) {
+                deletedIds.clear();
+                long lastId = m_incomingRepository.deleteRecords(null, id, recordsAtOnce, this.incomingRecordCounts, deletedIds);
+                if (lastId < 0) {
+                    finished = true;
+                    break;
                 }
-                records = getMoreRecords(m_incomingRepository, id);
-
+                m_processedRecordCount += deletedIds.size();
+                id = lastId;
+                m_incomingRepository.setPersistentProperty(DELETED_THROUGH, id);
             }
-            m_incomingRepository.commitIfNecessary(true, 0, this.incomingRecordCounts, null);
 
-            // and now, since harvest schedule doesn't seem to get auto-deleted, proceed to delete it...
-            deleteHarvestSchedule();
+            if (finished) {
+                m_incomingRepository.setPersistentProperty(DELETED_THROUGH, "");
+                // and now, since harvest schedule doesn't seem to get auto-deleted, proceed to delete it...
+                deleteHarvestSchedule();
+            }
 
             LOG.debug("RepositoryDeletionManager.doSomeWork() end of method processed " + m_processedRecordCount + " records. lastID=" + id);
         } else {
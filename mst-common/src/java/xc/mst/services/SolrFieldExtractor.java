@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.services;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.common.SolrInputDocument;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.xpath.XPath;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+import xc.mst.utils.XmlHelper;
+
+/**
+ * Fills in the xpath based fields of a SolrInputDocument with a single SAX pass over a record's
+ * xml.  The fields are registered (and their xpaths compiled) once, up front.
+ *
+ * The xpaths the indexer uses are all of the forms
+ * <ul>
+ * <li>//p:name</li>
+ * <li>//p:name[@attr='value']</li>
+ * <li>//p:name[@attr='value']/p:name[@attr='value']</li>
+ * </ul>
+ * and those are matched while the record streams by.  Prefixes are resolved the same way
+ * JDOM's XPath resolves them: the marc prefix is always known, any other prefix has to be
+ * declared on the record's root element.  An xpath of any other form is still supported, but
+ * it's evaluated with JDOM against a document built (once) for the record.
+ */
+public class SolrFieldExtractor {
+
+    private static final Logger LOG = Logger.getLogger(SolrFieldExtractor.class);
+
+    protected static final Namespace MARC_NAMESPACE = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    protected static final String STEP_REGEX = "([\\w\\-]+):([\\w\\-]+)(?:\\[@([\\w\\-]+)='([^']*)'\\])?";
+    protected static final Pattern SIMPLE_XPATH = Pattern.compile("//" + STEP_REGEX + "(?:/" + STEP_REGEX + ")?");
+
+    protected static class Step {
+        protected String prefix = null;
+        protected String localName = null;
+        protected String attrName = null;
+        protected String attrValue = null;
+
+        protected Step(String prefix, String localName, String attrName, String attrValue) {
+            this.prefix = prefix;
+            this.localName = localName;
+            this.attrName = attrName;
+            this.attrValue = attrValue;
+        }
+
+        protected boolean matches(String uri, String localName, Attributes atts, Map<String, String> prefixes) {
+            if (!this.localName.equals(localName)) {
+                return false;
+            }
+            String stepUri = prefixes.get(prefix);
+            if (stepUri == null || !stepUri.equals(uri)) {
+                return false;
+            }
+            return attrName == null || attrValue.equals(atts.getValue("", attrName));
+        }
+    }
+
+    protected static class Field {
+        protected String xpathStr = null;
+        protected List<String> keys = null;
+        protected boolean repeats = false;
+        protected boolean strip = false;
+
+        // set for the simple forms
+        protected Step step = null;
+        protected Step childStep = null;
+
+        // set for everything else
+        protected XPath xpath = null;
+    }
+
+    protected List<Field> fields = new ArrayList<Field>();
+    protected boolean needsDocument = false;
+
+    protected static ThreadLocal<XMLReader> xmlReader = new ThreadLocal<XMLReader>() {
+        protected XMLReader initialValue() {
+            try {
+                return XMLReaderFactory.createXMLReader();
+            } catch (SAXException se) {
+                throw new RuntimeException(se);
+            }
+        }
+    };
+
+    public void addField(String xpathStr, List<String> keys, boolean repeats) {
+        addField(xpathStr, keys, repeats, false);
+    }
+
+    /**
+     * @param strip
+     *            if true, everything but the digits are removed from the value and the field is
+     *            only added if what's left is a number
+     */
+    public void addField(String xpathStr, List<String> keys, boolean repeats, boolean strip) {
+        Field f = new Field();
+        f.xpathStr = xpathStr;
+        f.keys = keys;
+        f.repeats = repeats;
+        f.strip = strip;
+        Matcher m = SIMPLE_XPATH.matcher(xpathStr);
+        if (m.matches()) {
+            f.step = new Step(m.group(1), m.group(2), m.group(3), m.group(4));
+            if (m.group(6) != null) {
+                f.childStep = new Step(m.group(5), m.group(6), m.group(7), m.group(8));
+            }
+        } else {
+            try {
+                f.xpath = XPath.newInstance(xpathStr);
+                f.xpath.addNamespace(MARC_NAMESPACE);
+            } catch (Throwable t) {
+                LOG.error("An error occurred compiling xpath " + xpathStr, t);
+                return;
+            }
+            needsDocument = true;
+        }
+        fields.add(f);
+    }
+
+    /**
+     * @return the xpaths of the registered fields in registration order
+     */
+    public List<String> getXPaths() {
+        List<String> xpaths = new ArrayList<String>(fields.size());
+        for (Field f : fields) {
+            xpaths.add(f.xpathStr);
+        }
+        return xpaths;
+    }
+
+    /**
+     * Adds the values of all the registered fields found in xml to doc.  If the xml can't be
+     * parsed, none of them are added.
+     */
+    public void addFields(String xml, SolrInputDocument doc) {
+        if (StringUtils.isEmpty(xml)) {
+            return;
+        }
+        List<List<String>> values = extract(xml);
+        if (values == null) {
+            return;
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            Field f = fields.get(i);
+            List<String> fieldValues = values.get(i);
+            if (fieldValues == null || fieldValues.size() == 0) {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("The " + f.xpathStr + " field did not exist in the record.");
+                continue;
+            }
+            if (!f.repeats) {
+                fieldValues = fieldValues.subList(0, 1);
+            }
+            for (String value : fieldValues) {
+                for (String key : f.keys) {
+                    if (f.strip) {
+                        String stripped = value.replaceAll("[^\\d]", "");
+                        try {
+                            Long.parseLong(stripped);
+                            doc.addField(key, stripped);
+                        } catch (NumberFormatException e) {
+                            LOG.error("** Problem with stripped string, not numeric, key=" + key + " all_data=" + value + " stripped=" + stripped);
+                        }
+                    } else {
+                        doc.addField(key, value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the values of each registered field in registration order (values in document
+     *         order), or null if the xml couldn't be parsed
+     */
+    public List<List<String>> extract(String xml) {
+        Handler handler = new Handler();
+        try {
+            XMLReader reader = xmlReader.get();
+            reader.setContentHandler(handler);
+            reader.parse(new InputSource(new StringReader(xml)));
+        } catch (Throwable t) {
+            LOG.debug("", t);
+            return null;
+        }
+        List<List<String>> values = new ArrayList<List<String>>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            List<String> fieldValues = new ArrayList<String>(handler.values[i].size());
+            for (StringBuilder sb : handler.values[i]) {
+                fieldValues.add(sb.toString());
+            }
+            values.add(fieldValues);
+        }
+        if (needsDocument) {
+            org.jdom.Document jdomDoc = new XmlHelper().getJDomDocument(xml);
+            for (int i = 0; i < fields.size(); i++) {
+                Field f = fields.get(i);
+                if (f.xpath != null && jdomDoc != null) {
+                    try {
+                        for (Object o : f.xpath.selectNodes(jdomDoc)) {
+                            if (o instanceof Element) {
+                                values.get(i).add(((Element) o).getText());
+                            }
+                        }
+                    } catch (Throwable t) {
+                        LOG.debug("", t);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    protected class Handler extends DefaultHandler {
+        protected Map<String, String> prefixes = new HashMap<String, String>();
+        protected int depth = 0;
+
+        @SuppressWarnings("unchecked")
+        protected List<StringBuilder>[] values = new List[fields.size()];
+
+        // for each open element: which fields' first step it matched and the builder
+        // collecting its text (null if no field selected it)
+        protected List<boolean[]> stepMatches = new ArrayList<boolean[]>();
+        protected List<StringBuilder> texts = new ArrayList<StringBuilder>();
+
+        protected Handler() {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new ArrayList<StringBuilder>();
+            }
+            prefixes.put(MARC_NAMESPACE.getPrefix(), MARC_NAMESPACE.getURI());
+        }
+
+        public void startPrefixMapping(String prefix, String uri) {
+            if (depth == 0 && !prefixes.containsKey(prefix)) {
+                prefixes.put(prefix, uri);
+            }
+        }
+
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            boolean[] parentMatches = depth == 0 ? null : stepMatches.get(depth - 1);
+            boolean[] matches = null;
+            StringBuilder text = null;
+            for (int i = 0; i < fields.size(); i++) {
+                Field f = fields.get(i);
+                if (f.step == null) {
+                    continue;
+                }
+                boolean selected = false;
+                if (f.step.matches(uri, localName, atts, prefixes)) {
+                    if (matches == null) {
+                        matches = new boolean[fields.size()];
+                    }
+                    matches[i] = true;
+                    selected = f.childStep == null;
+                }
+                if (f.childStep != null && parentMatches != null && parentMatches[i] &&
+                        f.childStep.matches(uri, localName, atts, prefixes)) {
+                    selected = true;
+                }
+                if (selected) {
+                    if (text == null) {
+                        text = new StringBuilder();
+                    }
+                    values[i].add(text);
+                }
+            }
+            stepMatches.add(matches);
+            texts.add(text);
+            depth++;
+        }
+
+        public void endElement(String uri, String localName, String qName) {
+            depth--;
+            stepMatches.remove(depth);
+            texts.remove(depth);
+        }
+
+        public void characters(char[] ch, int start, int length) {
+            if (depth > 0) {
+                StringBuilder text = texts.get(depth - 1);
+                if (text != null) {
+                    text.append(ch, start, length);
+                }
+            }
+        }
+    }
+
+}
@@ -8,18 +8,14 @@
  */
 package xc.mst.services;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.common.SolrInputDocument;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.Namespace;
-import org.jdom.xpath.XPath;
 
 import xc.mst.bo.provider.Format;
 import xc.mst.bo.provider.Set;
@@ -33,19 +29,29 @@ import xc.mst.repo.DefaultRepository;
 import xc.mst.repo.Repository;
 import xc.mst.utils.MSTConfiguration;
 import xc.mst.utils.TimingLogger;
-import xc.mst.utils.XmlHelper;
 import xc.mst.utils.index.SolrIndexManager;
+import xc.mst.utils.metrics.Metrics;
+import xc.mst.utils.metrics.Timer;
 
 public class SolrIndexService extends GenericMetadataService {
 
     private static final Logger LOG = Logger.getLogger(SolrIndexService.class);
+
+    protected static final Timer STATIC_FIELDS_TIMER = Metrics.timer("solr.process.staticFields");
+    protected static final Timer DYNAMIC_FIELDS_TIMER = Metrics.timer("solr.process.dynamicFields");
+    protected static final Timer ADD_DOC_TIMER = Metrics.timer("solr.process.addDoc");
+    protected static final Timer COMMIT_TIMER = Metrics.timer("solr.commitIndex");
     protected int loops = 1;
 
-    Repository incomingRepository = null;
-    protected int recordsProcessedSinceCommit;
+    protected Repository incomingRepository = null;
+    protected AtomicInteger recordsProcessedSinceCommit = new AtomicInteger();
 
     protected String name4progressBar = null;
 
+    // keyed by record type
+    protected static Map<String, SolrFieldExtractor> xcFieldsByType = new HashMap<String, SolrFieldExtractor>();
+    protected static Map<String, SolrFieldExtractor> marcFieldsByType = new HashMap<String, SolrFieldExtractor>();
+
     private static final String id_identifier_key =  "id_identifier_key";
     private static final String  xc_record_id_w =  "xc_record_id_w";
     private static final String  record_id_l = "record_id_l";
@@ -145,6 +151,88 @@ public class SolrIndexService extends GenericMetadataService {
         registerId(" - marc:datafield 014$a",  id_014_key);
     }
 
+    /**
+     * The xpath based fields indexed for each type of xc and marc21 record.  The xpaths are
+     * compiled once here and each record is then parsed only once, however many fields it has.
+     */
+    static {
+        SolrFieldExtractor work = new SolrFieldExtractor();
+        work.addField("//rdvocab:titleOfWork", Arrays.asList(id_title_key, rdvocab_titleOfWork_key), false);
+        work.addField("//xc:creator", Arrays.asList(id_author_key, xc_creator_key), true);
+        work.addField("//rdarole:author", Arrays.asList(id_author_key, xc_rdarole_author_key), true);
+        work.addField("//rdarole:compiler", Arrays.asList(id_author_key, xc_rdarole_compiler_key), true);
+        work.addField("//rdarole:composer", Arrays.asList(id_author_key, xc_rdarole_composer_key), true);
+        work.addField("//rdarole:speaker", Arrays.asList(id_author_key, xc_rdarole_speaker_key), true);
+        work.addField("//dcterms:creator", Arrays.asList(id_author_key, dcterms_creator_key), true);
+        work.addField("//rdarole:director", Arrays.asList(id_author_key, xc_rdarole_director_key), true);
+        work.addField("//rdarole:producer", Arrays.asList(id_author_key, xc_rdarole_producer_key), true);
+        xcFieldsByType.put("w", work);
+
+        SolrFieldExtractor expression = new SolrFieldExtractor();
+        expression.addField("//xc:workExpressed", Arrays.asList(id_uplink_key, id_xc_workExpressed_l), true, true);
+        expression.addField("//xc:titleOfExpression", Arrays.asList(id_title_key, xc_titleOfExpression_key), false);
+        expression.addField("//xc:contributor", Arrays.asList(id_author_key, xc_contributor_key), true);
+        expression.addField("//dcterms:contributor", Arrays.asList(id_author_key, dcterms_contributor_key), true);
+        expression.addField("//rdarole:director", Arrays.asList(id_author_key, xc_rdarole_director_key), true);
+        expression.addField("//rdarole:editor", Arrays.asList(id_author_key, xc_rdarole_editor_key), true);
+        expression.addField("//rdarole:illustrator", Arrays.asList(id_author_key, xc_rdarole_illustrator_key), true);
+        expression.addField("//rdarole:performer", Arrays.asList(id_author_key, xc_rdarole_performer_key), true);
+        expression.addField("//rdarole:producer", Arrays.asList(id_author_key, xc_rdarole_producer_key), true);
+        expression.addField("//rdarole:translator", Arrays.asList(id_author_key, xc_rdarole_translator_key), true);
+        xcFieldsByType.put("e", expression);
+
+        SolrFieldExtractor manifestation = new SolrFieldExtractor();
+        manifestation.addField("//xc:expressionManifested", Arrays.asList(id_uplink_key, id_xc_expressionManifested_l), true, true);
+        manifestation.addField("//dcterms:title", Arrays.asList(id_title_key, dcterms_title_key), false);
+        manifestation.addField("//dcterms:identifier", Arrays.asList(id_resIdent_key, id_manDCTermsIdent_key), false);
+        // this produces some mixed values, could strip it but for now, just accept text.  require exact match for now.
+        manifestation.addField("//xc:recordID", Arrays.asList(id_identifier_key, xc_record_id_w), true);
+        xcFieldsByType.put("m", manifestation);
+
+        SolrFieldExtractor holdings = new SolrFieldExtractor();
+        holdings.addField("//xc:manifestationHeld", Arrays.asList(id_uplink_key, id_xc_manifestationHeld_l), true, true);
+        holdings.addField("//xc:callNumber", Arrays.asList(id_callnum_key, xc_callnum_key), false);
+        holdings.addField("//dcterms:identifier", Arrays.asList(id_resIdent_key, id_holdDCTermsIdent_key), false);
+        xcFieldsByType.put("h", holdings);
+
+        SolrFieldExtractor marcBib = new SolrFieldExtractor();
+        marcBib.addField("//marc:controlfield[@tag='001']", Arrays.asList(id_identifier_key, id_001bib_key), false);
+        marcBib.addField("//marc:datafield[@tag='035']/marc:subfield[@code='a']", Arrays.asList(id_identifier_key, id_035bib_key), true);
+        marcBib.addField("//marc:datafield[@tag='245']/marc:subfield[@code='a']", Arrays.asList(id_title_key, id_245_key), false);
+        marcBib.addField("//marc:datafield[@tag='245']/marc:subfield[@code='b']", Arrays.asList(id_title_key, id_245_key), false);
+        marcBib.addField("//marc:datafield[@tag='100']/marc:subfield[@code='a']", Arrays.asList(id_author_key, id_100a_key), false);
+        marcBib.addField("//marc:datafield[@tag='110']/marc:subfield[@code='a']", Arrays.asList(id_author_key, id_110a_key), false);
+        marcBib.addField("//marc:datafield[@tag='111']/marc:subfield[@code='a']", Arrays.asList(id_author_key, id_111a_key), false);
+        marcBib.addField("//marc:datafield[@tag='700']/marc:subfield[@code='a']", Arrays.asList(id_author_key, id_700a_key), true);
+        marcBib.addField("//marc:datafield[@tag='710']/marc:subfield[@code='a']", Arrays.asList(id_author_key, id_710a_key), true);
+        marcBib.addField("//marc:datafield[@tag='711']/marc:subfield[@code='a']", Arrays.asList(id_author_key, id_711a_key), false);
+        marcBib.addField("//marc:datafield[@tag='953']/marc:subfield[@code='h']", Arrays.asList(id_callnum_key, id_953h_key), true);
+        marcFieldsByType.put("b", marcBib);
+
+        // get identifiers that could be present only in a holdings marc21 record
+        SolrFieldExtractor marcHoldings = new SolrFieldExtractor();
+        marcHoldings.addField("//marc:controlfield[@tag='001']", Arrays.asList(id_identifier_key, id_001hold_key), false);
+        marcHoldings.addField("//marc:datafield[@tag='014']/marc:subfield[@code='a']", Arrays.asList(id_uplink_key, id_014_key), true);
+        marcHoldings.addField("//marc:controlfield[@tag='004']", Arrays.asList(id_uplink_key, id_004_key), false);
+        marcHoldings.addField("//marc:datafield[@tag='852']/marc:subfield[@code='h']", Arrays.asList(id_callnum_key, id_852h_key), false);
+        marcHoldings.addField("//marc:datafield[@tag='852']/marc:subfield[@code='i']", Arrays.asList(id_callnum_key, id_852i_key), false);
+        marcFieldsByType.put("h", marcHoldings);
+    }
+
+    /**
+     * @return the fields indexed for xc records of the given type (w, e, m or h)
+     */
+    public static SolrFieldExtractor getXcFields(String type) {
+        return xcFieldsByType.get(type);
+    }
+
+    /**
+     * @return the fields indexed for marc21 records of the given type (b or h)
+     */
+    public static SolrFieldExtractor getMarcFields(String type) {
+        return marcFieldsByType.get(type);
+    }
+
     public String getName4progressBar() {
         return name4progressBar;
     }
@@ -166,13 +254,13 @@ public class SolrIndexService extends GenericMetadataService {
 
     @Override
     protected boolean commitIfNecessary(boolean force, long processedRecords) {
-        if (force || this.recordsProcessedSinceCommit >=
+        if (force || this.recordsProcessedSinceCommit.get() >=
                 MSTConfiguration.getInstance().getPropertyAsInt("solr.records2commitAtOnce", 10000)) {
             try {
-                TimingLogger.start("commitIndex");
+                long start = COMMIT_TIMER.start();
                 getSolrIndexManager().commitIndex();
-                TimingLogger.stop("commitIndex");
-                recordsProcessedSinceCommit=0;
+                COMMIT_TIMER.stop(start);
+                recordsProcessedSinceCommit.set(0);
                 /***
                  * We no longer optimize the SOLR index automatically.  It's a rather expensive operation
                  * which should instead be performed as a stand-alone (cron?) administrative process
@@ -200,8 +288,17 @@ public class SolrIndexService extends GenericMetadataService {
         }
     }
 
+    /**
+     * process only builds a document from the record and its static fields, so documents can
+     * be built for several records at once (service.processThreads).
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     public List<OutputRecord> process(InputRecord ri) {
-        recordsProcessedSinceCommit++;
+        recordsProcessedSinceCommit.incrementAndGet();
         this.name4progressBar = "indexing "+incomingRepository.getName();
 
         /*
@@ -211,13 +308,13 @@ public class SolrIndexService extends GenericMetadataService {
             TimingLogger.stop("deleteByQuery");
         } else {
         */
-        TimingLogger.add(incomingRepository.getName(), 0);
         Record r;
         SolrInputDocument doc;
+        long staticStart = 0;
         try {
             r = (Record)ri;
 
-            TimingLogger.start("SolrIndexService.process add static fields");
+            staticStart = STATIC_FIELDS_TIMER.start();
 
             LOG.debug("indexing record.getId(): "+r.getId());
             if (r.getId() % 1000 == 0) {
@@ -269,13 +366,14 @@ public class SolrIndexService extends GenericMetadataService {
             LOG.debug("", e1);
             return null;
         }
-        TimingLogger.stop("SolrIndexService.process add static fields");
+        STATIC_FIELDS_TIMER.stop(staticStart);
 
         // type does not have to be defined, but for our purposes what else can we use to differentiate record types/patterns?
         // TODO get the format names out of the config file.
         //
         // IF we do not know the format here, will just have to do the blind xpath search.   BUT if we do know the format here,
         // we can save time.
+        long dynamicStart = DYNAMIC_FIELDS_TIMER.start();
         try {
             final Format marc21 = getFormatService().getFormatByName("marc21");
             final Format xc = getFormatService().getFormatByName("xc");
@@ -291,100 +389,12 @@ public class SolrIndexService extends GenericMetadataService {
             //}
             // note this one is special, it is always added, it is not parsed out of the record's xml, so do not have it come out of
             //   the config file?
-            TimingLogger.start("SolrIndexService.process add dynamic fields");
             doc.addField("id_identifier_key", r.getId());
             doc.addField("record_id_l", r.getId());
 
             if (format.equals(xc)) {
                 if (type != null) {
-                    if (type.equals("w")) {
-                        addFieldToIndex(ri, doc, "//rdvocab:titleOfWork",
-                                Collections.unmodifiableList(Arrays.asList(id_title_key, rdvocab_titleOfWork_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//xc:creator",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_creator_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:author",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_author_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:compiler",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_compiler_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:composer",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_composer_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:speaker",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_speaker_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//dcterms:creator",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, dcterms_creator_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:director",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_director_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:producer",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key,xc_rdarole_producer_key)),
-                                true);
-                    }
-                    if (type.equals("e")) {
-                        addFieldToIndex(ri, doc, "//xc:workExpressed",
-                                Collections.unmodifiableList(Arrays.asList(id_uplink_key, id_xc_workExpressed_l)),
-                                true, true);
-
-                        addFieldToIndex(ri, doc, "//xc:titleOfExpression",
-                                Collections.unmodifiableList(Arrays.asList(id_title_key, xc_titleOfExpression_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//xc:contributor",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_contributor_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//dcterms:contributor",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, dcterms_contributor_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:director",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_director_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:editor",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_editor_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:illustrator",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_illustrator_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:performer",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_performer_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:producer",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_producer_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//rdarole:translator",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, xc_rdarole_translator_key)),
-                                true);
-                    }
-                    if (type.equals("m")) {
-                        addFieldToIndex(ri, doc, "//xc:expressionManifested",
-                                Collections.unmodifiableList(Arrays.asList(id_uplink_key, id_xc_expressionManifested_l)),
-                                true, true);
-                        addFieldToIndex(ri, doc, "//dcterms:title",
-                                Collections.unmodifiableList(Arrays.asList(id_title_key, dcterms_title_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//dcterms:identifier",
-                                Collections.unmodifiableList(Arrays.asList(id_resIdent_key, id_manDCTermsIdent_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//xc:recordID",
-                                // this produces some mixed values, could strip it but for now, just accept text.  require exact match for now.
-                                Collections.unmodifiableList(Arrays.asList(id_identifier_key, xc_record_id_w)),
-                                true);
-                    }
-                    if (type.equals("h")) {
-                        addFieldToIndex(ri, doc, "//xc:manifestationHeld",
-                                Collections.unmodifiableList(Arrays.asList(id_uplink_key, id_xc_manifestationHeld_l)),
-                                true, true);
-                        addFieldToIndex(ri, doc, "//xc:callNumber",
-                                Collections.unmodifiableList(Arrays.asList(id_callnum_key, xc_callnum_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//dcterms:identifier",
-                                Collections.unmodifiableList(Arrays.asList(id_resIdent_key, id_holdDCTermsIdent_key)),
-                                false);
-                    }
+                    addFieldsToIndex(ri, doc, xcFieldsByType.get(type));
                 }
             }
             //else if (format.equals(dc)) {
@@ -394,62 +404,9 @@ public class SolrIndexService extends GenericMetadataService {
                 //   001's are present in any, but want to differentiate them.
 
                 if (type != null) {
-                    // get identifiers that could be present only in a bib marc21 record
-                    if (type.equals("b")) {
-                        LOG.debug("*** SolrIndexService, found a Marc, type=" +type);
-                        addFieldToIndex(ri, doc, "//marc:controlfield[@tag='001']",
-                                Collections.unmodifiableList(Arrays.asList(id_identifier_key, id_001bib_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='035']/marc:subfield[@code='a']",
-                                Collections.unmodifiableList(Arrays.asList(id_identifier_key, id_035bib_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='245']/marc:subfield[@code='a']",
-                                Collections.unmodifiableList(Arrays.asList(id_title_key, id_245_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='245']/marc:subfield[@code='b']",
-                                Collections.unmodifiableList(Arrays.asList(id_title_key, id_245_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='100']/marc:subfield[@code='a']",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, id_100a_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='110']/marc:subfield[@code='a']",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, id_110a_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='111']/marc:subfield[@code='a']",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, id_111a_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='700']/marc:subfield[@code='a']",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, id_700a_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='710']/marc:subfield[@code='a']",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, id_710a_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='711']/marc:subfield[@code='a']",
-                                Collections.unmodifiableList(Arrays.asList(id_author_key, id_711a_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='953']/marc:subfield[@code='h']",
-                                Collections.unmodifiableList(Arrays.asList(id_callnum_key,id_953h_key)),
-                                true);
-                    }
-                    // get identifiers that could be present only in a holdings marc21 record
-                    else if (type.equals("h")) {
-                        LOG.debug("*** SolrIndexService, found a Marc, type=" +type);
-                        addFieldToIndex(ri, doc, "//marc:controlfield[@tag='001']",
-                                Collections.unmodifiableList(Arrays.asList(id_identifier_key, id_001hold_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='014']/marc:subfield[@code='a']",
-                                Collections.unmodifiableList(Arrays.asList(id_uplink_key,id_014_key)),
-                                true);
-                        addFieldToIndex(ri, doc, "//marc:controlfield[@tag='004']",
-                                Collections.unmodifiableList(Arrays.asList(id_uplink_key,id_004_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='852']/marc:subfield[@code='h']",
-                                Collections.unmodifiableList(Arrays.asList(id_callnum_key,id_852h_key)),
-                                false);
-                        addFieldToIndex(ri, doc, "//marc:datafield[@tag='852']/marc:subfield[@code='i']",
-                                Collections.unmodifiableList(Arrays.asList(id_callnum_key,id_852i_key)),
-                                false);
-                    }
+                    // get identifiers that could be present only in a bib or only in a holdings marc21 record
+                    LOG.debug("*** SolrIndexService, found a Marc, type=" +type);
+                    addFieldsToIndex(ri, doc, marcFieldsByType.get(type));
                 }
                 else {
                     try {
@@ -457,71 +414,15 @@ public class SolrIndexService extends GenericMetadataService {
                         ri.setMode(Record.STRING_MODE);
                         SaxMarcXmlRecord originalRecord = new SaxMarcXmlRecord(ri.getOaiXml());
 
-                        boolean isBib = false;
-                        boolean isHolding = false;
-
                         char leader06 = originalRecord.getLeader().charAt(6);
                         if ("abcdefghijkmnoprt".contains("" + leader06)) {
-                            isBib = true;
+                            addFieldsToIndex(ri, doc, marcFieldsByType.get("b"));
                         } else if (leader06 == 'u' || leader06 == 'v' || leader06 == 'x' || leader06 == 'y') {
-                            isHolding = true;
+                            LOG.debug("*** SolrIndexService, found a Marc, type=" +type);
+                            addFieldsToIndex(ri, doc, marcFieldsByType.get("h"));
                         } else { // If leader 6th character is invalid, then log error and do not process that record.
                             logDebug("Record Id " + ri.getId() + " with leader character " + leader06 + " not processed.");
                         }
-                        if (isBib) {
-                            addFieldToIndex(ri, doc, "//marc:controlfield[@tag='001']",
-                                    Collections.unmodifiableList(Arrays.asList(id_identifier_key, id_001bib_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='035']/marc:subfield[@code='a']",
-                                    Collections.unmodifiableList(Arrays.asList(id_identifier_key, id_035bib_key)),
-                                    true);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='245']/marc:subfield[@code='a']",
-                                    Collections.unmodifiableList(Arrays.asList(id_title_key, id_245_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='245']/marc:subfield[@code='b']",
-                                    Collections.unmodifiableList(Arrays.asList(id_title_key, id_245_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='100']/marc:subfield[@code='a']",
-                                    Collections.unmodifiableList(Arrays.asList(id_author_key, id_100a_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='110']/marc:subfield[@code='a']",
-                                    Collections.unmodifiableList(Arrays.asList(id_author_key, id_110a_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='111']/marc:subfield[@code='a']",
-                                    Collections.unmodifiableList(Arrays.asList(id_author_key, id_111a_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='700']/marc:subfield[@code='a']",
-                                    Collections.unmodifiableList(Arrays.asList(id_author_key, id_700a_key)),
-                                    true);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='710']/marc:subfield[@code='a']",
-                                    Collections.unmodifiableList(Arrays.asList(id_author_key, id_710a_key)),
-                                    true);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='711']/marc:subfield[@code='a']",
-                                    Collections.unmodifiableList(Arrays.asList(id_author_key, id_711a_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='953']/marc:subfield[@code='h']",
-                                    Collections.unmodifiableList(Arrays.asList(id_callnum_key,id_953h_key)),
-                                    true);
-                        }
-                        // get identifiers that could be present only in a holdings marc21 record
-                        else if (isHolding) {
-                            LOG.debug("*** SolrIndexService, found a Marc, type=" +type);
-                            addFieldToIndex(ri, doc, "//marc:controlfield[@tag='001']",
-                                    Collections.unmodifiableList(Arrays.asList(id_identifier_key, id_001hold_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='014']/marc:subfield[@code='a']",
-                                    Collections.unmodifiableList(Arrays.asList(id_uplink_key,id_014_key)),
-                                    true);
-                            addFieldToIndex(ri, doc, "//marc:controlfield[@tag='004']",
-                                    Collections.unmodifiableList(Arrays.asList(id_uplink_key,id_004_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='852']/marc:subfield[@code='h']",
-                                    Collections.unmodifiableList(Arrays.asList(id_callnum_key,id_852h_key)),
-                                    false);
-                            addFieldToIndex(ri, doc, "//marc:datafield[@tag='852']/marc:subfield[@code='i']",
-                                    Collections.unmodifiableList(Arrays.asList(id_callnum_key,id_852i_key)),
-                                    false);
-                        }
                     } catch (Exception e) {
                         LOG.debug("Error determining or indexing raw.", e);
                     }
@@ -536,7 +437,7 @@ public class SolrIndexService extends GenericMetadataService {
         } catch (Exception e2) {
             LOG.debug("", e2);
         }
-        TimingLogger.stop("SolrIndexService.process add dynamic fields");
+        DYNAMIC_FIELDS_TIMER.stop(dynamicStart);
 
         if (r.getMessages() != null) {
             for (RecordMessage m : r.getMessages()) {
@@ -552,132 +453,23 @@ public class SolrIndexService extends GenericMetadataService {
         }
 
         try {
-            TimingLogger.start("SolrIndexService.process add doc");
+            long start = ADD_DOC_TIMER.start();
             getSolrIndexManager().addDoc(doc);
-            TimingLogger.stop("SolrIndexService.process add doc");
+            ADD_DOC_TIMER.stop(start);
         } catch (IndexException ie) {
             throw new RuntimeException(ie);
         }
         return null;
     }
 
-    private void addFieldToIndex(InputRecord ri, SolrInputDocument doc, String xpStr, String key, boolean repeats) {
-        ArrayList<String> list = new ArrayList<String>();
-        list.add(key);
-        addFieldToIndex(ri, doc, xpStr, list, repeats);
-    }
-    private void addFieldToIndex(InputRecord ri, SolrInputDocument doc, String xpStr, List<String> keys, boolean repeats) {
-        addFieldToIndex(ri, doc, xpStr, keys, repeats, false);
-    }
-
-    // if param 'strip' is true, then remove all but the number portions of things like the strings below:
-    //
-    // <xc:workExpressed>oai:mst.rochester.edu:MetadataServicesToolkit/marctoxctransformation/19693841</xc:workExpressed>
-    // <xc:expressionManifested>oai:mst.rochester.edu:MetadataServicesToolkit/marctoxctransformation/13947986</xc:expressionManifested>
-    // <xc:manifestationHeld>oai:mst.rochester.edu:MetadataServicesToolkit/marctoxctransformation/18940216</xc:manifestationHeld>
-    //
-    private void addFieldToIndex(InputRecord ri, SolrInputDocument doc, String xpStr, List<String> keys, boolean repeats, boolean strip) {
-        ri.setMode(Record.STRING_MODE);
-        List<Element> elements = null;
-        String xStr = ri.getOaiXml();
-        if (!StringUtils.isEmpty(xStr)) {
-            try {
-                elements = getFieldValue(xpStr, xStr);
-            } catch (Throwable t) {
-                LOG.debug("", t);
-            }
-        }
-        if (elements != null) {
-            if (repeats) {
-                for (Element element: elements) {
-                    for (String key: keys) {
-                        LOG.debug("*** SolrIndexService, adding ident: "+ key +" add data:"+element.getText());
-                        //if (key.endsWith("_l")) {
-                        //    LOG.info("*** SolrIndexService, adding ident: "+ key +" add data:"+element.getText());
-                        //}
-
-                        if (strip) {
-                            String stripped=null;
-                            try {
-                                stripped = element.getText().replaceAll("[^\\d]", "");
-                                Long.parseLong(stripped);
-                                doc.addField(key, stripped);
-                            }catch(NumberFormatException e) {
-                                LOG.error("** Problem with stripped string, not numeric, key="+key+" all_data="+element.getText()+ " stripped="+stripped);
-                            }
-
-                        }
-                        else {
-                            doc.addField(key, element.getText());
-                        }
-                    }
-                }
-            }
-            else {
-                for (String key: keys) {
-                    //if (key.endsWith("_l")) {
-                    //    LOG.info("*** SolrIndexService, adding ident: "+ key +" add data:"+elements.get(0).getText());
-                    //}
-                    if (strip) {
-                        String stripped=null;
-                        try {
-                            stripped = elements.get(0).getText().replaceAll("[^\\d]", "");
-                            Long.parseLong(stripped);
-                            doc.addField(key, stripped);
-                        }catch(NumberFormatException e) {
-                            LOG.error("**2) Problem with stripped string, not numeric, key="+key+" all_data="+elements.get(0).getText()+ " stripped="+stripped);
-                        }
-                    }
-                    else {
-                        doc.addField(key, elements.get(0).getText());
-                    }
-                }
-            }
-        }
-        // m_recordRegisteredData.add(new RegisteredData("id_title_key", elements.get(0).getText()));
-    }
-
-    /**
-     * Gets the value of a MARC XML field
-     *
-     * @param targetField
-     *            The field to retrieve (for example, "008")
-     * @return The value of the requested field
-     */
-    @SuppressWarnings("unchecked")
-    private List<Element> getFieldValue(String xpathStr, String xml) {
-        try {
-            //TODO change this over to sax, when I do method signature probably will change to return list of Strings vs. Elements
-            Namespace marcNamespace = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
-            List<Element> elements = null;
-            XPath xpath = XPath.newInstance(xpathStr);
-            xpath.addNamespace(marcNamespace);
-
-            // Get the control field. There should not be more than one Element in this list.
-            // start with dom, move to sax.
-            org.jdom.Document doc = new XmlHelper().getJDomDocument(xml);
-
-            elements = xpath.selectNodes(doc);
-
-            if (elements.size() == 0) {
-                if (LOG.isDebugEnabled())
-                    LOG.debug("The " + xpathStr + " field did not exist in the MARC XML record.");
-                return null;
-            } else {
-                // The value of the requested field
-                String value = elements.get(0).getText();
-
-                if (LOG.isDebugEnabled())
-                    LOG.debug("The " + xpathStr + " field had a value of " + value + ".");
-                return elements;
-            }
-        } catch (JDOMException e) {
-            LOG.error("An error occurred getting field " + xpathStr);
-            return null;
+    private void addFieldsToIndex(InputRecord ri, SolrInputDocument doc, SolrFieldExtractor fields) {
+        if (fields == null) {
+            return;
         }
+        ri.setMode(Record.STRING_MODE);
+        fields.addFields(ri.getOaiXml(), doc);
     }
 
-
     public void runTests() {
         //do nothing
     }
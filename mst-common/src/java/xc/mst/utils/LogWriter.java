@@ -9,177 +9,371 @@
 
 package xc.mst.utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.FileAppender;
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
+import org.apache.log4j.spi.LoggingEvent;
+
+import xc.mst.constants.Constants;
+import xc.mst.utils.metrics.Counter;
+import xc.mst.utils.metrics.Metrics;
 
 /**
  * Utility class to write log statements
- * 
+ * <p>
+ * Messages are queued and written by a background thread, which takes whatever has queued up
+ * (up to logWriter.batchSize messages), writes it file by file and flushes each file once.  The
+ * queue holds logWriter.queueSize messages; when it's full a caller waits for room, or with
+ * logWriter.whenFull=drop the message is dropped and counted (logWriter.dropped on the timings
+ * page).  Each message keeps the time it was logged and the name of the thread which logged it.
+ *
  * @author Eric Osisek
  */
 public class LogWriter {
+
+    protected static Logger log = Logger.getLogger(Constants.LOGGER_GENERAL);
+
+    protected static final Counter DROPPED = Metrics.counter("logWriter.dropped");
+
+    protected static Writer writer = null;
+
     /**
-     * Hash table mapping log file names to the Logger that writes to them
+     * Writes a debug level message to the log file
+     *
+     * @param logFileLocation
+     *            The file to write the message to
+     * @param message
+     *            The message to write
      */
-    private static HashMap<String, Logger> loggers = new HashMap<String, Logger>();
-
     public static void addDebug(String logFileLocation, String message) {
-        // If we already have a logger for the file, use it
-        if (loggers.containsKey(logFileLocation))
-            loggers.get(logFileLocation).debug(message);
-        else // Otherwise create a new logger for the file and use that
-        {
-            // Create a new file appender to write to the requested file
-            FileAppender appender = new FileAppender();
-            appender.setFile(MSTConfiguration.getUrlPath() + "/" + logFileLocation);
-            appender.setName(logFileLocation);
-            appender.setLayout(new PatternLayout("%d{DATE} %5p [%t] - %m%n"));
-            appender.activateOptions();
-
-            // Create a new logger for the file appender we just created
-            Logger logger = Logger.getLogger(logFileLocation);
-            logger.addAppender(appender);
-
-            // Use the new logger to write the info message
-            logger.debug(message);
-
-            // Add the logger to the HashMap so we can access it next time we need it
-            loggers.put(logFileLocation, logger);
-        } // end else(The logger wasn't defined)
-    } // end method addInfo(String, String)
+        getWriter().add(logFileLocation, Level.DEBUG, message);
+    } // end method addDebug(String, String)
 
     /**
      * Writes an info level message to the log file
-     * 
+     *
      * @param logFileLocation
      *            The file to write the message to
      * @param message
      *            The message to write
      */
     public static void addInfo(String logFileLocation, String message) {
-        // If we already have a logger for the file, use it
-        if (loggers.containsKey(logFileLocation))
-            loggers.get(logFileLocation).info(message);
-        else // Otherwise create a new logger for the file and use that
-        {
-            // Create a new file appender to write to the requested file
-            FileAppender appender = new FileAppender();
-            appender.setFile(MSTConfiguration.getUrlPath() + "/" + logFileLocation);
-            appender.setName(logFileLocation);
-            appender.setLayout(new PatternLayout("%d{DATE} %5p [%t] - %m%n"));
-            appender.activateOptions();
-
-            // Create a new logger for the file appender we just created
-            Logger logger = Logger.getLogger(logFileLocation);
-            logger.addAppender(appender);
-
-            // Use the new logger to write the info message
-            logger.info(message);
-
-            // Add the logger to the HashMap so we can access it next time we need it
-            loggers.put(logFileLocation, logger);
-        } // end else(The logger wasn't defined)
+        getWriter().add(logFileLocation, Level.INFO, message);
     } // end method addInfo(String, String)
 
     /**
      * Writes a warning level message to the log file
-     * 
+     *
      * @param logFileLocation
      *            The file to write the message to
      * @param message
      *            The message to write
      */
     public static void addWarning(String logFileLocation, String message) {
-        // If we already have a logger for the file, use it
-        if (loggers.containsKey(logFileLocation))
-            loggers.get(logFileLocation).warn(message);
-        else // Otherwise create a new logger for the file and use that
-        {
-            // Create a new file appender to write to the requested file
-            FileAppender appender = new FileAppender();
-            appender.setFile(MSTConfiguration.getUrlPath() + "/" + logFileLocation);
-            appender.setName(logFileLocation);
-            appender.setLayout(new PatternLayout("%d{DATE} %5p [%t] - %m%n"));
-            appender.activateOptions();
-
-            // Create a new logger for the file appender we just created
-            Logger logger = Logger.getLogger(logFileLocation);
-            logger.addAppender(appender);
-
-            // Use the new logger to write the info message
-            logger.warn(message);
-
-            // Add the logger to the HashMap so we can access it next time we need it
-            loggers.put(logFileLocation, logger);
-        } // end else(The logger wasn't defined)
+        getWriter().add(logFileLocation, Level.WARN, message);
     } // end method addWarning(String, String)
 
     /**
      * Writes an error level message to the log file
-     * 
+     *
      * @param logFileLocation
      *            The file to write the message to
      * @param message
      *            The message to write
      */
     public static void addError(String logFileLocation, String message) {
-        // If we already have a logger for the file, use it
-        if (loggers.containsKey(logFileLocation))
-            loggers.get(logFileLocation).error(message);
-        else // Otherwise create a new logger for the file and use that
-        {
-            // Create a new file appender to write to the requested file
-            FileAppender appender = new FileAppender();
-            appender.setFile(MSTConfiguration.getUrlPath() + "/" + logFileLocation);
-            appender.setName(logFileLocation);
-            appender.setLayout(new PatternLayout("%d{DATE} %5p [%t] - %m%n"));
-            appender.activateOptions();
-
-            // Create a new logger for the file appender we just created
-            Logger logger = Logger.getLogger(logFileLocation);
-            logger.addAppender(appender);
-
-            // Use the new logger to write the info message
-            logger.error(message);
-
-            // Add the logger to the HashMap so we can access it next time we need it
-            loggers.put(logFileLocation, logger);
-        } // end else(The logger wasn't defined)
+        getWriter().add(logFileLocation, Level.ERROR, message);
     } // end method addError(String, String)
 
     /**
      * Writes a fatal error level message to the log file
-     * 
+     *
      * @param logFileLocation
      *            The file to write the message to
      * @param message
      *            The message to write
      */
     public static void addFatalError(String logFileLocation, String message) {
-        // If we already have a logger for the file, use it
-        if (loggers.containsKey(logFileLocation))
-            loggers.get(logFileLocation).fatal(message);
-        else // Otherwise create a new logger for the file and use that
-        {
-            // Create a new file appender to write to the requested file
-            FileAppender appender = new FileAppender();
-            appender.setFile(MSTConfiguration.getUrlPath() + "/" + logFileLocation);
-            appender.setName(logFileLocation);
-            appender.setLayout(new PatternLayout("%d{DATE} %5p [%t] - %m%n"));
-            appender.activateOptions();
-
-            // Create a new logger for the file appender we just created
-            Logger logger = Logger.getLogger(logFileLocation);
-            logger.addAppender(appender);
-
-            // Use the new logger to write the info message
-            logger.fatal(message);
-
-            // Add the logger to the HashMap so we can access it next time we need it
-            loggers.put(logFileLocation, logger);
-        } // end else(The logger wasn't defined)
+        getWriter().add(logFileLocation, Level.FATAL, message);
     } // end method addFatalError(String, String)
+
+    /**
+     * Waits until the messages added before the call are in their files
+     */
+    public static void flush() {
+        getWriter().flush();
+    }
+
+    /**
+     * Writes what's queued and stops the background thread.  Messages added afterwards are
+     * written on the caller's thread.
+     */
+    public static synchronized void shutdown() {
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
+    protected static synchronized Writer getWriter() {
+        if (writer == null) {
+            MSTConfiguration config = MSTConfiguration.getInstance();
+            int queueSize = 10000;
+            int batchSize = 500;
+            boolean drop = false;
+            if (config != null) {
+                queueSize = config.getPropertyAsInt("logWriter.queueSize", queueSize);
+                batchSize = config.getPropertyAsInt("logWriter.batchSize", batchSize);
+                drop = "drop".equalsIgnoreCase(config.getProperty("logWriter.whenFull", "block"));
+            }
+            writer = new Writer(Math.max(1, queueSize), Math.max(1, batchSize), drop);
+            writer.start();
+            try {
+                Runtime.getRuntime().addShutdownHook(new Thread("LogWriter shutdown") {
+                    public void run() {
+                        shutdown();
+                    }
+                });
+            } catch (IllegalStateException e) {
+                // already shutting down
+                writer.stop();
+            }
+        }
+        return writer;
+    }
+
+    protected static class Entry {
+        protected String file;
+        protected Level level;
+        protected String message;
+        protected long timestamp;
+        protected String threadName;
+        // set on the entries flush() waits for, which have nothing to write
+        protected CountDownLatch written;
+    }
+
+    /**
+     * The queue and the thread which empties it.
+     */
+    protected static class Writer implements Runnable {
+
+        protected final BlockingQueue<Entry> queue;
+        protected final int batchSize;
+        protected final boolean drop;
+
+        protected volatile Thread thread = null;
+        protected volatile boolean stopped = false;
+
+        // only touched while holding the Writer's lock
+        protected Map<String, Logger> loggers = new HashMap<String, Logger>();
+        protected Map<String, BatchFileAppender> appenders = new HashMap<String, BatchFileAppender>();
+        protected long droppedReported = DROPPED.getCount();
+
+        protected Writer(int queueSize, int batchSize, boolean drop) {
+            this.queue = new ArrayBlockingQueue<Entry>(queueSize);
+            this.batchSize = batchSize;
+            this.drop = drop;
+        }
+
+        protected void start() {
+            Thread t = new Thread(this, "LogWriter");
+            t.setDaemon(true);
+            thread = t;
+            t.start();
+        }
+
+        protected void add(String file, Level level, String message) {
+            Entry entry = new Entry();
+            entry.file = file;
+            entry.level = level;
+            entry.message = message;
+            entry.timestamp = System.currentTimeMillis();
+            entry.threadName = Thread.currentThread().getName();
+            enqueue(entry);
+        }
+
+        protected void flush() {
+            Entry marker = new Entry();
+            marker.written = new CountDownLatch(1);
+            // a flush is never dropped
+            if (!enqueue(marker, false)) {
+                return;
+            }
+            try {
+                marker.written.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        protected void enqueue(Entry entry) {
+            enqueue(entry, drop);
+        }
+
+        /**
+         * @return false if the entry was written or dropped rather than queued
+         */
+        protected boolean enqueue(Entry entry, boolean dropWhenFull) {
+            if (stopped) {
+                write(Collections.singletonList(entry));
+                return false;
+            }
+            if (queue.offer(entry)) {
+                return true;
+            }
+            if (dropWhenFull) {
+                DROPPED.inc();
+                return false;
+            }
+            try {
+                while (!queue.offer(entry, 1, TimeUnit.SECONDS)) {
+                    if (stopped) {
+                        write(Collections.singletonList(entry));
+                        return false;
+                    }
+                }
+                return true;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                DROPPED.inc();
+                return false;
+            }
+        }
+
+        public void run() {
+            List<Entry> batch = new ArrayList<Entry>(batchSize);
+            while (!stopped) {
+                try {
+                    Entry first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+                batch.clear();
+            }
+            // whatever was added before stop()
+            while (queue.drainTo(batch, batchSize) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        }
+
+        protected void stop() {
+            Thread t = thread;
+            stopped = true;
+            if (t != null && t != Thread.currentThread()) {
+                t.interrupt();
+                try {
+                    t.join(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // anything which slipped in while the thread was finishing
+            List<Entry> rest = new ArrayList<Entry>();
+            queue.drainTo(rest);
+            write(rest);
+        }
+
+        /**
+         * Writes the entries file by file, in the order they were added, and flushes each file
+         * once.
+         */
+        protected synchronized void write(List<Entry> entries) {
+            Map<String, List<Entry>> byFile = new LinkedHashMap<String, List<Entry>>();
+            List<CountDownLatch> flushes = null;
+            for (Entry entry : entries) {
+                if (entry.written != null) {
+                    if (flushes == null) {
+                        flushes = new ArrayList<CountDownLatch>();
+                    }
+                    flushes.add(entry.written);
+                    continue;
+                }
+                List<Entry> fileEntries = byFile.get(entry.file);
+                if (fileEntries == null) {
+                    fileEntries = new ArrayList<Entry>();
+                    byFile.put(entry.file, fileEntries);
+                }
+                fileEntries.add(entry);
+            }
+
+            for (Map.Entry<String, List<Entry>> me : byFile.entrySet()) {
+                try {
+                    Logger logger = getLogger(me.getKey());
+                    for (Entry entry : me.getValue()) {
+                        if (logger.isEnabledFor(entry.level)) {
+                            logger.callAppenders(new LoggingEvent(Logger.class.getName(), logger, entry.timestamp,
+                                    entry.level, entry.message, entry.threadName, null, null, null, null));
+                        }
+                    }
+                    appenders.get(me.getKey()).flush();
+                } catch (Throwable t) {
+                    log.error("Unable to write to the log file " + me.getKey(), t);
+                }
+            }
+
+            long dropped = DROPPED.getCount();
+            if (dropped != droppedReported) {
+                log.warn((dropped - droppedReported) + " log messages were dropped because the LogWriter's queue was full");
+                droppedReported = dropped;
+            }
+
+            if (flushes != null) {
+                for (CountDownLatch latch : flushes) {
+                    latch.countDown();
+                }
+            }
+        }
+
+        protected Logger getLogger(String logFileLocation) {
+            Logger logger = loggers.get(logFileLocation);
+            if (logger == null) {
+                // Create a new file appender to write to the requested file
+                BatchFileAppender appender = new BatchFileAppender();
+                String urlPath = MSTConfiguration.getUrlPath();
+                appender.setFile(urlPath == null ? logFileLocation : urlPath + "/" + logFileLocation);
+                appender.setName(logFileLocation);
+                appender.setLayout(new PatternLayout("%d{DATE} %5p [%t] - %m%n"));
+                appender.setImmediateFlush(false);
+                appender.activateOptions();
+
+                // Create a new logger for the file appender we just created
+                logger = Logger.getLogger(logFileLocation);
+                logger.addAppender(appender);
+
+                loggers.put(logFileLocation, logger);
+                appenders.put(logFileLocation, appender);
+            }
+            return logger;
+        }
+    }
+
+    /**
+     * A FileAppender which only flushes when it's told to
+     */
+    protected static class BatchFileAppender extends FileAppender {
+        protected void flush() {
+            if (qw != null) {
+                qw.flush();
+            }
+        }
+    }
+
 } // end class LogWriter
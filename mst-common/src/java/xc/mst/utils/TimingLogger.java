@@ -9,6 +9,14 @@
 
 package xc.mst.utils;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Debug level tracing of how long things take, logged when reset is called.  It's off unless
+ * TimingLogger is at DEBUG and it serializes every caller, so it's no use for timing threaded
+ * code or for anything which should be known in production; use the always on timers and
+ * counters in xc.mst.utils.metrics.Metrics for that.
+ */
 public class TimingLogger {
 
     /*
@@ -24,6 +32,26 @@ public class TimingLogger {
 
     protected static TimingStats ts = new TimingStats();
 
+    // the jobs the Scheduler has running (see jobStarted)
+    protected static AtomicInteger jobsRunning = new AtomicInteger();
+
+    /**
+     * The Scheduler calls jobStarted and jobFinished around each job and pipeline stage.  While
+     * more than one is running the resets do nothing, so one job's reset doesn't throw away what
+     * the others have timed; the stats logged then cover all of them.
+     */
+    public static void jobStarted() {
+        jobsRunning.incrementAndGet();
+    }
+
+    public static void jobFinished() {
+        jobsRunning.decrementAndGet();
+    }
+
+    protected static boolean isResettable() {
+        return TimingStats.LOG.isDebugEnabled() && jobsRunning.get() <= 1;
+    }
+
     public static void log(String message) {
         if (TimingStats.LOG.isDebugEnabled()) {
             // TimingStats ts = (TimingStats)timingStats.get();
@@ -82,7 +110,7 @@ public class TimingLogger {
 
     public static void reset(long counts) {
         // TimingStats.LOG.debug("", new Exception());
-        if (TimingStats.LOG.isDebugEnabled()) {
+        if (isResettable()) {
             // TimingStats ts = (TimingStats)timingStats.get();
             ts.reset(counts);
         }
@@ -90,21 +118,21 @@ public class TimingLogger {
 
     public static void reset() {
         // TimingStats.LOG.debug("", new Exception());
-        if (TimingStats.LOG.isDebugEnabled()) {
+        if (isResettable()) {
             // TimingStats ts = (TimingStats)timingStats.get();
             ts.reset();
         }
     }
 
     public static void reset(boolean includeDefault) {
-        if (TimingStats.LOG.isDebugEnabled()) {
+        if (isResettable()) {
             // TimingStats ts = (TimingStats)timingStats.get();
             ts.reset(includeDefault);
         }
     }
 
     public static void reset(String name) {
-        if (TimingStats.LOG.isDebugEnabled()) {
+        if (isResettable()) {
             // TimingStats ts = (TimingStats)timingStats.get();
             ts.reset(name);
         }
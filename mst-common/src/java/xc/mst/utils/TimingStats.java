@@ -18,6 +18,10 @@ import org.apache.commons.collections.map.ListOrderedMap;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
+/**
+ * The timing methods are synchronized so that stages running on their own threads (for
+ * example the pipelined harvester) can report through the shared TimingLogger.
+ */
 public class TimingStats {
     public static final String DEFAULT = "DEFAULT";
     public static final Logger LOG = Logger.getLogger(TimingLogger.class);
@@ -43,7 +47,7 @@ public class TimingStats {
         log(null, message, suppressOutput);
     }
 
-    public void log(String name, String message, boolean suppressOutput) {
+    public synchronized void log(String name, String message, boolean suppressOutput) {
         if (TimingStats.LOG.isDebugEnabled() && !manualShutOff) {
             long tnow = System.currentTimeMillis();
             if (name == null) {
@@ -104,7 +108,7 @@ public class TimingStats {
         return sb;
     }
 
-    protected void start(String name) {
+    protected synchronized void start(String name) {
         if (TimingStats.LOG.isDebugEnabled() && !manualShutOff) {
             Timer timer = (Timer) namedTimers.get(name);
             if (timer == null) {
@@ -120,7 +124,7 @@ public class TimingStats {
         }
     }
 
-    protected void stop(String name) {
+    protected synchronized void stop(String name) {
         if (TimingStats.LOG.isDebugEnabled() && !manualShutOff) {
             log(name, null, true);
             currentIndent--;
@@ -139,7 +143,7 @@ public class TimingStats {
         }
     }
 
-    public void add(String name, long val) {
+    public synchronized void add(String name, long val) {
         if (!manualShutOff) {
             indentation.put(name, currentIndent);
             Timer timer = (Timer) namedTimers.get(name);
@@ -203,7 +207,7 @@ public class TimingStats {
     }
 
     // come through this one if you DO want to display performance data
-    public void reset(long counts) {
+    public synchronized void reset(long counts) {
         // set the fact that you want to display performance!
         displayPerformanceData = true;
         batchSize = counts;
@@ -211,13 +215,13 @@ public class TimingStats {
     }
 
     // come through this one if you do NOT want to display performance data
-    public void reset() {
+    public synchronized void reset() {
         displayPerformanceData = false;
         batchSize = 0l;
         resetIfNecessary(false);
     }
 
-    protected void reset(String name) {
+    protected synchronized void reset(String name) {
         displayPerformanceData = false;
         batchSize = 0l;
 
@@ -248,7 +252,7 @@ public class TimingStats {
         }
     }
 
-    protected void reset(boolean includeDefault) {
+    protected synchronized void reset(boolean includeDefault) {
         displayPerformanceData = false;
         batchSize = 0l;
         displayResetData(includeDefault, false);
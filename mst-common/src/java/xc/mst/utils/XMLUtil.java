@@ -12,6 +12,7 @@ package xc.mst.utils;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
@@ -273,6 +274,41 @@ public class XMLUtil {
         return sb.toString();
     }
 
+    /**
+     * Writes xml to out without its xml declarations.  The output is the same as
+     * out.write(xml.replaceAll("&lt;\\?xml.*\\?&gt;", "")) but without the regex or a copy of xml:
+     * a declaration runs from "&lt;?xml" to the last "?&gt;" on the same line.
+     * 
+     * @param xml
+     *            The xml to write
+     * @param out
+     *            Where to write it
+     */
+    public static void writeWithoutXmlDeclarations(String xml, Writer out) throws IOException {
+        int written = 0;
+        int start = xml.indexOf("<?xml");
+        while (start != -1) {
+            int lineEnd = start + 5;
+            while (lineEnd < xml.length() && !isLineTerminator(xml.charAt(lineEnd))) {
+                lineEnd++;
+            }
+            int end = xml.lastIndexOf("?>", lineEnd - 2);
+            if (end >= start + 5) {
+                out.write(xml, written, start - written);
+                written = end + 2;
+                start = xml.indexOf("<?xml", written);
+            } else {
+                start = xml.indexOf("<?xml", start + 1);
+            }
+        }
+        out.write(xml, written, xml.length() - written);
+    }
+
+    // the characters '.' doesn't match in a java regex
+    protected static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
     public static Element xmlEl(String elName, String content) {
         return xmlEl(elName, content, null, null);
     }
@@ -10,6 +10,9 @@
 package xc.mst.utils.index;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
@@ -26,6 +29,11 @@ import xc.mst.dao.DatabaseConfigException;
 import xc.mst.manager.BaseManager;
 import xc.mst.manager.IndexException;
 import xc.mst.utils.LogWriter;
+import xc.mst.utils.MSTConfiguration;
+import xc.mst.utils.TimingLogger;
+import xc.mst.utils.metrics.Counter;
+import xc.mst.utils.metrics.Metrics;
+import xc.mst.utils.metrics.Timer;
 
 /**
  * Solr Index manager
@@ -40,21 +48,46 @@ public class SolrIndexManager extends BaseManager {
      */
     protected static Logger log = Logger.getLogger(Constants.LOGGER_GENERAL);
 
+    // a batch going to solr, which may be on one of ThreadedSolrIndexManager's threads
+    protected static final Timer SEND_DOCS_TIMER = Metrics.timer("solr.sendDocs");
+    protected static final Counter DOCS_SENT = Metrics.counter("solr.docsSent");
+
     /**
      * The repository management log file name
      */
     protected static Log logObj = null;
 
+    /**
+     * The number of documents sent to solr in each add (solr.docsPerAdd)
+     */
+    protected int docsPerAdd = 500;
+
+    /**
+     * Documents added but not yet sent to solr, guarded by pendingDocsLock
+     */
+    protected List<SolrInputDocument> pendingDocs = new ArrayList<SolrInputDocument>();
+    protected Object pendingDocsLock = new Object();
+
+    /**
+     * Documents sent to solr since the last commit, and when the first of them was added, for
+     * the rate logged at each commit
+     */
+    protected AtomicLong docsSent = new AtomicLong();
+    protected long docsSentSince = System.currentTimeMillis();
+
     public void init() {
         try {
             logObj = getLogDAO().getById(Constants.LOG_ID_SOLR_INDEX);
         } catch (DatabaseConfigException e) {
             log.error("Cannot connect to the database with the parameters from the config file.", e);
         }
+        docsPerAdd = Math.max(1, MSTConfiguration.getInstance().getPropertyAsInt("solr.docsPerAdd", 500));
     }
 
     /**
-     * Adds a document to the Lucene index
+     * Adds a document to the Lucene index.  Documents are sent to solr docsPerAdd at a time, so
+     * the document may not have been sent when this returns; commitIndex, deleteByQuery and
+     * waitForJobCompletion send whatever is still held first.
      * 
      * @param doc
      *            The document to add
@@ -67,12 +100,53 @@ public class SolrIndexManager extends BaseManager {
             return false;
         }
 
+        List<SolrInputDocument> docs = null;
+        synchronized (pendingDocsLock) {
+            pendingDocs.add(doc);
+            if (pendingDocs.size() >= docsPerAdd) {
+                docs = pendingDocs;
+                pendingDocs = new ArrayList<SolrInputDocument>(docsPerAdd);
+            }
+        }
+        if (docs != null) {
+            addDocs(docs);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the documents addDoc is holding on to.
+     */
+    protected void flushDocs() throws IndexException {
+        List<SolrInputDocument> docs = null;
+        synchronized (pendingDocsLock) {
+            if (pendingDocs.size() == 0) {
+                return;
+            }
+            docs = pendingDocs;
+            pendingDocs = new ArrayList<SolrInputDocument>(docsPerAdd);
+        }
+        addDocs(docs);
+    }
+
+    /**
+     * Sends a batch of documents to solr.
+     */
+    protected void addDocs(List<SolrInputDocument> docs) throws IndexException {
+        sendDocs(docs);
+    }
+
+    protected void sendDocs(List<SolrInputDocument> docs) throws IndexException {
         try {
-            getSolrService().add(doc);
+            long start = SEND_DOCS_TIMER.start();
+            getSolrService().add(docs);
+            docsSent.addAndGet(docs.size());
+            DOCS_SENT.add(docs.size());
+            SEND_DOCS_TIMER.stop(start);
         } catch (SolrServerException se) {
-            log.error("Solr server exception occured when adding document to the index. Check the path to solr folder.", se);
+            log.error("Solr server exception occured when adding documents to the index. Check the path to solr folder.", se);
 
-            LogWriter.addError(logObj.getLogFileLocation(), "An error occurred while adding a document to the Solr index. Check the path to solr folder."
+            LogWriter.addError(logObj.getLogFileLocation(), "An error occurred while adding documents to the Solr index. Check the path to solr folder."
                     + se.getMessage());
 
             logObj.setErrors(logObj.getErrors() + 1);
@@ -86,7 +160,7 @@ public class SolrIndexManager extends BaseManager {
         } catch (IOException ioe) {
             log.debug(ioe);
 
-            LogWriter.addError(logObj.getLogFileLocation(), "An error occurred while adding a document to the Solr index. Check the path to solr folder."
+            LogWriter.addError(logObj.getLogFileLocation(), "An error occurred while adding documents to the Solr index. Check the path to solr folder."
                     + ioe.getMessage());
 
             logObj.setErrors(logObj.getErrors() + 1);
@@ -98,12 +172,13 @@ public class SolrIndexManager extends BaseManager {
 
             throw new IndexException(ioe.getMessage());
         }
-
-        return true;
     }
 
     public boolean deleteByQuery(String query) {
         try {
+            // documents added before the delete have to get there before it
+            flushDocs();
+            waitForJobCompletion(Long.MAX_VALUE);
             getSolrService().deleteByQuery(query);
             return true;
         } catch (SolrServerException se) {
@@ -133,16 +208,39 @@ public class SolrIndexManager extends BaseManager {
                 log.error("DataExcepiton while updating the log's error count.", e);
             }
 
+            return false;
+        } catch (IndexException ie) {
+            log.error("Documents added before deleting " + query + " couldn't be sent to the index.", ie);
             return false;
         }
     }
 
     /**
-     * Makes the calling Thread yield until all add/update/delete jobs have completed.
+     * Returns once all the documents added so far have been sent to solr.
      * 
-     * Since SolrIndexManager is single Threaded, this method does nothing
+     * Since SolrIndexManager sends them on the calling thread, this only sends those still held.
      */
     public void waitForJobCompletion(long timeout) {
+        try {
+            flushDocs();
+        } catch (IndexException ie) {
+            log.error("An error occurred while sending documents to the Solr index.", ie);
+        }
+    }
+
+    /**
+     * Logs how many documents were sent since the last commit, and how fast.
+     */
+    protected void logRate() {
+        long sent = docsSent.getAndSet(0);
+        long now = System.currentTimeMillis();
+        long millis = Math.max(1, now - docsSentSince);
+        docsSentSince = now;
+        if (sent > 0) {
+            log.info("Sent " + sent + " documents to the Solr index in " + millis + "ms (" +
+                    (sent * 1000 / millis) + " docs/sec)");
+            TimingLogger.add("SolrIndexManager.docs", sent);
+        }
     }
 
     /**
@@ -160,6 +258,9 @@ public class SolrIndexManager extends BaseManager {
             log.error("Solr server is null");
             return false;
         }
+        flushDocs();
+        waitForJobCompletion(Long.MAX_VALUE);
+        logRate();
         try {
             LogWriter.addDebug(logObj.getLogFileLocation(), "Committing changes to the Solr index");
             getSolrService().commit();
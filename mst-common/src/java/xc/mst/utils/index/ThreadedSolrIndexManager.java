@@ -9,25 +9,24 @@
 
 package xc.mst.utils.index;
 
-import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrInputDocument;
 
-import xc.mst.dao.DataException;
 import xc.mst.manager.IndexException;
-import xc.mst.utils.LogWriter;
 import xc.mst.utils.MSTConfiguration;
 
 /**
- * Multi-Threaded extension of SolrIndexManager. Overrides the addDoc method of SolrIndexManager
- * and runs the add operation using one of the threads available in a pool of threads initialized.
- * The size of the pool is hard coded.
- * 
+ * Multi-Threaded extension of SolrIndexManager. The batches of documents SolrIndexManager collects
+ * are sent to solr by a pool of SOLRIndexerMultiThreadCount threads, while the caller goes on
+ * building the next ones.  At most solr.batchesQueued batches are waiting or being sent at once;
+ * beyond that addDoc blocks until one has been sent, so the indexer can't run ahead of solr.
+ *
  * @author Vinaykumar Bangera
  */
 public class ThreadedSolrIndexManager extends SolrIndexManager {
@@ -37,9 +36,16 @@ public class ThreadedSolrIndexManager extends SolrIndexManager {
     protected ExecutorService threadPool;
 
     /**
-     * The number of Jobs which have been scheduled to run but have not been completed
+     * One permit per batch which may be queued or being sent.  All of them are free when every
+     * batch handed to the pool has been sent.
+     */
+    protected Semaphore batchPermits;
+    protected int maxBatchesQueued;
+
+    /**
+     * The first error a Job hit since the last commit, thrown from commitIndex
      */
-    protected int numQueuedJobs = 0;
+    protected volatile IndexException failure = null;
 
     /**
      * Gets the singleton instance of the LuceneIndexManager
@@ -52,128 +58,102 @@ public class ThreadedSolrIndexManager extends SolrIndexManager {
         int poolSize = Integer.parseInt(
                 MSTConfiguration.getInstance().getProperty("SOLRIndexerMultiThreadCount")) == 0 ? 20 :
                     Integer.parseInt(MSTConfiguration.getInstance().getProperty("SOLRIndexerMultiThreadCount"));
+        maxBatchesQueued = Math.max(1, MSTConfiguration.getInstance().getPropertyAsInt("solr.batchesQueued", 2 * poolSize));
+        batchPermits = new Semaphore(maxBatchesQueued);
 
         log.info("SolrIndexManager Thread Pool Initialized");
 
         /* Initialize the thread pool*/
-        threadPool = new ThreadPoolExecutor(poolSize,
-                                            poolSize,
-                                            Long.MAX_VALUE,
-                                            TimeUnit.NANOSECONDS,
-                                            new ArrayBlockingQueue<Runnable>(poolSize, false),
-                                            new ThreadPoolExecutor.CallerRunsPolicy());
+        threadPool = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ThreadedSolrIndexManager");
+                t.setDaemon(true);
+                return t;
+            }
+        });
     }
 
     /**
-     * Adds a document to the Lucene index
-     * 
-     * @param doc
-     *            The document to add
-     * @return true on success, false on failure
+     * Hands a batch of documents to the pool, waiting for room if solr.batchesQueued are already
+     * queued.
      */
-    public boolean addDoc(SolrInputDocument doc) throws IndexException {
-        log.debug("Add index to Solr - begin");
-
-        // Check if solr server is null
-        if (getMSTSolrService().getServer() == null) {
-            log.error("Solr server is null");
-
-            return false;
-        } else {
-            try {
-                synchronized (this) {
-                    threadPool.execute(new Job(doc));
-                    log.debug("incrementing numQueuedJobs");
-                    numQueuedJobs++;
-                    log.debug("incremented numQueuedJobs: " + numQueuedJobs);
-                }
-            } catch (RuntimeException e) {
-                throw new IndexException(e.getMessage());
-            }
-
-            return true;
+    protected void addDocs(List<SolrInputDocument> docs) throws IndexException {
+        batchPermits.acquireUninterruptibly();
+        try {
+            threadPool.execute(new Job(docs));
+        } catch (RuntimeException e) {
+            batchPermits.release();
+            throw new IndexException(e.getMessage());
         }
     }
 
     /**
-     * Makes the calling Thread yield until all add/update/delete jobs have completed.
+     * Sends the documents still held and returns once every batch has been sent, or after
+     * timeout milliseconds.
      */
     public void waitForJobCompletion(long timeout) {
-        long start = System.currentTimeMillis();
-
-        while (numQueuedJobs > 0) {
-            if (timeout < System.currentTimeMillis() - start) {
+        super.waitForJobCompletion(timeout);
+        try {
+            if (batchPermits.tryAcquire(maxBatchesQueued, timeout, TimeUnit.MILLISECONDS)) {
+                batchPermits.release(maxBatchesQueued);
+            } else {
                 log.warn("ThreadedSolrIndexManager's jobs aren't getting marked as finished, timeout of " + timeout + " was reached.");
-                break;
             }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            Thread.yield();
+    public boolean commitIndex() throws IndexException {
+        waitForJobCompletion(Long.MAX_VALUE);
+        IndexException f = failure;
+        if (f != null) {
+            failure = null;
+            throw f;
         }
+        return super.commitIndex();
     }
 
     /**
-     * A task that adds a document to the SOLR Index Manager
-     * 
+     * A task that sends a batch of documents to solr
+     *
      * @author vinaykumarb
-     * 
+     *
      */
     private class Job implements Runnable {
         /**
-         * Document to be added to SOLR
+         * Documents to be added to SOLR
          */
-        SolrInputDocument doc;
+        List<SolrInputDocument> docs;
 
         /**
          * Creates a new Job with the given initial parameters.
-         * 
-         * @param doc
-         *            Document to be added to SOLR
+         *
+         * @param docs
+         *            Documents to be added to SOLR
          */
-        public Job(SolrInputDocument doc) {
-            this.doc = doc;
+        public Job(List<SolrInputDocument> docs) {
+            this.docs = docs;
         }
 
         /**
-         * Adds the document to SOLR in a separate thread
+         * Adds the documents to SOLR in a separate thread
          */
-        public void run() throws RuntimeException {
+        public void run() {
             try {
-                getMSTSolrService().getServer().add(doc);
-            } catch (SolrServerException se) {
-                log.error("Solr server exception occured when adding document to the index.", se);
-
-                LogWriter.addError(logObj.getLogFileLocation(), "An error occurred while adding a document to the Solr index: " + se.getMessage());
-
-                logObj.setErrors(logObj.getErrors() + 1);
-
-                try {
-                    getLogDAO().update(logObj);
-                    getScheduler().getRunningJob().cancel();
-                } catch (DataException e) {
-                    log.error("DataExcepiton while updating the log's error count.", e);
+                sendDocs(docs);
+            } catch (IndexException ie) {
+                // sendDocs has logged it
+                if (failure == null) {
+                    failure = ie;
                 }
-
-                throw new RuntimeException(se.getMessage());
-            } catch (IOException ioe) {
-                log.error("An IOException occurred", ioe);
-
-                LogWriter.addError(logObj.getLogFileLocation(), "An error occurred while adding a document to the Solr index: " + ioe.getMessage());
-
-                logObj.setErrors(logObj.getErrors() + 1);
-
-                try {
-                    getLogDAO().update(logObj);
-                } catch (DataException e) {
-                    log.error("DataExcepiton while updating the log's error count.", e);
+            } catch (RuntimeException re) {
+                log.error("An error occurred while adding documents to the Solr index.", re);
+                if (failure == null) {
+                    failure = new IndexException(re.getMessage());
                 }
-
-                throw new RuntimeException(ioe.getMessage());
             } finally {
-                synchronized (this) {
-                    log.debug("decrementing numQueuedJobs");
-                    numQueuedJobs--;
-                    log.debug("decremented numQueuedJobs: " + numQueuedJobs);
-                }
+                batchPermits.release();
             }
 
             log.debug("Add index to Solr - end");
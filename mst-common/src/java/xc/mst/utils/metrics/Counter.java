@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+
+package xc.mst.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count of events, eg records parsed.  Get one from Metrics.counter.
+ */
+public class Counter implements CounterMBean {
+
+    protected final String name;
+    protected final PerThreadLongs counts = new PerThreadLongs(1, -1);
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void inc() {
+        add(1);
+    }
+
+    public void add(long n) {
+        AtomicLongArray row = counts.get();
+        PerThreadLongs.add(row, 0, n);
+    }
+
+    public long getCount() {
+        return counts.merge()[0];
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+
+package xc.mst.utils.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import xc.mst.constants.Constants;
+
+/**
+ * The registry of counters and timers.  Unlike TimingLogger these are always on and are safe to
+ * update from any number of threads: each thread accumulates into its own slots and the slots are
+ * only merged when a value is read (on the timings page or over jmx, as
+ * xc.mst:type=Timer,name=... and xc.mst:type=Counter,name=...).
+ * <p>
+ * Look a metric up once and keep it in a field; the lookup is a map get, updating it is a few
+ * unshared writes.  Values accumulate for the life of the jvm.
+ */
+public class Metrics {
+
+    protected static Logger log = Logger.getLogger(Constants.LOGGER_GENERAL);
+
+    protected static final String JMX_DOMAIN = "xc.mst";
+
+    protected static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    protected static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    /**
+     * @return the timer called name, which is created the first time it's asked for
+     */
+    public static Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            Timer created = new Timer(name);
+            timer = timers.putIfAbsent(name, created);
+            if (timer == null) {
+                timer = created;
+                register("Timer", name, timer);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * @return the counter called name, which is created the first time it's asked for
+     */
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter(name);
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+                register("Counter", name, counter);
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return the timers by name
+     */
+    public static SortedMap<String, Timer> getTimers() {
+        return new TreeMap<String, Timer>(timers);
+    }
+
+    /**
+     * @return the counters by name
+     */
+    public static SortedMap<String, Counter> getCounters() {
+        return new TreeMap<String, Counter>(counters);
+    }
+
+    protected static void register(String type, String name, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(on)) {
+                server.registerMBean(mbean, on);
+            }
+        } catch (Throwable t) {
+            // the metric still works, it just can't be seen over jmx
+            log.warn("Couldn't register the " + name + " " + type + " with jmx.", t);
+        }
+    }
+
+}
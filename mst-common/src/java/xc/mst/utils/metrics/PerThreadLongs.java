@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+
+package xc.mst.utils.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A row of longs per thread.  A thread only ever writes its own row, so an update is a plain
+ * read and an ordered write (no lock, no CAS, no cache line shared with other threads).  Readers
+ * merge the rows of every thread, so what they see may be a few updates behind.
+ * <p>
+ * The row of a thread which has died is folded into the retired row the next time the values
+ * are read, so threads coming and going (eg a harvest's) don't leave rows behind.
+ */
+class PerThreadLongs {
+
+    protected static class Row {
+        protected WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+        protected AtomicLongArray values = null;
+
+        protected Row(int width) {
+            values = new AtomicLongArray(width);
+        }
+
+        protected boolean isRetired() {
+            Thread t = owner.get();
+            return t == null || !t.isAlive();
+        }
+    }
+
+    protected final int width;
+    protected final int maxIndex;
+    protected final List<Row> rows = new CopyOnWriteArrayList<Row>();
+    protected final long[] retired;
+
+    protected final ThreadLocal<AtomicLongArray> local = new ThreadLocal<AtomicLongArray>() {
+        protected AtomicLongArray initialValue() {
+            Row row = new Row(width);
+            rows.add(row);
+            return row.values;
+        }
+    };
+
+    /**
+     * @param maxIndex
+     *            the one value which is merged by taking the largest instead of the sum, or -1
+     */
+    PerThreadLongs(int width, int maxIndex) {
+        this.width = width;
+        this.maxIndex = maxIndex;
+        this.retired = new long[width];
+    }
+
+    /**
+     * @return the calling thread's row, which only it may write to
+     */
+    AtomicLongArray get() {
+        return local.get();
+    }
+
+    static void add(AtomicLongArray row, int i, long delta) {
+        row.lazySet(i, row.get(i) + delta);
+    }
+
+    static void max(AtomicLongArray row, int i, long value) {
+        if (row.get(i) < value) {
+            row.lazySet(i, value);
+        }
+    }
+
+    /**
+     * @return the values of all threads merged
+     */
+    synchronized long[] merge() {
+        long[] merged = new long[width];
+        Iterator<Row> it = rows.iterator();
+        while (it.hasNext()) {
+            Row row = it.next();
+            // once the owner is seen to have died, everything it wrote is visible
+            if (row.isRetired()) {
+                mergeInto(row.values, retired);
+                rows.remove(row);
+            } else {
+                mergeInto(row.values, merged);
+            }
+        }
+        for (int i = 0; i < width; i++) {
+            merged[i] = merge(i, merged[i], retired[i]);
+        }
+        return merged;
+    }
+
+    protected void mergeInto(AtomicLongArray values, long[] into) {
+        for (int i = 0; i < width; i++) {
+            into[i] = merge(i, into[i], values.get(i));
+        }
+    }
+
+    protected long merge(int i, long a, long b) {
+        return i == maxIndex ? Math.max(a, b) : a + b;
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+
+package xc.mst.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The count, total, longest and distribution of the times something took, eg parsing a harvest
+ * response.  Get one from Metrics.timer and hold on to it:
+ * 
+ * <pre>
+ * protected static final Timer PARSE_TIMER = Metrics.timer(&quot;harvest.parse&quot;);
+ * ...
+ * long start = PARSE_TIMER.start();
+ * ...
+ * PARSE_TIMER.stop(start);
+ * </pre>
+ * 
+ * Times go in a histogram of power of two buckets of nanoseconds, which is enough to tell a
+ * typical time from an outlier without keeping every sample.
+ */
+public class Timer implements TimerMBean {
+
+    protected static final int COUNT = 0;
+    protected static final int TOTAL = 1;
+    protected static final int MAX = 2;
+    protected static final int BUCKETS = 3;
+    protected static final int NUM_BUCKETS = 64;
+
+    protected static final double NANOS_PER_MILLI = 1000000d;
+
+    protected final String name;
+    protected final PerThreadLongs times = new PerThreadLongs(BUCKETS + NUM_BUCKETS, MAX);
+
+    Timer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time to pass to stop
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since start
+     */
+    public void stop(long start) {
+        update(System.nanoTime() - start);
+    }
+
+    public void update(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        AtomicLongArray row = times.get();
+        PerThreadLongs.add(row, COUNT, 1);
+        PerThreadLongs.add(row, TOTAL, nanos);
+        PerThreadLongs.max(row, MAX, nanos);
+        // bucket i holds times from 2^(i-1) up to 2^i - 1
+        PerThreadLongs.add(row, BUCKETS + Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)), 1);
+    }
+
+    /**
+     * @return the times of all threads merged, so all the getters of one snapshot agree
+     */
+    public Snapshot getSnapshot() {
+        return new Snapshot(times.merge());
+    }
+
+    public long getCount() {
+        return getSnapshot().getCount();
+    }
+
+    public double getTotalMillis() {
+        return getSnapshot().getTotalMillis();
+    }
+
+    public double getMeanMillis() {
+        return getSnapshot().getMeanMillis();
+    }
+
+    public double getMaxMillis() {
+        return getSnapshot().getMaxMillis();
+    }
+
+    public double getMedianMillis() {
+        return getSnapshot().getPercentileMillis(0.5);
+    }
+
+    public double get99thPercentileMillis() {
+        return getSnapshot().getPercentileMillis(0.99);
+    }
+
+    public static class Snapshot {
+        protected long[] values = null;
+
+        protected Snapshot(long[] values) {
+            this.values = values;
+        }
+
+        public long getCount() {
+            return values[COUNT];
+        }
+
+        public double getTotalMillis() {
+            return values[TOTAL] / NANOS_PER_MILLI;
+        }
+
+        public double getMeanMillis() {
+            return values[COUNT] == 0 ? 0 : values[TOTAL] / NANOS_PER_MILLI / values[COUNT];
+        }
+
+        public double getMaxMillis() {
+            return values[MAX] / NANOS_PER_MILLI;
+        }
+
+        /**
+         * @param p
+         *            eg 0.99 for the 99th percentile
+         */
+        public double getPercentileMillis(double p) {
+            long rank = (long) Math.ceil(p * values[COUNT]);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += values[BUCKETS + i];
+                if (seen >= rank && seen > 0) {
+                    long upperBound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(upperBound, values[MAX]) / NANOS_PER_MILLI;
+                }
+            }
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+
+package xc.mst.utils.metrics;
+
+/**
+ * What jmx shows of a Timer.  Times are in milliseconds.  The percentiles are the upper bound of
+ * the power of two bucket the percentile falls in, so they're within a factor of two.
+ */
+public interface TimerMBean {
+
+    public String getName();
+
+    public long getCount();
+
+    public double getTotalMillis();
+
+    public double getMeanMillis();
+
+    public double getMaxMillis();
+
+    public double getMedianMillis();
+
+    public double get99thPercentileMillis();
+
+}
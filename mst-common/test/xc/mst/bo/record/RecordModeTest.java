@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.bo.record;
+
+import org.jdom.Element;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RecordModeTest {
+
+    // not the way XmlHelper would write it, so it's easy to tell if it's been re-serialized
+    protected static final String XML = "<foo  a='1'><bar/></foo>";
+
+    @Test
+    public void testUnmodifiedRecordKeepsItsXml() {
+        Record r = new Record();
+        r.setMode(Record.STRING_MODE);
+        r.setOaiXml(XML);
+        Assert.assertEquals(r.peekOaiXml(), XML);
+
+        // flipping modes without looking at the JDOM doesn't touch the xml
+        r.setMode(Record.JDOM_MODE);
+        Assert.assertEquals(r.peekOaiXml(), XML);
+        r.setMode(Record.STRING_MODE);
+        Assert.assertSame(r.getOaiXml(), XML);
+
+        // nor does reading the JDOM
+        r.setMode(Record.JDOM_MODE);
+        Element el = r.readOaiXmlEl();
+        Assert.assertEquals(el.getName(), "foo");
+        Assert.assertNull(r.peekOaiXml());
+        r.setMode(Record.STRING_MODE);
+        Assert.assertSame(r.getOaiXml(), XML);
+    }
+
+    @Test
+    public void testModifiedRecordIsSerialized() {
+        Record r = new Record();
+        r.setMode(Record.STRING_MODE);
+        r.setOaiXml(XML);
+
+        r.setMode(Record.JDOM_MODE);
+        r.getOaiXmlEl().setAttribute("a", "2");
+        r.setMode(Record.STRING_MODE);
+        Assert.assertTrue(r.getOaiXml().contains("a=\"2\""), r.getOaiXml());
+
+        // the JDOM is parsed again from the string that's now current
+        r.setMode(Record.JDOM_MODE);
+        Assert.assertEquals(r.readOaiXmlEl().getAttributeValue("a"), "2");
+
+        r.setOaiXmlEl(new Element("baz"));
+        Assert.assertNull(r.peekOaiXml());
+        r.setMode(Record.STRING_MODE);
+        Assert.assertTrue(r.getOaiXml().contains("<baz"), r.getOaiXml());
+    }
+
+    @Test
+    public void testNullXml() {
+        Record r = new Record();
+        r.setMode(Record.STRING_MODE);
+        r.setOaiXml(null);
+        r.setMode(Record.JDOM_MODE);
+        Assert.assertNull(r.getOaiXmlEl());
+        r.setMode(Record.STRING_MODE);
+        Assert.assertNull(r.getOaiXml());
+    }
+
+}
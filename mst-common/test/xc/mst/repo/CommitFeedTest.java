@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.repo;
+
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CommitFeedTest {
+
+    protected void commit(CommitFeed feed, long fromId, long toId) {
+        for (long id = fromId; id <= toId; id++) {
+            feed.recordAdded(id);
+        }
+        feed.committed();
+    }
+
+    @Test
+    public void testLateIdsGoToEveryFollower() {
+        CommitFeed feed = CommitFeed.open("commit_feed_test", 4);
+        CommitFeed.Follower f1 = feed.follow();
+        CommitFeed.Follower f2 = feed.follow();
+        commit(feed, 1, 10);
+
+        // updates to records which were already committed
+        feed.recordAdded(3);
+        feed.recordAdded(7);
+        feed.recordAdded(11);
+        Assert.assertEquals(f1.takeLateIds().length, 0);
+        feed.committed();
+
+        long[] late = f1.takeLateIds();
+        Arrays.sort(late);
+        Assert.assertTrue(Arrays.equals(late, new long[] {3, 7}));
+        Assert.assertEquals(f1.takeLateIds().length, 0);
+        Assert.assertEquals(f2.takeLateIds().length, 2);
+
+        Assert.assertSame(CommitFeed.get("commit_feed_test"), feed);
+        feed.close();
+        Assert.assertNull(CommitFeed.get("commit_feed_test"));
+        Assert.assertTrue(f1.isClosed());
+    }
+
+    @Test
+    public void testLag() throws Exception {
+        CommitFeed feed = CommitFeed.open("commit_feed_test", 2);
+        CommitFeed.Follower follower = feed.follow();
+        commit(feed, 1, 10);
+        commit(feed, 11, 20);
+        Assert.assertFalse(feed.isLagging());
+        commit(feed, 21, 30);
+        Assert.assertTrue(feed.isLagging());
+
+        follower.processed(15);
+        Assert.assertFalse(feed.isLagging());
+        commit(feed, 31, 40);
+        Assert.assertTrue(feed.isLagging());
+
+        // a follower which has caught up isn't behind at all
+        Assert.assertTrue(follower.awaitCommit(1));
+        commit(feed, 41, 50);
+        commit(feed, 51, 60);
+        Assert.assertFalse(feed.isLagging());
+
+        // nor is one which has stopped
+        commit(feed, 61, 70);
+        Assert.assertTrue(feed.isLagging());
+        follower.stop();
+        Assert.assertFalse(feed.isLagging());
+
+        feed.close();
+        Assert.assertFalse(follower.awaitCommit(1));
+    }
+
+}
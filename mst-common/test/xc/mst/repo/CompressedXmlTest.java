@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.repo;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CompressedXmlTest {
+
+    protected static final String MARC_RECORD =
+            "<marc:record xmlns:marc=\"http://www.loc.gov/MARC21/slim\">" +
+            "<marc:leader>00805cam a2200253   4500</marc:leader>" +
+            "<marc:controlfield tag=\"001\">1178174</marc:controlfield>" +
+            "<marc:controlfield tag=\"008\">810115s1956    ru a          000 1 rus d</marc:controlfield>" +
+            "<marc:datafield tag=\"035\" ind1=\" \" ind2=\" \"><marc:subfield code=\"a\">(OCoLC)7129372</marc:subfield></marc:datafield>" +
+            "<marc:datafield tag=\"245\" ind1=\"1\" ind2=\"0\"><marc:subfield code=\"a\">Pesni i romansy Русские /</marc:subfield>" +
+            "<marc:subfield code=\"c\">sost. éèê.</marc:subfield></marc:datafield>" +
+            "</marc:record>";
+
+    @Test
+    public void testRoundTrip() {
+        byte[] z = CompressedXml.compress(MARC_RECORD);
+        Assert.assertTrue(z.length < MARC_RECORD.length() / 2, "compressed to " + z.length + " bytes");
+        Assert.assertEquals(CompressedXml.decompress(z), MARC_RECORD);
+
+        Assert.assertEquals(CompressedXml.decompress(CompressedXml.compress("")), "");
+        Assert.assertNull(CompressedXml.compress(null));
+        Assert.assertNull(CompressedXml.decompress(null));
+    }
+
+    @Test
+    public void testLargeRecord() {
+        StringBuilder sb = new StringBuilder("<marc:record xmlns:marc=\"http://www.loc.gov/MARC21/slim\">");
+        for (int i = 0; i < 2000; i++) {
+            sb.append("<marc:datafield tag=\"500\" ind1=\" \" ind2=\" \"><marc:subfield code=\"a\">note ")
+                    .append(i).append("</marc:subfield></marc:datafield>");
+        }
+        sb.append("</marc:record>");
+        String xml = sb.toString();
+        Assert.assertEquals(CompressedXml.decompress(CompressedXml.compress(xml)), xml);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testUnknownVersion() {
+        byte[] z = CompressedXml.compress(MARC_RECORD);
+        z[0] = 2;
+        CompressedXml.decompress(z);
+    }
+
+    @Test
+    public void testToHex() {
+        Assert.assertEquals(CompressedXml.toHex(new byte[] { 0, 9, 10, (byte) 0xab, (byte) 0xff }), "00090AABFF");
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.repo;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import xc.mst.bo.provider.Format;
+import xc.mst.bo.provider.Set;
+import xc.mst.bo.record.Record;
+
+public class ContentHashTest {
+
+    protected static final String XML = "<marc:record xmlns:marc=\"http://www.loc.gov/MARC21/slim\">" +
+            "<marc:controlfield tag=\"001\">1178174</marc:controlfield></marc:record>";
+
+    protected Record getRecord(String xml) {
+        Record r = new Record();
+        r.setMode(Record.STRING_MODE);
+        r.setOaiXml(xml);
+        r.setType("b");
+        r.setStatus(Record.ACTIVE);
+        // what's written for a record is the same however many times it's been written
+        r.setPreviousStatus(Record.ACTIVE);
+        Format f = new Format();
+        f.setId(1);
+        r.setFormat(f);
+        return r;
+    }
+
+    protected Set getSet(int id) {
+        Set s = new Set();
+        s.setId(id);
+        return s;
+    }
+
+    @Test
+    public void testSameContent() {
+        Record r1 = getRecord(XML);
+        Record r2 = getRecord(new String(XML));
+        r2.setPreviousStatus(Record.NULL);
+        Assert.assertEquals(ContentHash.hash(r1), ContentHash.hash(r2));
+
+        r1.addSet(getSet(1));
+        r1.addSet(getSet(2));
+        r2.addSet(getSet(2));
+        r2.addSet(getSet(1));
+        Assert.assertEquals(ContentHash.hash(r1), ContentHash.hash(r2));
+    }
+
+    @Test
+    public void testChangedContent() {
+        Long hash = ContentHash.hash(getRecord(XML));
+
+        Assert.assertFalse(hash.equals(ContentHash.hash(getRecord(XML.replace("1178174", "1178175")))));
+
+        Record r = getRecord(XML);
+        r.setStatus(Record.DELETED);
+        Assert.assertFalse(hash.equals(ContentHash.hash(r)));
+
+        r = getRecord(XML);
+        r.setType("h");
+        Assert.assertFalse(hash.equals(ContentHash.hash(r)));
+
+        r = getRecord(XML);
+        r.getFormat().setId(2);
+        Assert.assertFalse(hash.equals(ContentHash.hash(r)));
+
+        r = getRecord(XML);
+        r.addSet(getSet(1));
+        Assert.assertFalse(hash.equals(ContentHash.hash(r)));
+    }
+
+    @Test
+    public void testNoContent() {
+        Assert.assertNull(ContentHash.hash(getRecord(null)));
+        Assert.assertNull(ContentHash.hash(getRecord(Record.UNCHANGED)));
+    }
+
+}
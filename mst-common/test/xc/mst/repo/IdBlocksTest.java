@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.repo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class IdBlocksTest {
+
+    // a sequence like oai_id_sequence, which remembers the size of each block reserved
+    protected static class Sequence implements IdBlocks.Source {
+        protected AtomicLong next = new AtomicLong(1);
+        protected List<Integer> sizes = new ArrayList<Integer>();
+
+        public synchronized long reserve(int count) {
+            sizes.add(count);
+            return next.getAndAdd(count);
+        }
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+        final IdBlocks ids = new IdBlocks(new Sequence(), 10, 1000, 1000);
+        final long[][] taken = new long[8][5000];
+        Thread[] threads = new Thread[taken.length];
+        for (int i = 0; i < threads.length; i++) {
+            final long[] mine = taken[i];
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < mine.length; j++) {
+                        mine[j] = ids.next();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Set<Long> seen = new HashSet<Long>();
+        for (long[] mine : taken) {
+            for (int j = 0; j < mine.length; j++) {
+                Assert.assertTrue(seen.add(mine[j]), "id " + mine[j] + " was given out twice");
+                // each thread's ids go up
+                if (j > 0) {
+                    Assert.assertTrue(mine[j] > mine[j - 1]);
+                }
+            }
+        }
+        Assert.assertEquals(seen.size(), 40000);
+    }
+
+    @Test
+    public void testBlocksGrowAndReset() {
+        Sequence sequence = new Sequence();
+        IdBlocks ids = new IdBlocks(sequence, 10, 40, 60000);
+        Assert.assertEquals(ids.peek(), -1);
+        for (int i = 0; i < 10 + 20 + 40 + 40; i++) {
+            ids.next();
+        }
+        Assert.assertEquals(sequence.sizes.toString(), "[10, 20, 40, 40]");
+        Assert.assertEquals(ids.peek(), -1);
+        ids.next();
+        Assert.assertEquals(ids.peek(), 112);
+
+        // back to a small block, and none of the old one is handed out
+        ids.reset();
+        Assert.assertEquals(ids.next(), 151);
+        Assert.assertEquals(sequence.sizes.get(sequence.sizes.size() - 1).intValue(), 10);
+    }
+
+}
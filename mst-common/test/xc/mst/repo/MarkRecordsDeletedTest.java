@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.repo;
+
+import gnu.trove.TLongArrayList;
+
+import java.util.Date;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import xc.mst.bo.provider.Format;
+import xc.mst.bo.provider.Set;
+import xc.mst.bo.record.Record;
+import xc.mst.bo.record.RecordCounts;
+import xc.mst.common.test.BaseTest;
+import xc.mst.services.RepositoryDeletionManager;
+import xc.mst.utils.MSTConfiguration;
+
+public class MarkRecordsDeletedTest extends BaseTest {
+
+    protected static final String REPO_NAME = "mark_deleted_test";
+    protected static final String SET_SPEC = "mark_deleted_test";
+    protected static final int NUM_RECORDS = 25;
+
+    protected Repository repo = null;
+    protected Set set = null;
+    protected long[] ids = new long[NUM_RECORDS];
+
+    // every 5th record is deleted already, the 8th is held, the odd ones are in the set
+    protected char getStatus(int i) {
+        if (i % 5 == 4) {
+            return Record.DELETED;
+        }
+        return i == 7 ? Record.HELD : Record.ACTIVE;
+    }
+
+    @BeforeMethod
+    public void addRecords() throws Exception {
+        getRepositoryDAO().deleteSchema(REPO_NAME);
+        getRepositoryDAO().createSchema(REPO_NAME);
+        repo = (Repository) MSTConfiguration.getInstance().getBean("Repository");
+        repo.setName(REPO_NAME);
+        repo.installOrUpdateIfNecessary(null, MSTConfiguration.getInstance().getProperty("version"));
+
+        set = getSetDAO().getBySetSpec(SET_SPEC);
+        if (set == null) {
+            set = new Set();
+            set.setSetSpec(SET_SPEC);
+            set.setDisplayName(SET_SPEC);
+            getSetDAO().insert(set);
+        }
+        Format format = getMarcXmlFormat();
+
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            Record r = new Record();
+            getRepositoryDAO().injectId(r);
+            ids[i] = r.getId();
+            r.setMode(Record.STRING_MODE);
+            r.setOaiXml("<record>" + i + "</record>");
+            r.setType(i % 2 == 0 ? "b" : "h");
+            r.setStatus(getStatus(i));
+            r.setFormat(format);
+            if (i % 2 == 1) {
+                r.addSet(set);
+            }
+            repo.addRecord(r);
+        }
+        getRepositoryDAO().commitIfNecessary(REPO_NAME, true, 0);
+    }
+
+    protected void assertIds(TLongArrayList deletedIds, int... records) {
+        Assert.assertEquals(deletedIds.size(), records.length);
+        for (int i = 0; i < records.length; i++) {
+            Assert.assertEquals(deletedIds.get(i), ids[records[i]], "record " + records[i]);
+        }
+    }
+
+    protected char[] getStatuses() {
+        List<Record> headers = repo.getHeaders(ids);
+        Assert.assertEquals(headers.size(), NUM_RECORDS);
+        char[] statuses = new char[NUM_RECORDS];
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            Assert.assertEquals(headers.get(i).getId(), ids[i]);
+            statuses[i] = headers.get(i).getStatus();
+        }
+        return statuses;
+    }
+
+    @Test
+    public void testRanges() {
+        RecordCounts counts = new RecordCounts(new Date(), RecordCounts.INCOMING);
+        TLongArrayList deletedIds = new TLongArrayList();
+
+        // records 0-9, less 4 and 9
+        long lastId = getRepositoryDAO().markRecordsDeleted(REPO_NAME, null, 0, 10, counts, deletedIds);
+        Assert.assertEquals(lastId, ids[9]);
+        assertIds(deletedIds, 0, 1, 2, 3, 5, 6, 7, 8);
+        Assert.assertEquals(counts.getCount(RecordCounts.TOTALS, RecordCounts.UPDATE_DELETE), 8);
+        Assert.assertEquals(counts.getCount(RecordCounts.TOTALS, Record.DELETED, Record.ACTIVE), 7);
+        Assert.assertEquals(counts.getCount(RecordCounts.TOTALS, Record.DELETED, Record.HELD), 1);
+        Assert.assertEquals(counts.getCount("b", RecordCounts.UPDATE_DELETE), 4);
+        Assert.assertEquals(counts.getCount("h", RecordCounts.UPDATE_DELETE), 4);
+
+        // the range stops at the 10th record, whatever its status
+        char[] statuses = getStatuses();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            Assert.assertEquals(statuses[i], i < 10 ? Record.DELETED : getStatus(i), "record " + i);
+        }
+
+        deletedIds.clear();
+        Assert.assertEquals(getRepositoryDAO().markRecordsDeleted(REPO_NAME, null, lastId, 10, counts, deletedIds), ids[19]);
+        Assert.assertEquals(deletedIds.size(), 8);
+        deletedIds.clear();
+        Assert.assertEquals(getRepositoryDAO().markRecordsDeleted(REPO_NAME, null, ids[19], 10, counts, deletedIds), ids[24]);
+        Assert.assertEquals(deletedIds.size(), 4);
+        deletedIds.clear();
+        Assert.assertEquals(getRepositoryDAO().markRecordsDeleted(REPO_NAME, null, ids[24], 10, counts, deletedIds), -1);
+        Assert.assertEquals(deletedIds.size(), 0);
+        Assert.assertEquals(counts.getCount(RecordCounts.TOTALS, RecordCounts.UPDATE_DELETE), 20);
+
+        for (char status : getStatuses()) {
+            Assert.assertEquals(status, Record.DELETED);
+        }
+    }
+
+    @Test
+    public void testSet() {
+        RecordCounts counts = new RecordCounts(new Date(), RecordCounts.INCOMING);
+        TLongArrayList deletedIds = new TLongArrayList();
+
+        // the range is still the next 10 records, of which 1, 3, 5 and 7 are in the set
+        long lastId = getRepositoryDAO().markRecordsDeleted(REPO_NAME, set, 0, 10, counts, deletedIds);
+        Assert.assertEquals(lastId, ids[9]);
+        assertIds(deletedIds, 1, 3, 5, 7);
+        Assert.assertEquals(counts.getCount(RecordCounts.TOTALS, RecordCounts.UPDATE_DELETE), 4);
+        Assert.assertEquals(counts.getCount("h", RecordCounts.UPDATE_DELETE), 4);
+        Assert.assertEquals(counts.getCount("b", RecordCounts.UPDATE_DELETE), 0);
+
+        while (lastId != -1) {
+            lastId = getRepositoryDAO().markRecordsDeleted(REPO_NAME, set, lastId, 10, counts, deletedIds);
+        }
+        Assert.assertEquals(counts.getCount(RecordCounts.TOTALS, RecordCounts.UPDATE_DELETE), 10);
+
+        char[] statuses = getStatuses();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            Assert.assertEquals(statuses[i], i % 2 == 1 ? Record.DELETED : getStatus(i), "record " + i);
+        }
+    }
+
+    @Test
+    public void testResume() {
+        RecordCounts counts = new RecordCounts(new Date(), RecordCounts.INCOMING);
+        TLongArrayList deletedIds = new TLongArrayList();
+
+        // a range done again, because its end wasn't stored before an interrupt, isn't counted twice
+        Assert.assertEquals(getRepositoryDAO().markRecordsDeleted(REPO_NAME, null, 0, 10, counts, deletedIds), ids[9]);
+        Assert.assertEquals(deletedIds.size(), 8);
+        deletedIds.clear();
+        Assert.assertEquals(getRepositoryDAO().markRecordsDeleted(REPO_NAME, null, 0, 10, counts, deletedIds), ids[9]);
+        Assert.assertEquals(deletedIds.size(), 0);
+        Assert.assertEquals(counts.getCount(RecordCounts.TOTALS, RecordCounts.UPDATE_DELETE), 8);
+    }
+
+    @Test
+    public void testDeletionManagerCarriesOn() {
+        // as if a deletion had been interrupted after the first 10 records
+        repo.setPersistentProperty(RepositoryDeletionManager.DELETED_THROUGH, ids[9]);
+
+        RepositoryDeletionManager rdm = (RepositoryDeletionManager) MSTConfiguration.getInstance().getBean("RepositoryDeletionManager");
+        rdm.setIncomingRepository(repo);
+        rdm.setup();
+        Assert.assertFalse(rdm.doSomeWork());
+
+        // 10-24, less 14, 19 and 24
+        Assert.assertEquals(rdm.getRecordsProcessedThisRun(), 12);
+        char[] statuses = getStatuses();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            Assert.assertEquals(statuses[i], i < 10 ? getStatus(i) : Record.DELETED, "record " + i);
+        }
+        // finished, so the next deletion starts from the beginning
+        Assert.assertEquals(repo.getPersistentPropertyAsLong(RepositoryDeletionManager.DELETED_THROUGH, 0), 0);
+    }
+
+}
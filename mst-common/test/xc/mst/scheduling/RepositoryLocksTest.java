@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RepositoryLocksTest {
+
+    protected static final List<String> NONE = new ArrayList<String>();
+
+    @Test
+    public void testReadersShareWritersDont() {
+        RepositoryLocks locks = new RepositoryLocks();
+        List<String> provider = Arrays.asList("provider_a");
+        List<String> normalization = Arrays.asList("marcnormalization");
+
+        // a harvest of provider_a
+        Assert.assertTrue(locks.tryLock(NONE, provider));
+        // normalization can't read provider_a until the harvest is done
+        Assert.assertFalse(locks.tryLock(provider, normalization));
+        // and a second harvest of it has to wait too, even from the same thread
+        Assert.assertFalse(locks.tryLock(NONE, provider));
+        // but a harvest of provider_b can run
+        Assert.assertTrue(locks.tryLock(NONE, Arrays.asList("provider_b")));
+
+        locks.unlock(NONE, provider);
+        Assert.assertTrue(locks.tryLock(provider, normalization));
+        // another service reading provider_a is fine
+        Assert.assertTrue(locks.tryLock(provider, Arrays.asList("marcnormalization_2")));
+        Assert.assertFalse(locks.tryLock(NONE, provider));
+
+        locks.unlock(provider, normalization);
+        Assert.assertTrue(locks.isLocked("provider_a"));
+        Assert.assertFalse(locks.isLocked("marcnormalization"));
+        locks.unlock(provider, Arrays.asList("marcnormalization_2"));
+        Assert.assertFalse(locks.isLocked("provider_a"));
+        Assert.assertTrue(locks.tryLock(NONE, provider));
+    }
+
+}
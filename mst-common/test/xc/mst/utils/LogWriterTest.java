@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import org.apache.log4j.Level;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LogWriterTest {
+
+    protected File tempFile(String name) throws Exception {
+        File f = File.createTempFile(name, ".txt");
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
+    protected int countLines(File f) throws Exception {
+        BufferedReader br = new BufferedReader(new FileReader(f));
+        try {
+            int lines = 0;
+            while (br.readLine() != null) {
+                lines++;
+            }
+            return lines;
+        } finally {
+            br.close();
+        }
+    }
+
+    @Test
+    public void testManyThreads() throws Exception {
+        final File a = tempFile("LogWriterTest-a");
+        final File b = tempFile("LogWriterTest-b");
+        // a small queue, so the threads have to wait for the writer
+        final LogWriter.Writer writer = new LogWriter.Writer(16, 8, false);
+        writer.start();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        writer.add(a.getAbsolutePath(), Level.ERROR, "a " + j);
+                        writer.add(b.getAbsolutePath(), Level.ERROR, "b " + j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        writer.flush();
+        Assert.assertEquals(countLines(a), 4000);
+        Assert.assertEquals(countLines(b), 4000);
+
+        // written on the caller's thread once stopped
+        writer.stop();
+        writer.add(a.getAbsolutePath(), Level.ERROR, "after stop");
+        Assert.assertEquals(countLines(a), 4001);
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        File f = tempFile("LogWriterTest-drop");
+        // not started, so nothing empties the queue
+        LogWriter.Writer writer = new LogWriter.Writer(2, 8, true);
+        long dropped = LogWriter.DROPPED.getCount();
+        for (int i = 0; i < 5; i++) {
+            writer.add(f.getAbsolutePath(), Level.ERROR, "message " + i);
+        }
+        Assert.assertEquals(LogWriter.DROPPED.getCount() - dropped, 3);
+
+        writer.stop();
+        Assert.assertEquals(countLines(f), 2);
+    }
+
+}
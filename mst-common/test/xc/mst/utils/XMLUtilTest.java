@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.utils;
+
+import java.io.StringWriter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class XMLUtilTest {
+
+    protected void assertSameAsRegex(String xml) throws Exception {
+        StringWriter sw = new StringWriter();
+        XMLUtil.writeWithoutXmlDeclarations(xml, sw);
+        Assert.assertEquals(sw.toString(), xml.replaceAll("<\\?xml.*\\?>", ""), xml);
+    }
+
+    @Test
+    public void testWriteWithoutXmlDeclarations() throws Exception {
+        assertSameAsRegex("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<marc:record/>");
+        assertSameAsRegex("<?xml version=\"1.0\"?><a>b</a>");
+        assertSameAsRegex("<marc:record/>");
+        assertSameAsRegex("");
+        assertSameAsRegex("<?xml?>");
+        // greedy: up to the last ?> on the line
+        assertSameAsRegex("<?xml version=\"1.0\"?><a><?pi x?></a>\n<b><?xml-stylesheet href=\"x\"?></b>");
+        // no ?> on the same line
+        assertSameAsRegex("<?xml version=\"1.0\"\n?><a/>");
+        assertSameAsRegex("<?xml version=\"1.0\"\r\n?><a/><?xml?>");
+        assertSameAsRegex("a<?xm<?xml ?>b <?xml c?>d<?xml");
+        assertSameAsRegex("<?xml ?><?xml ?>");
+    }
+
+}
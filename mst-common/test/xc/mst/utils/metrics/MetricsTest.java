@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.utils.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void testThreadsAreMerged() throws Exception {
+        final Counter counter = Metrics.counter("MetricsTest.threads");
+        final Timer timer = Metrics.timer("MetricsTest.threads");
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.inc();
+                        timer.update(1000);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        // the threads have died, so their rows are folded into the retired ones
+        Assert.assertEquals(counter.getCount(), 80000);
+        Assert.assertEquals(timer.getCount(), 80000);
+        Assert.assertEquals(counter.getCount(), 80000);
+        Assert.assertEquals(counter.counts.rows.size(), 0);
+
+        counter.add(5);
+        Assert.assertEquals(counter.getCount(), 80005);
+        Assert.assertSame(Metrics.counter("MetricsTest.threads"), counter);
+    }
+
+    @Test
+    public void testPercentiles() {
+        Timer timer = Metrics.timer("MetricsTest.percentiles");
+        for (int i = 0; i < 98; i++) {
+            timer.update(1000000);
+        }
+        timer.update(50000000);
+        timer.update(60000000);
+
+        Timer.Snapshot s = timer.getSnapshot();
+        Assert.assertEquals(s.getCount(), 100);
+        Assert.assertEquals(s.getMaxMillis(), 60d);
+        // 1ms is in the bucket up to 2^20 ns
+        Assert.assertEquals(s.getPercentileMillis(0.5), ((1 << 20) - 1) / 1000000d);
+        // 50ms is in the bucket up to 2^26 ns, which is more than the longest
+        Assert.assertEquals(s.getPercentileMillis(0.99), 60d);
+        Assert.assertEquals(s.getMeanMillis(), (98 + 50 + 60) / 100d, 0.0001);
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        Metrics.timer("MetricsTest.jmx, with: odd=chars").update(2000000);
+        ObjectName on = new ObjectName("xc.mst:type=Timer,name=" + ObjectName.quote("MetricsTest.jmx, with: odd=chars"));
+        Assert.assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(on, "Count"), 1L);
+    }
+
+}
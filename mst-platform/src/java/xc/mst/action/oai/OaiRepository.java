@@ -120,13 +120,10 @@ public class OaiRepository extends BaseActionSupport implements ServletRequestAw
             // Create the Facade Object, which will compute the results of the request and set them on the bean
             Facade facade = (Facade) MSTConfiguration.getInstance().getBean("Facade");
 
-            // Execute the correct request on the Facade Object
-            oaiXMLOutput = facade.execute(oaiRequest);
-
             response.setContentType("text/xml; charset=UTF-8");
 
-            // Write the response
-            response.getWriter().write(oaiXMLOutput);
+            // Execute the correct request on the Facade Object, which writes the response
+            facade.execute(oaiRequest, response.getOutputStream());
 
             return SUCCESS;
         } catch (DatabaseConfigException e) {
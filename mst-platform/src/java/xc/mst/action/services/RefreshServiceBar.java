@@ -113,6 +113,10 @@ public class RefreshServiceBar extends BaseActionSupport implements ServletReque
                         }
                     }
                 }
+                int otherJobs = getScheduler().getRunningJobs().size() - 1;
+                if (currentProcess != null && otherJobs > 0) {
+                    currentProcess += " (" + otherJobs + " other job" + (otherJobs == 1 ? "" : "s") + " running)";
+                }
             } else {
                 WorkerThread.serviceBarDisplay = null;
             }
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+
+package xc.mst.action.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import xc.mst.action.BaseActionSupport;
+import xc.mst.utils.metrics.Counter;
+import xc.mst.utils.metrics.Metrics;
+import xc.mst.utils.metrics.Timer;
+
+/**
+ * Shows the timers and counters in Metrics, the same values jmx shows.  The first row of each
+ * table is its header.
+ */
+public class Timings extends BaseActionSupport {
+
+    private static final long serialVersionUID = 4720937413096236917L;
+
+    protected List<String[]> timers = null;
+    protected List<String[]> counters = null;
+
+    public List<String[]> getTimers() {
+        return timers;
+    }
+
+    public List<String[]> getCounters() {
+        return counters;
+    }
+
+    @Override
+    public String execute() {
+        timers = new ArrayList<String[]>();
+        timers.add(new String[] {"", "count", "total (s)", "mean (ms)", "median (ms)", "99th % (ms)", "longest (ms)"});
+        for (Map.Entry<String, Timer> me : Metrics.getTimers().entrySet()) {
+            Timer.Snapshot s = me.getValue().getSnapshot();
+            timers.add(new String[] {
+                    me.getKey(),
+                    String.valueOf(s.getCount()),
+                    String.format("%.1f", s.getTotalMillis() / 1000),
+                    String.format("%.3f", s.getMeanMillis()),
+                    String.format("%.3f", s.getPercentileMillis(0.5)),
+                    String.format("%.3f", s.getPercentileMillis(0.99)),
+                    String.format("%.3f", s.getMaxMillis())});
+        }
+
+        counters = new ArrayList<String[]>();
+        counters.add(new String[] {"", "count"});
+        for (Map.Entry<String, Counter> me : Metrics.getCounters().entrySet()) {
+            counters.add(new String[] {me.getKey(), String.valueOf(me.getValue().getCount())});
+        }
+        return SUCCESS;
+    }
+}
@@ -14,6 +14,7 @@ import javax.servlet.ServletContextListener;
 
 import org.springframework.web.context.ContextLoaderListener;
 
+import xc.mst.utils.LogWriter;
 import xc.mst.utils.SetupClasspath;
 
 public class MSTContextListener implements ServletContextListener {
@@ -31,6 +32,7 @@ public class MSTContextListener implements ServletContextListener {
 
     public void contextDestroyed(ServletContextEvent sce) {
         this.contextLoaderListener.contextDestroyed(sce);
+        LogWriter.shutdown();
     }
 
 }
@@ -84,6 +84,7 @@
                                 <li class="yuimenuitem"><a class="yuimenuitemlabel" style="text-decoration:none;color:#000000" href="harvestInLog.action" >Harvest In</a></li>
                                 <li class="yuimenuitem"><a class="yuimenuitemlabel" style="text-decoration:none;color:#000000" href="harvestOutLog.action" >Harvest Out</a></li>
                                 <li class="yuimenuitem"><a class="yuimenuitemlabel" style="text-decoration:none;color:#000000" href="serviceLog.action" >Services</a></li>
+                                <li class="yuimenuitem"><a class="yuimenuitemlabel" style="text-decoration:none;color:#000000" href="timings.action" >Timings</a></li>
                            </ul>
                         </div>
                     </div>
@@ -9,6 +9,7 @@
 package xc.mst.services.marcaggregation;
 
 import gnu.trove.TLongLongHashMap;
+import gnu.trove.TLongLongIterator;
 import gnu.trove.TLongObjectHashMap;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.log4j.Logger;
@@ -29,6 +30,8 @@ import xc.mst.utils.LogWriter;
 import xc.mst.utils.MSTConfiguration;
 import xc.mst.utils.TimingLogger;
 import xc.mst.utils.Util;
+import xc.mst.utils.metrics.Metrics;
+import xc.mst.utils.metrics.Timer;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
@@ -45,6 +48,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class MarcAggregationService extends GenericMetadataService {
 
+    protected static final Timer FIND_MATCH_SETS_TIMER = Metrics.timer("mas.findMatchSets");
+    protected static final Timer ADD_TO_MATCHERS_TIMER = Metrics.timer("mas.addRecordToMatchers");
+
     /**
      * The output format (marcxml) for records processed from this service
      */
@@ -52,10 +58,16 @@ public class MarcAggregationService extends GenericMetadataService {
 
     protected Map<String, FieldMatcher>              matcherMap = null;
     protected Map<String, MatchRuleIfc>              matchRuleMap = null;
+    // determineMatches of each match rule, by the rule's key
+    protected Map<String, Timer>                     matchRuleTimers = null;
     protected MarcAggregationServiceDAO              masDAO = null;
     protected MASMarcBuilder                         masBld = null;
     protected RecordOfSourceManager                  masRsm = null;
-    protected List<HashSet<Long>>                    masMatchSetList = null;
+
+    /**
+     * the input bibs grouped the same way allBibRecordsI2Omap groups them (by output record)
+     */
+    protected MatchSets                              matchSets = null;
 
     /**
      * to sort/figure record of source, place items we are interested in, that are used to determine
@@ -155,7 +167,7 @@ public class MarcAggregationService extends GenericMetadataService {
         matchRuleMap = null;
         masBld = null;
         masRsm = null;
-        masMatchSetList = null;
+        matchSets = null;
 
         scores             = null;
         scores_unpersisted = null;
@@ -260,6 +272,11 @@ public class MarcAggregationService extends GenericMetadataService {
         allBibRecordsO2Imap = createMergedRecordsO2Imap(allBibRecordsI2Omap);
         TimingLogger.stop("MAS.doSetup.createMergedRecordsO2Imap");
 
+        TimingLogger.start("MAS.doSetup.createMatchSets");
+        matchSets = createMatchSets(allBibRecordsI2Omap);
+        TimingLogger.stop("MAS.doSetup.createMatchSets");
+        LOG.info("matchSets size: "+matchSets.size());
+
         /****TimingLogger.start("MAS.doSetup.loadMasMergedInputRecords");
         mergedInRecordsList = loadMasMergedInputRecords();
         TimingLogger.stop("MAS.doSetup.loadMasMergedInputRecords");
@@ -329,6 +346,34 @@ public class MarcAggregationService extends GenericMetadataService {
         return results;
     }
 
+    /**
+     * the match sets are persisted as bib_records (input records that share an output record
+     * are in the same match set), so rebuild them from there.
+     *
+     * @param i_to_o_map
+     * @return
+     */
+    private MatchSets createMatchSets(TLongLongHashMap i_to_o_map) {
+        LOG.info("start createMatchSets");
+        MatchSets results = new MatchSets();
+        // output record -> the first input record seen for it
+        TLongLongHashMap firstInputs = new TLongLongHashMap();
+        TLongLongIterator it = i_to_o_map.iterator();
+        while (it.hasNext()) {
+            it.advance();
+            long in = it.key();
+            long out = it.value();
+            if (firstInputs.containsKey(out)) {
+                results.union(firstInputs.get(out), in);
+            } else {
+                firstInputs.put(out, in);
+                results.add(in);
+            }
+        }
+        LOG.info("done createMatchSets");
+        return results;
+    }
+
     /**
      * load from the database
      * @return known merged records that were persisted, it returns all bibs i to o
@@ -349,15 +394,16 @@ public class MarcAggregationService extends GenericMetadataService {
 
     protected void setupMatchRules() {
         this.matchRuleMap = new HashMap<String, MatchRuleIfc>();
+        this.matchRuleTimers = new HashMap<String, Timer>();
         List<String> mrs = getConfigFileValues("match.rules.value");
         for (String mrStr : mrs) {
             MatchRuleIfc mr = (MatchRuleIfc) config.getBean(mrStr + "MatchRule");
             matchRuleMap.put(mrStr, mr);
+            matchRuleTimers.put(mrStr, Metrics.timer("mas.matchRule." + mrStr + ".determineMatches"));
         }
         if (this.masDAO == null) {  // this was really an initial unit test
             LOG.error("***  ERROR, DAO did not get initialized by Spring!");
         }
-        masMatchSetList = new ArrayList<HashSet<Long>>();
         scores = new TLongObjectHashMap<RecordOfSourceData>();   /// TODO load what you have in the db!
 
         if (hasIntermediatePersistence) {
@@ -421,14 +467,16 @@ public class MarcAggregationService extends GenericMetadataService {
     }
 
     /**
-     * this is just for what we have so far, not meant to always be up to date, i.e. it doesn't get
-     * started off from looking at existing merged stuff in the database.  Based on the current record
-     * that comes in, see what it matches, and go from there.
+     * the current match sets of more than 1 record (i.e. the merged ones), in no particular order.
+     * they include what was merged on previous runs.
      *
      * @return
      */
     public List<HashSet<Long>> getCurrentMatchSetList() {
-        return masMatchSetList;
+        if (matchSets == null) {
+            return new ArrayList<HashSet<Long>>();
+        }
+        return matchSets.getMatchSets(2);
     }
 
     /**
@@ -775,6 +823,7 @@ public class MarcAggregationService extends GenericMetadataService {
             }
         }
         allBibRecordsO2Imap.put(outputRecordId, mergedInputRecordSet);
+        matchSets.addMatchSet(mergedInputRecordSet);
 
         /****if (mergedInputRecordSet.size() > 1) {
             for (Long num: mergedInputRecordSet) {
@@ -1011,30 +1060,21 @@ public class MarcAggregationService extends GenericMetadataService {
     }
 
     private HashSet<Long> getCurrentMatchSetForRecord(InputRecord r) {
-        Long outputId = getBibOutputId(r);
-        if (outputId != null) return getCurrentMatchSetForRecordId(outputId);
-        return new HashSet<Long>();
-    }
-    	
-    private HashSet<Long> getCurrentMatchSetForRecordId(Long id) {
-        HashSet<Long> matchSet = allBibRecordsO2Imap.get(id);
-        if (matchSet == null) {
-            matchSet = new HashSet<Long>();
-        }
-        return matchSet;
+        return matchSets.getMatchSet(r.getId());
     }
 
 
 
     private List<HashSet<Long>> findMatchSets(HashSet<Long> formerMatchSet) {
-        TimingLogger.start("findMatchSets");
+        long start = FIND_MATCH_SETS_TIMER.start();
 
-        List<HashSet<Long>> listOfMatchSets = new ArrayList<HashSet<Long>>();
-        HashSet<Long> processedTheseAlready = new HashSet<Long>();
+        // the sets found for different records can overlap, they have to be combined
+        MatchSets newMatchSets = new MatchSets();
+        List<Long> firstIds = new ArrayList<Long>();
                 
     	for (Long id: formerMatchSet) {
 
-    		if (processedTheseAlready.contains(id)) continue;
+    		if (newMatchSets.contains(id)) continue;
     		
             Record r = getInputRepo().getRecord(id);
             
@@ -1059,12 +1099,20 @@ public class MarcAggregationService extends GenericMetadataService {
             newMatchedRecordIds.add(id);
     		
     		newMatchedRecordIds = expandMatchedRecords(newMatchedRecordIds);
-    		processedTheseAlready.addAll(newMatchedRecordIds);
-    		
-    		listOfMatchSets.add(newMatchedRecordIds);
+    		newMatchSets.addMatchSet(newMatchedRecordIds);
+    		firstIds.add(id);
     		
         }
-        TimingLogger.stop("findMatchSets");
+
+        // in the order they were found
+        List<HashSet<Long>> listOfMatchSets = new ArrayList<HashSet<Long>>();
+        HashSet<Long> roots = new HashSet<Long>();
+        for (Long id: firstIds) {
+            if (roots.add(newMatchSets.find(id))) {
+                listOfMatchSets.add(newMatchSets.getMatchSet(id));
+            }
+        }
+        FIND_MATCH_SETS_TIMER.stop(start);
 
     	return listOfMatchSets;
     }
@@ -1310,7 +1358,7 @@ public class MarcAggregationService extends GenericMetadataService {
     protected Record getRecord(Long recordId) {
         // We may need to access in-memory (not yet persisted) records.
         // MST doesn't provide a safe framework for manipulating in-memory objects; therefore, we will persist all records first!
-        if (getRepositoryDAO().haveUnpersistedRecord(recordId)) {
+        if (getRepositoryDAO().haveUnpersistedRecord(getRepository().getName(), recordId)) {
             super.commitIfNecessary(true, 0);
         }
         Record r = getRepository().getRecord(recordId);
@@ -1337,10 +1385,15 @@ public class MarcAggregationService extends GenericMetadataService {
             // Although, MAS *should* fix this scenario later on when the deleted record gets processed, let's be pro-active.
     		if (formerMatchSet.size() > 0) {
 				List<Long> deleteThese = new ArrayList<Long>();
+				long[] formerIds = new long[formerMatchSet.size()];
+				int i = 0;
     			for (Long num: formerMatchSet) {
-    				if (repo.getRecord(num).getDeleted()) {
-    					LOG.info("MAS:  processBibUpdateActive: we found a bib that's been marked for deletion in formerMatchSet; we are skipping this record: " + num);
-    					deleteThese.add(num);
+    				formerIds[i++] = num;
+    			}
+    			for (Record header : repo.getHeaders(formerIds)) {
+    				if (header.getDeleted()) {
+    					LOG.info("MAS:  processBibUpdateActive: we found a bib that's been marked for deletion in formerMatchSet; we are skipping this record: " + header.getId());
+    					deleteThese.add(header.getId());
     				}
     			}
     			formerMatchSet.removeAll(deleteThese);
@@ -1534,8 +1587,6 @@ public class MarcAggregationService extends GenericMetadataService {
         // may not have any matches!
         final boolean hasMatches = matchedRecordIds.size() > 1;
         if (hasMatches) {
-            //masMatchSetList = addToMatchSetList(matchedRecordIds, masMatchSetList);
-
             InputRecord record = masRsm.getRecordOfSourceRecord(matchedRecordIds, getInputRepo(), scores);
             String xml = mergeBibSet(record, matchedRecordIds, getInputRepo());
             list = createNewBibRecord(record, xml, matchedRecordIds); // this method calls addToMasMergedRecordsMemory
@@ -1602,6 +1653,7 @@ public class MarcAggregationService extends GenericMetadataService {
             if (allBibRecordsI2Omap.containsKey(input)) {
                 Long outputRecordToBeDeletedNum = getBibOutputId(input);  // grabs it out of I2O
                 allBibRecordsI2Omap.remove(input);   // at end of this will re-add with proper new relationship
+                matchSets.remove(input);
                 if (hasIntermediatePersistence) {
                     allBibRecordsI2Omap_unpersisted.remove(input);
                 }
@@ -1665,10 +1717,11 @@ public class MarcAggregationService extends GenericMetadataService {
         for (Map.Entry<String, MatchRuleIfc> me : this.matchRuleMap.entrySet()) {
             String matchRuleKey = me.getKey();
             
-            TimingLogger.start("populateMatchedRecordIds.determineMatches." + matchRuleKey);
+            Timer timer = matchRuleTimers.get(matchRuleKey);
+            long start = timer.start();
             MatchRuleIfc matchRule = me.getValue();
             Set<Long> set = matchRule.determineMatches(ms);
-            TimingLogger.stop("populateMatchedRecordIds.determineMatches." + matchRuleKey);
+            timer.stop(start);
             
             if (set !=null && !set.isEmpty()) {
                 matchedRecordIds.addAll(set);
@@ -1702,13 +1755,13 @@ public class MarcAggregationService extends GenericMetadataService {
     }
     
     private void addRecordToMatchers(InputRecord r, SaxMarcXmlRecord smr) {
-        TimingLogger.start("addRecordToMatchers");
+        long start = ADD_TO_MATCHERS_TIMER.start();
 
         for (Map.Entry<String, FieldMatcher> me : this.matcherMap.entrySet()) {
             FieldMatcher matcher = me.getValue();
             matcher.addRecordToMatcher(smr, r); 
         }
-        TimingLogger.stop("addRecordToMatchers");
+        ADD_TO_MATCHERS_TIMER.stop(start);
     }
 
     private boolean matchpointsHaveChanged(InputRecord r, SaxMarcXmlRecord smr) {
@@ -1741,87 +1794,6 @@ public class MarcAggregationService extends GenericMetadataService {
     }
 
 
-    /**
-     *
-     * need to look to see if the given match set impacts existing sets.  i.e if this set  is {1,47,50}
-     * and we have existing sets {1,3} and {4,47} then we need a superset: {1,3,4,47,50} and need to
-     * remove the existing sets {1,3}, {4,47}
-     *
-     * disjoint-set data structure?
-     *
-     * @param matchset
-     * @param origMasMatchSetList
-     * @return
-     */
-
-    private List<HashSet<Long>> addToMatchSetList(HashSet<Long> matchset,  final List<HashSet<Long>> origMasMatchSetList) {
-        TimingLogger.start("addToMatchSetList");
-
-        if (matchset==null) {
-            TimingLogger.stop("addToMatchSetList");
-            return origMasMatchSetList;
-        }
-        if (matchset.size() < 1) {   ///TODO shouldn't this be <2 ?
-            TimingLogger.stop("addToMatchSetList");
-            return origMasMatchSetList;
-        }
-
-        LOG.debug("** addToMatchSetList, matchset length="+matchset.size()+" TOTAL matchset size ="+origMasMatchSetList.size());
-        List<HashSet<Long>> newMasMatchSetList = new ArrayList<HashSet<Long>>();
-        
-        TimingLogger.start("addToMatchSetList.addAll()");
-        newMasMatchSetList.addAll(origMasMatchSetList);
-        TimingLogger.stop("addToMatchSetList.addAll()");
-
-        TimingLogger.start("addToMatchSetList.set.processing");
-        boolean added = false;
-        for (HashSet<Long> set: origMasMatchSetList) {
-            for (Long number: matchset) {
-                TimingLogger.start("addToMatchSetList.set.contains");
-                if (set.contains(number)) {
-                    TimingLogger.stop("addToMatchSetList.set.contains");
-                    TimingLogger.start("addToMatchSetList.set.notcontainsall");
-                    if (!set.containsAll(matchset)) {
-                        TimingLogger.stop("addToMatchSetList.set.notcontainsall");
-                        TimingLogger.start("newMasMatchSetList.remove()");
-                        newMasMatchSetList.remove(set);
-                        TimingLogger.stop("newMasMatchSetList.remove()");
-                        TimingLogger.start("set.addAll()");
-                        set.addAll(matchset);
-                        TimingLogger.stop("set.addAll()");
-                        TimingLogger.start("newMasMatchSetList.add()");
-                        newMasMatchSetList.add(set);
-                        TimingLogger.stop("newMasMatchSetList.add()");
-                        LOG.debug("addToMatchSetList, post-merge!  set.contains("+number+") merged newMasMatchSetList set="+set);
-                    }
-                    else {
-                        TimingLogger.stop("addToMatchSetList.set.notcontainsall");
-                        LOG.debug("addToMatchSetList, will not add in: "+matchset);
-                    }
-                    added = true;  // this flag means that we don't want this set added to the big list below
-                    break;   // get you out of THIS set, but still must check the others.
-                } else {
-                	TimingLogger.stop("addToMatchSetList.set.contains");
-                }
-
-            }
-        }
-        TimingLogger.stop("addToMatchSetList.set.processing");
-
-        //
-        // the list of sets has to start somewhere, and if you don't find a set including some part
-        // of your set, you must add your set explicitly.
-        //
-        if (!added) {
-            LOG.debug("must add in: "+matchset);
-            newMasMatchSetList.add(matchset);
-        }
-        LOG.debug("** addToMatchSetList, NEW TOTAL matchset size ="+newMasMatchSetList.size());
-        TimingLogger.stop("addToMatchSetList");
-        return newMasMatchSetList;
-    }
-
-
     /**
      * assumptions:
      * 1) sets are not null
@@ -1856,13 +1828,7 @@ public class MarcAggregationService extends GenericMetadataService {
         results.addAll(matchedRecordIds);
 
         for (Long input: matchedRecordIds) {
-            Long output = allBibRecordsI2Omap.get(input);
-            if (output != null) {
-                HashSet<Long> temp = allBibRecordsO2Imap.get(output);
-                if (temp != null) {
-                    results.addAll(allBibRecordsO2Imap.get(output));
-                }
-            }
+            results.addAll(matchSets.getMatchSet(input));
         }
     	TimingLogger.stop("expandMatchedRecordsFromMaps");
         return results;
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.services.marcaggregation;
+
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TLongLongHashMap;
+import gnu.trove.TLongLongIterator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The match sets (clusters of matching input records) as a disjoint-set forest keyed by record id.
+ *
+ * Adding a match set unions it with every set any of its members already belongs to, so
+ * overlapping match sets are combined in (nearly) constant time per record instead of being
+ * compared against every other set.  find() compresses paths as it goes and unions are done by
+ * size.
+ *
+ * The members of each set are also kept in a circular list (next), so a set can be listed,
+ * removed or split without scanning the whole forest.  Removing a record from its set rebuilds
+ * only that set.
+ */
+public class MatchSets {
+
+    // record id -> parent record id (roots are their own parent)
+    protected TLongLongHashMap parents = new TLongLongHashMap();
+    // root record id -> number of records in its set
+    protected TLongIntHashMap sizes = new TLongIntHashMap();
+    // record id -> the next record id in its set (circular)
+    protected TLongLongHashMap next = new TLongLongHashMap();
+
+    public boolean contains(long id) {
+        return parents.containsKey(id);
+    }
+
+    /**
+     * @return the number of records in all the sets
+     */
+    public int size() {
+        return parents.size();
+    }
+
+    /**
+     * Adds id as a set of its own, unless it's already in a set.
+     */
+    public void add(long id) {
+        if (!parents.containsKey(id)) {
+            parents.put(id, id);
+            sizes.put(id, 1);
+            next.put(id, id);
+        }
+    }
+
+    /**
+     * @return the root of the set id is in, or id itself if it isn't in a set
+     */
+    public long find(long id) {
+        if (!parents.containsKey(id)) {
+            return id;
+        }
+        long root = id;
+        long parent = parents.get(root);
+        while (parent != root) {
+            root = parent;
+            parent = parents.get(root);
+        }
+        // path compression
+        while (id != root) {
+            long p = parents.get(id);
+            parents.put(id, root);
+            id = p;
+        }
+        return root;
+    }
+
+    /**
+     * Combines the sets a and b are in (adding them first if need be).
+     *
+     * @return the root of the combined set
+     */
+    public long union(long a, long b) {
+        add(a);
+        add(b);
+        long rootA = find(a);
+        long rootB = find(b);
+        if (rootA == rootB) {
+            return rootA;
+        }
+        int sizeA = sizes.get(rootA);
+        int sizeB = sizes.get(rootB);
+        if (sizeA < sizeB) {
+            long t = rootA;
+            rootA = rootB;
+            rootB = t;
+        }
+        parents.put(rootB, rootA);
+        sizes.remove(rootB);
+        sizes.put(rootA, sizeA + sizeB);
+
+        // splice the two circular lists together
+        long nextA = next.get(a);
+        next.put(a, next.get(b));
+        next.put(b, nextA);
+        return rootA;
+    }
+
+    /**
+     * Adds a match set, combining it with any sets its members already belong to.
+     */
+    public void addMatchSet(Collection<Long> matchSet) {
+        long first = 0;
+        boolean isFirst = true;
+        for (Long id : matchSet) {
+            if (isFirst) {
+                first = id;
+                add(first);
+                isFirst = false;
+            } else {
+                union(first, id);
+            }
+        }
+    }
+
+    /**
+     * @return all the records in the same set as id (including id), or an empty set if id isn't
+     *         in a set
+     */
+    public HashSet<Long> getMatchSet(long id) {
+        HashSet<Long> matchSet = new HashSet<Long>();
+        if (!parents.containsKey(id)) {
+            return matchSet;
+        }
+        long member = id;
+        do {
+            matchSet.add(member);
+            member = next.get(member);
+        } while (member != id);
+        return matchSet;
+    }
+
+    /**
+     * Removes the whole set id is in.
+     *
+     * @return the records that were in the set
+     */
+    public HashSet<Long> removeMatchSet(long id) {
+        HashSet<Long> matchSet = getMatchSet(id);
+        for (Long member : matchSet) {
+            parents.remove(member);
+            sizes.remove(member);
+            next.remove(member);
+        }
+        return matchSet;
+    }
+
+    /**
+     * Takes id out of its set.  The rest of the set stays together.
+     */
+    public void remove(long id) {
+        if (!parents.containsKey(id)) {
+            return;
+        }
+        HashSet<Long> matchSet = removeMatchSet(id);
+        matchSet.remove(id);
+        addMatchSet(matchSet);
+    }
+
+    /**
+     * @param minSize
+     *            only sets with at least this many records are returned
+     * @return the sets in no particular order
+     */
+    public List<HashSet<Long>> getMatchSets(int minSize) {
+        List<HashSet<Long>> matchSets = new ArrayList<HashSet<Long>>();
+        TLongLongIterator it = parents.iterator();
+        while (it.hasNext()) {
+            it.advance();
+            if (it.key() == it.value() && sizes.get(it.key()) >= minSize) {
+                matchSets.add(getMatchSet(it.key()));
+            }
+        }
+        return matchSets;
+    }
+
+    public void clear() {
+        parents.clear();
+        sizes.clear();
+        next.clear();
+    }
+
+}
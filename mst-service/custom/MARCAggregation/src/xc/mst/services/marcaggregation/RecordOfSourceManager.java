@@ -109,6 +109,7 @@ public class RecordOfSourceManager extends BaseService {
         TimingLogger.start("RecordOfSourceManager.determineRecordOfSource");
 
         TreeMap<SortableRecordOfSourceData, RecordOfSourceData> sortedMap = new TreeMap<SortableRecordOfSourceData, RecordOfSourceData>();
+        SortableRecordOfSourceData.DatesUpdated datesUpdated = new SortableRecordOfSourceData.DatesUpdated(repo, set);
         for (Long num: set) {
 
             // grab leader byte 17 value and size
@@ -128,7 +129,7 @@ public class RecordOfSourceManager extends BaseService {
             // List<Character> leaderVals
             // leader_byte17_weighting_enabled;
             // bigger_record_weighting_enabled;
-            sortedMap.put(new SortableRecordOfSourceData(repo,leaderVals,num,source, leader_byte17_weighting_enabled ,bigger_record_weighting_enabled ), source);
+            sortedMap.put(new SortableRecordOfSourceData(datesUpdated,leaderVals,num,source, leader_byte17_weighting_enabled ,bigger_record_weighting_enabled ), source);
         }
         final Long RoS = sortedMap.firstKey().recordId;
         
@@ -1,8 +1,12 @@
 package xc.mst.services.marcaggregation;
 
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import xc.mst.bo.record.Record;
 import xc.mst.repo.Repository;
 
 
@@ -39,16 +43,16 @@ import xc.mst.repo.Repository;
      *
      */
     public class SortableRecordOfSourceData implements Comparable<SortableRecordOfSourceData> {
-        Repository repo;
+        DatesUpdated datesUpdated;
         List<Character> leaderVals;
         long recordId;
         RecordOfSourceData source;
         boolean leader_byte17_wt_en;
         boolean bigger_record_wt_en;
 
-        public SortableRecordOfSourceData(Repository repo, List<Character> leaderVals, long recordId, RecordOfSourceData source,
+        public SortableRecordOfSourceData(DatesUpdated datesUpdated, List<Character> leaderVals, long recordId, RecordOfSourceData source,
                 boolean leader_byte17_wt_en, boolean bigger_record_wt_en) {
-            this.repo = repo;
+            this.datesUpdated = datesUpdated;
             this.leaderVals = leaderVals;
             this.recordId = recordId;
             this.source = source;
@@ -113,7 +117,7 @@ import xc.mst.repo.Repository;
                 }
                 else {
                     // we are going to the tie-breaker
-                    return compareRecordOfSourceDateUpdated(repo.getRecord(o1.recordId).getUpdatedAt(), repo.getRecord(o2.recordId).getUpdatedAt());
+                    return compareRecordOfSourceDateUpdated(datesUpdated.get(o1.recordId), datesUpdated.get(o2.recordId));
                 }
             }
             else {
@@ -127,12 +131,12 @@ import xc.mst.repo.Repository;
                 }
                 else {
                     // we are going to the tie-breaker
-                    return compareRecordOfSourceDateUpdated(repo.getRecord(o1.recordId).getUpdatedAt(), repo.getRecord(o2.recordId).getUpdatedAt());
+                    return compareRecordOfSourceDateUpdated(datesUpdated.get(o1.recordId), datesUpdated.get(o2.recordId));
                 }
             }
             else {
                 // we are going to the tie-breaker
-                return compareRecordOfSourceDateUpdated(repo.getRecord(o1.recordId).getUpdatedAt(), repo.getRecord(o2.recordId).getUpdatedAt());
+                return compareRecordOfSourceDateUpdated(datesUpdated.get(o1.recordId), datesUpdated.get(o2.recordId));
             }
         }
 
@@ -157,4 +161,34 @@ import xc.mst.repo.Repository;
             }
             else return 0;
         }
+
+        /**
+         * The date updated of each record in a match set, for the tie-breaker.  They're read together,
+         * from the record headers, the first time one is needed.
+         */
+        public static class DatesUpdated {
+            protected Repository repo;
+            protected Set<Long> recordIds;
+            protected Map<Long, Date> dates = null;
+
+            public DatesUpdated(Repository repo, Set<Long> recordIds) {
+                this.repo = repo;
+                this.recordIds = recordIds;
+            }
+
+            public Date get(long recordId) {
+                if (dates == null) {
+                    dates = new HashMap<Long, Date>();
+                    long[] ids = new long[recordIds.size()];
+                    int i = 0;
+                    for (Long id : recordIds) {
+                        ids[i++] = id;
+                    }
+                    for (Record header : repo.getHeaders(ids)) {
+                        dates.put(header.getId(), header.getUpdatedAt());
+                    }
+                }
+                return dates.get(recordId);
+            }
+        }
     }
@@ -30,6 +30,7 @@ import java.util.TreeMap;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.mutable.MutableInt;
 import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 
 import xc.mst.services.impl.dao.GenericMetadataServiceDAO;
@@ -856,6 +857,42 @@ public class MarcAggregationServiceDAO extends GenericMetadataServiceDAO {
         return records;
     }
 
+    /**
+     * Passes every row of a matchpoints table to handler without holding the table in memory.
+     *
+     * Pages are ranges of input_record_id (the first column of each matchpoints table's primary
+     * key) rather than offsets, so every page is an index range scan.  A full page may end part way
+     * through a record's rows, so the next page starts with that record again: handler can see a
+     * row more than once.
+     *
+     * @param fields the columns to select after input_record_id
+     */
+    public void loadMatchpoints(String tableName, String fields, final RowCallbackHandler handler) {
+        TimingLogger.start("MarcAggregationServiceDAO.loadMatchpoints");
+
+        String sql = "select input_record_id, " + fields + " from " + tableName +
+                " where input_record_id >= ? order by input_record_id limit " + RECORDS_AT_ONCE;
+        LOG.info(sql);
+
+        final long[] lastId = new long[] {0};
+        final int[] numRows = new int[] {0};
+        long startId = 0;
+        do {
+            numRows[0] = 0;
+            this.jdbcTemplate.query(sql, new Object[] {startId}, new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    lastId[0] = rs.getLong(1);
+                    numRows[0]++;
+                    handler.processRow(rs);
+                }
+            });
+            // a page of one record's rows can't make progress by starting over with that record
+            startId = lastId[0] == startId ? startId + 1 : lastId[0];
+        } while (numRows[0] == RECORDS_AT_ONCE);
+
+        TimingLogger.stop("MarcAggregationServiceDAO.loadMatchpoints");
+    }
+
     public List<Long> getMergedInputRecordsCache() {
         TimingLogger.start("getMergedInputRecordsCache");
         int page = 0;
@@ -8,11 +8,14 @@
   */
 package xc.mst.services.marcaggregation.matcher;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
 
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrServer;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 import xc.mst.bo.record.InputRecord;
 import xc.mst.bo.record.SaxMarcXmlRecord;
@@ -20,6 +23,7 @@ import xc.mst.manager.BaseService;
 import xc.mst.services.marcaggregation.MASSolrIndexManager;
 import xc.mst.services.marcaggregation.MASSolrService;
 import xc.mst.services.marcaggregation.MarcAggregationService;
+import xc.mst.services.marcaggregation.dao.MarcAggregationServiceDAO;
 import xc.mst.utils.MSTConfiguration;
 import xc.mst.utils.Util;
 
@@ -62,6 +66,23 @@ public abstract class FieldMatcherService extends BaseService implements FieldMa
     	return false;
     }
 
+    /**
+     * (Re)fills index from the string_id column of a 1 string matchpoints table.
+     */
+    protected void load1StrIndex(MarcAggregationServiceDAO masDao, String tableName, final MatchpointIndex index) {
+        index.clear();
+        masDao.loadMatchpoints(tableName, MarcAggregationServiceDAO.string_id_field, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                index.add(MatchpointIndex.hash(rs.getString(2)), rs.getLong(1));
+            }
+        });
+        logIndex(index);
+    }
+
+    protected void logIndex(MatchpointIndex index) {
+        LOG.info(getName() + " matchpoint index: " + index);
+    }
+
     protected SolrServer getMASSolrServer() {
         MASSolrService mss = (MASSolrService)config.getBean("MASSolrService");
         return mss.getServer();
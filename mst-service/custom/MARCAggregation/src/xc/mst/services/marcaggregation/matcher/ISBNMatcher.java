@@ -61,7 +61,8 @@ public class ISBNMatcher extends FieldMatcherService {
     protected Map<Long, List<String>> inputId2isbn = new HashMap<Long, List<String>>();
 
     // multiple records might have the same normalized 020$a, this would be an indication of a match
-    protected Map<String, List<Long>> isbn2inputIds = new HashMap<String, List<Long>>();
+    //   holds every isbn, persisted or not, so lookups never need the database.
+    protected MatchpointIndex isbn2inputIds = new MatchpointIndex();
 
     private static final Logger LOG = Logger.getLogger(ISBNMatcher.class);
 
@@ -91,67 +92,39 @@ public class ISBNMatcher extends FieldMatcherService {
      */
     public void removeRecordFromMatcher(InputRecord ir) {
         Long id   = new Long(ir.getId());
-        List<String> isbns = inputId2isbn.get(id);
-        if (isbns != null) {
-            for (String isbn: isbns) {
-                List<Long> inputIds = isbn2inputIds.get(isbn);
-                if (inputIds != null) {
-                    inputIds.remove(id);
-                    if (inputIds.size() > 0) {
-                        isbn2inputIds.put(isbn, inputIds);
-                    }
-                    else {
-                        isbn2inputIds.remove(isbn);
-                    }
-                }
-            }
+        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
+
+        // the index only knows hashes, so the isbns come from memory (not yet flushed) and the db (flushed)
+        Set<String> isbns = new HashSet<String>();
+        List<String> unflushed = inputId2isbn.remove(id);
+        if (unflushed != null) {
+            isbns.addAll(unflushed);
+        }
+        List<String> flushed = masDao.get1StrMatchpointsRecordsCache(id, MarcAggregationServiceDAO.matchpoints_020a_table).get(id);
+        if (flushed != null) {
+            isbns.addAll(flushed);
+        }
+        for (String isbn: isbns) {
+            isbn2inputIds.remove(MatchpointIndex.hash(isbn), id);
         }
-        inputId2isbn.remove(id);
 
         // keep database in sync.  Don't worry about the one-off performance hit...yet.
-        getMAS().getMarcAggregationServiceDAO().deleteMergeRow(MarcAggregationServiceDAO.matchpoints_020a_table, id);
+        masDao.deleteMergeRow(MarcAggregationServiceDAO.matchpoints_020a_table, id);
     }
 
     @Override
     // return all matching records!!! a match means the same int part of isbn.
     public List<Long> getMatchingInputIds(SaxMarcXmlRecord r) {
-        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
-
         ArrayList<Long> results = new ArrayList<Long>();
         List<Field> fields = r.getDataFields(20);
 
-        final Long id = new Long(r.recordId);
         for (Field field : fields) {
             List<String> subfields = SaxMarcXmlRecord.getSubfieldOfField(field, 'a');
 
             for (String subfield : subfields) {
                 String isbn = getIsbn(subfield);
-                if (isbn2inputIds.get(isbn) != null) {
-                	List<Long> m = isbn2inputIds.get(isbn);
-                	if (m != null && m.size() > 0) {
-                		results.addAll(m);
-                	}
-                    
-                    if (results.contains(id)) {
-                        results.remove(id);
-                    }
-                }
-
-                //TODO can the below be made faster?  How to limit WHAT is queried?  My idea was to try to cache and prematch some of this but
-                //TODO    would then have to take that result set and come up with a query that is faster than this one!
-
-                // now look in the database too!
-                //mysql -u root --password=root -D xc_marcaggregation -e 'select input_record_id  from matchpoints_020a where string_id = "24094664" '
-                List<Long> records = masDao.getMatchingRecords(MarcAggregationServiceDAO.matchpoints_020a_table, MarcAggregationServiceDAO.input_record_id_field,MarcAggregationServiceDAO.string_id_field,isbn);
-                LOG.debug("ISBN, DAO, getMatching records for "+isbn+", numResults="+records.size());
-                for (Long record: records) {
-                    if (!record.equals(id)) {
-                        if (!results.contains(record)) {
-                            results.add(record);
-                            LOG.debug("**ISBN, DAO,  record id: "+record +" matches id "+id);
-                        }
-                    }
-                }
+                // the index has the flushed isbns too, no need to look in the database
+                isbn2inputIds.addIds(MatchpointIndex.hash(isbn), r.recordId, results);
             }
         }
         LOG.debug("getMatchinginputIds, irId=" + r.recordId + " results.size=" + results.size());
@@ -227,19 +200,8 @@ public class ISBNMatcher extends FieldMatcherService {
                     LOG.debug("*** 2.adding to inputId2isbn, for id: " + id + " for isbn: " + isbn);
                 }
 
-                List<Long> ids = isbn2inputIds.get(isbn);
-                if (ids == null) {
-                    ids = new ArrayList<Long>();
-                }
-                if (!ids.contains(r.recordId)) {
-                    ids.add(r.recordId);
-                    isbn2inputIds.put(isbn, ids);
-                    LOG.debug("*** adding to isbn2inputIds, for isbn: " + isbn);
-                }
                 // Just because we have seen it, it is not an error, it just means multiple match rules use this matcher.
-                else {
-                    LOG.debug("** We have already seen recordId: " + r.recordId);
-                }
+                isbn2inputIds.add(MatchpointIndex.hash(isbn), r.recordId);
             }
         }
     }
@@ -283,8 +245,7 @@ public class ISBNMatcher extends FieldMatcherService {
 
     @Override
     public void load(boolean firstTime) {
-        // TODO Auto-generated method stub
-
+        load1StrIndex(getMAS().getMarcAggregationServiceDAO(), MarcAggregationServiceDAO.matchpoints_020a_table, isbn2inputIds);
     }
 
     // TODO this can fail.  so to sanitize the table?
@@ -292,7 +253,7 @@ public class ISBNMatcher extends FieldMatcherService {
     public void flush(boolean freeUpMemory) {
         getMAS().getMarcAggregationServiceDAO().persist1StrMatchpointMaps(inputId2isbn, MarcAggregationServiceDAO.matchpoints_020a_table);
         inputId2isbn.clear();
-        isbn2inputIds.clear();
+        logIndex(isbn2inputIds);
     }
 
     /**
@@ -318,7 +279,7 @@ public class ISBNMatcher extends FieldMatcherService {
         //return isbn2inputIds.size();
 
         MarcAggregationService s = getMAS();
-        LOG.debug("** 020 matcher contains "+s.getMarcAggregationServiceDAO().getNumUniqueStringIds(MarcAggregationServiceDAO.matchpoints_020a_table)+ " unique strings in dB & "+isbn2inputIds.size() +" strs in mem.");
+        LOG.debug("** 020 matcher contains "+s.getMarcAggregationServiceDAO().getNumUniqueStringIds(MarcAggregationServiceDAO.matchpoints_020a_table)+ " unique strings in dB & "+isbn2inputIds.getNumKeys() +" strs in mem.");
         return s.getMarcAggregationServiceDAO().getNumUniqueStringIds(MarcAggregationServiceDAO.matchpoints_020a_table);
     }
 }
@@ -71,7 +71,8 @@ public class ISSNMatcher extends FieldMatcherService {
     protected Map<Long, List<String>> inputId2issn = new HashMap<Long, List<String>>();
 
     // multiple records might have the same normalized 022$a, this would be an indication of a match
-    protected Map<String, List<Long>> issn2inputIds = new HashMap<String, List<Long>>();
+    //   holds every issn, persisted or not, so lookups never need the database.
+    protected MatchpointIndex issn2inputIds = new MatchpointIndex();
 
     private static final Logger LOG = Logger.getLogger(ISSNMatcher.class);
 
@@ -97,37 +98,16 @@ public class ISSNMatcher extends FieldMatcherService {
     // return all matching records!!! a match means the same int part of issn.
     public List<Long> getMatchingInputIds(SaxMarcXmlRecord ir) {
 
-        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
-
         ArrayList<Long> results = new ArrayList<Long>();
         List<Field> fields = ir.getDataFields(22);
 
-        final Long id = new Long(ir.recordId);
         for (Field field : fields) {
             List<String> subfields = SaxMarcXmlRecord.getSubfieldOfField(field, 'a');
 
             for (String subfield : subfields) {
                 String issn = getAllButDash(subfield);
-                List<Long> m = issn2inputIds.get(issn);
-                if (m != null && m.size() > 0) {
-                    results.addAll(m);
-                    if (results.contains(id)) {
-                        results.remove(id);
-                    }
-                }
-
-                // now look in the database too!
-                //mysql -u root --password=root -D xc_marcaggregation -e 'select input_record_id  from matchpoints_022a where string_id = "24094664" '
-                List<Long> records = masDao.getMatchingRecords(MarcAggregationServiceDAO.matchpoints_022a_table, MarcAggregationServiceDAO.input_record_id_field,MarcAggregationServiceDAO.string_id_field,issn);
-                LOG.debug("ISSN, DAO, getMatching records for "+issn+", numResults="+records.size());
-                for (Long record: records) {
-                    if (!record.equals(id)) {
-                        if (!results.contains(record)) {
-                            results.add(record);
-                            LOG.debug("**ISSN, DAO,  record id: "+record +" matches id "+id);
-                        }
-                    }
-                }
+                // the index has the flushed issns too, no need to look in the database
+                issn2inputIds.addIds(MatchpointIndex.hash(issn), ir.recordId, results);
             }
         }
         LOG.debug("getMatchingInputIds, irId=" + ir.recordId + " results.size=" + results.size());
@@ -140,25 +120,24 @@ public class ISSNMatcher extends FieldMatcherService {
      */
     public void removeRecordFromMatcher(InputRecord ir) {
         Long id   = new Long(ir.getId());
-        List<String> issns = inputId2issn.get(id);
-        if (issns != null) {
-            for (String issn: issns) {
-                List<Long> inputIds = issn2inputIds.get(issn);
-                if (inputIds != null) {
-                    inputIds.remove(id);
-                    if (inputIds.size() > 0) {
-                        issn2inputIds.put(issn, inputIds);
-                    }
-                    else {
-                        issn2inputIds.remove(issn);
-                    }
-                }
-            }
+        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
+
+        // the index only knows hashes, so the issns come from memory (not yet flushed) and the db (flushed)
+        Set<String> issns = new HashSet<String>();
+        List<String> unflushed = inputId2issn.remove(id);
+        if (unflushed != null) {
+            issns.addAll(unflushed);
+        }
+        List<String> flushed = masDao.get1StrMatchpointsRecordsCache(id, MarcAggregationServiceDAO.matchpoints_022a_table).get(id);
+        if (flushed != null) {
+            issns.addAll(flushed);
+        }
+        for (String issn: issns) {
+            issn2inputIds.remove(MatchpointIndex.hash(issn), id);
         }
-        inputId2issn.remove(id);
 
         // keep database in sync.  Don't worry about the one-off performance hit...yet.
-        getMAS().getMarcAggregationServiceDAO().deleteMergeRow(MarcAggregationServiceDAO.matchpoints_022a_table, id);
+        masDao.deleteMergeRow(MarcAggregationServiceDAO.matchpoints_022a_table, id);
     }
 
     @Override
@@ -205,24 +184,10 @@ public class ISSNMatcher extends FieldMatcherService {
                     }
                 }
 
-                List<Long> ids = issn2inputIds.get(issn);
-                if (ids == null) {
-                    ids = new ArrayList<Long>();
-                }
-                if (!ids.contains(r.recordId)) {
-                    ids.add(r.recordId);
-                    issn2inputIds.put(issn, ids);
-                    LOG.debug("*** adding to issn2recordIds, for issn: " + issn);
-                    if (debug) {
-                        LOG.info("*** adding to issn2recordIds, for issn: " + issn);
-                    }
-                }
                 // Just because we have seen it, it is not an error, it just means multiple match rules use this matcher.
-                else {
-                    LOG.debug("** We have already seen recordId: " + r.recordId);
-                    if (debug) {
-                        LOG.info("** We have already seen recordId: " + r.recordId);
-                    }
+                issn2inputIds.add(MatchpointIndex.hash(issn), r.recordId);
+                if (debug) {
+                    LOG.info("*** adding to issn2recordIds, for issn: " + issn);
                 }
             }
         }
@@ -264,15 +229,14 @@ public class ISSNMatcher extends FieldMatcherService {
 
     @Override
     public void load(boolean firstTime) {
-        // TODO Auto-generated method stub
-
+        load1StrIndex(getMAS().getMarcAggregationServiceDAO(), MarcAggregationServiceDAO.matchpoints_022a_table, issn2inputIds);
     }
 
     @Override
     public void flush(boolean freeUpMemory) {
         getMAS().getMarcAggregationServiceDAO().persist1StrMatchpointMaps(inputId2issn, MarcAggregationServiceDAO.matchpoints_022a_table);
         inputId2issn.clear();
-        issn2inputIds.clear();
+        logIndex(issn2inputIds);
     }
 
     public Collection<Long> getRecordIdsInMatcher() {
@@ -299,7 +263,7 @@ public class ISSNMatcher extends FieldMatcherService {
         //return issn2inputIds.size();
 
         MarcAggregationService s = getMAS();
-        LOG.debug("** 022 matcher contains "+s.getMarcAggregationServiceDAO().getNumUniqueStringIds(MarcAggregationServiceDAO.matchpoints_022a_table)+ " unique strings in dB & "+issn2inputIds.size() +" strs in mem.");
+        LOG.debug("** 022 matcher contains "+s.getMarcAggregationServiceDAO().getNumUniqueStringIds(MarcAggregationServiceDAO.matchpoints_022a_table)+ " unique strings in dB & "+issn2inputIds.getNumKeys() +" strs in mem.");
         return s.getMarcAggregationServiceDAO().getNumUniqueStringIds(MarcAggregationServiceDAO.matchpoints_022a_table);
     }
 
@@ -11,18 +11,20 @@
 package xc.mst.services.marcaggregation.matcher;
 
 import gnu.trove.TLongLongHashMap;
+import gnu.trove.TLongLongIterator;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 import xc.mst.bo.record.InputRecord;
 import xc.mst.bo.record.RecordMessage;
@@ -61,7 +63,8 @@ public class LccnMatcher extends FieldMatcherService {
     private static final Logger LOG = Logger.getLogger(LccnMatcher.class);
 
     // multiple records might have the same normalized 010$a, this would be an indication of a match
-    protected Map<Long, List<Long>> lccn2inputIds = new HashMap<Long, List<Long>>();
+    //   holds every lccn, persisted or not, so lookups never need the database.
+    protected MatchpointIndex lccn2inputIds = new MatchpointIndex();
 
     // you can have exactly 1 010$a fields within a record  (1 010, w/1 $a)
     protected TLongLongHashMap inputId2lccn = new TLongLongHashMap();
@@ -162,40 +165,19 @@ public class LccnMatcher extends FieldMatcherService {
 
     @Override
     public List<Long> getMatchingInputIds(SaxMarcXmlRecord ir) {
-        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
-
         ArrayList<Long> results = new ArrayList<Long>();
         List<Field> fields = ir.getDataFields(10);
 
-        final Long id = new Long(ir.recordId);
         for (Field field: fields) {
             List<String> subfields = SaxMarcXmlRecord.getSubfieldOfField(field, 'a');
                 
             // there will be only 1 subfield, but this won't hurt...
             for (String subfield : subfields) {
-                Long goods = new Long(getUniqueId(subfield));
+                long goods = getUniqueId(subfield);
                 if (goods <= 0L) continue; // we don't accept <= 0
                 
-                // look in memory first
-            	List<Long> m = lccn2inputIds.get(goods);
-                if (m != null && m.size() > 0) {
-                    results.addAll(m);
-                    if (results.contains(id)) {
-                        results.remove(id);
-                    }
-                }
-                // also, look in the database
-                //mysql -u root --password=root -D xc_marcaggregation -e 'select input_record_id  from matchpoints_010a where string_id = "24094664" '
-                List<Long> records = masDao.getMatchingRecords(MarcAggregationServiceDAO.matchpoints_010a_table, MarcAggregationServiceDAO.input_record_id_field,MarcAggregationServiceDAO.numeric_id_field,goods);
-                LOG.debug("LCCN, DAO, getMatching records for "+goods+", numResults="+records.size());
-                for (Long record: records) {
-                    if (!record.equals(id)) {
-                        if (!results.contains(record)) {
-                            results.add(record);
-                            LOG.debug("**LCCN, DAO,  record id: "+record +" matches id "+id);
-                        }
-                    }
-                }
+                // the index has the flushed lccns too, no need to look in the database
+                lccn2inputIds.addIds(goods, ir.recordId, results);
             }
         }
         LOG.debug("getMatchinginputIds, irId="+ ir.recordId+" results.size="+results.size());
@@ -207,21 +189,16 @@ public class LccnMatcher extends FieldMatcherService {
      */
     @Override
     public void removeRecordFromMatcher(InputRecord ir) {
-        Long id   = new Long(ir.getId());
-        Long lccn = inputId2lccn.get(id);
-        List<Long> inputIds = null;
+        long id   = ir.getId();
+        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
 
-        if (lccn != null) {
-            inputIds = lccn2inputIds.get(lccn);
+        // the lccn comes from memory (not yet flushed) and/or the db (flushed)
+        if (inputId2lccn.containsKey(id)) {
+            lccn2inputIds.remove(inputId2lccn.get(id), id);
         }
-        if (inputIds != null) {
-            inputIds.remove(id);
-            if (inputIds.size() > 0) {
-                lccn2inputIds.put(lccn, inputIds);
-            }
-            else {
-                lccn2inputIds.remove(lccn);
-            }
+        TLongLongHashMap flushed = masDao.getLccnRecordsCache(id);
+        if (flushed.containsKey(id)) {
+            lccn2inputIds.remove(flushed.get(id), id);
         }
         inputId2lccn.remove(id);
         if (MarcAggregationService.hasIntermediatePersistence) {
@@ -229,8 +206,7 @@ public class LccnMatcher extends FieldMatcherService {
         }
 
         // keep database in sync.  Don't worry about the one-off performance hit...yet.
-        MarcAggregationService s = getMAS();
-        s.getMarcAggregationServiceDAO().deleteMergeRow(MarcAggregationServiceDAO.matchpoints_010a_table, id);
+        masDao.deleteMergeRow(MarcAggregationServiceDAO.matchpoints_010a_table, id);
     }
 
     @Override
@@ -265,19 +241,7 @@ public class LccnMatcher extends FieldMatcherService {
                     }
                 }
 
-                List<Long> idsList = lccn2inputIds.get(goods);
-                if (idsList == null || idsList.size() == 0) {
-                    idsList = new ArrayList<Long>();
-                    idsList.add(id);
-                    lccn2inputIds.put(goods, idsList);
-                }
-                else if (!idsList.contains(id)){
-                    idsList.add(id);
-                    lccn2inputIds.put(goods, idsList);
-                }
-                else {  //error?
-                    LOG.debug("we have already seen "+ id +" for recordId: "+r.recordId);
-                }
+                lccn2inputIds.add(goods, id);
             }
         }
     }
@@ -330,30 +294,31 @@ public class LccnMatcher extends FieldMatcherService {
      */
     @Override
     public void load(boolean firstTime) {
-    	// we will only keep all objects in-memory for the initial (large) load; otherwise, we need to consult database too
+    	// we will only keep all objects in-memory for the initial (large) load; otherwise, the index is enough
     	keepAllCached = firstTime;
-    	
-    	if (! keepAllCached) return;
 
         MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
-        inputId2lccn = masDao.getLccnRecordsCache();
-        LOG.info("inputId2lccn loaded, size="+inputId2lccn.size());
-
-        // now go from inputId2lccn to populate lccn2inputIds
-        for (Long id: inputId2lccn.keys()) {
-            Long goods = inputId2lccn.get(id);
-            //LOG.debug("** id: "+id+" lccn = "+goods);
-            List<Long> idsList = lccn2inputIds.get(goods);
-            if (idsList == null || idsList.size() == 0) {
-                idsList = new ArrayList<Long>();
-                idsList.add(id);
-                lccn2inputIds.put(goods, idsList);
-            }
-            else if (!idsList.contains(id)){
-                idsList.add(id);
-                lccn2inputIds.put(goods, idsList);
+        lccn2inputIds.clear();
+
+        if (keepAllCached) {
+            inputId2lccn = masDao.getLccnRecordsCache();
+            LOG.info("inputId2lccn loaded, size="+inputId2lccn.size());
+
+            // now go from inputId2lccn to populate lccn2inputIds
+            TLongLongIterator it = inputId2lccn.iterator();
+            while (it.hasNext()) {
+                it.advance();
+                lccn2inputIds.add(it.value(), it.key());
             }
         }
+        else {
+            masDao.loadMatchpoints(MarcAggregationServiceDAO.matchpoints_010a_table, MarcAggregationServiceDAO.numeric_id_field, new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    lccn2inputIds.add(rs.getLong(2), rs.getLong(1));
+                }
+            });
+        }
+        logIndex(lccn2inputIds);
     }
 
     @Override
@@ -374,8 +339,8 @@ public class LccnMatcher extends FieldMatcherService {
         	// we persisted everything already; no need to keep in-memory objects too
             if (! keepAllCached) {
             	inputId2lccn.clear();
-            	lccn2inputIds.clear();
             }
+            logIndex(lccn2inputIds);
         }
 
     }
@@ -409,7 +374,7 @@ public class LccnMatcher extends FieldMatcherService {
     public int getNumMatchPointsInMatcher() {
         //return lccn2inputIds.size();
         MarcAggregationService s = getMAS();
-        LOG.debug("** 010 matcher contains "+s.getMarcAggregationServiceDAO().getNumUniqueNumericIds(MarcAggregationServiceDAO.matchpoints_010a_table)+ " unique strings in dB & "+lccn2inputIds.size() +" strs in mem.");
+        LOG.debug("** 010 matcher contains "+s.getMarcAggregationServiceDAO().getNumUniqueNumericIds(MarcAggregationServiceDAO.matchpoints_010a_table)+ " unique strings in dB & "+lccn2inputIds.getNumKeys() +" strs in mem.");
         return s.getMarcAggregationServiceDAO().getNumUniqueNumericIds(MarcAggregationServiceDAO.matchpoints_010a_table);
     }
 
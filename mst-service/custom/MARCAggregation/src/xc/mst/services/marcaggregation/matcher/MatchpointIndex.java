@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.services.marcaggregation.matcher;
+
+import gnu.trove.TLongLongHashMap;
+import gnu.trove.TLongObjectHashMap;
+
+import java.util.List;
+
+/**
+ * An in-memory index of matchpoint key -> input record ids, held in primitive collections so a
+ * whole matchpoints table fits in memory and a lookup never has to go to the database.
+ *
+ * Most keys belong to a single record, so those are kept in a TLongLongHashMap.  A key is only
+ * given a posting list (a long[] whose slot 0 is the count) once a second record has it.
+ *
+ * String matchpoints are reduced to 64 bit keys with hash(String).  Two different matchpoints
+ * hashing to the same key would make their records look like a match; with 64 bits and even tens
+ * of millions of matchpoints the odds of that are around one in a million.
+ */
+public class MatchpointIndex {
+
+    protected static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    protected static final long FNV_PRIME = 0x100000001b3L;
+
+    // rough per-entry costs used by getMemoryUsage()
+    protected static final int SLOT_BYTES = 8 + 8 + 1;
+    protected static final int ARRAY_HEADER_BYTES = 16;
+
+    // trove keeps capacity() protected
+    protected static class LongLongMap extends TLongLongHashMap {
+        protected int getCapacity() {
+            return capacity();
+        }
+    }
+
+    protected static class LongObjectMap<V> extends TLongObjectHashMap<V> {
+        protected int getCapacity() {
+            return capacity();
+        }
+    }
+
+    // key -> the only record with that key
+    protected LongLongMap singles = new LongLongMap();
+    // key -> the records with that key (slot 0 is the count)
+    protected LongObjectMap<long[]> multiples = new LongObjectMap<long[]>();
+    protected long numIds = 0;
+    protected long postingBytes = 0;
+
+    /**
+     * The case is folded so keys compare the way the (case-insensitive) matchpoints columns do.
+     *
+     * @return a 64 bit FNV-1a hash of s, run through murmur3's finalizer to spread the bits
+     */
+    public static long hash(String s) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = 0; i < s.length(); i++) {
+            char c = Character.toUpperCase(s.charAt(i));
+            h = (h ^ (c & 0xff)) * FNV_PRIME;
+            h = (h ^ (c >>> 8)) * FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Adds id under key.  Adding the same pair twice is harmless.
+     */
+    public void add(long key, long id) {
+        long[] ids = multiples.get(key);
+        if (ids != null) {
+            int count = (int) ids[0];
+            for (int i = 1; i <= count; i++) {
+                if (ids[i] == id) {
+                    return;
+                }
+            }
+            if (count + 1 == ids.length) {
+                long[] grown = new long[ids.length + (ids.length >> 1)];
+                System.arraycopy(ids, 0, grown, 0, ids.length);
+                postingBytes += 8 * (grown.length - ids.length);
+                ids = grown;
+                multiples.put(key, ids);
+            }
+            ids[count + 1] = id;
+            ids[0] = count + 1;
+        } else if (singles.containsKey(key)) {
+            long other = singles.get(key);
+            if (other == id) {
+                return;
+            }
+            singles.remove(key);
+            ids = new long[] {2, other, id, 0};
+            postingBytes += ARRAY_HEADER_BYTES + 8 * ids.length;
+            multiples.put(key, ids);
+        } else {
+            singles.put(key, id);
+        }
+        numIds++;
+    }
+
+    public void remove(long key, long id) {
+        if (singles.containsKey(key)) {
+            if (singles.get(key) == id) {
+                singles.remove(key);
+                numIds--;
+            }
+            return;
+        }
+        long[] ids = multiples.get(key);
+        if (ids == null) {
+            return;
+        }
+        int count = (int) ids[0];
+        for (int i = 1; i <= count; i++) {
+            if (ids[i] == id) {
+                ids[i] = ids[count];
+                ids[count] = 0;
+                ids[0] = --count;
+                numIds--;
+                break;
+            }
+        }
+        if (count == 1) {
+            multiples.remove(key);
+            postingBytes -= ARRAY_HEADER_BYTES + 8 * ids.length;
+            singles.put(key, ids[1]);
+        }
+    }
+
+    /**
+     * Adds the records with key to results, leaving out excludeId and any already in results.
+     */
+    public void addIds(long key, long excludeId, List<Long> results) {
+        if (singles.containsKey(key)) {
+            addId(singles.get(key), excludeId, results);
+            return;
+        }
+        long[] ids = multiples.get(key);
+        if (ids != null) {
+            int count = (int) ids[0];
+            for (int i = 1; i <= count; i++) {
+                addId(ids[i], excludeId, results);
+            }
+        }
+    }
+
+    protected void addId(long id, long excludeId, List<Long> results) {
+        if (id != excludeId && !results.contains(id)) {
+            results.add(id);
+        }
+    }
+
+    /**
+     * @return the number of distinct keys
+     */
+    public int getNumKeys() {
+        return singles.size() + multiples.size();
+    }
+
+    /**
+     * @return the number of (key, id) pairs
+     */
+    public long getNumIds() {
+        return numIds;
+    }
+
+    /**
+     * @return an estimate of the bytes the index is holding on to
+     */
+    public long getMemoryUsage() {
+        return (long) singles.getCapacity() * SLOT_BYTES + (long) multiples.getCapacity() * SLOT_BYTES + postingBytes;
+    }
+
+    public String toString() {
+        return "keys=" + getNumKeys() + " ids=" + numIds + " memory=" + (getMemoryUsage() / 1024 / 1024) + "MB";
+    }
+
+    public void clear() {
+        singles = new LongLongMap();
+        multiples = new LongObjectMap<long[]>();
+        numIds = 0;
+        postingBytes = 0;
+    }
+
+}
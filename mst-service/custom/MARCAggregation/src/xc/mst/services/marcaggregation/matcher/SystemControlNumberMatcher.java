@@ -7,6 +7,8 @@
  */
 package xc.mst.services.marcaggregation.matcher;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -17,6 +19,7 @@ import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 import xc.mst.bo.record.InputRecord;
 import xc.mst.bo.record.SaxMarcXmlRecord;
@@ -64,7 +67,8 @@ public class SystemControlNumberMatcher extends FieldMatcherService {
     protected Map<Long, List<SCNData>> inputId2scn_unpersisted = new HashMap<Long, List<SCNData>>();
 
     // multiple records might have the same normalized 035$a, this would be an indication of a match
-    protected Map<SCNData, List<Long>> scn2inputIds = new HashMap<SCNData, List<Long>>();
+    //   holds every 035$a, persisted or not, so lookups never need the database.  see getKey()
+    protected MatchpointIndex scn2inputIds = new MatchpointIndex();
 
     protected Map<Integer, String> id2prefix = new HashMap<Integer, String>();
     protected Map<Integer, String> id2prefix_unpersisted = new HashMap<Integer, String>();
@@ -133,14 +137,16 @@ public class SystemControlNumberMatcher extends FieldMatcherService {
         return new SCNData(prefix, prefix2id.get(prefix), numericId, s);
     }
 
+    // the prefix and the numeric id, same as SCNData.equals()
+    protected static long getKey(SCNData goods) {
+        return MatchpointIndex.hash(goods.prefixNum + " " + goods.scn);
+    }
+
     @Override
     public List<Long> getMatchingInputIds(SaxMarcXmlRecord ir) {
-        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
-
         ArrayList<Long> results = new ArrayList<Long>();
         List<Field> fields = ir.getDataFields(35);
 
-        final Long id = new Long(ir.recordId);
         for (Field field : fields) {
             List<String> subfields = SaxMarcXmlRecord.getSubfieldOfField(field, 'a');
 /*            final int size = subfields.size();
@@ -158,31 +164,8 @@ public class SystemControlNumberMatcher extends FieldMatcherService {
                 // for now don't consider 035$a if no prefix.
                 if (goods.prefix.equals("")) continue;
                 
-                // look in memory first
-                if (scn2inputIds.get(goods) != null) {
-                	List<Long> m = scn2inputIds.get(goods);
-                	if (m!= null && m.size() > 0) {
-                		results.addAll(m);
-                	}
-                    if (results.contains(id)) {
-                        results.remove(id);
-                    }
-                }
-                // also, look in the database
-                List<Long> records = masDao.getMatchingSCCNRecords(MarcAggregationServiceDAO.matchpoints_035a_table,
-                        MarcAggregationServiceDAO.input_record_id_field,
-                        MarcAggregationServiceDAO.numeric_id_field,
-                        MarcAggregationServiceDAO.prefix_id_field, goods);
-
-                LOG.debug("SCN, DAO, getMatching records for "+goods+", numResults="+records.size());
-                for (Long record: records) {
-                    if (!record.equals(id)) {
-                        if (!results.contains(record)) {
-                            results.add(record);
-                            LOG.debug("**SCN, DAO,  record id: "+record +" matches id "+id);
-                        }
-                    }
-                }
+                // the index has the flushed 035$a's too, no need to look in the database
+                scn2inputIds.addIds(getKey(goods), ir.recordId, results);
             }
         }
         LOG.debug("getMatchingInputIds, irId=" + ir.recordId + " results.size=" + results.size());
@@ -195,20 +178,20 @@ public class SystemControlNumberMatcher extends FieldMatcherService {
     @Override
     public void removeRecordFromMatcher(InputRecord r) {
         Long id = new Long(r.getId());
-        List<SCNData> goodsList = inputId2scn.get(id);
-        if (goodsList != null) {
-            for (SCNData goodsFields: goodsList) {
-                List<Long> idsList = scn2inputIds.get(goodsFields);
-                if (idsList != null) {
-                    idsList.remove(id);
-                    if (idsList.size() > 0) {
-                        scn2inputIds.put(goodsFields, idsList);
-                    }
-                    else {
-                        scn2inputIds.remove(goodsFields);
-                    }
-                }
-            }
+        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
+
+        // the index only knows hashes, so the 035$a's come from memory (not yet flushed) and the db (flushed)
+        Set<SCNData> goodsSet = new HashSet<SCNData>();
+        List<SCNData> unflushed = inputId2scn.get(id);
+        if (unflushed != null) {
+            goodsSet.addAll(unflushed);
+        }
+        List<SCNData> flushed = masDao.getSCCNRecordsCache(id).get(id);
+        if (flushed != null) {
+            goodsSet.addAll(flushed);
+        }
+        for (SCNData goods: goodsSet) {
+            scn2inputIds.remove(getKey(goods), id);
         }
         inputId2scn.remove(id);
         if (MarcAggregationService.hasIntermediatePersistence) {
@@ -216,8 +199,7 @@ public class SystemControlNumberMatcher extends FieldMatcherService {
         }
 
         // keep database in sync.  Don't worry about the one-off performance hit...yet.
-        MarcAggregationService s = getMAS();
-        s.getMarcAggregationServiceDAO().deleteMergeRow(MarcAggregationServiceDAO.matchpoints_035a_table, id);
+        masDao.deleteMergeRow(MarcAggregationServiceDAO.matchpoints_035a_table, id);
     }
 
     // should be a max of 1 field returned.
@@ -262,19 +244,7 @@ public class SystemControlNumberMatcher extends FieldMatcherService {
                     LOG.debug("we have already seen " + goods + " for recordId: " + r.recordId);
                 }
 
-                List<Long> idsList = scn2inputIds.get(goods);
-                if (idsList == null || idsList.size() == 0) {
-                    idsList = new ArrayList<Long>();
-                    idsList.add(id);
-                    scn2inputIds.put(goods, idsList);
-                }
-                else if (!idsList.contains(id)) {
-                    idsList.add(id);
-                    scn2inputIds.put(goods, idsList);
-                }
-                else { // error?
-                    LOG.debug("we have already seen " + id + " for recordId: " + r.recordId);
-                }
+                scn2inputIds.add(getKey(goods), id);
             }
         }
     }
@@ -340,7 +310,7 @@ public class SystemControlNumberMatcher extends FieldMatcherService {
     // from db
     @Override
     public void load(boolean firstTime) {
-    	// we will only keep all objects in-memory for the initial (large) load; otherwise, we need to consult database too
+    	// we will only keep all objects in-memory for the initial (large) load; otherwise, the index is enough
     	keepAllCached = firstTime;
     	
     	// we NEED to always load prefixes. (It's a small list, anyway, but very, very NECESSARY).
@@ -351,29 +321,29 @@ public class SystemControlNumberMatcher extends FieldMatcherService {
             prefix2id.put(id2prefix.get(id), id);
         }
 
-    	if (! keepAllCached) return;
-    	
-        // Retrieve all match point integer data into memory,
-        inputId2scn = s.getMarcAggregationServiceDAO().getSCCNRecordsCache();
-        LOG.info("inputId2scn loaded, size="+inputId2scn.size());
-
-        // now go from inputId2scn to populate scn2inputIds
-        for (Long id: inputId2scn.keySet()) {
-            List<SCNData> ids = inputId2scn.get(id);
-
-            for (SCNData goods: ids) {
-                List<Long> idsList = scn2inputIds.get(goods);
-                if (idsList == null || idsList.size() == 0) {
-                    idsList = new ArrayList<Long>();
-                    idsList.add(id);
-                    scn2inputIds.put(goods, idsList);
-                }
-                else if (!idsList.contains(id)){
-                    idsList.add(id);
-                    scn2inputIds.put(goods, idsList);
+        scn2inputIds.clear();
+
+        if (keepAllCached) {
+            // Retrieve all match point integer data into memory,
+            inputId2scn = s.getMarcAggregationServiceDAO().getSCCNRecordsCache();
+            LOG.info("inputId2scn loaded, size="+inputId2scn.size());
+
+            // now go from inputId2scn to populate scn2inputIds
+            for (Long id: inputId2scn.keySet()) {
+                for (SCNData goods: inputId2scn.get(id)) {
+                    scn2inputIds.add(getKey(goods), id);
                 }
             }
         }
+        else {
+            s.getMarcAggregationServiceDAO().loadMatchpoints(MarcAggregationServiceDAO.matchpoints_035a_table,
+                    MarcAggregationServiceDAO.prefix_id_field + ", " + MarcAggregationServiceDAO.numeric_id_field, new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    scn2inputIds.add(getKey(new SCNData(rs.getInt(2), rs.getString(3), null)), rs.getLong(1));
+                }
+            });
+        }
+        logIndex(scn2inputIds);
     }
 
     // into db
@@ -399,8 +369,8 @@ public class SystemControlNumberMatcher extends FieldMatcherService {
            	// we persisted everything already; no need to keep in-memory objects too (but do keep id2prefix in memory!)
            if (! keepAllCached) {
             	inputId2scn.clear();
-            	scn2inputIds.clear();
             }
+           logIndex(scn2inputIds);
 
         }
     }
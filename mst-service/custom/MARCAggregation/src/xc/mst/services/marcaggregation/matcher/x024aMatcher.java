@@ -37,7 +37,8 @@ public class x024aMatcher extends FieldMatcherService {
     protected Map<Long, List<String>> inputId2x024a = new HashMap<Long, List<String>>();
 
     // multiple records might have the same normalized 024$a, this would be an indication of a match
-    protected Map<String, List<Long>> x024a2inputIds = new HashMap<String, List<Long>>();
+    //   holds every 024$a, persisted or not, so lookups never need the database.
+    protected MatchpointIndex x024a2inputIds = new MatchpointIndex();
 
     private static final Logger LOG = Logger.getLogger(x024aMatcher.class);
     private boolean debug = false;
@@ -54,39 +55,17 @@ public class x024aMatcher extends FieldMatcherService {
 
     @Override
     public List<Long> getMatchingInputIds(SaxMarcXmlRecord ir) {
-        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
-
         ArrayList<Long> results = new ArrayList<Long>();
         List<Field> fields = ir.getDataFields(24);
 
-        final Long id = new Long(ir.recordId);
-        
         for (Field field : fields) {
             List<String> subfields = SaxMarcXmlRecord.getSubfieldOfField(field, 'a');
 
             for (String subfield : subfields) {
                 if (StringUtils.isNotEmpty(subfield)) {
                     String goods = getFieldDataIntoCorrectFormat(field, subfield);
-                    List<Long> m = x024a2inputIds.get(goods);
-                    if (m != null && m.size() > 0) {
-                        results.addAll(m);
-                        if (results.contains(id)) {
-                            results.remove(id);
-                        }
-                    }
-
-                    // now look in the database too!
-                    //mysql -u root --password=root -D xc_marcaggregation -e 'select input_record_id  from matchpoints_022a where string_id = "24094664" '
-                    List<Long> records = masDao.getMatchingRecords(MarcAggregationServiceDAO.matchpoints_024a_table, MarcAggregationServiceDAO.input_record_id_field,MarcAggregationServiceDAO.string_id_field,goods);
-                    LOG.debug("024$a, DAO, getMatching records for "+goods+", numResults="+records.size());
-                    for (Long record: records) {
-                        if (!record.equals(id)) {
-                            if (!results.contains(record)) {
-                                results.add(record);
-                                LOG.debug("**024$a, DAO,  record id: "+record +" matches id "+id);
-                            }
-                        }
-                    }
+                    // the index has the flushed 024$a's too, no need to look in the database
+                    x024a2inputIds.addIds(MatchpointIndex.hash(goods), ir.recordId, results);
                 }
             }
         }
@@ -101,25 +80,24 @@ public class x024aMatcher extends FieldMatcherService {
     public void removeRecordFromMatcher(InputRecord ir) {
 
         Long id   = new Long(ir.getId());
-        List<String> x024s = inputId2x024a.get(id);
-        if (x024s != null) {
-            for (String x024: x024s) {
-                List<Long> inputIds = x024a2inputIds.get(x024);
-                if (inputIds != null) {
-                    inputIds.remove(id);
-                    if (inputIds.size() > 0) {
-                        x024a2inputIds.put(x024, inputIds);
-                    }
-                    else {
-                        x024a2inputIds.remove(x024);
-                    }
-                }
-            }
+        MarcAggregationServiceDAO masDao = getMAS().getMarcAggregationServiceDAO();
+
+        // the index only knows hashes, so the 024$a's come from memory (not yet flushed) and the db (flushed)
+        Set<String> x024s = new HashSet<String>();
+        List<String> unflushed = inputId2x024a.remove(id);
+        if (unflushed != null) {
+            x024s.addAll(unflushed);
+        }
+        List<String> flushed = masDao.get1StrMatchpointsRecordsCache(id, MarcAggregationServiceDAO.matchpoints_024a_table).get(id);
+        if (flushed != null) {
+            x024s.addAll(flushed);
+        }
+        for (String x024: x024s) {
+            x024a2inputIds.remove(MatchpointIndex.hash(x024), id);
         }
-        inputId2x024a.remove(id);
 
         // keep database in sync.  Don't worry about the one-off performance hit...yet.
-        getMAS().getMarcAggregationServiceDAO().deleteMergeRow(MarcAggregationServiceDAO.matchpoints_024a_table, id);
+        masDao.deleteMergeRow(MarcAggregationServiceDAO.matchpoints_024a_table, id);
     }
 
     @Override
@@ -159,19 +137,8 @@ public class x024aMatcher extends FieldMatcherService {
                     LOG.debug("*** 2.adding to recordId2x024a, for id: " + id + " for x024$a: " + goods);
                 }
 
-                List<Long> ids = x024a2inputIds.get(goods);
-                if (ids == null) {
-                    ids = new ArrayList<Long>();
-                }
-                if (!ids.contains(r.recordId)) {
-                    ids.add(r.recordId);
-                    x024a2inputIds.put(goods, ids);
-                    LOG.debug("*** adding to x024a2inputIds, for x024$a: " + goods);
-                }
                 // Just because we have seen it, it is not an error, it just means multiple match rules use this matcher.
-                else {
-                    LOG.debug("** We have already seen recordId: " + r.recordId);
-                }
+                x024a2inputIds.add(MatchpointIndex.hash(goods), r.recordId);
             }
         }
     }
@@ -225,15 +192,14 @@ public class x024aMatcher extends FieldMatcherService {
 
     @Override
     public void load(boolean firstTime) {
-        // TODO may not use this for string-based matchers.
-
+        load1StrIndex(getMAS().getMarcAggregationServiceDAO(), MarcAggregationServiceDAO.matchpoints_024a_table, x024a2inputIds);
     }
 
     @Override
     public void flush(boolean freeUpMemory) {
         getMAS().getMarcAggregationServiceDAO().persist1StrMatchpointMaps(inputId2x024a, MarcAggregationServiceDAO.matchpoints_024a_table);
         inputId2x024a.clear();
-        x024a2inputIds.clear();
+        logIndex(x024a2inputIds);
     }
 
     /**
@@ -259,7 +225,7 @@ public class x024aMatcher extends FieldMatcherService {
         //return x024a2inputIds.size();
 
         MarcAggregationService s = getMAS();
-        LOG.debug("** 024 matcher contains "+s.getMarcAggregationServiceDAO().getNumUniqueStringIds(MarcAggregationServiceDAO.matchpoints_024a_table)+ " unique strings in dB & "+x024a2inputIds.size() +" strs in mem.");
+        LOG.debug("** 024 matcher contains "+s.getMarcAggregationServiceDAO().getNumUniqueStringIds(MarcAggregationServiceDAO.matchpoints_024a_table)+ " unique strings in dB & "+x024a2inputIds.getNumKeys() +" strs in mem.");
         return s.getMarcAggregationServiceDAO().getNumUniqueStringIds(MarcAggregationServiceDAO.matchpoints_024a_table);
     }
 
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.services.marcaggregation.test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import xc.mst.services.marcaggregation.MatchSets;
+
+public class MatchSetsTest {
+
+    protected HashSet<Long> set(long... ids) {
+        HashSet<Long> set = new HashSet<Long>();
+        for (long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    // Assert.assertEquals compares collections in iteration order
+    protected void assertSameSet(HashSet<?> actual, HashSet<?> expected) {
+        Assert.assertEquals(actual.size(), expected.size());
+        Assert.assertTrue(actual.containsAll(expected), actual + " != " + expected);
+    }
+
+    @Test
+    public void testOverlappingSetsAreCombined() {
+        // {1,47,50} overlaps both {1,3} and {4,47}, so all three become {1,3,4,47,50}
+        MatchSets matchSets = new MatchSets();
+        matchSets.addMatchSet(Arrays.asList(1L, 3L));
+        matchSets.addMatchSet(Arrays.asList(4L, 47L));
+        matchSets.addMatchSet(Arrays.asList(100L, 101L));
+        Assert.assertEquals(matchSets.getMatchSets(2).size(), 3);
+
+        matchSets.addMatchSet(Arrays.asList(1L, 47L, 50L));
+        assertSameSet(matchSets.getMatchSet(3), set(1, 3, 4, 47, 50));
+        assertSameSet(matchSets.getMatchSet(101), set(100, 101));
+        Assert.assertEquals(matchSets.find(4), matchSets.find(50));
+
+        List<HashSet<Long>> sets = matchSets.getMatchSets(2);
+        Assert.assertEquals(sets.size(), 2);
+        Assert.assertTrue(sets.contains(set(1, 3, 4, 47, 50)));
+        Assert.assertTrue(sets.contains(set(100, 101)));
+    }
+
+    @Test
+    public void testSingletonsAreOnlyListedWhenAsked() {
+        MatchSets matchSets = new MatchSets();
+        matchSets.add(7);
+        matchSets.addMatchSet(Arrays.asList(8L, 9L));
+        Assert.assertEquals(matchSets.getMatchSets(2).size(), 1);
+        Assert.assertEquals(matchSets.getMatchSets(1).size(), 2);
+        assertSameSet(matchSets.getMatchSet(7), set(7));
+        assertSameSet(matchSets.getMatchSet(6), set());
+    }
+
+    @Test
+    public void testRemove() {
+        MatchSets matchSets = new MatchSets();
+        matchSets.addMatchSet(Arrays.asList(62L, 160L, 201L));
+
+        // the rest of the set stays together
+        matchSets.remove(160);
+        Assert.assertFalse(matchSets.contains(160));
+        assertSameSet(matchSets.getMatchSet(62), set(62, 201));
+        Assert.assertEquals(matchSets.size(), 2);
+
+        assertSameSet(matchSets.removeMatchSet(201), set(62, 201));
+        Assert.assertEquals(matchSets.size(), 0);
+        Assert.assertEquals(matchSets.getMatchSets(1).size(), 0);
+
+        // and they can be matched again
+        matchSets.addMatchSet(Arrays.asList(62L, 160L));
+        assertSameSet(matchSets.getMatchSet(160), set(62, 160));
+    }
+
+    @Test
+    public void testLongChains() {
+        MatchSets matchSets = new MatchSets();
+        int n = 100000;
+        for (long i = 1; i < n; i++) {
+            matchSets.union(i, i + 1);
+        }
+        Assert.assertEquals(matchSets.getMatchSets(2).size(), 1);
+        Assert.assertEquals(matchSets.getMatchSet(n / 2).size(), n);
+        Assert.assertEquals(matchSets.find(1), matchSets.find(n));
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.services.marcaggregation.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import xc.mst.services.marcaggregation.matcher.MatchpointIndex;
+
+public class MatchpointIndexTest {
+
+    protected List<Long> getIds(MatchpointIndex index, long key, long excludeId) {
+        List<Long> results = new ArrayList<Long>();
+        index.addIds(key, excludeId, results);
+        return results;
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        MatchpointIndex index = new MatchpointIndex();
+        index.add(10, 1);
+        index.add(10, 1);
+        Assert.assertEquals(index.getNumIds(), 1);
+        Assert.assertEquals(getIds(index, 10, 0).size(), 1);
+        Assert.assertEquals(getIds(index, 10, 1).size(), 0);
+
+        // enough records under one key to grow its posting list a few times
+        for (long id = 2; id <= 20; id++) {
+            index.add(10, id);
+        }
+        index.add(11, 5);
+        Assert.assertEquals(index.getNumKeys(), 2);
+        Assert.assertEquals(index.getNumIds(), 21);
+        List<Long> ids = getIds(index, 10, 5);
+        Assert.assertEquals(ids.size(), 19);
+        Assert.assertFalse(ids.contains(5L));
+
+        for (long id = 1; id <= 19; id++) {
+            index.remove(10, id);
+        }
+        index.remove(10, 99);
+        Assert.assertEquals(getIds(index, 10, 0).size(), 1);
+        Assert.assertTrue(getIds(index, 10, 0).contains(20L));
+        index.remove(10, 20);
+        Assert.assertEquals(getIds(index, 10, 0).size(), 0);
+        Assert.assertEquals(index.getNumKeys(), 1);
+        Assert.assertEquals(index.getNumIds(), 1);
+    }
+
+    @Test
+    public void testResultsAreNotDuplicated() {
+        MatchpointIndex index = new MatchpointIndex();
+        index.add(MatchpointIndex.hash("0738-100X"), 1);
+        index.add(MatchpointIndex.hash("0738-100x"), 2);
+        index.add(MatchpointIndex.hash("12345"), 2);
+        List<Long> results = new ArrayList<Long>();
+        index.addIds(MatchpointIndex.hash("0738-100X"), 3, results);
+        index.addIds(MatchpointIndex.hash("12345"), 3, results);
+        Assert.assertEquals(results.size(), 2);
+        Assert.assertTrue(index.getMemoryUsage() > 0);
+    }
+
+    @Test
+    public void testHashSpreadsSimilarKeys() {
+        MatchpointIndex index = new MatchpointIndex();
+        int n = 200000;
+        for (long i = 0; i < n; i++) {
+            index.add(MatchpointIndex.hash(String.valueOf(9780000000000L + i)), i);
+        }
+        Assert.assertEquals(index.getNumKeys(), n);
+    }
+
+}
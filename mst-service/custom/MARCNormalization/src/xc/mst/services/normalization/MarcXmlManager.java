@@ -87,23 +87,23 @@ public class MarcXmlManager {
             // in the MARC XML records. These are the values of the $8
             // subfield of any datafield
             List<Element> elements = null;
-            TimingLogger.start("MarcXmlManager.xpath");
-            TimingLogger.start("xpath");
             if (useXpath) {
+                TimingLogger.start("MarcXmlManager.xpath");
+                TimingLogger.start("xpath");
                 XPath xpath = XPath.newInstance(".//marc:subfield[@code='8']");
                 xpath.addNamespace("marc", "http://www.loc.gov/MARC21/slim");
                 elements = xpath.selectNodes(marcXml);
+                TimingLogger.stop("MarcXmlManager.xpath");
+                TimingLogger.stop("xpath");
             } else {
                 elements = new ArrayList<Element>();
-                for (Object o : marcXml.getChildren("subfield", marcXml.getNamespace())) {
+                for (Object o : getChildren(marcXml, "subfield", marcXml.getNamespace())) {
                     Element e = (Element) o;
                     if ("8".equals(e.getAttributeValue("code"))) {
                         elements.add(e);
                     }
                 }
             }
-            TimingLogger.stop("MarcXmlManager.xpath");
-            TimingLogger.stop("xpath");
 
             // Add all existing linking fields to the set of
             // initial linking fields
@@ -850,6 +850,36 @@ public class MarcXmlManager {
         return marcXml;
     } // end method getModifiedMarcXml
 
+    /**
+     * Gets the child elements of parent with the given name and namespace. This is what
+     * parent.getChildren(name, ns) returns, but it's a copy which is built in one pass over
+     * parent's content. Iterating over the live list JDOM returns rescans the content for
+     * every element, which made up much of the time spent normalizing a record.
+     *
+     * @param parent
+     *            The element whose children we're getting
+     * @param name
+     *            The name of the children to get
+     * @param ns
+     *            The namespace of the children to get
+     * @return A list of the matching children, in document order
+     */
+    public static List<Element> getChildren(Element parent, String name, Namespace ns) {
+        List content = parent.getContent();
+        int size = content.size();
+        List<Element> children = new ArrayList<Element>(size);
+        String uri = ns.getURI();
+        for (int i = 0; i < size; i++) {
+            Object o = content.get(i);
+            if (o instanceof Element) {
+                Element e = (Element) o;
+                if (name.equals(e.getName()) && uri.equals(e.getNamespaceURI()))
+                    children.add(e);
+            }
+        }
+        return children;
+    }
+
     /**
      * Returns true if the passed tag contains the passed subfield
      *
@@ -881,10 +911,10 @@ public class MarcXmlManager {
             } else {
                 TimingLogger.start("doesSubFieldExist.noxpath");
                 TimingLogger.start("noxpath");
-                for (Object o : marcXml.getChildren("datafield", marcXml.getNamespace())) {
+                for (Object o : getChildren(marcXml, "datafield", marcXml.getNamespace())) {
                     Element e = (Element) o;
                     if (tag.equals(e.getAttributeValue("tag"))) {
-                        for (Object o2 : e.getChildren("subfield", marcXml.getNamespace())) {
+                        for (Object o2 : getChildren(e, "subfield", marcXml.getNamespace())) {
                             Element e2 = (Element) o2;
                             if (subfield.equals(e2.getAttributeValue("code"))) {
                                 ret = true;
@@ -918,11 +948,10 @@ public class MarcXmlManager {
             log.debug("Initializing MARC XML control fields.");
         
         // Get the control fields
-        List<Element> controlFields = marcXml.getChildren("controlfield", marcNamespace);
+        List<Element> controlFields = getChildren(marcXml, "controlfield", marcNamespace);
         // Iterate over the fields and find the 001, 003, 007, and 008 control fields.
         // Initialize their cached values as we find them.
         for (Element controlField : controlFields) {
-            TimingLogger.start("initializeMarcControlFields.for");
             // Initialize the 001 field if we found it
             if (controlField.getAttribute("tag").getValue().equals("001")) {
                 field001 = controlField.getText();
@@ -962,7 +991,6 @@ public class MarcXmlManager {
                 if (log.isDebugEnabled())
                     log.debug("Found the value of the control field 008 to be " + field008 + ".");
             } // end if (008 found)
-            TimingLogger.stop("initializeMarcControlFields.for");
         } // end loop over control fields
         TimingLogger.stop("initializeMarcControlFields");
     } // end method initializeMarcControlFields
@@ -978,11 +1006,10 @@ public class MarcXmlManager {
             log.debug("Initializing MARC XML data fields.");        
         
         // Get the data fields
-        List<Element> fields = marcXml.getChildren("datafield", marcNamespace);
+        List<Element> fields = getChildren(marcXml, "datafield", marcNamespace);
 
         // Iterate over the fields and find the one with the correct tag
         for (Element field : fields) {
-            TimingLogger.start("initializeMarcDataFields.for");
             String tag = field.getAttributeValue("tag");
 
             // If the tag is "880", treat it like the tag from its $6 subfield
@@ -1199,7 +1226,6 @@ public class MarcXmlManager {
                 // Add the 945 $l subfields
                 field945subfieldLs.addAll(subfields);
             } // end if (945 found)
-            TimingLogger.stop("initializeMarcDataFields.for");
         } // end loop over data fields
         TimingLogger.stop("initializeMarcDataFields");
     } // end method initializeMarcDataFields
@@ -1847,7 +1873,7 @@ public class MarcXmlManager {
 
         // Get the data fields
         TimingLogger.start("copyMarcXmlField.getChildren");
-        List<Element> fields = marcXml.getChildren("datafield", marcNamespace);
+        List<Element> fields = getChildren(marcXml, "datafield", marcNamespace);
         TimingLogger.stop("copyMarcXmlField.getChildren");
 
         // The copied field with the correct tag
@@ -1873,7 +1899,7 @@ public class MarcXmlManager {
                 newField.setAttribute("ind2", newInd2);
 
                 // Loop over the field's subfields and copy over the requested ones
-                List<Element> subfields = field.getChildren("subfield", marcNamespace);
+                List<Element> subfields = getChildren(field, "subfield", marcNamespace);
                 for (Element subfield : subfields) {
                     if (subfieldsToCopy.contains(subfield.getAttributeValue("code"))) {
                         newField.addContent("\n\t").addContent((Element) subfield.clone());
@@ -1936,7 +1962,7 @@ public class MarcXmlManager {
             log.debug("Copying " + targetFields.size() + " MARC XML tags into the MARC XML tag " + copyIntoField + " using only subfields before " + requiredSubfields);
 
         // Get the data fields
-        List<Element> fields = marcXml.getChildren("datafield", marcNamespace);
+        List<Element> fields = getChildren(marcXml, "datafield", marcNamespace);
 
         // The copied field with the correct tag
         Element newField = null;
@@ -1956,7 +1982,7 @@ public class MarcXmlManager {
                 newField.addContent("\n");
 
                 // Get the subfields
-                List<Element> subfields = field.getChildren("subfield", marcNamespace);
+                List<Element> subfields = getChildren(field, "subfield", marcNamespace);
 
                 // Iterate over the subfields, and append each one to the subject display if it
                 // is in the list of subfields to copy
@@ -2035,7 +2061,7 @@ public class MarcXmlManager {
             log.debug("Copying " + targetFields.size() + " MARC XML tags into the MARC XML tag " + copyIntoField + " using only subfield " + copyOnlySubfield);
 
         // Get the data fields
-        List<Element> fields = marcXml.getChildren("datafield", marcNamespace);
+        List<Element> fields = getChildren(marcXml, "datafield", marcNamespace);
 
         // The copied field with the correct tag
         Element newField = null;
@@ -2121,7 +2147,7 @@ public class MarcXmlManager {
             log.debug("Copying " + targetFields.size() + " MARC XML tags into the MARC XML tag " + copyIntoField + " using only subfields before the $t.");
 
         // Get the data fields
-        List<Element> fields = marcXml.getChildren("datafield", marcNamespace);
+        List<Element> fields = getChildren(marcXml, "datafield", marcNamespace);
 
         // The copied field with the correct tag
         Element newField = null;
@@ -2141,7 +2167,7 @@ public class MarcXmlManager {
                 newField.addContent("\n");
 
                 // Get the subfields
-                List<Element> subfields = field.getChildren("subfield", marcNamespace);
+                List<Element> subfields = getChildren(field, "subfield", marcNamespace);
 
                 // Iterate over the subfields, and append each one to the subject display if it
                 // is in the list of subfields to copy
@@ -2242,12 +2268,13 @@ public class MarcXmlManager {
 
         // Iterate over the fields and find the one with the correct tag
         for (Element field : fields) {
-            LOG.debug("field: " + field);
+            if (LOG.isDebugEnabled())
+                LOG.debug("field: " + field);
             // A string which is unique for each distinct field
             StringBuilder value = new StringBuilder();
 
             // Get the subfields
-            List<Element> subfields = field.getChildren("subfield", marcNamespace);
+            List<Element> subfields = getChildren(field, "subfield", marcNamespace);
 
             // Get the 2nd indicator and append it to the field's value
             String ind2 = getIndicatorOfField(field, "2");
@@ -2266,7 +2293,8 @@ public class MarcXmlManager {
             // If we've already seen the value of the current field, remove the
             // current field as it is a duplicate. Otherwise, add its value to
             // the list of values we've seen.
-            LOG.debug("valueStr: " + valueStr);
+            if (LOG.isDebugEnabled())
+                LOG.debug("valueStr: " + valueStr);
             if (currentValues.contains(valueStr)) {
                 if (log.isDebugEnabled())
                     log.debug("Removing duplicate " + tag + " field with value " + valueStr + ".");
@@ -2314,7 +2342,7 @@ public class MarcXmlManager {
             StringBuilder value = new StringBuilder();
 
             // Get the subfields
-            List<Element> subfields = field.getChildren("subfield", marcNamespace);
+            List<Element> subfields = getChildren(field, "subfield", marcNamespace);
 
             // Reset the values of the $8 subfields on the current field
             current8s.clear();
@@ -2531,25 +2559,26 @@ public class MarcXmlManager {
 
         try {
             List nodes = null;
-            TimingLogger.start("xpath");
-            TimingLogger.start("getSubfieldsOfField.xpath");
             if (useXpath) {
+                TimingLogger.start("xpath");
+                TimingLogger.start("getSubfieldsOfField.xpath");
                 // An XPATH expression to get the requested subfields
                 XPath xpath = XPath.newInstance("marc:subfield[@code='" + subfield + "']");
                 xpath.addNamespace(marcNamespace);
                 // Get the subfields.
                 nodes = xpath.selectNodes(datafield);
+                TimingLogger.stop("xpath");
+                TimingLogger.stop("getSubfieldsOfField.xpath");
             } else {
                 nodes = new ArrayList<Element>();
-                for (Object o : datafield.getChildren("subfield", datafield.getNamespace())) {
+                String code = String.valueOf(subfield);
+                for (Object o : getChildren(datafield, "subfield", datafield.getNamespace())) {
                     Element e = (Element) o;
-                    if ((subfield + "").equals(e.getAttributeValue("code"))) {
+                    if (code.equals(e.getAttributeValue("code"))) {
                         nodes.add(e);
                     }
                 }
             }
-            TimingLogger.stop("xpath");
-            TimingLogger.stop("getSubfieldsOfField.xpath");
             TimingLogger.stop("getSubfieldsOfField");
             return nodes;
         } catch (Throwable e) {
@@ -2581,27 +2610,28 @@ public class MarcXmlManager {
         try {
             List<Element> elements = null;
 
-            TimingLogger.start("getSubfieldValuesOfField.xpath");
-            TimingLogger.start("xpath");
             if (useXpath) {
+                TimingLogger.start("getSubfieldValuesOfField.xpath");
+                TimingLogger.start("xpath");
                 // An XPATH expression to get the requested subfields
                 XPath xpath = XPath.newInstance("marc:subfield[@code='" + subfield + "']");
                 xpath.addNamespace(marcNamespace);
 
                 // Get the subfields.
                 elements = xpath.selectNodes(datafield);
+                TimingLogger.stop("getSubfieldValuesOfField.xpath");
+                TimingLogger.stop("xpath");
             } else {
                 elements = new ArrayList<Element>();
-                List children = datafield.getChildren("subfield", datafield.getNamespace());
+                String code = String.valueOf(subfield);
+                List children = getChildren(datafield, "subfield", datafield.getNamespace());
                 for (Object o : children) {
                     Element e = (Element) o;
-                    if ((subfield + "").equals(e.getAttributeValue("code"))) {
+                    if (code.equals(e.getAttributeValue("code"))) {
                         elements.add(e);
                     }
                 }
             }
-            TimingLogger.stop("getSubfieldValuesOfField.xpath");
-            TimingLogger.stop("xpath");
 
             // Return the empty list if there were no matching subfields
             if (elements.size() == 0) {
@@ -2650,9 +2680,9 @@ public class MarcXmlManager {
 
         try {
             Attribute ind = null;
-            TimingLogger.start("getIndicatorOfField.xpath");
-            TimingLogger.start("xpath");
             if (useXpath) {
+                TimingLogger.start("getIndicatorOfField.xpath");
+                TimingLogger.start("xpath");
                 // An XPATH expression to get the requested indicator
                 XPath xpath = XPath.newInstance("@ind" + indicator);
                 xpath.addNamespace(marcNamespace);
@@ -2663,11 +2693,11 @@ public class MarcXmlManager {
                 if (attributes != null && attributes.size() > 0) {
                     ind = attributes.get(0);
                 }
+                TimingLogger.stop("getIndicatorOfField.xpath");
+                TimingLogger.stop("xpath");
             } else {
                 ind = datafield.getAttribute("ind" + indicator);
             }
-            TimingLogger.stop("getIndicatorOfField.xpath");
-            TimingLogger.stop("xpath");
 
             // Return the empty list if there were no matching subfields
             if (ind == null) {
@@ -2708,25 +2738,25 @@ public class MarcXmlManager {
 
         try {
             List<Element> potentialResults = null;
-            TimingLogger.start("getDataFields.xpath");
-            TimingLogger.start("xpath");
             if (useXpath) {
+                TimingLogger.start("getDataFields.xpath");
+                TimingLogger.start("xpath");
                 // An XPATH expression to get the requested control field
                 XPath xpath = XPath.newInstance(".//marc:datafield[@tag='" + targetField + "']");
                 xpath.addNamespace(marcNamespace);
 
                 potentialResults = xpath.selectNodes(marcXml);
+                TimingLogger.stop("getDataFields.xpath");
+                TimingLogger.stop("xpath");
             } else {
                 potentialResults = new ArrayList<Element>();
-                for (Object o : marcXml.getChildren("datafield", marcXml.getNamespace())) {
+                for (Object o : getChildren(marcXml, "datafield", marcXml.getNamespace())) {
                     Element e = (Element) o;
                     if (targetField.equals(e.getAttributeValue("tag"))) {
                         potentialResults.add(e);
                     }
                 }
             }
-            TimingLogger.stop("getDataFields.xpath");
-            TimingLogger.stop("xpath");
 
             // Get the data fields. If the target field was not a 9xx field we can return the entire
             // list, otherwise we need to filter out those results with the wrong organization code.
@@ -2780,26 +2810,27 @@ public class MarcXmlManager {
 
         try {
             List<Element> elements = null;
-            TimingLogger.start("getSubfieldOfField.xpath");
-            TimingLogger.start("xpath");
             if (useXpath) {
+                TimingLogger.start("getSubfieldOfField.xpath");
+                TimingLogger.start("xpath");
                 // An XPATH expression to get the requested subfields
                 XPath xpath = XPath.newInstance("marc:subfield[@code='" + subfield + "']");
                 xpath.addNamespace(marcNamespace);
 
                 // Get the subfields.
                 elements = xpath.selectNodes(datafield);
+                TimingLogger.stop("getSubfieldOfField.xpath");
+                TimingLogger.stop("xpath");
             } else {
                 elements = new ArrayList<Element>();
-                for (Object o : datafield.getChildren("subfield", datafield.getNamespace())) {
+                String code = String.valueOf(subfield);
+                for (Object o : getChildren(datafield, "subfield", datafield.getNamespace())) {
                     Element e = (Element) o;
-                    if ((subfield + "").equals(e.getAttributeValue("code"))) {
+                    if (code.equals(e.getAttributeValue("code"))) {
                         elements.add(e);
                     }
                 }
             }
-            TimingLogger.stop("getSubfieldOfField.xpath");
-            TimingLogger.stop("xpath");
 
             // Return the empty list if there were no matching subfields
             if (elements.size() == 0) {
@@ -2843,10 +2874,10 @@ public class MarcXmlManager {
             log.debug("Getting the linking fields.");
 
         try {
-            TimingLogger.start("getLinkingFieldsParents.xpath");
-            TimingLogger.start("xpath");
             List<Element> results = null;
             if (useXpath) {
+                TimingLogger.start("getLinkingFieldsParents.xpath");
+                TimingLogger.start("xpath");
                 // An XPATH expression to get the linking field
                 TimingLogger.start("getLinkingFieldsParents.XPath.newInstance");
                 XPath xpath = XPath.newInstance(".//marc:subfield[@code='8']/..");
@@ -2857,11 +2888,13 @@ public class MarcXmlManager {
                 TimingLogger.start("getLinkingFieldsParents.selectNodes");
                 results = xpath.selectNodes(marcXml);
                 TimingLogger.stop("getLinkingFieldsParents.selectNodes");
+                TimingLogger.stop("getLinkingFieldsParents.xpath");
+                TimingLogger.stop("xpath");
             } else {
                 results = new ArrayList<Element>();
-                for (Object o : marcXml.getChildren("datafield", marcXml.getNamespace())) {
+                for (Object o : getChildren(marcXml, "datafield", marcXml.getNamespace())) {
                     Element e = (Element) o;
-                    for (Object o2 : e.getChildren("subfield", e.getNamespace())) {
+                    for (Object o2 : getChildren(e, "subfield", e.getNamespace())) {
                         Element e2 = (Element) o2;
                         if ("8".equals(e2.getAttributeValue("code"))) {
                             results.add(e);
@@ -2870,8 +2903,6 @@ public class MarcXmlManager {
                     }
                 }
             }
-            TimingLogger.stop("getLinkingFieldsParents.xpath");
-            TimingLogger.stop("xpath");
             TimingLogger.stop("getLinkingFieldsParents");
             return results;
         } catch (Throwable e) {
@@ -2966,7 +2997,7 @@ public class MarcXmlManager {
                 elements = xpath.selectNodes(marcXml);
             } else {
                 elements = new ArrayList<Element>();
-                for (Object o : marcXml.getChildren("datafield", marcXml.getNamespace())) {
+                for (Object o : getChildren(marcXml, "datafield", marcXml.getNamespace())) {
                     Element e = (Element) o;
                     if ("945".equals(e.getAttributeValue("tag"))) {
                         elements.add(e);
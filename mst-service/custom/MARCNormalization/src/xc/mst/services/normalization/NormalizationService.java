@@ -16,6 +16,7 @@ import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -69,6 +70,19 @@ public class NormalizationService extends GenericMetadataService {
      */
     protected Properties enabledSteps = null;
     
+    /**
+     * The enabled normalization steps for bibliographic and holding records, in the order
+     * they're run.  These are compiled from enabledSteps (see compileSteps).
+     */
+    protected NormalizationStep[] bibSteps = new NormalizationStep[0];
+    protected NormalizationStep[] holdingSteps = new NormalizationStep[0];
+
+    // settings from enabledSteps which are checked for each record
+    protected boolean sourceOfOrganizationCode = false;
+    protected boolean sourceOf9XXFields = false;
+    protected boolean moveAllOrgCodes = false;
+    protected boolean fix035LeadingZeros = false;
+
     /**
      * The 003 Org Code
      */
@@ -293,6 +307,23 @@ public class NormalizationService extends GenericMetadataService {
         return null;
     }
 
+    /**
+     * Gets the record's MARCXML as a JDOM element, reading it with MarcXmlReader when the record
+     * still only has its xml. The record itself is left as it was.
+     */
+    protected Element getMarcXml(InputRecord record) {
+        String xml = record instanceof Record ? ((Record) record).peekOaiXml() : null;
+        if (xml != null) {
+            try {
+                return MarcXmlReader.read(xml);
+            } catch (Throwable t) {
+                LOG.debug("Couldn't read the xml of record " + record.getId() + " with MarcXmlReader, building it with Record.setMode instead", t);
+            }
+        }
+        record.setMode(Record.JDOM_MODE);
+        return record.getOaiXmlEl();
+    }
+
     private List<OutputRecord> convertRecord(InputRecord record) {
 
     	// We need to know, early on, the record ID of the record we are currently processing.
@@ -320,8 +351,7 @@ public class NormalizationService extends GenericMetadataService {
             Element marcXml = null;
 
             TimingLogger.start("create dom");
-            record.setMode(Record.JDOM_MODE);
-            marcXml = record.getOaiXmlEl();
+            marcXml = getMarcXml(record);
             TimingLogger.stop("create dom");
 
             // Create a MarcXmlManagerForNormalizationService for the record
@@ -343,7 +373,7 @@ public class NormalizationService extends GenericMetadataService {
             }
             ((Record) record).setType(type);
             
-            if (getSourceOfOrganizationCode()) {
+            if (sourceOfOrganizationCode) {
             	try {
             		normalizedXml = processSourceOfRecord(normalizedXml, record);
             	} catch (Exception e) {
@@ -358,162 +388,22 @@ public class NormalizationService extends GenericMetadataService {
 					return results; // results is empty
             	}
             }
-            if (sourceOf9XXFieldsEnabled()) {
+            if (sourceOf9XXFields) {
             	normalizedXml.setSourceOfOrganizationCode(XC_SOURCE_OF_MARC_ORG);
             }
 
             if (type != null && type.equals("b")) {
                 TimingLogger.start("bibsteps");
-                
-                if (enabledSteps.getProperty(CONFIG_ENABLED_REMOVE_OCOLC_003, "0").equals("1"))
-                    normalizedXml = removeOcolc003(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_DCMI_TYPE_06, "0").equals("1"))
-                    normalizedXml = dcmiType06(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_LEADER_06_VOCAB, "0").equals("1"))
-                    normalizedXml = leader06MarcVocab(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_007_VOCAB_06, "0").equals("1"))
-                    normalizedXml = vocab06(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_MODE_OF_ISSUANCE, "0").equals("1"))
-                    normalizedXml = modeOfIssuance(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_MOVE_MARC_ORG_CODE, "0").equals("1"))
-                    normalizedXml = moveMarcOrgCode(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_DCMI_TYPE_00_07, "0").equals("1"))
-                    normalizedXml = dcmiType0007(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_007_VOCAB, "0").equals("1"))
-                    normalizedXml = vocab007(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_007_SMD_TYPE, "0").equals("1"))
-                    normalizedXml = smdType007(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_FICTION_OR_NONFICTION, "0").equals("1"))
-                    normalizedXml = fictionOrNonfiction(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_008_DATE_RANGE, "0").equals("1"))
-                    normalizedXml = dateRange(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_LANGUAGE_SPLIT, "0").equals("1"))
-                    normalizedXml = languageSplit(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_LANGUAGE_TERM, "0").equals("1"))
-                    normalizedXml = languageTerm(normalizedXml);
-
-                boolean process006 = enabledSteps.getProperty(CONFIG_ENABLED_006_AUDIENCE, "0").equals("1");
-                boolean process008 = enabledSteps.getProperty(CONFIG_ENABLED_008_AUDIENCE, "0").equals("1");
-                if (process006 || process008)
-                    normalizedXml = audienceFrom006_008(normalizedXml, process006, process008);
-
-                process006 = enabledSteps.getProperty(CONFIG_ENABLED_006_FORM, "0").equals("1");
-                process008 = enabledSteps.getProperty(CONFIG_ENABLED_008_FORM, "0").equals("1");
-                if (process006 || process008)
-                    normalizedXml = formFrom006_008(normalizedXml, process006, process008);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_008_THESIS, "0").equals("1"))
-                    normalizedXml = thesisFrom008(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_ISBN_MOVE, "0").equals("1"))
-                    normalizedXml = isbnMove024(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_ISBN_CLEANUP, "0").equals("1"))
-                    normalizedXml = isbnCleanup(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_LCCN_CLEANUP, "0").equals("1"))
-                    normalizedXml = lccnCleanup(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_SUPPLY_MARC_ORG_CODE, "0").equals("1"))
-                    normalizedXml = supplyMARCOrgCode(normalizedXml);
-
-                if (needToFix035()) {
-                    normalizedXml = fix035(normalizedXml);
-                }
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_DEDUP_035, "0").equals("1"))
-                    normalizedXml = dedup035(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_ROLE_AUTHOR, "0").equals("1"))
-                    normalizedXml = roleAuthor(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_ROLE_COMPOSER, "0").equals("1"))
-                    normalizedXml = roleComposer(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_UNIFORM_TITLE, "0").equals("1"))
-                    normalizedXml = uniformTitle(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_NRU_GENRE, "0").equals("1"))
-                    normalizedXml = nruGenre(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_NRU_DATABASE_GENRE, "0").equals("1"))
-                    normalizedXml = nruDatabaseGenre(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_TOPIC_SPLIT, "0").equals("1"))
-                    normalizedXml = topicSplit(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_CHRON_SPLIT, "0").equals("1"))
-                    normalizedXml = chronSplit(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_GEOG_SPLIT, "0").equals("1"))
-                    normalizedXml = geogSplit(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_GENRE_SPLIT, "0").equals("1"))
-                    normalizedXml = genreSplit(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_DEDUP_DCMI_TYPE, "0").equals("1"))
-                    normalizedXml = dedupDcmiType(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_DEDUP_007_VOCAB, "0").equals("1"))
-                    normalizedXml = dedup007Vocab(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_SEPARATE_NAME, "0").equals("1"))
-                    normalizedXml = separateName(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_DEDUP_9XX, "0").equals("1"))
-                    normalizedXml = dedup9XX(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_TITLE_ARTICLE, "0").equals("1"))
-                    normalizedXml = titleArticle(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_BIB_LOCATION_NAME, "0").equals("1"))
-                    normalizedXml = bibLocationName(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_III_LOCATION_NAME, "0").equals("1"))
-                    normalizedXml = IIILocationName(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_REMOVE_945_FIELD, "0").equals("1"))
-                    normalizedXml = remove945Field(normalizedXml);
-
+                for (NormalizationStep step : bibSteps)
+                    normalizedXml = step.apply(normalizedXml);
                 TimingLogger.stop("bibsteps");
             }
 
             // Run these steps only if the record is a holding record
             if (type != null && type.equals("h")) {
                 TimingLogger.start("holdsteps");
-
-                // Remove any invalid 014s
-                String valid014 = enabledSteps.getProperty(CONFIG_VALID_FIRST_CHAR_014, "");
-                String invalid014 = enabledSteps.getProperty(CONFIG_INVALID_FIRST_CHAR_014, "");
-                if (valid014.length() > 0 || invalid014.length() > 0)
-                    normalizedXml = removeInvalid014s(normalizedXml, valid014, invalid014);
-
-                String fixMultiple004s = enabledSteps.getProperty(CONFIG_ENABLED_REPLACE_014, "off").toLowerCase();
-                if (!fixMultiple004s.equals("off"))
-                    normalizedXml = fixMultiple004s(normalizedXml, fixMultiple004s);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_HOLDINGS_LOCATION_NAME, "0").equals("1"))
-                    normalizedXml = holdingsLocationName(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_LOCATION_LIMIT_NAME, "0").equals("1"))
-                    normalizedXml = locationLimitName(normalizedXml);
-
-                if (enabledSteps.getProperty(CONFIG_ENABLED_014_SOURCE, "0").equals("1")) {
-                    normalizedXml = add014source(normalizedXml);
-                }
-
+                for (NormalizationStep step : holdingSteps)
+                    normalizedXml = step.apply(normalizedXml);
                 TimingLogger.stop("holdsteps");
             }
 
@@ -1081,8 +971,6 @@ public class NormalizationService extends GenericMetadataService {
             return marcXml;
         }
 
-        boolean moveAllOrgCodes = enabledSteps.getProperty(CONFIG_MOVE_ALL_MARC_ORG_CODES, "0").equals("1");
-
         // Create the new 035 field
         if (moveAllOrgCodes || control003.equalsIgnoreCase(getOrganizationCode())) {
             String new035 = null;
@@ -1932,7 +1820,6 @@ public class NormalizationService extends GenericMetadataService {
         if (LOG.isDebugEnabled())
             LOG.debug("Entering fix035 normalization step.");
         
-        boolean fix035_0s = enabledSteps.getProperty(CONFIG_ENABLED_035_LEADING_ZERO, "0").equals("1");   
 
         // Get the original list of 035 elements. We know that any 035 we
         // supplied had the correct format, so all incorrect 035 records must
@@ -2124,7 +2011,7 @@ public class NormalizationService extends GenericMetadataService {
             }
             
             // remove preceeding 0s
-            if (aSubfield != null && fix035_0s) {
+            if (aSubfield != null && fix035LeadingZeros) {
                 // Get value of $a
                 String value = aSubfield.getText();
 
@@ -3029,6 +2916,354 @@ public class NormalizationService extends GenericMetadataService {
                 }
             }
         }
+
+        compileSteps();
+    }
+
+    /**
+     * Works out which normalization steps are enabled and puts them in bibSteps and holdingSteps
+     * in the order they're run, so processing a record doesn't have to look each of them up in
+     * enabledSteps.  This is called whenever the configuration changes.
+     */
+    protected void compileSteps() {
+        if (enabledSteps == null)
+            return;
+
+        sourceOfOrganizationCode = getSourceOfOrganizationCode();
+        sourceOf9XXFields = sourceOf9XXFieldsEnabled();
+        moveAllOrgCodes = isStepEnabled(CONFIG_MOVE_ALL_MARC_ORG_CODES);
+        fix035LeadingZeros = isStepEnabled(CONFIG_ENABLED_035_LEADING_ZERO);
+
+        // Steps run on bibliographic records
+        List<NormalizationStep> steps = new ArrayList<NormalizationStep>();
+        if (isStepEnabled(CONFIG_ENABLED_REMOVE_OCOLC_003)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_REMOVE_OCOLC_003) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return removeOcolc003(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_DCMI_TYPE_06)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_DCMI_TYPE_06) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return dcmiType06(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_LEADER_06_VOCAB)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_LEADER_06_VOCAB) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return leader06MarcVocab(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_007_VOCAB_06)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_007_VOCAB_06) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return vocab06(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_MODE_OF_ISSUANCE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_MODE_OF_ISSUANCE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return modeOfIssuance(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_MOVE_MARC_ORG_CODE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_MOVE_MARC_ORG_CODE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return moveMarcOrgCode(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_DCMI_TYPE_00_07)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_DCMI_TYPE_00_07) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return dcmiType0007(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_007_VOCAB)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_007_VOCAB) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return vocab007(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_007_SMD_TYPE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_007_SMD_TYPE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return smdType007(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_FICTION_OR_NONFICTION)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_FICTION_OR_NONFICTION) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return fictionOrNonfiction(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_008_DATE_RANGE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_008_DATE_RANGE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return dateRange(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_LANGUAGE_SPLIT)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_LANGUAGE_SPLIT) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return languageSplit(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_LANGUAGE_TERM)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_LANGUAGE_TERM) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return languageTerm(marcXml);
+                }
+            });
+        }
+        final boolean audience006 = isStepEnabled(CONFIG_ENABLED_006_AUDIENCE);
+        final boolean audience008 = isStepEnabled(CONFIG_ENABLED_008_AUDIENCE);
+        if (audience006 || audience008) {
+            steps.add(new NormalizationStep(audience006 ? CONFIG_ENABLED_006_AUDIENCE : CONFIG_ENABLED_008_AUDIENCE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return audienceFrom006_008(marcXml, audience006, audience008);
+                }
+            });
+        }
+        final boolean form006 = isStepEnabled(CONFIG_ENABLED_006_FORM);
+        final boolean form008 = isStepEnabled(CONFIG_ENABLED_008_FORM);
+        if (form006 || form008) {
+            steps.add(new NormalizationStep(form006 ? CONFIG_ENABLED_006_FORM : CONFIG_ENABLED_008_FORM) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return formFrom006_008(marcXml, form006, form008);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_008_THESIS)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_008_THESIS) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return thesisFrom008(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_ISBN_MOVE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_ISBN_MOVE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return isbnMove024(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_ISBN_CLEANUP)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_ISBN_CLEANUP) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return isbnCleanup(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_LCCN_CLEANUP)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_LCCN_CLEANUP) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return lccnCleanup(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_SUPPLY_MARC_ORG_CODE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_SUPPLY_MARC_ORG_CODE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return supplyMARCOrgCode(marcXml);
+                }
+            });
+        }
+        // the 035 substitutions are only set up once the service has been validated
+        if (needToFix035()) {
+            steps.add(new NormalizationStep("fix035") {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return fix035(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_DEDUP_035)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_DEDUP_035) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return dedup035(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_ROLE_AUTHOR)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_ROLE_AUTHOR) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return roleAuthor(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_ROLE_COMPOSER)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_ROLE_COMPOSER) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return roleComposer(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_UNIFORM_TITLE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_UNIFORM_TITLE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return uniformTitle(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_NRU_GENRE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_NRU_GENRE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return nruGenre(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_NRU_DATABASE_GENRE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_NRU_DATABASE_GENRE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return nruDatabaseGenre(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_TOPIC_SPLIT)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_TOPIC_SPLIT) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return topicSplit(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_CHRON_SPLIT)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_CHRON_SPLIT) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return chronSplit(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_GEOG_SPLIT)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_GEOG_SPLIT) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return geogSplit(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_GENRE_SPLIT)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_GENRE_SPLIT) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return genreSplit(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_DEDUP_DCMI_TYPE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_DEDUP_DCMI_TYPE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return dedupDcmiType(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_DEDUP_007_VOCAB)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_DEDUP_007_VOCAB) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return dedup007Vocab(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_SEPARATE_NAME)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_SEPARATE_NAME) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return separateName(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_DEDUP_9XX)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_DEDUP_9XX) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return dedup9XX(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_TITLE_ARTICLE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_TITLE_ARTICLE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return titleArticle(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_BIB_LOCATION_NAME)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_BIB_LOCATION_NAME) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return bibLocationName(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_III_LOCATION_NAME)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_III_LOCATION_NAME) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return IIILocationName(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_REMOVE_945_FIELD)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_REMOVE_945_FIELD) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return remove945Field(marcXml);
+                }
+            });
+        }
+        bibSteps = steps.toArray(new NormalizationStep[steps.size()]);
+
+        // Steps run on holding records
+        steps = new ArrayList<NormalizationStep>();
+        final String valid014 = enabledSteps.getProperty(CONFIG_VALID_FIRST_CHAR_014, "");
+        final String invalid014 = enabledSteps.getProperty(CONFIG_INVALID_FIRST_CHAR_014, "");
+        if (valid014.length() > 0 || invalid014.length() > 0) {
+            steps.add(new NormalizationStep(valid014.length() > 0 ? CONFIG_VALID_FIRST_CHAR_014 : CONFIG_INVALID_FIRST_CHAR_014) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return removeInvalid014s(marcXml, valid014, invalid014);
+                }
+            });
+        }
+        final String fixMultiple004s = enabledSteps.getProperty(CONFIG_ENABLED_REPLACE_014, "off").toLowerCase();
+        if (!fixMultiple004s.equals("off")) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_REPLACE_014) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) throws Exception {
+                    return fixMultiple004s(marcXml, fixMultiple004s);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_HOLDINGS_LOCATION_NAME)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_HOLDINGS_LOCATION_NAME) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return holdingsLocationName(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_LOCATION_LIMIT_NAME)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_LOCATION_LIMIT_NAME) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return locationLimitName(marcXml);
+                }
+            });
+        }
+        if (isStepEnabled(CONFIG_ENABLED_014_SOURCE)) {
+            steps.add(new NormalizationStep(CONFIG_ENABLED_014_SOURCE) {
+                public MarcXmlManager apply(MarcXmlManager marcXml) {
+                    return add014source(marcXml);
+                }
+            });
+        }
+        holdingSteps = steps.toArray(new NormalizationStep[steps.size()]);
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("bibSteps: " + Arrays.asList(bibSteps) + ", holdingSteps: " + Arrays.asList(holdingSteps));
+    }
+
+    protected boolean isStepEnabled(String step) {
+        return enabledSteps.getProperty(step, "0").equals("1");
     }
 
     @Override
@@ -3073,7 +3308,7 @@ public class NormalizationService extends GenericMetadataService {
             throw new ServiceValidationException("Service configuration file is missing the required section: LOCATION CODE TO LOCATION LIMIT NAME");
         
         setupFix035Parameters();
-
+        compileSteps();
     }
     
     protected boolean needToFix035() {
@@ -3298,7 +3533,7 @@ public class NormalizationService extends GenericMetadataService {
     }
     
     protected boolean sourceOf9XXFieldsEnabled () {
-    	return enabledSteps.getProperty(CONFIG_SOURCE_OF_9XX_FIELDS).equals("1");
+    	return enabledSteps.getProperty(CONFIG_SOURCE_OF_9XX_FIELDS, "0").equals("1");
     }
 
     /*
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+
+package xc.mst.services.normalization;
+
+/**
+ * A normalization step which is enabled in the service's configuration.
+ *
+ * The enabled steps are worked out once, when the configuration is loaded, and kept in the
+ * order they're run (see NormalizationService.compileSteps), so normalizing a record is a
+ * matter of running each of them in turn.
+ */
+public abstract class NormalizationStep {
+
+    protected String name = null;
+
+    /**
+     * @param name
+     *            the name of the step's property in the ENABLED STEPS section
+     */
+    public NormalizationStep(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param marcXml
+     *            The MARCXML record being normalized
+     * @return The MARCXML record after performing this normalization step.
+     */
+    public abstract MarcXmlManager apply(MarcXmlManager marcXml) throws Exception;
+
+    public String toString() {
+        return name;
+    }
+
+}
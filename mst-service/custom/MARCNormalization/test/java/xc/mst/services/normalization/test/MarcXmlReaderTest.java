@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.services.normalization.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.FileUtils;
+import org.jdom.Attribute;
+import org.jdom.Comment;
+import org.jdom.Content;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.ProcessingInstruction;
+import org.jdom.Text;
+import org.jdom.filter.ElementFilter;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import xc.mst.bo.record.Record;
+import xc.mst.service.impl.test.MockHarvestTest;
+import xc.mst.services.normalization.MarcXmlReader;
+import xc.mst.utils.XmlHelper;
+
+/**
+ * MarcXmlReader has to build the element Record.setMode(Record.JDOM_MODE) would have built
+ * (DOMBuilder over a DOM), or normalized records would come out different.
+ */
+public class MarcXmlReaderTest {
+
+    public static final String MARC_NAMESPACE = "http://www.loc.gov/MARC21/slim";
+
+    protected XmlHelper xmlHelper = new XmlHelper();
+
+    // keeps whitespace, which the repository's compact format throws away
+    protected XMLOutputter rawOutputter = new XMLOutputter(Format.getRawFormat());
+
+    protected void assertSameAsSetMode(String xml, String what) throws Exception {
+        Record record = new Record();
+        record.setOaiXml(xml);
+        record.setMode(Record.JDOM_MODE);
+        Element expected = record.getOaiXmlEl();
+        Assert.assertNotNull(expected, what);
+
+        Element actual = MarcXmlReader.read(xml);
+
+        assertSameElement(actual, expected, what);
+        Assert.assertEquals(rawOutputter.outputString(actual), rawOutputter.outputString(expected), what);
+        Assert.assertEquals(xmlHelper.getString(actual), xmlHelper.getString(expected), what);
+    }
+
+    protected void assertSameElement(Element actual, Element expected, String what) {
+        String path = what + " " + expected.getQualifiedName();
+        Assert.assertEquals(actual.getQualifiedName(), expected.getQualifiedName(), path);
+        Assert.assertEquals(actual.getNamespaceURI(), expected.getNamespaceURI(), path);
+
+        List<?> actualNamespaces = actual.getAdditionalNamespaces();
+        List<?> expectedNamespaces = expected.getAdditionalNamespaces();
+        Assert.assertEquals(actualNamespaces.size(), expectedNamespaces.size(), path + " namespaces");
+        for (int i = 0; i < expectedNamespaces.size(); i++) {
+            Namespace actualNs = (Namespace) actualNamespaces.get(i);
+            Namespace expectedNs = (Namespace) expectedNamespaces.get(i);
+            Assert.assertEquals(actualNs.getPrefix(), expectedNs.getPrefix(), path + " namespace " + i);
+            Assert.assertEquals(actualNs.getURI(), expectedNs.getURI(), path + " namespace " + i);
+        }
+
+        List<?> actualAttributes = actual.getAttributes();
+        List<?> expectedAttributes = expected.getAttributes();
+        Assert.assertEquals(actualAttributes.size(), expectedAttributes.size(), path + " attributes");
+        for (int i = 0; i < expectedAttributes.size(); i++) {
+            Attribute actualAtt = (Attribute) actualAttributes.get(i);
+            Attribute expectedAtt = (Attribute) expectedAttributes.get(i);
+            Assert.assertEquals(actualAtt.getQualifiedName(), expectedAtt.getQualifiedName(), path + " attribute " + i);
+            Assert.assertEquals(actualAtt.getNamespaceURI(), expectedAtt.getNamespaceURI(), path + " attribute " + i);
+            Assert.assertEquals(actualAtt.getValue(), expectedAtt.getValue(), path + " @" + expectedAtt.getQualifiedName());
+        }
+
+        List<?> actualContent = actual.getContent();
+        List<?> expectedContent = expected.getContent();
+        Assert.assertEquals(actualContent.size(), expectedContent.size(), path + " content");
+        for (int i = 0; i < expectedContent.size(); i++) {
+            Content a = (Content) actualContent.get(i);
+            Content e = (Content) expectedContent.get(i);
+            // CDATA extends Text, so the classes have to match exactly
+            Assert.assertEquals(a.getClass(), e.getClass(), path + " content " + i);
+            if (e instanceof Element) {
+                assertSameElement((Element) a, (Element) e, path + "/");
+            } else if (e instanceof Text) {
+                Assert.assertEquals(((Text) a).getText(), ((Text) e).getText(), path + " text " + i);
+            } else if (e instanceof Comment) {
+                Assert.assertEquals(((Comment) a).getText(), ((Comment) e).getText(), path + " comment " + i);
+            } else if (e instanceof ProcessingInstruction) {
+                ProcessingInstruction api = (ProcessingInstruction) a;
+                ProcessingInstruction epi = (ProcessingInstruction) e;
+                Assert.assertEquals(api.getTarget(), epi.getTarget(), path + " pi " + i);
+                Assert.assertEquals(api.getData(), epi.getData(), path + " pi " + i);
+            }
+        }
+    }
+
+    protected List<File> getFixtures() {
+        List<File> files = new ArrayList<File>();
+        findXmlFiles(new File(MockHarvestTest.INPUT_FOLDER), files);
+        findXmlFiles(new File(MockHarvestTest.EXPECTED_OUTPUT_FOLDER), files);
+        Assert.assertTrue(files.size() > 0, "no fixtures under " + new File(MockHarvestTest.INPUT_FOLDER).getAbsolutePath());
+        return files;
+    }
+
+    protected void findXmlFiles(File f, List<File> files) {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            Arrays.sort(children);
+            for (File child : children) {
+                findXmlFiles(child, files);
+            }
+        } else if (f.getName().endsWith(".xml")) {
+            files.add(f);
+        }
+    }
+
+    @Test
+    public void testFixtureRecords() throws Exception {
+        int records = 0;
+        for (File f : getFixtures()) {
+            String xml = FileUtils.readFileToString(f, "UTF-8");
+            Document doc = xmlHelper.getJDomDocument(xml);
+            if (doc == null) {
+                // some fixtures aren't well-formed on purpose. The reader has to reject them too,
+                // so that NormalizationService falls back on setMode.
+                try {
+                    MarcXmlReader.read(xml);
+                    Assert.fail(f.getPath() + " isn't well-formed, but MarcXmlReader read it");
+                } catch (XMLStreamException e) {
+                }
+                continue;
+            }
+
+            // the whole OAI-PMH response: whitespace between elements and namespaces declared
+            // further up than the records
+            assertSameAsSetMode(xml, f.getPath());
+
+            // each record the way the repository stores it
+            Element oaiPmh = doc.getRootElement();
+            Iterator<?> it = oaiPmh.getDescendants(new ElementFilter("record", Namespace.getNamespace(MARC_NAMESPACE)));
+            List<Element> recordEls = new ArrayList<Element>();
+            while (it.hasNext()) {
+                recordEls.add((Element) it.next());
+            }
+            for (Element recordEl : recordEls) {
+                String recordXml = xmlHelper.getString((Element) recordEl.clone());
+                assertSameAsSetMode(recordXml, f.getPath() + " record " + records);
+                records++;
+            }
+        }
+        Assert.assertTrue(records > 0, "no MARCXML records in the fixtures");
+    }
+
+    @Test
+    public void testMarkup() throws Exception {
+        // attributes and namespace declarations out of order, a default namespace, text split by
+        // entity references, CDATA, comments and processing instructions
+        assertSameAsSetMode(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                        "<marc:record xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:marc=\"" + MARC_NAMESPACE + "\"" +
+                        " xsi:schemaLocation=\"" + MARC_NAMESPACE + " x.xsd\" id=\"1\">\n" +
+                        "  <marc:leader>00000nam a2200000 a 4500</marc:leader>\n" +
+                        "  <marc:datafield tag=\"245\" ind2=\"0\" ind1=\"1\">\n" +
+                        "    <marc:subfield code=\"a\">Fish &amp; chips &#x00E9;t&#233; &lt;b&gt;</marc:subfield>\n" +
+                        "    <marc:subfield code=\"b\"><![CDATA[a < b]]> after</marc:subfield>\n" +
+                        "    <!-- a comment --><?pi some data?><?empty?>\n" +
+                        "  </marc:datafield>\n" +
+                        "  <note xmlns=\"urn:other\" xmlns:marc=\"" + MARC_NAMESPACE + "\"><inner marc:code=\"z\"/></note>\n" +
+                        "</marc:record>",
+                "markup");
+    }
+
+}
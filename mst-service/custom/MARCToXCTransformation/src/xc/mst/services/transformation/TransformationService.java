@@ -36,6 +36,7 @@ import xc.mst.dao.DataException;
 import xc.mst.dao.DatabaseConfigException;
 import xc.mst.manager.IndexException;
 import xc.mst.services.impl.service.SolrTransformationService;
+import xc.mst.services.transformation.dao.LinkageCache;
 import xc.mst.services.transformation.dao.TransformationDAO;
 import xc.mst.utils.MSTConfiguration;
 import xc.mst.utils.TimingLogger;
@@ -62,6 +63,10 @@ public class TransformationService extends SolrTransformationService {
 
     protected TransformationDAO transformationDAO = null;
 
+    // the linkage tables in memory; null when CacheLinkages=0 (or setup hasn't run), in which case
+    // every lookup goes to transformationDAO
+    protected LinkageCache linkageCache = null;
+
     protected int inputBibs = 0;
     protected int inputHoldings = 0;
 
@@ -99,54 +104,111 @@ public class TransformationService extends SolrTransformationService {
         TimingLogger.reset();
         inputBibs = getRepository().getPersistentPropertyAsInt("inputBibs", 0);
         inputHoldings = getRepository().getPersistentPropertyAsInt("inputHoldings", 0);
+
+        linkageCache = null;
+        if (config.getPropertyAsInt("CacheLinkages", 1) == 1) {
+            TimingLogger.start("TransformationService.loadLinkageCache");
+            LinkageCache cache = new LinkageCache(getTransformationDAO());
+            cache.load();
+            linkageCache = cache;
+            TimingLogger.stop("TransformationService.loadLinkageCache");
+            logLinkageCacheFootprint();
+        }
+    }
+
+    protected void logLinkageCacheFootprint() {
+        if (linkageCache != null) {
+            LOG.info("linkage cache: " + linkageCache.size() + " keys, ~" +
+                    (linkageCache.getFootprint() / (1024 * 1024)) + " MB");
+            TimingLogger.outputMemory();
+        }
     }
     
     protected Long getRecordId4BibProcessed(String orgCode, String s) {
+    	if (linkageCache != null) {
+    		return linkageCache.getRecordId4BibProcessed(orgCode, s);
+    	}
     	List<Long> r = getTransformationDAO().getRecordId4BibProcessed(new Marc001_003Holder(s, orgCode));
     	return (r == null || r.size() < 1) ? null : r.get(0);
 
     }
     
     protected Marc001_003Holder getHoldingMarcId4RecordIdProcessed(long l) {
+    	if (linkageCache != null) {
+    		return linkageCache.getHoldingMarcId4RecordIdProcessed(l);
+    	}
     	List<Marc001_003Holder> r = getTransformationDAO().getHoldingMarcId4RecordIdProcessed(l);
     	return (r == null || r.size() < 1) ? null : r.get(0);
     }
     
     
     protected void addRecordId4BibProcessed(String orgCode, String s, Long l) {
+    	if (linkageCache != null) {
+    		linkageCache.addRecordId4BibProcessed(orgCode, s, l);
+    		return;
+    	}
     	getTransformationDAO().addRecordId4BibProcessed(new Marc001_003Holder(s, orgCode), l);
     }
 
     protected void addRecordId4HoldingProcessed(String orgCode, String s, Long l) {
+    	if (linkageCache != null) {
+    		linkageCache.addRecordId4HoldingProcessed(orgCode, s, l);
+    		return;
+    	}
     	getTransformationDAO().addRecordId4HoldingProcessed(new Marc001_003Holder(s, orgCode), l);
     }
 
     protected void removeRecordId4BibProcessed(Long l) {
+    	if (linkageCache != null) {
+    		linkageCache.removeRecordId4BibProcessed(l);
+    		return;
+    	}
     	getTransformationDAO().removeRecordId4BibProcessed(l);
     }
 
     protected void removeRecordId4HoldingProcessed(Long l) {
+    	if (linkageCache != null) {
+    		linkageCache.removeRecordId4HoldingProcessed(l);
+    		return;
+    	}
     	getTransformationDAO().removeRecordId4HoldingProcessed(l);
     }
 
     protected List<Long> getManifestationId4BibYet2Arrive(String orgCode, String s) {
+    	if (linkageCache != null) {
+    		return linkageCache.getManifestationId4BibYet2Arrive(orgCode, s);
+    	}
     	return getTransformationDAO().getManifestationId4BibYet2Arrive(new Marc001_003Holder(s, orgCode));
     }
 
     protected void addManifestationId4BibYet2Arrive(String orgCode, String s, Long l) {
+    	if (linkageCache != null) {
+    		linkageCache.addManifestationId4BibYet2Arrive(orgCode, s, l);
+    		return;
+    	}
     	getTransformationDAO().addManifestationId4BibYet2Arrive(new Marc001_003Holder(s, orgCode), l);
     }
 
     protected void removeManifestationId4BibYet2Arrive(String orgCode, String s, Long l) {
+    	if (linkageCache != null) {
+    		linkageCache.removeManifestationId4BibYet2Arrive(orgCode, s, l);
+    		return;
+    	}
     	getTransformationDAO().removeManifestationId4BibYet2Arrive(new Marc001_003Holder(s, orgCode), l);
     	
     }
  
     protected List<String> getHoldingsForBib(String orgCode, String bib_id) {
+    	if (linkageCache != null) {
+    		return linkageCache.getHoldingsForBib(orgCode, bib_id);
+    	}
     	return getTransformationDAO().getHoldingsForBib(new Marc001_003Holder(bib_id, orgCode));
     }
     
     protected List<String> getBibsForHolding(String orgCode, String hold_id) {
+    	if (linkageCache != null) {
+    		return linkageCache.getBibsForHolding(orgCode, hold_id);
+    	}
     	return getTransformationDAO().getBibsForHoldings(new Marc001_003Holder(hold_id, orgCode));
     }
 
@@ -157,14 +219,26 @@ public class TransformationService extends SolrTransformationService {
     }
     	
     protected void addBibforHolding(String orgCode, String holding_id, String bib_id) {  
+    	if (linkageCache != null) {
+    		linkageCache.addBibForHolding(orgCode, holding_id, bib_id);
+    		return;
+    	}
     	getTransformationDAO().addBibforHolding(orgCode, holding_id, bib_id);
     }
 
     protected void removeBibsForHolding(String orgCode, String holding_id) {
+    	if (linkageCache != null) {
+    		linkageCache.removeBibsForHolding(orgCode, holding_id);
+    		return;
+    	}
     	getTransformationDAO().removeBibsForHoldings(orgCode, holding_id);
     }
 
     protected void removeBibForHolding(String orgCode, String holding_id, String bib_id) {
+    	if (linkageCache != null) {
+    		linkageCache.removeBibForHolding(orgCode, holding_id, bib_id);
+    		return;
+    	}
     	getTransformationDAO().removeBibForHolding(orgCode, holding_id, bib_id);
     }
 
@@ -188,6 +262,15 @@ public class TransformationService extends SolrTransformationService {
             TimingLogger.start("TransformationDAO.endBatch");
 
             unchangedPredecessors.clear();
+
+            if (linkageCache != null) {
+                TimingLogger.start("TransformationDAO.persistLinkageCache");
+                linkageCache.persist();
+                TimingLogger.stop("TransformationDAO.persistLinkageCache");
+                if (force) {
+                    logLinkageCacheFootprint();
+                }
+            }
             
             TimingLogger.start("TransformationDAO.non-generic");
             super.commitIfNecessary(true, 0);
@@ -217,11 +300,11 @@ public class TransformationService extends SolrTransformationService {
             List<OutputRecord> results = new ArrayList<OutputRecord>();
             
             if (Record.DELETED == record.getStatus()) {
+                	Map<Long, Record> succHeaders = getSuccessorHeaders(record);
                 	for (OutputRecord or : record.getSuccessors()) {
                         or.setStatus(Record.DELETED);
                         results.add(or);
-                        Record r = getRepository().getRecord(or.getId());
-                        String type = getXCRecordService().getType(r);
+                        String type = getSuccessorType(succHeaders.get(or.getId()), or.getId());
                         or.setType(type);
                         if (or.getType().equals("manifestation")) {
                         	
@@ -352,13 +435,17 @@ public class TransformationService extends SolrTransformationService {
                 // this means it's an edit, i.e., not a new record
                 if (record.getSuccessors() != null && record.getSuccessors().size() > 0) {
                 	isNew = false;
+                	Map<Long, Record> succHeaders = getSuccessorHeaders(record);
                     for (OutputRecord or : record.getSuccessors()) {
-                        Record succ = getRepository().getRecord(or.getId());
+                        Record succ = succHeaders.get(or.getId());
+                        if (succ == null) {
+                            succ = getRepository().getRecord(or.getId());
+                        }
                         // ignore deleted successors
                         // they were deleted, so we need to ignore them forever
                         // (new successors and OAI IDs get generated whenever a deleted record later gets re-activated)
                         if (! succ.getDeleted()) {
-	                        String type = getXCRecordService().getType(succ);
+	                        String type = getSuccessorType(succ, or.getId());
 	                        or.setType(type);
 	                        if (AggregateXCRecord.HOLDINGS.equals(type)) {
 	                            ar.getPreviousHoldingIds().add(or.getId());
@@ -574,11 +661,38 @@ public class TransformationService extends SolrTransformationService {
         return null;
     }
 
+    // The headers (no xml) of record's successors by id, read in one query.
+    protected Map<Long, Record> getSuccessorHeaders(InputRecord record) {
+        Map<Long, Record> headers = new HashMap<Long, Record>();
+        List<OutputRecord> succs = record.getSuccessors();
+        if (succs == null || succs.size() == 0) {
+            return headers;
+        }
+        long[] ids = new long[succs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = succs.get(i).getId();
+        }
+        for (Record header : getRepository().getHeaders(ids)) {
+            headers.put(header.getId(), header);
+        }
+        return headers;
+    }
+
+    // The xc type of a successor: from its header when the stored type is one, otherwise read off its xml.
+    protected String getSuccessorType(Record header, long recordId) {
+        String type = header == null ? null : getXCRecordService().getHeaderType(header);
+        if (type == null) {
+            TimingLogger.add("TransformationService.successorType.xml", 0);
+            type = getXCRecordService().getType(getRepository().getRecord(recordId));
+        }
+        return type;
+    }
+
     // A safe way to retrieve a record, whether it has already been persisted or not.
     protected Record getRecord(Long recordId) {
     	// We may need to access in-memory (not yet persisted) records.
     	// MST doesn't provide a safe framework for manipulating in-memory objects; therefore, we will persist all records first!
-    	if (getRepositoryDAO().haveUnpersistedRecord(recordId)) {
+    	if (getRepositoryDAO().haveUnpersistedRecord(getRepository().getName(), recordId)) {
             super.commitIfNecessary(true, 0);
     	}
     	Record r = getRepository().getRecord(recordId);
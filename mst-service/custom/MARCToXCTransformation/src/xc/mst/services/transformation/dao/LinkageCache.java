@@ -0,0 +1,463 @@
+/**
+ * Copyright (c) 2010 eXtensible Catalog Organization
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+ * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+ * website http://www.extensiblecatalog.org/.
+ *
+ */
+package xc.mst.services.transformation.dao;
+
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TLongObjectHashMap;
+import gnu.trove.TObjectProcedure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import xc.mst.bo.record.Marc001_003Holder;
+
+/**
+ * The bib/holding linkage tables of the transformation service (bibsProcessed*, holdingsProcessed*,
+ * bibsYet2Arrive* and bibs_to_holdings) held in memory.  The tables are loaded once, lookups are
+ * answered from the maps, and the keys changed since the last persist are written back in batches
+ * by {@link #persist()}.
+ *
+ * Keys are Marc001_003Holders whose 003 (org code) is shared between all keys of that org.  For the
+ * *LongId/*StringId tables the 001 is normalized the same way TransformationDAO picks the table
+ * (Integer.parseInt), so that a key looks the same whether it was added in this run or read back
+ * from the BIGINT column.
+ */
+public class LinkageCache {
+
+    // rough 64-bit sizes used by getFootprint()
+    protected static final int OBJECT_BYTES = 16;
+    protected static final int REF_BYTES = 8;
+    protected static final int HOLDER_BYTES = OBJECT_BYTES + 2 * REF_BYTES;
+    // open hashing at trove's default load factor of 0.5 keeps two slots per entry
+    protected static final int SLOTS_PER_ENTRY = 2;
+
+    protected TransformationDAO transformationDAO = null;
+
+    protected Map<String, String> orgCodes = new HashMap<String, String>();
+
+    protected RecordIdLinks bibsProcessed = new RecordIdLinks(this, true);
+    protected RecordIdLinks holdingsProcessed = new RecordIdLinks(this, true);
+    protected RecordIdLinks bibsYet2Arrive = new RecordIdLinks(this, false);
+    protected BibRefs bibRefs = new BibRefs(this);
+
+    public LinkageCache(TransformationDAO transformationDAO) {
+        this.transformationDAO = transformationDAO;
+    }
+
+    public void load() {
+        transformationDAO.loadBibsProcessed(bibsProcessed);
+        transformationDAO.loadHoldingsProcessed(holdingsProcessed);
+        transformationDAO.loadBibsYet2Arrive(bibsYet2Arrive);
+        transformationDAO.loadBibRefs(bibRefs);
+    }
+
+    /**
+     * Writes every key changed since the last persist back to the tables.
+     */
+    public void persist() {
+        transformationDAO.persistBibsProcessed(bibsProcessed);
+        transformationDAO.persistHoldingsProcessed(holdingsProcessed);
+        transformationDAO.persistBibsYet2Arrive(bibsYet2Arrive);
+        transformationDAO.persistBibRefs(bibRefs);
+    }
+
+    public String internOrgCode(String orgCode) {
+        if (orgCode == null) {
+            return null;
+        }
+        String interned = orgCodes.get(orgCode);
+        if (interned == null) {
+            interned = orgCode;
+            orgCodes.put(interned, interned);
+        }
+        return interned;
+    }
+
+    /**
+     * @return the 001 as it is stored in the *LongId/*StringId tables
+     */
+    public static String normalize001(String s001) {
+        try {
+            return String.valueOf(Integer.parseInt(s001));
+        } catch (NumberFormatException nfe) {
+            return s001;
+        }
+    }
+
+    protected Marc001_003Holder getRecordIdKey(String orgCode, String s001) {
+        return new Marc001_003Holder(normalize001(s001), internOrgCode(orgCode));
+    }
+
+    protected Marc001_003Holder getBibRefKey(String orgCode, String s001) {
+        return new Marc001_003Holder(s001, internOrgCode(orgCode));
+    }
+
+    public Long getRecordId4BibProcessed(String orgCode, String s001) {
+        long[] ids = bibsProcessed.get(getRecordIdKey(orgCode, s001));
+        return ids == null ? null : ids[0];
+    }
+
+    public void addRecordId4BibProcessed(String orgCode, String s001, long recordId) {
+        bibsProcessed.add(getRecordIdKey(orgCode, s001), recordId);
+    }
+
+    public void removeRecordId4BibProcessed(long recordId) {
+        bibsProcessed.remove(recordId);
+    }
+
+    public Marc001_003Holder getHoldingMarcId4RecordIdProcessed(long recordId) {
+        return holdingsProcessed.getKey(recordId);
+    }
+
+    public void addRecordId4HoldingProcessed(String orgCode, String s001, long recordId) {
+        holdingsProcessed.add(getRecordIdKey(orgCode, s001), recordId);
+    }
+
+    public void removeRecordId4HoldingProcessed(long recordId) {
+        holdingsProcessed.remove(recordId);
+    }
+
+    public List<Long> getManifestationId4BibYet2Arrive(String orgCode, String s001) {
+        List<Long> results = new ArrayList<Long>();
+        long[] ids = bibsYet2Arrive.get(getRecordIdKey(orgCode, s001));
+        if (ids != null) {
+            for (long id : ids) {
+                results.add(id);
+            }
+        }
+        return results;
+    }
+
+    public void addManifestationId4BibYet2Arrive(String orgCode, String s001, long recordId) {
+        bibsYet2Arrive.add(getRecordIdKey(orgCode, s001), recordId);
+    }
+
+    public void removeManifestationId4BibYet2Arrive(String orgCode, String s001, long recordId) {
+        bibsYet2Arrive.remove(getRecordIdKey(orgCode, s001), recordId);
+    }
+
+    public List<String> getBibsForHolding(String orgCode, String holding001) {
+        return bibRefs.getBibs(getBibRefKey(orgCode, holding001));
+    }
+
+    public List<String> getHoldingsForBib(String orgCode, String bib001) {
+        return bibRefs.getHoldings(getBibRefKey(orgCode, bib001));
+    }
+
+    public void addBibForHolding(String orgCode, String holding001, String bib001) {
+        bibRefs.add(getBibRefKey(orgCode, holding001), bib001);
+    }
+
+    public void removeBibsForHolding(String orgCode, String holding001) {
+        bibRefs.removeAll(getBibRefKey(orgCode, holding001));
+    }
+
+    public void removeBibForHolding(String orgCode, String holding001, String bib001) {
+        bibRefs.remove(getBibRefKey(orgCode, holding001), bib001);
+    }
+
+    public int size() {
+        return bibsProcessed.size() + holdingsProcessed.size() + bibsYet2Arrive.size() + bibRefs.size();
+    }
+
+    /**
+     * @return an estimate of the heap held by the maps, in bytes.  This walks every key, so call it
+     * once per run rather than once per batch.
+     */
+    public long getFootprint() {
+        return bibsProcessed.getFootprint() + holdingsProcessed.getFootprint() +
+                bibsYet2Arrive.getFootprint() + bibRefs.getFootprint();
+    }
+
+    protected static long getStringFootprint(String s) {
+        // String object + char[]
+        return OBJECT_BYTES + REF_BYTES + 8 + ((OBJECT_BYTES + 2 * s.length() + 7) & ~7);
+    }
+
+    protected static long getKeyFootprint(Marc001_003Holder key) {
+        // the 003 is shared, so only the 001 is counted
+        return HOLDER_BYTES + getStringFootprint(key.get001());
+    }
+
+    /**
+     * One pair of *LongId/*StringId tables: (org_code, bib_001) -> record_id(s), and, for the
+     * tables which are also looked up by record_id, the other way around.  A record_id belongs to
+     * the one bib or holding it was created from.
+     */
+    public static class RecordIdLinks {
+
+        protected LinkageCache cache = null;
+        protected THashMap<Marc001_003Holder, long[]> ids = new THashMap<Marc001_003Holder, long[]>();
+        protected TLongObjectHashMap<Marc001_003Holder> keys = null;
+        protected THashSet<Marc001_003Holder> dirty = new THashSet<Marc001_003Holder>();
+
+        public RecordIdLinks(LinkageCache cache, boolean byRecordId) {
+            this.cache = cache;
+            if (byRecordId) {
+                keys = new TLongObjectHashMap<Marc001_003Holder>();
+            }
+        }
+
+        /**
+         * A row read from the table; nothing to write back.
+         */
+        public void load(String orgCode, String s001, long recordId) {
+            put(cache.getRecordIdKey(orgCode, s001), recordId);
+        }
+
+        public long[] get(Marc001_003Holder key) {
+            return ids.get(key);
+        }
+
+        public Marc001_003Holder getKey(long recordId) {
+            return keys == null ? null : keys.get(recordId);
+        }
+
+        public void add(Marc001_003Holder key, long recordId) {
+            if (put(key, recordId)) {
+                dirty.add(key);
+            }
+        }
+
+        protected boolean put(Marc001_003Holder key, long recordId) {
+            long[] current = ids.get(key);
+            if (current == null) {
+                ids.put(key, new long[] { recordId });
+            } else {
+                for (long id : current) {
+                    if (id == recordId) {
+                        return false;
+                    }
+                }
+                long[] added = new long[current.length + 1];
+                System.arraycopy(current, 0, added, 0, current.length);
+                added[current.length] = recordId;
+                ids.put(key, added);
+            }
+            if (keys != null) {
+                keys.put(recordId, key);
+            }
+            return true;
+        }
+
+        public void remove(long recordId) {
+            Marc001_003Holder key = getKey(recordId);
+            if (key != null) {
+                remove(key, recordId);
+            }
+        }
+
+        public void remove(Marc001_003Holder key, long recordId) {
+            long[] current = ids.get(key);
+            if (current == null) {
+                return;
+            }
+            int i = 0;
+            while (i < current.length && current[i] != recordId) {
+                i++;
+            }
+            if (i == current.length) {
+                return;
+            }
+            if (current.length == 1) {
+                ids.remove(key);
+            } else {
+                long[] removed = new long[current.length - 1];
+                System.arraycopy(current, 0, removed, 0, i);
+                System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+                ids.put(key, removed);
+            }
+            if (keys != null) {
+                keys.remove(recordId);
+            }
+            dirty.add(key);
+        }
+
+        public THashSet<Marc001_003Holder> getDirty() {
+            return dirty;
+        }
+
+        public void clearDirty() {
+            dirty.clear();
+        }
+
+        public int size() {
+            return ids.size();
+        }
+
+        public long getFootprint() {
+            final long[] bytes = new long[] { 0 };
+            ids.forEachKey(new TObjectProcedure<Marc001_003Holder>() {
+                public boolean execute(Marc001_003Holder key) {
+                    bytes[0] += getKeyFootprint(key) + OBJECT_BYTES + 8 * ids.get(key).length;
+                    return true;
+                }
+            });
+            bytes[0] += (long) ids.size() * SLOTS_PER_ENTRY * 2 * REF_BYTES;
+            if (keys != null) {
+                // long key, object ref and a state byte per slot
+                bytes[0] += (long) keys.size() * SLOTS_PER_ENTRY * (8 + REF_BYTES + 1);
+            }
+            return bytes[0];
+        }
+    }
+
+    /**
+     * bibs_to_holdings in both directions.  Every change to the table is made for a holding, so
+     * the holding is the unit written back.
+     */
+    public static class BibRefs {
+
+        protected static final String[] NONE = new String[0];
+
+        protected LinkageCache cache = null;
+        protected THashMap<Marc001_003Holder, String[]> bibsForHolding = new THashMap<Marc001_003Holder, String[]>();
+        protected THashMap<Marc001_003Holder, String[]> holdingsForBib = new THashMap<Marc001_003Holder, String[]>();
+        protected THashSet<Marc001_003Holder> dirty = new THashSet<Marc001_003Holder>();
+
+        public BibRefs(LinkageCache cache) {
+            this.cache = cache;
+        }
+
+        /**
+         * A row read from the table; nothing to write back.
+         */
+        public void load(String orgCode, String holding001, String bib001) {
+            put(cache.getBibRefKey(orgCode, holding001), bib001);
+        }
+
+        public List<String> getBibs(Marc001_003Holder holding) {
+            return toList(bibsForHolding.get(holding));
+        }
+
+        public List<String> getHoldings(Marc001_003Holder bib) {
+            return toList(holdingsForBib.get(bib));
+        }
+
+        public String[] getBibArray(Marc001_003Holder holding) {
+            String[] bibs = bibsForHolding.get(holding);
+            return bibs == null ? NONE : bibs;
+        }
+
+        public void add(Marc001_003Holder holding, String bib001) {
+            if (put(holding, bib001)) {
+                dirty.add(holding);
+            }
+        }
+
+        protected boolean put(Marc001_003Holder holding, String bib001) {
+            if (!addTo(bibsForHolding, holding, bib001)) {
+                return false;
+            }
+            addTo(holdingsForBib, new Marc001_003Holder(bib001, holding.get003()), holding.get001());
+            return true;
+        }
+
+        public void removeAll(Marc001_003Holder holding) {
+            String[] bibs = bibsForHolding.remove(holding);
+            if (bibs == null) {
+                return;
+            }
+            for (String bib001 : bibs) {
+                removeFrom(holdingsForBib, new Marc001_003Holder(bib001, holding.get003()), holding.get001());
+            }
+            dirty.add(holding);
+        }
+
+        public void remove(Marc001_003Holder holding, String bib001) {
+            if (removeFrom(bibsForHolding, holding, bib001)) {
+                removeFrom(holdingsForBib, new Marc001_003Holder(bib001, holding.get003()), holding.get001());
+                dirty.add(holding);
+            }
+        }
+
+        protected static boolean addTo(THashMap<Marc001_003Holder, String[]> map, Marc001_003Holder key, String value) {
+            String[] current = map.get(key);
+            if (current == null) {
+                map.put(key, new String[] { value });
+                return true;
+            }
+            for (String s : current) {
+                if (s.equals(value)) {
+                    return false;
+                }
+            }
+            String[] added = new String[current.length + 1];
+            System.arraycopy(current, 0, added, 0, current.length);
+            added[current.length] = value;
+            map.put(key, added);
+            return true;
+        }
+
+        protected static boolean removeFrom(THashMap<Marc001_003Holder, String[]> map, Marc001_003Holder key, String value) {
+            String[] current = map.get(key);
+            if (current == null) {
+                return false;
+            }
+            int i = 0;
+            while (i < current.length && !current[i].equals(value)) {
+                i++;
+            }
+            if (i == current.length) {
+                return false;
+            }
+            if (current.length == 1) {
+                map.remove(key);
+            } else {
+                String[] removed = new String[current.length - 1];
+                System.arraycopy(current, 0, removed, 0, i);
+                System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+                map.put(key, removed);
+            }
+            return true;
+        }
+
+        protected static List<String> toList(String[] values) {
+            List<String> results = new ArrayList<String>();
+            if (values != null) {
+                for (String s : values) {
+                    results.add(s);
+                }
+            }
+            return results;
+        }
+
+        public THashSet<Marc001_003Holder> getDirty() {
+            return dirty;
+        }
+
+        public void clearDirty() {
+            dirty.clear();
+        }
+
+        public int size() {
+            return bibsForHolding.size();
+        }
+
+        public long getFootprint() {
+            return getFootprint(bibsForHolding) + getFootprint(holdingsForBib);
+        }
+
+        protected static long getFootprint(final THashMap<Marc001_003Holder, String[]> map) {
+            final long[] bytes = new long[] { 0 };
+            map.forEachKey(new TObjectProcedure<Marc001_003Holder>() {
+                public boolean execute(Marc001_003Holder key) {
+                    // the values are the 001s of the other map's keys, so only the array is counted
+                    bytes[0] += getKeyFootprint(key) + OBJECT_BYTES + REF_BYTES * map.get(key).length;
+                    return true;
+                }
+            });
+            return bytes[0] + (long) map.size() * SLOTS_PER_ENTRY * 2 * REF_BYTES;
+        }
+    }
+
+}
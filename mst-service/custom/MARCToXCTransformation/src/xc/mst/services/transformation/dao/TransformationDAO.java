@@ -8,14 +8,18 @@
  */
 package xc.mst.services.transformation.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 import xc.mst.bo.record.Marc001_003Holder;
 import xc.mst.services.impl.dao.GenericMetadataServiceDAO;
+import xc.mst.utils.TimingLogger;
 
 /**
  *
@@ -35,6 +39,8 @@ public class TransformationDAO extends GenericMetadataServiceDAO {
     protected final static String bibRefs_table = "bibs_to_holdings";
     protected final static String held_holdings_table = "held_holdings";
 
+    protected final static int ROWS_AT_ONCE = 100000;
+
     
     public void removeRecordId4BibProcessed(Long l) {
         String sql =
@@ -279,11 +285,159 @@ public class TransformationDAO extends GenericMetadataServiceDAO {
     		String stringVal = bib.get001();
             
             this.jdbcTemplate.update("delete from " + bibsYet2ArriveStringId_table +
-                    " where org_code=? and bib_001=?, record_id=?",
+                    " where org_code=? and bib_001=? and record_id=?",
                     bib.get003(), stringVal, record_id);
             
     	}
     }
-    
-   
+
+    public void loadBibsProcessed(LinkageCache.RecordIdLinks links) {
+        loadRecordIds(bibsProcessedLongId_table, links);
+        loadRecordIds(bibsProcessedStringId_table, links);
+    }
+
+    public void loadHoldingsProcessed(LinkageCache.RecordIdLinks links) {
+        loadRecordIds(holdingsProcessedLongId_table, links);
+        loadRecordIds(holdingsProcessedStringId_table, links);
+    }
+
+    public void loadBibsYet2Arrive(LinkageCache.RecordIdLinks links) {
+        loadRecordIds(bibsYet2ArriveLongId_table, links);
+        loadRecordIds(bibsYet2ArriveStringId_table, links);
+    }
+
+    protected void loadRecordIds(String tableName, final LinkageCache.RecordIdLinks links) {
+        TimingLogger.start("TransformationDAO.loadRecordIds");
+        loadInKeyOrder(tableName, "record_id", new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                links.load(rs.getString(1), rs.getString(2), rs.getLong(3));
+            }
+        });
+        LOG.info(tableName + " loaded: " + links.size() + " keys");
+        TimingLogger.stop("TransformationDAO.loadRecordIds");
+    }
+
+    public void loadBibRefs(final LinkageCache.BibRefs bibRefs) {
+        TimingLogger.start("TransformationDAO.loadBibRefs");
+        loadInKeyOrder(bibRefs_table, "holding_001", new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                bibRefs.load(rs.getString(1), rs.getString(3), rs.getString(2));
+            }
+        });
+        LOG.info(bibRefs_table + " loaded: " + bibRefs.size() + " holdings");
+        TimingLogger.stop("TransformationDAO.loadBibRefs");
+    }
+
+    /**
+     * Passes every row of tableName to rch, with the columns org_code, bib_001 and keyCol (the
+     * table's primary key). The rows are read ROWS_AT_ONCE at a time in key order, each page
+     * starting after the last key of the page before, so MySQL seeks straight to it rather than
+     * skipping over an offset's worth of rows, and no row is missed or read twice.
+     */
+    protected void loadInKeyOrder(String tableName, String keyCol, final RowCallbackHandler rch) {
+        String select = "select org_code, bib_001, " + keyCol + " from " + tableName;
+        String after = " where org_code >= ? and (org_code > ? or bib_001 > ? or (bib_001 = ? and " + keyCol + " > ?))";
+        String orderBy = " order by org_code, bib_001, " + keyCol + " limit " + ROWS_AT_ONCE;
+
+        // getObject so a BIGINT bib_001 is compared as a number
+        final Object[] last = new Object[3];
+        final int[] rows = new int[] { 0 };
+        RowCallbackHandler page = new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                rch.processRow(rs);
+                last[0] = rs.getObject(1);
+                last[1] = rs.getObject(2);
+                last[2] = rs.getObject(3);
+                rows[0]++;
+            }
+        };
+        this.jdbcTemplate.query(select + orderBy, page);
+        while (rows[0] == ROWS_AT_ONCE) {
+            rows[0] = 0;
+            this.jdbcTemplate.query(select + after + orderBy,
+                    new Object[] { last[0], last[0], last[1], last[1], last[2] }, page);
+        }
+    }
+
+    public void persistBibsProcessed(LinkageCache.RecordIdLinks links) {
+        persistRecordIds(bibsProcessedLongId_table, bibsProcessedStringId_table, links);
+    }
+
+    public void persistHoldingsProcessed(LinkageCache.RecordIdLinks links) {
+        persistRecordIds(holdingsProcessedLongId_table, holdingsProcessedStringId_table, links);
+    }
+
+    public void persistBibsYet2Arrive(LinkageCache.RecordIdLinks links) {
+        persistRecordIds(bibsYet2ArriveLongId_table, bibsYet2ArriveStringId_table, links);
+    }
+
+    /**
+     * Rewrites the rows of every key changed in links: the key's rows are deleted and its current
+     * record_ids inserted, so adds and removes made in any order since the last persist come out right.
+     */
+    protected void persistRecordIds(String longTable, String stringTable, LinkageCache.RecordIdLinks links) {
+        if (links.getDirty().isEmpty()) {
+            return;
+        }
+        TimingLogger.start("TransformationDAO.persistRecordIds");
+        List<Object[]> longKeys = new ArrayList<Object[]>();
+        List<Object[]> stringKeys = new ArrayList<Object[]>();
+        List<Object[]> longRows = new ArrayList<Object[]>();
+        List<Object[]> stringRows = new ArrayList<Object[]>();
+        for (Marc001_003Holder key : links.getDirty()) {
+            Object bib001 = null;
+            List<Object[]> keys = null;
+            List<Object[]> rows = null;
+            try {
+                bib001 = (long) Integer.parseInt(key.get001());
+                keys = longKeys;
+                rows = longRows;
+            } catch (NumberFormatException nfe) {
+                bib001 = key.get001();
+                keys = stringKeys;
+                rows = stringRows;
+            }
+            keys.add(new Object[] { key.get003(), bib001 });
+            long[] recordIds = links.get(key);
+            if (recordIds != null) {
+                for (long recordId : recordIds) {
+                    rows.add(new Object[] { key.get003(), bib001, recordId });
+                }
+            }
+        }
+        batchRewrite(longTable, "bib_001", longKeys, "(org_code, bib_001, record_id)", longRows);
+        batchRewrite(stringTable, "bib_001", stringKeys, "(org_code, bib_001, record_id)", stringRows);
+        links.clearDirty();
+        TimingLogger.stop("TransformationDAO.persistRecordIds");
+    }
+
+    public void persistBibRefs(LinkageCache.BibRefs bibRefs) {
+        if (bibRefs.getDirty().isEmpty()) {
+            return;
+        }
+        TimingLogger.start("TransformationDAO.persistBibRefs");
+        List<Object[]> keys = new ArrayList<Object[]>();
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (Marc001_003Holder holding : bibRefs.getDirty()) {
+            keys.add(new Object[] { holding.get003(), holding.get001() });
+            for (String bib001 : bibRefs.getBibArray(holding)) {
+                rows.add(new Object[] { holding.get003(), holding.get001(), bib001 });
+            }
+        }
+        batchRewrite(bibRefs_table, "holding_001", keys, "(org_code, holding_001, bib_001)", rows);
+        bibRefs.clearDirty();
+        TimingLogger.stop("TransformationDAO.persistBibRefs");
+    }
+
+    protected void batchRewrite(String tableName, String keyColumn, List<Object[]> keys, String columns, List<Object[]> rows) {
+        if (keys.size() > 0) {
+            this.jdbcTemplate.batchUpdate("delete from " + tableName +
+                    " where org_code=? and " + keyColumn + "=?", keys);
+        }
+        if (rows.size() > 0) {
+            this.jdbcTemplate.batchUpdate("replace into " + tableName +
+                    columns + " values (?, ?, ?)", rows);
+        }
+    }
+
 }
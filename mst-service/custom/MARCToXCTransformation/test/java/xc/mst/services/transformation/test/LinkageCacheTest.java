@@ -0,0 +1,105 @@
+package xc.mst.services.transformation.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import xc.mst.bo.record.Marc001_003Holder;
+import xc.mst.services.transformation.dao.LinkageCache;
+import xc.mst.services.transformation.dao.TransformationDAO;
+
+public class LinkageCacheTest {
+
+    // loads a few rows and keeps what would have been written back
+    protected static class StubDAO extends TransformationDAO {
+        protected List<Marc001_003Holder> persistedBibs = new ArrayList<Marc001_003Holder>();
+        protected List<Marc001_003Holder> persistedHoldings = new ArrayList<Marc001_003Holder>();
+
+        public void loadBibsProcessed(LinkageCache.RecordIdLinks links) {
+            links.load("NRU", "100", 1);
+            links.load("NRU", "ocm200", 2);
+        }
+
+        public void loadHoldingsProcessed(LinkageCache.RecordIdLinks links) {
+            links.load("NRU", "300", 3);
+        }
+
+        public void loadBibsYet2Arrive(LinkageCache.RecordIdLinks links) {
+        }
+
+        public void loadBibRefs(LinkageCache.BibRefs bibRefs) {
+            bibRefs.load("NRU", "300", "100");
+        }
+
+        public void persistBibsProcessed(LinkageCache.RecordIdLinks links) {
+            persistedBibs.addAll(links.getDirty());
+            links.clearDirty();
+        }
+
+        public void persistHoldingsProcessed(LinkageCache.RecordIdLinks links) {
+            links.clearDirty();
+        }
+
+        public void persistBibsYet2Arrive(LinkageCache.RecordIdLinks links) {
+            links.clearDirty();
+        }
+
+        public void persistBibRefs(LinkageCache.BibRefs bibRefs) {
+            persistedHoldings.addAll(bibRefs.getDirty());
+            bibRefs.clearDirty();
+        }
+    }
+
+    @Test
+    public void testLookups() {
+        LinkageCache cache = new LinkageCache(new StubDAO());
+        cache.load();
+
+        assert cache.getRecordId4BibProcessed("NRU", "100") == 1;
+        // the 001 is matched the way the BIGINT column matches it
+        assert cache.getRecordId4BibProcessed("NRU", "00100") == 1;
+        assert cache.getRecordId4BibProcessed("NRU", "ocm200") == 2;
+        assert cache.getRecordId4BibProcessed("NIC", "100") == null;
+
+        Marc001_003Holder holding = cache.getHoldingMarcId4RecordIdProcessed(3);
+        assert holding.get001().equals("300");
+        assert holding.get003().equals("NRU");
+
+        assert cache.getBibsForHolding("NRU", "300").size() == 1;
+        assert cache.getHoldingsForBib("NRU", "100").get(0).equals("300");
+    }
+
+    @Test
+    public void testChanges() {
+        StubDAO dao = new StubDAO();
+        LinkageCache cache = new LinkageCache(dao);
+        cache.load();
+
+        cache.addManifestationId4BibYet2Arrive("NRU", "400", 10);
+        cache.addManifestationId4BibYet2Arrive("NRU", "400", 11);
+        cache.addManifestationId4BibYet2Arrive("NRU", "400", 11);
+        assert cache.getManifestationId4BibYet2Arrive("NRU", "400").size() == 2;
+        cache.removeManifestationId4BibYet2Arrive("NRU", "400", 10);
+        assert cache.getManifestationId4BibYet2Arrive("NRU", "400").get(0) == 11;
+
+        cache.removeRecordId4BibProcessed(1);
+        assert cache.getRecordId4BibProcessed("NRU", "100") == null;
+        cache.addRecordId4BibProcessed("NRU", "400", 12);
+
+        cache.removeBibsForHolding("NRU", "300");
+        assert cache.getHoldingsForBib("NRU", "100").size() == 0;
+        cache.addBibForHolding("NRU", "300", "400");
+        assert cache.getBibsForHolding("NRU", "300").get(0).equals("400");
+
+        cache.persist();
+        assert dao.persistedBibs.size() == 2;
+        assert dao.persistedHoldings.size() == 1;
+
+        // nothing left to write
+        cache.persist();
+        assert dao.persistedBibs.size() == 2;
+        assert cache.getFootprint() > 0;
+    }
+
+}
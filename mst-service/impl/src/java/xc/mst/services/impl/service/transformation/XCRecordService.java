@@ -8,10 +8,15 @@
  */
 package xc.mst.services.impl.service.transformation;
 
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 
@@ -42,9 +47,26 @@ public class XCRecordService extends BaseService {
     private static final Logger LOG = Logger.getLogger(XCRecordService.class);
     protected XmlHelper xmlHelper = new XmlHelper();
 
+    protected static XMLInputFactory xmlInputFactory = null;
+    static {
+        xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
     public String getType(Record r) {
         r.setMode(Record.JDOM_MODE);
-        Element el = r.getOaiXmlEl();
+        // If the record hasn't been parsed yet, the type can be read off the xml
+        // without building the whole record.
+        String xml = r.peekOaiXml();
+        if (xml != null) {
+            try {
+                return getType(xml);
+            } catch (XMLStreamException e) {
+                LOG.debug("Couldn't read the type of record " + r.getId() + " from its xml, parsing it instead", e);
+            }
+        }
+        Element el = r.readOaiXmlEl();
         if (el != null) {
             Element entityEl = el.getChild("entity",
                     AggregateXCRecord.XC_NAMESPACE);
@@ -56,6 +78,56 @@ public class XCRecordService extends BaseService {
         return null;
     }
 
+    protected static final String[] TYPES = new String[] {
+            AggregateXCRecord.WORK, AggregateXCRecord.EXPRESSION,
+            AggregateXCRecord.MANIFESTATION, AggregateXCRecord.HOLDINGS };
+
+    /**
+     * @return the type of a record read by Repository.getHeaders (which stores only the first
+     *         character of the type), or null if it isn't one of the xc types
+     */
+    public String getHeaderType(Record header) {
+        String type = header.getType();
+        if (type == null || type.length() == 0) {
+            return null;
+        }
+        for (String t : TYPES) {
+            if (t.charAt(0) == type.charAt(0)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the type attribute of the xc:entity element directly under the root of xml,
+     *         reading only as far as that element
+     */
+    protected String getType(String xml) throws XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+        try {
+            int depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 2 && "entity".equals(reader.getLocalName())
+                            && AggregateXCRecord.XC_NAMESPACE.getURI().equals(reader.getNamespaceURI())) {
+                        return reader.getAttributeValue(null, "type");
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    if (depth == 0) {
+                        break;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
     /**
      * Gets a Document Object containing the XC record
      *